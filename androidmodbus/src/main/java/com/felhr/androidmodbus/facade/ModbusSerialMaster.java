@@ -91,6 +91,22 @@ public class ModbusSerialMaster extends AbstractModbusMaster {
         }
     }
 
+    /**
+     * Constructs a new master facade instance communicating through a
+     * connection that is not a USB serial device, such as a
+     * <tt>LoopbackSerialConnection</tt>.
+     *
+     * @param connection Serial connection, opened on connect
+     * @param timeout    Receive timeout in milliseconds
+     * @param transDelay The transmission delay to use between frames (milliseconds)
+     */
+    public ModbusSerialMaster(AbstractSerialConnection connection, int timeout, int transDelay) {
+        this.transDelay = transDelay > -1 ? transDelay : Modbus.DEFAULT_TRANSMIT_DELAY;
+        mConnection = connection;
+        mConnection.setTimeout(timeout);
+        this.timeout = timeout;
+    }
+
     public AbstractSerialConnection getConnection() {
         return mConnection;
     }
@@ -104,11 +120,17 @@ public class ModbusSerialMaster extends AbstractModbusMaster {
      *
      */
     public void connect() throws Exception {
-        if (mConnection != null && !mConnection.isOpen()) {
-            mConnection.open();
-            transaction = mConnection.getModbusTransport().createTransaction();
-            ((ModbusSerialTransaction) transaction).setTransDelayMS(transDelay);
-            setTransaction(transaction);
+        acquireTransaction();
+        try {
+            if (mConnection != null && !mConnection.isOpen()) {
+                mConnection.open();
+                transaction = mConnection.getModbusTransport().createTransaction();
+                ((ModbusSerialTransaction) transaction).setTransDelayMS(transDelay);
+                setTransaction(transaction);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -116,10 +138,16 @@ public class ModbusSerialMaster extends AbstractModbusMaster {
      * Disconnects this <tt>ModbusSerialMaster</tt> from the slave.
      */
     public void disconnect() {
-        if (mConnection != null && mConnection.isOpen()) {
-            mConnection.close();
-            transaction = null;
-            setTransaction(null);
+        acquireTransaction();
+        try {
+            if (mConnection != null && mConnection.isOpen()) {
+                mConnection.close();
+                transaction = null;
+                setTransaction(null);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -131,6 +159,11 @@ public class ModbusSerialMaster extends AbstractModbusMaster {
         }
     }
 
+    @Override
+    protected String getEndpoint() {
+        return mUsbDevice == null ? super.getEndpoint() : "serial://" + mUsbDevice.getDeviceName();
+    }
+
     @Override
     public AbstractModbusTransport getTransport() {
         return mConnection == null ? null : mConnection.getModbusTransport();
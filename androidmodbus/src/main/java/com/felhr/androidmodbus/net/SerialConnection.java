@@ -176,7 +176,7 @@ public class SerialConnection extends AbstractSerialConnection {
         for(int i=0;i<=bytesToRead-1;i++) {
             int value = inputStream.read();
             if(value != -1) {
-                buffer[i] = (byte) inputStream.read();
+                buffer[i] = (byte) value;
             }else{
                 return i;
             }
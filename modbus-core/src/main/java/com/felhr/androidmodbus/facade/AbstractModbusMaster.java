@@ -0,0 +1,1030 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.io.AbstractModbusTransport;
+import com.felhr.androidmodbus.io.ModbusTransaction;
+import com.felhr.androidmodbus.metrics.TransactionMetrics;
+import com.felhr.androidmodbus.msg.*;
+import com.felhr.androidmodbus.procimg.InputRegister;
+import com.felhr.androidmodbus.procimg.Register;
+import com.felhr.androidmodbus.procimg.SimpleInputRegister;
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.BitVector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Modbus/TCP Master facade - common methods for all the facade implementations
+ * The emphasis is in making callas to Modbus devices as simple as possible
+ * for the most common Function Codes.
+ * This class makes sure that no NPE is raised and that the methods are thread-safe.
+ * Requests from several threads are sent one at a time, highest priority first.
+ * Connecting, disconnecting and changing the settings of the transaction wait
+ * for the request in progress.
+ *
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+abstract public class AbstractModbusMaster {
+
+    /**
+     * Priority of operator commands, writes always use it
+     */
+    public static final int PRIORITY_COMMAND = 0;
+
+    /**
+     * Priority of reads unless set otherwise
+     */
+    public static final int PRIORITY_NORMAL = 1;
+
+    /**
+     * Priority for routine polling
+     */
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final int DEFAULT_UNIT_ID = 1;
+    private static final long DEFAULT_AGING_INTERVAL = 1000;
+
+    protected volatile ModbusTransaction transaction;
+    private ReadCoilsRequest readCoilsRequest;
+    private ReadInputDiscretesRequest readInputDiscretesRequest;
+    private WriteCoilRequest writeCoilRequest;
+    private WriteMultipleCoilsRequest writeMultipleCoilsRequest;
+    private ReadInputRegistersRequest readInputRegistersRequest;
+    private ReadMultipleRegistersRequest readMultipleRegistersRequest;
+    private WriteSingleRegisterRequest writeSingleRegisterRequest;
+    private WriteMultipleRegistersRequest writeMultipleRegistersRequest;
+    private MaskWriteRegisterRequest maskWriteRegisterRequest;
+    protected int timeout = Modbus.DEFAULT_TIMEOUT;
+    private volatile TransactionMetrics metrics;
+    private volatile RegisterCache cache;
+    private final Map<Long, Flight> flights = new HashMap<Long, Flight>();
+    private final RequestScheduler scheduler = new RequestScheduler(DEFAULT_AGING_INTERVAL);
+    private final ThreadLocal<Integer> requestPriority = new ThreadLocal<Integer>();
+
+    /**
+     * Sets the transaction to use, called by <tt>connect</tt> and
+     * <tt>disconnect</tt> between {@link #acquireTransaction()} and
+     * {@link #releaseTransaction()}
+     *
+     * @param transaction Transaction to use
+     */
+    protected void setTransaction(ModbusTransaction transaction) {
+        this.transaction = transaction;
+        if (transaction != null) {
+            transaction.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Waits until no request uses the transaction and keeps requests out
+     * until {@link #releaseTransaction()}, for changes to the connection or
+     * the transaction. Not reentrant, an interrupt is kept but does not end
+     * the wait.
+     */
+    protected void acquireTransaction() {
+        scheduler.acquireUninterruptibly(PRIORITY_COMMAND);
+    }
+
+    /**
+     * Lets requests use the transaction again
+     */
+    protected void releaseTransaction() {
+        scheduler.release();
+    }
+
+    /**
+     * Connects this <tt>ModbusTCPMaster</tt> with the slave.
+     *
+     * @throws Exception if the connection cannot be established.
+     */
+    abstract public void connect() throws Exception;
+
+    /**
+     * Disconnects this <tt>ModbusTCPMaster</tt> from the slave.
+     */
+    abstract public void disconnect();
+
+    /**
+     * Reads a given number of coil states from the slave.
+     *
+     * Note that the number of bits in the bit vector will be
+     * forced to the number originally requested.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to start reading from.
+     * @param count  the number of coil states to be read.
+     *
+     * @return a <tt>BitVector</tt> instance holding the
+     * received coil states.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public BitVector readCoils(int unitId, int ref, int count) throws ModbusException {
+        return toBitVector(read(unitId, RegisterCache.COILS, ref, count));
+    }
+
+    /**
+     * Writes a coil state to the slave.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to be written.
+     * @param state  the coil state to be written.
+     *
+     * @return the state of the coil as returned from the slave.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public boolean writeCoil(int unitId, int ref, boolean state) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.COILS, ref, 1);
+            }
+            ModbusTransaction transaction = checkTransaction();
+            if (writeCoilRequest == null) {
+                writeCoilRequest = new WriteCoilRequest();
+            }
+            writeCoilRequest.setUnitID(unitId);
+            writeCoilRequest.setReference(ref);
+            writeCoilRequest.setCoil(state);
+            transaction.setRequest(writeCoilRequest);
+            transaction.execute();
+            boolean coil = ((WriteCoilResponse) getAndCheckResponse(transaction)).getCoil();
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, RegisterCache.COILS, ref, new int[]{coil ? 1 : 0});
+            }
+            return coil;
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Writes a given number of coil states to the slave.
+     *
+     * Note that the number of coils to be written is given
+     * implicitly, through {@link BitVector#size()}.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to start writing to.
+     * @param coils  a <tt>BitVector</tt> which holds the coil states to be written.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public void writeMultipleCoils(int unitId, int ref, BitVector coils) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.COILS, ref, coils.size());
+            }
+            ModbusTransaction transaction = checkTransaction();
+            if (writeMultipleCoilsRequest == null) {
+                writeMultipleCoilsRequest = new WriteMultipleCoilsRequest();
+            }
+            writeMultipleCoilsRequest.setUnitID(unitId);
+            writeMultipleCoilsRequest.setReference(ref);
+            writeMultipleCoilsRequest.setCoils(coils);
+            transaction.setRequest(writeMultipleCoilsRequest);
+            transaction.execute();
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, RegisterCache.COILS, ref, toValues(coils));
+            }
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Reads a given number of input discrete states from the slave.
+     *
+     * Note that the number of bits in the bit vector will be
+     * forced to the number originally requested.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the input discrete to start reading from.
+     * @param count  the number of input discrete states to be read.
+     *
+     * @return a <tt>BitVector</tt> instance holding the received input discrete
+     * states.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public BitVector readInputDiscretes(int unitId, int ref, int count) throws ModbusException {
+        return toBitVector(read(unitId, RegisterCache.DISCRETE_INPUTS, ref, count));
+    }
+
+    /**
+     * Reads a given number of input registers from the slave.
+     *
+     * Note that the number of input registers returned (i.e. array length)
+     * will be according to the number received in the slave response.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the input register to start reading from.
+     * @param count  the number of input registers to be read.
+     *
+     * @return a <tt>InputRegister[]</tt> with the received input registers.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public InputRegister[] readInputRegisters(int unitId, int ref, int count) throws ModbusException {
+        int[] values = read(unitId, RegisterCache.INPUT_REGISTERS, ref, count);
+        InputRegister[] registers = new InputRegister[values.length];
+        for (int i = 0; i < values.length; i++) {
+            registers[i] = new SimpleInputRegister(values[i]);
+        }
+        return registers;
+    }
+
+    /**
+     * Reads a given number of registers from the slave.
+     *
+     * Note that the number of registers returned (i.e. array length)
+     * will be according to the number received in the slave response.
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the register to start reading from.
+     * @param count  the number of registers to be read.
+     *
+     * @return a <tt>Register[]</tt> holding the received registers.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public Register[] readMultipleRegisters(int unitId, int ref, int count) throws ModbusException {
+        int[] values = read(unitId, RegisterCache.HOLDING_REGISTERS, ref, count);
+        Register[] registers = new Register[values.length];
+        for (int i = 0; i < values.length; i++) {
+            registers[i] = new SimpleRegister(values[i]);
+        }
+        return registers;
+    }
+
+    /**
+     * Writes a single register to the slave.
+     *
+     * @param unitId   the slave unit id.
+     * @param ref      the offset of the register to be written.
+     * @param register a <tt>Register</tt> holding the value of the register
+     *                 to be written.
+     *
+     * @return the value of the register as returned from the slave.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public int writeSingleRegister(int unitId, int ref, Register register) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, ref, 1);
+            }
+            ModbusTransaction transaction = checkTransaction();
+            if (writeSingleRegisterRequest == null) {
+                writeSingleRegisterRequest = new WriteSingleRegisterRequest();
+            }
+            writeSingleRegisterRequest.setUnitID(unitId);
+            writeSingleRegisterRequest.setReference(ref);
+            writeSingleRegisterRequest.setRegister(register);
+            transaction.setRequest(writeSingleRegisterRequest);
+            transaction.execute();
+            int value = ((WriteSingleRegisterResponse) getAndCheckResponse(transaction)).getRegisterValue();
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, ref, new int[]{value});
+            }
+            return value;
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Writes a number of registers to the slave.
+     *
+     * @param unitId    the slave unit id.
+     * @param ref       the offset of the register to start writing to.
+     * @param registers a <tt>Register[]</tt> holding the values of
+     *                  the registers to be written.
+     *
+     * @return the number of registers that have been written.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public int writeMultipleRegisters(int unitId, int ref, Register[] registers) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, ref, registers.length);
+            }
+            ModbusTransaction transaction = checkTransaction();
+            if (writeMultipleRegistersRequest == null) {
+                writeMultipleRegistersRequest = new WriteMultipleRegistersRequest();
+            }
+            writeMultipleRegistersRequest.setUnitID(unitId);
+            writeMultipleRegistersRequest.setReference(ref);
+            writeMultipleRegistersRequest.setRegisters(registers);
+            transaction.setRequest(writeMultipleRegistersRequest);
+            transaction.execute();
+            int count = ((WriteMultipleRegistersResponse) transaction.getResponse()).getWordCount();
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, ref, toValues(registers));
+            }
+            return count;
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Mask write a single register to the slave.
+     *
+     * @param unitId    the slave unit id.
+     * @param ref       the offset of the register to start writing to.
+     * @param andMask   AND mask.
+     * @param orMask    OR mask.
+     *
+     * @return true if success, i.e. response data equals to request data, false otherwise.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public boolean maskWriteRegister(int unitId, int ref, int andMask, int orMask) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, ref, 1);
+            }
+            ModbusTransaction transaction = checkTransaction();
+            if (maskWriteRegisterRequest == null) {
+                maskWriteRegisterRequest = new MaskWriteRegisterRequest();
+            }
+            maskWriteRegisterRequest.setUnitID(unitId);
+            maskWriteRegisterRequest.setReference(ref);
+            maskWriteRegisterRequest.setAndMask(andMask);
+            maskWriteRegisterRequest.setOrMask(orMask);
+            transaction.setRequest(maskWriteRegisterRequest);
+            transaction.execute();
+
+            MaskWriteRegisterResponse response = (MaskWriteRegisterResponse) getAndCheckResponse(transaction);
+            return response.getReference() == maskWriteRegisterRequest.getReference() &&
+                   response.getAndMask() == maskWriteRegisterRequest.getAndMask() &&
+                   response.getOrMask() == maskWriteRegisterRequest.getOrMask();
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Writes a number of registers and then reads a number of registers in
+     * a single transaction.
+     *
+     * @param unitId    the slave unit id.
+     * @param readRef   the offset of the register to start reading from.
+     * @param readCount the number of registers to be read.
+     * @param writeRef  the offset of the register to start writing to.
+     * @param registers a <tt>Register[]</tt> holding the values of
+     *                  the registers to be written.
+     *
+     * @return a <tt>InputRegister[]</tt> with the registers read.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public InputRegister[] readWriteMultipleRegisters(int unitId, int readRef, int readCount, int writeRef, Register[] registers) throws ModbusException {
+        scheduler.acquire(PRIORITY_COMMAND);
+        try {
+            RegisterCache cache = this.cache;
+            if (cache != null) {
+                cache.invalidate(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, writeRef, registers.length);
+            }
+            ModbusTransaction transaction = checkTransaction();
+            ReadWriteMultipleRequest request = new ReadWriteMultipleRequest(unitId, readRef, readCount, writeRef, registers.length);
+            request.setRegisters(registers);
+            transaction.setRequest(request);
+            transaction.execute();
+            InputRegister[] read = ((ReadWriteMultipleResponse) getAndCheckResponse(transaction)).getRegisters();
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, writeRef, toValues(registers));
+                cache.put(getEndpoint(), unitId, RegisterCache.HOLDING_REGISTERS, readRef, toValues(read));
+            }
+            return read;
+        }
+        finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Reads a given number of coil states from the slave.
+     *
+     * Note that the number of bits in the bit vector will be
+     * forced to the number originally requested.
+     *
+     * @param ref   the offset of the coil to start reading from.
+     * @param count the number of coil states to be read.
+     *
+     * @return a <tt>BitVector</tt> instance holding the
+     * received coil states.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public BitVector readCoils(int ref, int count) throws ModbusException {
+        return readCoils(DEFAULT_UNIT_ID, ref, count);
+    }
+
+    /**
+     * Writes a coil state to the slave.
+     *
+     * @param ref   the offset of the coil to be written.
+     * @param state the coil state to be written.
+     *
+     * @return the state of the coil as returned from the slave.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public boolean writeCoil(int ref, boolean state) throws ModbusException {
+        return writeCoil(DEFAULT_UNIT_ID, ref, state);
+    }
+
+    /**
+     * Writes a given number of coil states to the slave.
+     *
+     * Note that the number of coils to be written is given
+     * implicitly, through {@link BitVector#size()}.
+     *
+     * @param ref   the offset of the coil to start writing to.
+     * @param coils a <tt>BitVector</tt> which holds the coil states to be written.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public void writeMultipleCoils(int ref, BitVector coils) throws ModbusException {
+        writeMultipleCoils(DEFAULT_UNIT_ID, ref, coils);
+    }
+
+    /**
+     * Reads a given number of input discrete states from the slave.
+     *
+     * Note that the number of bits in the bit vector will be
+     * forced to the number originally requested.
+     *
+     * @param ref   the offset of the input discrete to start reading from.
+     * @param count the number of input discrete states to be read.
+     *
+     * @return a <tt>BitVector</tt> instance holding the received input discrete
+     * states.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public BitVector readInputDiscretes(int ref, int count) throws ModbusException {
+        return readInputDiscretes(DEFAULT_UNIT_ID, ref, count);
+    }
+
+    /**
+     * Reads a given number of input registers from the slave.
+     *
+     * Note that the number of input registers returned (i.e. array length)
+     * will be according to the number received in the slave response.
+     *
+     * @param ref   the offset of the input register to start reading from.
+     * @param count the number of input registers to be read.
+     *
+     * @return a <tt>InputRegister[]</tt> with the received input registers.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public InputRegister[] readInputRegisters(int ref, int count) throws ModbusException {
+        return readInputRegisters(DEFAULT_UNIT_ID, ref, count);
+    }
+
+    /**
+     * Reads a given number of registers from the slave.
+     *
+     * Note that the number of registers returned (i.e. array length)
+     * will be according to the number received in the slave response.
+     *
+     * @param ref   the offset of the register to start reading from.
+     * @param count the number of registers to be read.
+     *
+     * @return a <tt>Register[]</tt> holding the received registers.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public Register[] readMultipleRegisters(int ref, int count) throws ModbusException {
+        return readMultipleRegisters(DEFAULT_UNIT_ID, ref, count);
+    }
+
+    /**
+     * Writes a single register to the slave.
+     *
+     * @param ref      the offset of the register to be written.
+     * @param register a <tt>Register</tt> holding the value of the register
+     *                 to be written.
+     *
+     * @return the value of the register as returned from the slave.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public int writeSingleRegister(int ref, Register register) throws ModbusException {
+        return writeSingleRegister(DEFAULT_UNIT_ID, ref, register);
+    }
+
+    /**
+     * Writes a number of registers to the slave.
+     *
+     * @param ref       the offset of the register to start writing to.
+     * @param registers a <tt>Register[]</tt> holding the values of
+     *                  the registers to be written.
+     *
+     * @return the number of registers that have been written.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public int writeMultipleRegisters(int ref, Register[] registers) throws ModbusException {
+        return writeMultipleRegisters(DEFAULT_UNIT_ID, ref, registers);
+    }
+
+    /**
+     * Mask write a single register to the slave.
+     *
+     * @param ref       the offset of the register to start writing to.
+     * @param andMask   AND mask.
+     * @param orMask    OR mask.
+     *
+     * @return true if success, i.e. response data equals to request data, false otherwise.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    public boolean maskWriteRegister(int ref, int andMask, int orMask) throws ModbusException {
+        return maskWriteRegister(DEFAULT_UNIT_ID, ref, andMask, orMask);
+    }
+
+    /**
+     * Reads the response from the transaction
+     * If there is no response, then it throws an error
+     *
+     * @param transaction Transaction the request was sent with
+     * @return Modbus response
+     *
+     * @throws ModbusException If response is null
+     */
+    private ModbusResponse getAndCheckResponse(ModbusTransaction transaction) throws ModbusException {
+        ModbusResponse res = transaction.getResponse();
+        if (res == null) {
+            throw new ModbusException("No response");
+        }
+        return res;
+    }
+
+    /**
+     * Checks to make sure there is a transaction to use. A request reads the
+     * transaction once, through this method.
+     *
+     * @return Transaction
+     * @throws ModbusException If transaction is null
+     */
+    private ModbusTransaction checkTransaction() throws ModbusException {
+        ModbusTransaction transaction = this.transaction;
+        if (transaction == null) {
+            throw new ModbusException("No transaction created, probably not connected");
+        }
+        return transaction;
+    }
+
+    /**
+     * Returns the receive timeout in milliseconds
+     *
+     * @return Timeout in milliseconds
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the receive timeout
+     *
+     * @param timeout Timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Set the amount of retries for opening
+     * the connection for executing the transaction.
+     *
+     * @param retries the amount of retries as <tt>int</tt>.
+     */
+    public void setRetries(int retries) {
+        acquireTransaction();
+        try {
+            if (transaction != null) {
+                transaction.setRetries(retries);
+            }
+        }
+        finally {
+            releaseTransaction();
+        }
+    }
+
+    /**
+     * Sets the flag that controls whether the
+     * validity of a transaction will be checked.
+     *
+     * @param b true if checking validity, false otherwise.
+     */
+    public void setCheckingValidity(boolean b) {
+        acquireTransaction();
+        try {
+            if (transaction != null) {
+                transaction.setCheckingValidity(b);
+            }
+        }
+        finally {
+            releaseTransaction();
+        }
+    }
+
+    /**
+     * Returns the metrics the transactions of this master record into
+     *
+     * @return Metrics or null if not recording
+     */
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics the transactions of this master record into.
+     * The metrics survive reconnects, set to null to stop recording.
+     *
+     * @param metrics Metrics to record into or null
+     */
+    public void setMetrics(TransactionMetrics metrics) {
+        acquireTransaction();
+        try {
+            this.metrics = metrics;
+            if (transaction != null) {
+                transaction.setMetrics(metrics);
+            }
+        }
+        finally {
+            releaseTransaction();
+        }
+    }
+
+    /**
+     * Reads a range from the cache, from a concurrent identical read already
+     * on the wire or from the slave, in that order
+     *
+     * @param unitId Unit id
+     * @param table  Table as defined by {@link RegisterCache}
+     * @param ref    First address
+     * @param count  Number of values
+     * @return Values, 0 or 1 for coils and discrete inputs. The array may be
+     * shared with other callers and must not be modified.
+     * @throws ModbusException If the read fails
+     */
+    int[] read(int unitId, int table, int ref, int count) throws ModbusException {
+        RegisterCache cache = this.cache;
+        if (cache != null) {
+            int[] cached = cache.get(getEndpoint(), unitId, table, ref, count);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Long key = ((long)unitId << 40) | ((long)table << 32) | ((long)ref << 16) | count;
+        Flight flight;
+        boolean leader = false;
+        synchronized (flights) {
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                flights.put(key, flight);
+                leader = true;
+            }
+        }
+        if (!leader) {
+            return flight.await();
+        }
+
+        try {
+            int[] values = readFromSlave(unitId, table, ref, count, cache, key, flight);
+            flight.complete(values, null);
+            return values;
+        }
+        catch (ModbusException ex) {
+            flight.complete(null, ex);
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            flight.complete(null, new ModbusException(ex.getMessage()));
+            throw ex;
+        }
+        finally {
+            land(key, flight);
+        }
+    }
+
+    /**
+     * Stops new reads from joining a flight, it is left in place if another
+     * flight has already taken its key
+     *
+     * @param key    Key of the flight
+     * @param flight Flight to remove
+     */
+    private void land(Long key, Flight flight) {
+        synchronized (flights) {
+            if (flights.get(key) == flight) {
+                flights.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Reads a range from the slave and caches it. The values are cached and
+     * the flight is landed before the master is released, so neither the cache
+     * nor a read joining the flight can see values from before a write that
+     * follows.
+     *
+     * @param unitId Unit id
+     * @param table  Table as defined by {@link RegisterCache}
+     * @param ref    First address
+     * @param count  Number of values
+     * @param cache  Cache to store the values in, null if caching is off
+     * @param key    Key of the flight
+     * @param flight Flight other reads of the range wait for
+     * @return Values, 0 or 1 for coils and discrete inputs
+     * @throws ModbusException If the read fails
+     */
+    private int[] readFromSlave(int unitId, int table, int ref, int count, RegisterCache cache,
+                                Long key, Flight flight) throws ModbusException {
+        scheduler.acquire(getRequestPriority());
+        try {
+            int[] values = readValues(unitId, table, ref, count);
+            if (cache != null) {
+                cache.put(getEndpoint(), unitId, table, ref, values);
+            }
+            return values;
+        }
+        finally {
+            land(key, flight);
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Sends a read of a range, called with the master acquired
+     *
+     * @param unitId Unit id
+     * @param table  Table as defined by {@link RegisterCache}
+     * @param ref    First address
+     * @param count  Number of values
+     * @return Values, 0 or 1 for coils and discrete inputs
+     * @throws ModbusException If the read fails
+     */
+    private int[] readValues(int unitId, int table, int ref, int count) throws ModbusException {
+        ModbusTransaction transaction = checkTransaction();
+        switch (table) {
+            case RegisterCache.COILS: {
+                if (readCoilsRequest == null) {
+                    readCoilsRequest = new ReadCoilsRequest();
+                }
+                readCoilsRequest.setUnitID(unitId);
+                readCoilsRequest.setReference(ref);
+                readCoilsRequest.setBitCount(count);
+                transaction.setRequest(readCoilsRequest);
+                transaction.execute();
+                BitVector bv = ((ReadCoilsResponse) getAndCheckResponse(transaction)).getCoils();
+                bv.forceSize(count);
+                return toValues(bv);
+            }
+            case RegisterCache.DISCRETE_INPUTS: {
+                if (readInputDiscretesRequest == null) {
+                    readInputDiscretesRequest = new ReadInputDiscretesRequest();
+                }
+                readInputDiscretesRequest.setUnitID(unitId);
+                readInputDiscretesRequest.setReference(ref);
+                readInputDiscretesRequest.setBitCount(count);
+                transaction.setRequest(readInputDiscretesRequest);
+                transaction.execute();
+                BitVector bv = ((ReadInputDiscretesResponse) getAndCheckResponse(transaction)).getDiscretes();
+                bv.forceSize(count);
+                return toValues(bv);
+            }
+            case RegisterCache.INPUT_REGISTERS: {
+                if (readInputRegistersRequest == null) {
+                    readInputRegistersRequest = new ReadInputRegistersRequest();
+                }
+                readInputRegistersRequest.setUnitID(unitId);
+                readInputRegistersRequest.setReference(ref);
+                readInputRegistersRequest.setWordCount(count);
+                transaction.setRequest(readInputRegistersRequest);
+                transaction.execute();
+                ReadInputRegistersResponse response = (ReadInputRegistersResponse) getAndCheckResponse(transaction);
+                int[] values = new int[response.getWordCount()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = response.getRegisterValue(i);
+                }
+                return values;
+            }
+            default: {
+                if (readMultipleRegistersRequest == null) {
+                    readMultipleRegistersRequest = new ReadMultipleRegistersRequest();
+                }
+                readMultipleRegistersRequest.setUnitID(unitId);
+                readMultipleRegistersRequest.setReference(ref);
+                readMultipleRegistersRequest.setWordCount(count);
+                transaction.setRequest(readMultipleRegistersRequest);
+                transaction.execute();
+                ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse) getAndCheckResponse(transaction);
+                int[] values = new int[response.getWordCount()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = response.getRegisterValue(i);
+                }
+                return values;
+            }
+        }
+    }
+
+    /**
+     * Returns the priority reads from the calling thread are sent with
+     *
+     * @return One of {@link #PRIORITY_COMMAND}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_BACKGROUND}
+     */
+    public int getRequestPriority() {
+        Integer priority = requestPriority.get();
+        return priority == null ? PRIORITY_NORMAL : priority;
+    }
+
+    /**
+     * Sets the priority reads from the calling thread are sent with.
+     * Requests waiting for the master are sent highest priority first,
+     * writes are always sent with {@link #PRIORITY_COMMAND}.
+     *
+     * @param priority One of {@link #PRIORITY_COMMAND}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_BACKGROUND}
+     */
+    public void setRequestPriority(int priority) {
+        if (priority < PRIORITY_COMMAND || priority > PRIORITY_BACKGROUND) {
+            throw new IllegalArgumentException("Unknown priority " + priority);
+        }
+        requestPriority.set(priority);
+    }
+
+    /**
+     * Returns how long a request waits before it is treated as one of the
+     * next higher priority
+     *
+     * @return Milliseconds
+     */
+    public long getAgingInterval() {
+        return scheduler.getAgingInterval();
+    }
+
+    /**
+     * Sets how long a request waits before it is treated as one of the next
+     * higher priority, this bounds how long a low priority request can be
+     * held up by higher priority ones
+     *
+     * @param agingInterval Milliseconds
+     */
+    public void setAgingInterval(long agingInterval) {
+        scheduler.setAgingInterval(agingInterval);
+    }
+
+    /**
+     * Returns the cache reads are answered from
+     *
+     * @return Cache or null if reads always go on the wire
+     */
+    public RegisterCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets a cache to answer reads from and to update with writes.
+     * Set to null to read from the slave every time.
+     *
+     * @param cache Cache or null
+     */
+    public void setCache(RegisterCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns a name of the slave this master talks to, used to keep the
+     * values of different slaves apart in a shared cache
+     *
+     * @return Endpoint name
+     */
+    protected String getEndpoint() {
+        return getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    private static BitVector toBitVector(int[] values) {
+        BitVector bv = new BitVector(values.length);
+        for (int i = 0; i < values.length; i++) {
+            bv.setBit(i, values[i] != 0);
+        }
+        return bv;
+    }
+
+    private static int[] toValues(BitVector bv) {
+        int[] values = new int[bv.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = bv.getBit(i) ? 1 : 0;
+        }
+        return values;
+    }
+
+    private static int[] toValues(InputRegister[] registers) {
+        int[] values = new int[registers.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = registers[i].getValue();
+        }
+        return values;
+    }
+
+    /**
+     * Returns the transport being used by the
+     *
+     * @return ModbusTransport
+     */
+    public abstract AbstractModbusTransport getTransport();
+
+
+    /**
+     * A read on the wire that identical concurrent reads wait for
+     */
+    private static class Flight {
+        private boolean done;
+        private int[] values;
+        private ModbusException error;
+
+        synchronized void complete(int[] values, ModbusException error) {
+            this.values = values;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        synchronized int[] await() throws ModbusException {
+            while (!done) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ModbusException("Interrupted while waiting for a read in progress");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.util.PointMap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named points of a device, compiled into a read plan.
+ *
+ * A profile is loaded from CSV, one point per line:
+ * <pre>
+ * # name, table, address, type, order, scale
+ * voltage, input, 0, uint16, abcd, 0.1
+ * energy, holding, 100, float32, cdab
+ * serial, holding, 200, string:8
+ * </pre>
+ * The table is <tt>holding</tt> or <tt>input</tt>. Types are <tt>int16</tt>,
+ * <tt>uint16</tt>, <tt>int32</tt>, <tt>uint32</tt>, <tt>float32</tt>,
+ * <tt>int64</tt>, <tt>float64</tt> and <tt>string:&lt;registers&gt;</tt>.
+ * Order (<tt>abcd</tt>, <tt>cdab</tt>, <tt>badc</tt> or <tt>dcba</tt>) and
+ * scale are optional.
+ * <p>
+ * When loaded, points close to each other are merged into as few reads as
+ * possible and each read gets a {@link PointMap} decoding its answer in one
+ * pass. Names are looked up once with {@link #indexOf(String)}, polls then
+ * address points by index without hashing or boxing.
+ * <pre>
+ * DeviceProfile profile = DeviceProfile.load(new File("meter.csv"));
+ * int voltage = profile.indexOf("voltage");
+ * DeviceProfile.Values values = profile.createValues();
+ * profile.read(master, 1, values);
+ * double v = values.get(voltage);
+ * </pre>
+ */
+public class DeviceProfile {
+
+    /**
+     * Default largest number of unused registers read to merge two reads
+     */
+    public static final int DEFAULT_MAX_GAP = 8;
+
+    private static final int MAX_READ = 125;
+
+    private final String[] names;
+    private final Map<String, Integer> indices = new HashMap<String, Integer>();
+    private final Block[] blocks;
+    private final int[] pointBlocks;
+    private final int[] pointSlots;
+
+    /**
+     * Values of all points of a profile from one poll
+     */
+    public static class Values {
+        private final DeviceProfile profile;
+        private final double[][] values;
+        private final byte[][] data;
+
+        private Values(DeviceProfile profile) {
+            this.profile = profile;
+            values = new double[profile.blocks.length][];
+            data = new byte[profile.blocks.length][];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new double[profile.blocks[i].points.getPointCount()];
+                data[i] = new byte[profile.blocks[i].count * 2];
+            }
+        }
+
+        /**
+         * Returns the scaled value of a point
+         *
+         * @param index Index of the point
+         * @return Value, NaN for strings
+         */
+        public double get(int index) {
+            return values[profile.pointBlocks[index]][profile.pointSlots[index]];
+        }
+
+        /**
+         * Returns the value of a string point
+         *
+         * @param index Index of the point
+         * @return String
+         */
+        public String getString(int index) {
+            int block = profile.pointBlocks[index];
+            return profile.blocks[block].points.decodeString(data[block], 0, profile.pointSlots[index]);
+        }
+    }
+
+    /**
+     * One read and the points it carries
+     */
+    private static class Block {
+        final int table;
+        final int ref;
+        final int count;
+        final PointMap points;
+
+        Block(int table, int ref, int count, PointMap points) {
+            this.table = table;
+            this.ref = ref;
+            this.count = count;
+            this.points = points;
+        }
+    }
+
+    /**
+     * A point as declared in the profile
+     */
+    private static class Point {
+        final int index;
+        final int table;
+        final int address;
+        final int type;
+        final int order;
+        final int size;
+        final double scale;
+
+        Point(int index, int table, int address, int type, int order, int size, double scale) {
+            this.index = index;
+            this.table = table;
+            this.address = address;
+            this.type = type;
+            this.order = order;
+            this.size = size;
+            this.scale = scale;
+        }
+    }
+
+    private DeviceProfile(List<String> names, List<Point> points, int maxGap) {
+        this.names = names.toArray(new String[names.size()]);
+        for (int i = 0; i < this.names.length; i++) {
+            indices.put(this.names[i], i);
+        }
+        pointBlocks = new int[points.size()];
+        pointSlots = new int[points.size()];
+
+        List<Point> sorted = new ArrayList<Point>(points);
+        Collections.sort(sorted, new Comparator<Point>() {
+            @Override
+            public int compare(Point a, Point b) {
+                if (a.table != b.table) {
+                    return a.table < b.table ? -1 : 1;
+                }
+                return a.address < b.address ? -1 : (a.address == b.address ? 0 : 1);
+            }
+        });
+
+        List<Block> plan = new ArrayList<Block>();
+        int start = 0;
+        while (start < sorted.size()) {
+            Point first = sorted.get(start);
+            int end = first.address + first.size;
+            int next = start + 1;
+            while (next < sorted.size()) {
+                Point point = sorted.get(next);
+                int pointEnd = Math.max(end, point.address + point.size);
+                if (point.table != first.table || point.address - end > maxGap || pointEnd - first.address > MAX_READ) {
+                    break;
+                }
+                end = pointEnd;
+                next++;
+            }
+            PointMap map = new PointMap();
+            for (int i = start; i < next; i++) {
+                Point point = sorted.get(i);
+                int slot;
+                if (point.type == PointMap.STRING) {
+                    slot = map.addString(point.address - first.address, point.size, point.order);
+                }
+                else {
+                    slot = map.add(point.address - first.address, point.type, point.order, point.scale);
+                }
+                pointBlocks[point.index] = plan.size();
+                pointSlots[point.index] = slot;
+            }
+            plan.add(new Block(first.table, first.address, end - first.address, map));
+            start = next;
+        }
+        blocks = plan.toArray(new Block[plan.size()]);
+    }
+
+    /**
+     * Loads a profile from a CSV file
+     *
+     * @param file File to read
+     * @return Profile
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    public static DeviceProfile load(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return parse(reader, DEFAULT_MAX_GAP);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parses a profile in CSV
+     *
+     * @param reader Reader of the CSV text, not closed
+     * @param maxGap Largest number of unused registers read to save a request
+     * @return Profile
+     * @throws IOException If the text cannot be read or is malformed
+     */
+    public static DeviceProfile parse(Reader reader, int maxGap) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<String> names = new ArrayList<String>();
+        List<Point> points = new ArrayList<Point>();
+        Map<String, Integer> seen = new HashMap<String, Integer>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s*,\\s*");
+            if (fields.length < 4 || fields.length > 6) {
+                throw new IOException("Line " + lineNumber + ": expected name, table, address, type[, order[, scale]]");
+            }
+            if (names.isEmpty() && fields[0].equalsIgnoreCase("name")) {
+                continue;
+            }
+            try {
+                String name = fields[0];
+                if (seen.containsKey(name)) {
+                    throw new IllegalArgumentException("duplicate point " + name);
+                }
+                int table = parseTable(fields[1]);
+                int address = Integer.parseInt(fields[2]);
+                if (address < 0 || address > 0xFFFF) {
+                    throw new IllegalArgumentException("address out of range " + address);
+                }
+                String type = fields[3].toLowerCase(Locale.US);
+                int size = 0;
+                if (type.startsWith("string:")) {
+                    size = Integer.parseInt(type.substring(7));
+                    if (size <= 0 || size > MAX_READ) {
+                        throw new IllegalArgumentException("string length out of range " + size);
+                    }
+                    type = "string";
+                }
+                int typeCode = parseType(type);
+                if (typeCode != PointMap.STRING) {
+                    size = typeCode == PointMap.INT16 || typeCode == PointMap.UINT16 ? 1 : (typeCode == PointMap.INT64 || typeCode == PointMap.FLOAT64 ? 4 : 2);
+                }
+                if (address + size > 65536) {
+                    throw new IllegalArgumentException("point ends beyond address 65535");
+                }
+                int order = fields.length > 4 ? parseOrder(fields[4]) : PointMap.BIG_ENDIAN;
+                double scale = fields.length > 5 ? Double.parseDouble(fields[5]) : 1;
+                if (scale == 0) {
+                    throw new IllegalArgumentException("scale must not be 0");
+                }
+                seen.put(name, names.size());
+                points.add(new Point(names.size(), table, address, typeCode, order, size, scale));
+                names.add(name);
+            }
+            catch (IllegalArgumentException ex) {
+                throw new IOException("Line " + lineNumber + ": " + ex.getMessage());
+            }
+        }
+        return new DeviceProfile(names, points, maxGap);
+    }
+
+    /**
+     * Returns the index of a point
+     *
+     * @param name Name of the point
+     * @return Index or -1 if the profile has no such point
+     */
+    public int indexOf(String name) {
+        Integer index = indices.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the name of a point
+     *
+     * @param index Index of the point
+     * @return Name
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the number of points
+     *
+     * @return Number of points
+     */
+    public int getPointCount() {
+        return names.length;
+    }
+
+    /**
+     * Returns the number of requests a poll of all points takes
+     *
+     * @return Number of requests
+     */
+    public int getReadCount() {
+        return blocks.length;
+    }
+
+    /**
+     * Creates a holder for the values of a poll, it can be reused for every poll
+     *
+     * @return Values
+     */
+    public Values createValues() {
+        return new Values(this);
+    }
+
+    /**
+     * Reads all points of a unit
+     *
+     * @param master Master to read through
+     * @param unitId Unit id
+     * @param values Holder created by {@link #createValues()} receiving the values
+     * @throws ModbusException If a read fails or returns the wrong number of
+     *                         registers, the values of earlier reads are kept
+     */
+    public void read(AbstractModbusMaster master, int unitId, Values values) throws ModbusException {
+        if (values.profile != this) {
+            throw new IllegalArgumentException("Values belong to another profile");
+        }
+        for (int i = 0; i < blocks.length; i++) {
+            Block block = blocks[i];
+            int[] registers = master.read(unitId, block.table, block.ref, block.count);
+            if (registers.length != block.count) {
+                throw new ModbusException("Unit %d returned %d registers from %d, expected %d", unitId, registers.length, block.ref, block.count);
+            }
+            byte[] data = values.data[i];
+            for (int k = 0; k < registers.length; k++) {
+                data[k * 2] = (byte)(registers[k] >> 8);
+                data[k * 2 + 1] = (byte)registers[k];
+            }
+            block.points.decode(data, 0, values.values[i]);
+        }
+    }
+
+    private static int parseTable(String table) {
+        if (table.equalsIgnoreCase("holding")) {
+            return RegisterCache.HOLDING_REGISTERS;
+        }
+        if (table.equalsIgnoreCase("input")) {
+            return RegisterCache.INPUT_REGISTERS;
+        }
+        throw new IllegalArgumentException("unknown table " + table);
+    }
+
+    private static int parseType(String type) {
+        String[] types = {"int16", "uint16", "int32", "uint32", "float32", "int64", "float64", "string"};
+        for (int i = 0; i < types.length; i++) {
+            if (types[i].equals(type)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown type " + type);
+    }
+
+    private static int parseOrder(String order) {
+        String[] orders = {"abcd", "cdab", "badc", "dcba"};
+        for (int i = 0; i < orders.length; i++) {
+            if (orders[i].equalsIgnoreCase(order)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown order " + order);
+    }
+}
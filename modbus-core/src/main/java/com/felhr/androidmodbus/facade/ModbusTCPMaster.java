@@ -132,11 +132,17 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
      * @throws Exception if the connection cannot be established.
      */
     public void connect() throws Exception {
-        if (connection != null && !connection.isConnected()) {
-            connection.connect(useRtuOverTcp);
-            transaction = connection.getModbusTransport().createTransaction();
-            ((ModbusTCPTransaction)transaction).setReconnecting(reconnecting);
-            setTransaction(transaction);
+        acquireTransaction();
+        try {
+            if (connection != null && !connection.isConnected()) {
+                connection.connect(useRtuOverTcp);
+                transaction = connection.getModbusTransport().createTransaction();
+                ((ModbusTCPTransaction)transaction).setReconnecting(reconnecting);
+                setTransaction(transaction);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -144,10 +150,16 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
      * Disconnects this <tt>ModbusTCPMaster</tt> from the slave.
      */
     public void disconnect() {
-        if (connection != null && connection.isConnected()) {
-            connection.close();
-            transaction = null;
-            setTransaction(null);
+        acquireTransaction();
+        try {
+            if (connection != null && connection.isConnected()) {
+                connection.close();
+                transaction = null;
+                setTransaction(null);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -169,10 +181,16 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
      * @param b true if a new connection should be established for each
      *          transaction, false otherwise.
      */
-    public synchronized void setReconnecting(boolean b) {
-        reconnecting = b;
-        if (transaction != null) {
-            ((ModbusTCPTransaction)transaction).setReconnecting(b);
+    public void setReconnecting(boolean b) {
+        acquireTransaction();
+        try {
+            reconnecting = b;
+            if (transaction != null) {
+                ((ModbusTCPTransaction)transaction).setReconnecting(b);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -184,6 +202,11 @@ public class ModbusTCPMaster extends AbstractModbusMaster {
         }
     }
 
+    @Override
+    protected String getEndpoint() {
+        return connection == null ? super.getEndpoint() : "tcp://" + connection.getAddress().getHostAddress() + ":" + connection.getPort();
+    }
+
     @Override
     public AbstractModbusTransport getTransport() {
         return connection == null ? null : connection.getModbusTransport();
@@ -88,10 +88,16 @@ public class ModbusUDPMaster extends AbstractModbusMaster {
      * @throws Exception if the connection cannot be established.
      */
     public void connect() throws Exception {
-        if (connection != null && !connection.isConnected()) {
-            connection.connect();
-            transaction = connection.getModbusTransport().createTransaction();
-            setTransaction(transaction);
+        acquireTransaction();
+        try {
+            if (connection != null && !connection.isConnected()) {
+                connection.connect();
+                transaction = connection.getModbusTransport().createTransaction();
+                setTransaction(transaction);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -99,10 +105,16 @@ public class ModbusUDPMaster extends AbstractModbusMaster {
      * Disconnects this <tt>ModbusTCPMaster</tt> from the slave.
      */
     public void disconnect() {
-        if (connection != null && connection.isConnected()) {
-            connection.close();
-            transaction = null;
-            setTransaction(null);
+        acquireTransaction();
+        try {
+            if (connection != null && connection.isConnected()) {
+                connection.close();
+                transaction = null;
+                setTransaction(null);
+            }
+        }
+        finally {
+            releaseTransaction();
         }
     }
 
@@ -114,6 +126,11 @@ public class ModbusUDPMaster extends AbstractModbusMaster {
         }
     }
 
+    @Override
+    protected String getEndpoint() {
+        return connection == null ? super.getEndpoint() : "udp://" + connection.getAddress().getHostAddress() + ":" + connection.getPort();
+    }
+
     @Override
     public AbstractModbusTransport getTransport() {
         return connection == null ? null : connection.getModbusTransport();
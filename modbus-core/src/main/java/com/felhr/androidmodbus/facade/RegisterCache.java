@@ -0,0 +1,247 @@
+package com.felhr.androidmodbus.facade;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read through cache of coils, discrete inputs and registers for the master
+ * facades.
+ *
+ * Values are kept per endpoint, unit, table and address. A read is answered
+ * from the cache when every value of the range is present and fresh,
+ * otherwise it goes on the wire and the answer is cached. Writes through the
+ * facade update the cache with the values written. How long values stay
+ * fresh is set per range, a range with a time to live of 0 is never cached.
+ * The cache holds a bounded number of values and evicts the least recently
+ * used ones first. One cache can be shared by several masters.
+ * <pre>
+ * RegisterCache cache = new RegisterCache(4096, 500);
+ * cache.setTtl(1, RegisterCache.HOLDING_REGISTERS, 100, 10, 5000);
+ * master.setCache(cache);
+ * </pre>
+ */
+public class RegisterCache {
+
+    public static final int COILS = 0;
+    public static final int DISCRETE_INPUTS = 1;
+    public static final int INPUT_REGISTERS = 2;
+    public static final int HOLDING_REGISTERS = 3;
+
+    private final int maxEntries;
+    private final long defaultTtl;
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final LinkedHashMap<Key, Value> entries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache
+     *
+     * @param maxEntries Maximum number of values held
+     * @param defaultTtl Milliseconds values stay fresh unless set otherwise for their range
+     */
+    public RegisterCache(final int maxEntries, long defaultTtl) {
+        if (maxEntries <= 0 || defaultTtl < 0) {
+            throw new IllegalArgumentException("Size must be positive and time to live not negative");
+        }
+        this.maxEntries = maxEntries;
+        this.defaultTtl = defaultTtl;
+        entries = new LinkedHashMap<Key, Value>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Value> eldest) {
+                return size() > RegisterCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Sets how long the values of a range stay fresh, later settings take
+     * precedence over earlier ones for the addresses they share
+     *
+     * @param unitId Unit id
+     * @param table  One of {@link #COILS}, {@link #DISCRETE_INPUTS}, {@link #INPUT_REGISTERS} or {@link #HOLDING_REGISTERS}
+     * @param ref    First address
+     * @param count  Number of addresses
+     * @param ttl    Milliseconds, 0 to never cache the range
+     */
+    public synchronized void setTtl(int unitId, int table, int ref, int count, long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+        rules.add(new Rule(unitId, table, ref, ref + count, ttl));
+        invalidate(null, unitId, table, ref, count);
+    }
+
+    /**
+     * Returns the values of a range if all of them are cached and fresh
+     *
+     * @param endpoint Endpoint the values were read from
+     * @param unitId   Unit id
+     * @param table    Table
+     * @param ref      First address
+     * @param count    Number of addresses
+     * @return Values or null if any of them has to be read
+     */
+    public synchronized int[] get(String endpoint, int unitId, int table, int ref, int count) {
+        long now = System.currentTimeMillis();
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            Value cached = entries.get(new Key(endpoint, unitId, table, ref + i));
+            if (cached == null || cached.expires <= now) {
+                misses++;
+                return null;
+            }
+            values[i] = cached.value;
+        }
+        hits++;
+        return values;
+    }
+
+    /**
+     * Stores the values of a range
+     *
+     * @param endpoint Endpoint the values belong to
+     * @param unitId   Unit id
+     * @param table    Table
+     * @param ref      First address
+     * @param values   Values, 0 or 1 for coils and discrete inputs
+     */
+    public synchronized void put(String endpoint, int unitId, int table, int ref, int[] values) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < values.length; i++) {
+            long ttl = getTtl(unitId, table, ref + i);
+            Key key = new Key(endpoint, unitId, table, ref + i);
+            if (ttl == 0) {
+                entries.remove(key);
+            }
+            else {
+                entries.put(key, new Value(values[i], now + ttl));
+            }
+        }
+    }
+
+    /**
+     * Removes the values of a range
+     *
+     * @param endpoint Endpoint, null for all endpoints
+     * @param unitId   Unit id
+     * @param table    Table
+     * @param ref      First address
+     * @param count    Number of addresses
+     */
+    public synchronized void invalidate(String endpoint, int unitId, int table, int ref, int count) {
+        if (endpoint != null) {
+            for (int i = 0; i < count; i++) {
+                entries.remove(new Key(endpoint, unitId, table, ref + i));
+            }
+            return;
+        }
+        for (Iterator<Key> keys = entries.keySet().iterator(); keys.hasNext(); ) {
+            Key key = keys.next();
+            if (key.unitId == unitId && key.table == table && key.address >= ref && key.address < ref + count) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all values
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of values held
+     *
+     * @return Number of values
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of reads answered from the cache
+     *
+     * @return Number of hits
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of reads that had to go on the wire
+     *
+     * @return Number of misses
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private long getTtl(int unitId, int table, int address) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (rule.unitId == unitId && rule.table == table && address >= rule.from && address < rule.to) {
+                return rule.ttl;
+            }
+        }
+        return defaultTtl;
+    }
+
+    private static class Rule {
+        final int unitId;
+        final int table;
+        final int from;
+        final int to;
+        final long ttl;
+
+        Rule(int unitId, int table, int from, int to, long ttl) {
+            this.unitId = unitId;
+            this.table = table;
+            this.from = from;
+            this.to = to;
+            this.ttl = ttl;
+        }
+    }
+
+    private static class Value {
+        final int value;
+        final long expires;
+
+        Value(int value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private static class Key {
+        final String endpoint;
+        final int unitId;
+        final int table;
+        final int address;
+
+        Key(String endpoint, int unitId, int table, int address) {
+            this.endpoint = endpoint;
+            this.unitId = unitId;
+            this.table = table;
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return unitId == other.unitId && table == other.table && address == other.address && endpoint.equals(other.endpoint);
+        }
+
+        @Override
+        public int hashCode() {
+            return (endpoint.hashCode() * 31 + unitId) * 31 + (table << 16 | address);
+        }
+    }
+}
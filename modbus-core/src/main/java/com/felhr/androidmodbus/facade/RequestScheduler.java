@@ -0,0 +1,144 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gives the transaction of a master to one request at a time, by priority.
+ *
+ * Waiting requests are served lowest lane first and in arrival order within
+ * a lane. A request moves up one lane for every aging interval it waits, so
+ * a steady stream of high priority requests can delay but never starve the
+ * others.
+ */
+class RequestScheduler {
+
+    private final List<Waiter> waiting = new ArrayList<Waiter>();
+    private long agingInterval;
+    private boolean busy;
+    private long sequence;
+
+    /**
+     * Creates a scheduler
+     *
+     * @param agingInterval Milliseconds a request waits before it moves up a lane
+     */
+    RequestScheduler(long agingInterval) {
+        this.agingInterval = agingInterval;
+    }
+
+    synchronized long getAgingInterval() {
+        return agingInterval;
+    }
+
+    synchronized void setAgingInterval(long agingInterval) {
+        if (agingInterval <= 0) {
+            throw new IllegalArgumentException("Aging interval must be positive");
+        }
+        this.agingInterval = agingInterval;
+    }
+
+    /**
+     * Returns the number of requests waiting
+     *
+     * @return Number of requests
+     */
+    synchronized int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Waits until the caller may use the transaction
+     *
+     * @param lane Lane of the request, lower lanes go first
+     * @throws ModbusException If interrupted while waiting
+     */
+    synchronized void acquire(int lane) throws ModbusException {
+        if (!busy && waiting.isEmpty()) {
+            busy = true;
+            return;
+        }
+        Waiter waiter = new Waiter(lane, System.currentTimeMillis(), sequence++);
+        waiting.add(waiter);
+        while (!waiter.granted) {
+            try {
+                wait();
+            }
+            catch (InterruptedException ex) {
+                if (waiter.granted) {
+                    release();
+                }
+                else {
+                    waiting.remove(waiter);
+                }
+                Thread.currentThread().interrupt();
+                throw new ModbusException("Interrupted while waiting for the transaction");
+            }
+        }
+    }
+
+    /**
+     * Waits until the caller may use the transaction, an interrupt does not
+     * end the wait but is kept
+     *
+     * @param lane Lane of the request, lower lanes go first
+     */
+    synchronized void acquireUninterruptibly(int lane) {
+        if (!busy && waiting.isEmpty()) {
+            busy = true;
+            return;
+        }
+        Waiter waiter = new Waiter(lane, System.currentTimeMillis(), sequence++);
+        waiting.add(waiter);
+        boolean interrupted = false;
+        while (!waiter.granted) {
+            try {
+                wait();
+            }
+            catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands the transaction to the next waiting request
+     */
+    synchronized void release() {
+        if (waiting.isEmpty()) {
+            busy = false;
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Waiter next = null;
+        long nextRank = 0;
+        for (Waiter waiter : waiting) {
+            long rank = waiter.lane - (now - waiter.since) / agingInterval;
+            if (next == null || rank < nextRank || (rank == nextRank && waiter.sequence < next.sequence)) {
+                next = waiter;
+                nextRank = rank;
+            }
+        }
+        waiting.remove(next);
+        next.granted = true;
+        notifyAll();
+    }
+
+    private static class Waiter {
+        final int lane;
+        final long since;
+        final long sequence;
+        boolean granted;
+
+        Waiter(int lane, long since, long sequence) {
+            this.lane = lane;
+            this.since = since;
+            this.sequence = sequence;
+        }
+    }
+}
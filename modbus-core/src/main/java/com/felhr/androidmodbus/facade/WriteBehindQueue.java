@@ -0,0 +1,417 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.procimg.InputRegister;
+import com.felhr.androidmodbus.procimg.Register;
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.BitVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Write behind queue in front of a master facade.
+ *
+ * Single register and coil writes are collected for a short window and then
+ * sent together. Writes to consecutive addresses of the same unit are merged
+ * into WRITE MULTIPLE REGISTERS and WRITE MULTIPLE COILS requests, a later
+ * write to the same address replaces an earlier one still in the queue.
+ * Units and tables are sent in the order their first write was queued,
+ * the runs of each lowest address first.
+ * A register read queued for a unit with pending register writes is combined
+ * with the last of them into a READ/WRITE MULTIPLE REGISTERS request, other
+ * reads are sent after all writes. Either way a read sees every register
+ * value written to its unit in the same window.
+ * <p>
+ * Every call returns a {@link Completion} that is done once the request
+ * carrying the value was answered.
+ * <pre>
+ * WriteBehindQueue queue = new WriteBehindQueue(master, 20);
+ * queue.writeRegister(1, 100, 42);
+ * queue.writeRegister(1, 101, 43).await();
+ * queue.close();
+ * </pre>
+ */
+public class WriteBehindQueue implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final int MAX_WRITE_REGISTERS = 123;
+    private static final int MAX_WRITE_COILS = 1968;
+    private static final int MAX_RW_WRITE_REGISTERS = 121;
+    private static final int MAX_RW_READ_REGISTERS = 125;
+
+    private final AbstractModbusMaster master;
+    private final long window;
+    private final Object sendLock = new Object();
+    private Map<Integer, TreeMap<Integer, Pending>> writes = new LinkedHashMap<Integer, TreeMap<Integer, Pending>>();
+    private List<PendingRead> reads = new ArrayList<PendingRead>();
+    private long firstQueued;
+    private boolean running = true;
+    private final Thread thread;
+
+    /**
+     * Result of a queued request
+     */
+    public static class Completion {
+        private boolean done;
+        private int[] values;
+        private ModbusException error;
+
+        synchronized void complete(int[] values, ModbusException error) {
+            this.values = values;
+            this.error = error;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Tests if the request was answered or failed
+         *
+         * @return True if done
+         */
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Waits until the request was answered
+         *
+         * @return Register values for a read, null for a write
+         * @throws ModbusException If the request failed or the wait was interrupted
+         */
+        public synchronized int[] await() throws ModbusException {
+            while (!done) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ModbusException("Interrupted while waiting for a queued request");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Creates a queue and starts its sending thread
+     *
+     * @param master Master to send through
+     * @param window Milliseconds writes are collected before they are sent
+     */
+    public WriteBehindQueue(AbstractModbusMaster master, long window) {
+        this.master = master;
+        this.window = window;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (waitWindow()) {
+                    send();
+                }
+                send();
+            }
+        }, "Modbus Write Behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a register write
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the register to be written.
+     * @param value  the value to write.
+     * @return Completion of the write
+     */
+    public Completion writeRegister(int unitId, int ref, int value) {
+        return queueWrite(unitId, RegisterCache.HOLDING_REGISTERS, ref, value & 0xFFFF);
+    }
+
+    /**
+     * Queues a coil write
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the coil to be written.
+     * @param state  the coil state to be written.
+     * @return Completion of the write
+     */
+    public Completion writeCoil(int unitId, int ref, boolean state) {
+        return queueWrite(unitId, RegisterCache.COILS, ref, state ? 1 : 0);
+    }
+
+    /**
+     * Queues a register read, it is sent with the next batch of writes
+     *
+     * @param unitId the slave unit id.
+     * @param ref    the offset of the register to start reading from.
+     * @param count  the number of registers to be read.
+     * @return Completion holding the values read
+     */
+    public synchronized Completion readRegisters(int unitId, int ref, int count) {
+        checkRunning();
+        PendingRead read = new PendingRead(unitId, ref, count);
+        reads.add(read);
+        queued();
+        return read.completion;
+    }
+
+    /**
+     * Sends everything queued now and waits until it was answered
+     */
+    public void flush() {
+        send();
+    }
+
+    /**
+     * Sends everything still queued and stops the queue
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized Completion queueWrite(int unitId, int table, int ref, int value) {
+        checkRunning();
+        int group = (unitId << 2) | table;
+        TreeMap<Integer, Pending> pending = writes.get(group);
+        if (pending == null) {
+            pending = new TreeMap<Integer, Pending>();
+            writes.put(group, pending);
+        }
+        Pending write = pending.get(ref);
+        if (write == null) {
+            write = new Pending();
+            pending.put(ref, write);
+        }
+        write.value = value;
+        Completion completion = new Completion();
+        write.completions.add(completion);
+        queued();
+        return completion;
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw new IllegalStateException("Write behind queue is closed");
+        }
+    }
+
+    /**
+     * Wakes the sending thread for the first request of a window.
+     * Called with this instance locked.
+     */
+    private void queued() {
+        if (firstQueued == 0) {
+            firstQueued = System.currentTimeMillis();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until something was queued and the window since has passed
+     *
+     * @return False if the queue was closed
+     */
+    private synchronized boolean waitWindow() {
+        try {
+            while (running && firstQueued == 0) {
+                wait();
+            }
+            long remaining = firstQueued + window - System.currentTimeMillis();
+            while (running && remaining > 0) {
+                wait(remaining);
+                remaining = firstQueued + window - System.currentTimeMillis();
+            }
+        }
+        catch (InterruptedException ex) {
+            running = false;
+            Thread.currentThread().interrupt();
+        }
+        return running;
+    }
+
+    /**
+     * Takes everything queued so far and sends it, one batch at a time so
+     * batches reach the slave in the order they were queued
+     */
+    private void send() {
+        synchronized (sendLock) {
+            Map<Integer, TreeMap<Integer, Pending>> batch;
+            List<PendingRead> batchReads;
+            synchronized (this) {
+                batch = writes;
+                batchReads = reads;
+                writes = new LinkedHashMap<Integer, TreeMap<Integer, Pending>>();
+                reads = new ArrayList<PendingRead>();
+                firstQueued = 0;
+            }
+            for (Map.Entry<Integer, TreeMap<Integer, Pending>> group : batch.entrySet()) {
+                int unitId = group.getKey() >> 2;
+                int table = group.getKey() & 3;
+                List<Run> runs = toRuns(group.getValue(), table == RegisterCache.COILS ? MAX_WRITE_COILS : MAX_WRITE_REGISTERS);
+                for (int i = 0; i < runs.size(); i++) {
+                    Run run = runs.get(i);
+                    PendingRead read = null;
+                    // Only the last run of the unit has all of its writes before the read
+                    if (table == RegisterCache.HOLDING_REGISTERS && i == runs.size() - 1 && run.refs.size() <= MAX_RW_WRITE_REGISTERS) {
+                        read = takeRead(batchReads, unitId);
+                    }
+                    send(unitId, table, run, read);
+                }
+            }
+            for (PendingRead read : batchReads) {
+                try {
+                    read.completion.complete(toValues(master.readMultipleRegisters(read.unitId, read.ref, read.count)), null);
+                }
+                catch (ModbusException ex) {
+                    read.completion.complete(null, ex);
+                }
+                catch (RuntimeException ex) {
+                    logger.warn("Queued read from unit {} failed", read.unitId, ex);
+                    read.completion.complete(null, new ModbusException("Queued read failed", ex));
+                }
+            }
+        }
+    }
+
+    private void send(int unitId, int table, Run run, PendingRead read) {
+        ModbusException error = null;
+        int[] values = null;
+        try {
+            int ref = run.refs.get(0);
+            int count = run.refs.size();
+            if (table == RegisterCache.COILS) {
+                if (count == 1) {
+                    master.writeCoil(unitId, ref, run.writes.get(0).value != 0);
+                }
+                else {
+                    BitVector coils = new BitVector(count);
+                    for (int i = 0; i < count; i++) {
+                        coils.setBit(i, run.writes.get(i).value != 0);
+                    }
+                    master.writeMultipleCoils(unitId, ref, coils);
+                }
+            }
+            else {
+                Register[] registers = new Register[count];
+                for (int i = 0; i < count; i++) {
+                    registers[i] = new SimpleRegister(run.writes.get(i).value);
+                }
+                if (read != null) {
+                    values = toValues(master.readWriteMultipleRegisters(unitId, read.ref, read.count, ref, registers));
+                }
+                else if (count == 1) {
+                    master.writeSingleRegister(unitId, ref, registers[0]);
+                }
+                else {
+                    master.writeMultipleRegisters(unitId, ref, registers);
+                }
+            }
+        }
+        catch (ModbusException ex) {
+            logger.debug("Queued write to unit {} failed - {}", unitId, ex.getMessage());
+            error = ex;
+        }
+        catch (RuntimeException ex) {
+            // Fail the batch instead of the sending thread, later batches still go out
+            logger.warn("Queued write to unit {} failed", unitId, ex);
+            error = new ModbusException("Queued write failed", ex);
+        }
+        for (Pending write : run.writes) {
+            for (Completion completion : write.completions) {
+                completion.complete(null, error);
+            }
+        }
+        if (read != null) {
+            read.completion.complete(values, error);
+        }
+    }
+
+    /**
+     * Splits pending writes into runs of consecutive addresses
+     *
+     * @param pending Writes by address
+     * @param max     Longest run
+     * @return Runs
+     */
+    private static List<Run> toRuns(TreeMap<Integer, Pending> pending, int max) {
+        List<Run> runs = new ArrayList<Run>();
+        Run run = null;
+        int last = -2;
+        for (Map.Entry<Integer, Pending> write : pending.entrySet()) {
+            if (run == null || write.getKey() != last + 1 || run.refs.size() == max) {
+                run = new Run();
+                runs.add(run);
+            }
+            run.refs.add(write.getKey());
+            run.writes.add(write.getValue());
+            last = write.getKey();
+        }
+        return runs;
+    }
+
+    private static PendingRead takeRead(List<PendingRead> reads, int unitId) {
+        for (Iterator<PendingRead> i = reads.iterator(); i.hasNext(); ) {
+            PendingRead read = i.next();
+            if (read.unitId == unitId && read.count <= MAX_RW_READ_REGISTERS) {
+                i.remove();
+                return read;
+            }
+        }
+        return null;
+    }
+
+    private static int[] toValues(InputRegister[] registers) {
+        int[] values = new int[registers.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = registers[i].getValue();
+        }
+        return values;
+    }
+
+    /**
+     * Latest value queued for an address and everyone waiting for it
+     */
+    private static class Pending {
+        int value;
+        final List<Completion> completions = new ArrayList<Completion>(1);
+    }
+
+    private static class PendingRead {
+        final int unitId;
+        final int ref;
+        final int count;
+        final Completion completion = new Completion();
+
+        PendingRead(int unitId, int ref, int count) {
+            this.unitId = unitId;
+            this.ref = ref;
+            this.count = count;
+        }
+    }
+
+    private static class Run {
+        final List<Integer> refs = new ArrayList<Integer>();
+        final List<Pending> writes = new ArrayList<Pending>();
+    }
+}
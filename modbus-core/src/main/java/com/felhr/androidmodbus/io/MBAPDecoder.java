@@ -0,0 +1,242 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.ModbusIOException;
+import com.felhr.androidmodbus.msg.ModbusMessage;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder of Modbus TCP frames.
+ *
+ * The decoder is fed whatever a read from the connection returned, in
+ * chunks of any size. Frames split across reads are assembled internally,
+ * several frames in one read are returned one after the other. A frame
+ * that lies completely within the buffer fed is returned as a slice of it
+ * without copying. The header is checked as soon as it has arrived, so a
+ * bad protocol id or length fails before the rest of the frame is waited
+ * for.
+ * <pre>
+ * while (channel.read(buffer) &gt; 0) {
+ *     buffer.flip();
+ *     while (decoder.decode(buffer)) {
+ *         ModbusRequest request = decoder.getRequest();
+ *         ...
+ *     }
+ *     buffer.clear();
+ * }
+ * </pre>
+ * A frame is valid until the next call to {@link #decode(ByteBuffer)}.
+ * After a decoding error the connection is out of step and should be
+ * closed, or the decoder {@link #reset()} for a fresh connection.
+ */
+public class MBAPDecoder {
+
+    /**
+     * Length of the header up to and including the length field
+     */
+    public static final int HEADER_LENGTH = 6;
+
+    /**
+     * Largest value of the length field, unit id plus a PDU of 253 bytes
+     */
+    public static final int MAX_LENGTH = 254;
+
+    private final ByteBuffer partial = ByteBuffer.allocate(HEADER_LENGTH + MAX_LENGTH);
+    private final BytesInputStream input = new BytesInputStream(Modbus.MAX_MESSAGE_LENGTH + HEADER_LENGTH);
+    private int expected = HEADER_LENGTH;
+    private ByteBuffer frame;
+    private long frames;
+
+    /**
+     * Consumes bytes until a frame is complete or the buffer is empty
+     *
+     * @param buffer Bytes received, consumed from its position on
+     * @return True if a frame is complete, false if more bytes are needed
+     * @throws ModbusIOException If the header is not valid
+     */
+    public boolean decode(ByteBuffer buffer) throws ModbusIOException {
+        frame = null;
+        if (partial.position() == 0 && buffer.remaining() >= HEADER_LENGTH) {
+            int start = buffer.position();
+            int length = checkHeader(buffer, start);
+            if (buffer.remaining() >= HEADER_LENGTH + length) {
+                ByteBuffer slice = buffer.slice();
+                slice.limit(HEADER_LENGTH + length);
+                buffer.position(start + HEADER_LENGTH + length);
+                return complete(slice);
+            }
+        }
+        while (buffer.hasRemaining()) {
+            int n = Math.min(buffer.remaining(), expected - partial.position());
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + n);
+            partial.put(buffer);
+            buffer.limit(limit);
+            if (partial.position() == HEADER_LENGTH && expected == HEADER_LENGTH) {
+                expected = HEADER_LENGTH + checkHeader(partial, 0);
+            }
+            else if (partial.position() == expected) {
+                partial.flip();
+                expected = HEADER_LENGTH;
+                ByteBuffer complete = partial.slice();
+                partial.clear();
+                return complete(complete);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops a partially received frame
+     */
+    public void reset() {
+        partial.clear();
+        expected = HEADER_LENGTH;
+        frame = null;
+    }
+
+    /**
+     * Tests if part of a frame was received
+     *
+     * @return True if bytes of an incomplete frame are held
+     */
+    public boolean hasPartialFrame() {
+        return partial.position() > 0;
+    }
+
+    /**
+     * Returns the number of frames decoded
+     *
+     * @return Number of frames
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the complete frame, header included
+     *
+     * @return Read only buffer positioned at the transaction id
+     */
+    public ByteBuffer getFrame() {
+        return checkFrame().duplicate();
+    }
+
+    /**
+     * Returns the PDU of the frame, function code and data
+     *
+     * @return Read only buffer positioned at the function code
+     */
+    public ByteBuffer getPDU() {
+        ByteBuffer pdu = checkFrame().duplicate();
+        pdu.position(HEADER_LENGTH + 1);
+        return pdu.slice();
+    }
+
+    /**
+     * Returns the transaction id of the frame
+     *
+     * @return Transaction id
+     */
+    public int getTransactionID() {
+        return checkFrame().getShort(0) & 0xFFFF;
+    }
+
+    /**
+     * Returns the unit id of the frame
+     *
+     * @return Unit id
+     */
+    public int getUnitID() {
+        return checkFrame().get(HEADER_LENGTH) & 0xFF;
+    }
+
+    /**
+     * Returns the function code of the frame
+     *
+     * @return Function code, with the exception bit if set
+     */
+    public int getFunctionCode() {
+        return checkFrame().get(HEADER_LENGTH + 1) & 0xFF;
+    }
+
+    /**
+     * Reads the frame as a request
+     *
+     * @return Request
+     * @throws ModbusIOException If the frame cannot be read as a request
+     */
+    public ModbusRequest getRequest() throws ModbusIOException {
+        ModbusRequest request = ModbusRequest.createModbusRequest(getFunctionCode());
+        request.setHeadless(false);
+        readMessage(request);
+        return request;
+    }
+
+    /**
+     * Reads the frame as a response
+     *
+     * @return Response
+     * @throws ModbusIOException If the frame cannot be read as a response
+     */
+    public ModbusResponse getResponse() throws ModbusIOException {
+        ModbusResponse response = ModbusResponse.createModbusResponse(getFunctionCode());
+        readMessage(response);
+        return response;
+    }
+
+    private void readMessage(ModbusMessage message) throws ModbusIOException {
+        ByteBuffer bytes = getFrame();
+        int length = bytes.remaining();
+        synchronized (input) {
+            byte[] buffer = input.getBuffer();
+            bytes.get(buffer, 0, length);
+            input.reset(buffer, length);
+            try {
+                message.readFrom(input);
+            }
+            catch (IOException ex) {
+                throw new ModbusIOException("Cannot read frame - %s", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Checks the header of a frame
+     *
+     * @param header Buffer holding the header
+     * @param start  Index of the header
+     * @return Value of the length field
+     * @throws ModbusIOException If the protocol id or the length is not valid
+     */
+    private int checkHeader(ByteBuffer header, int start) throws ModbusIOException {
+        int protocol = ((header.get(start + 2) & 0xFF) << 8) | (header.get(start + 3) & 0xFF);
+        int length = ((header.get(start + 4) & 0xFF) << 8) | (header.get(start + 5) & 0xFF);
+        if (protocol != Modbus.DEFAULT_PROTOCOL_ID) {
+            reset();
+            throw new ModbusIOException("Invalid protocol id %d", protocol);
+        }
+        if (length < 2 || length > MAX_LENGTH) {
+            reset();
+            throw new ModbusIOException("Invalid frame length %d", length);
+        }
+        return length;
+    }
+
+    private boolean complete(ByteBuffer complete) {
+        frame = complete.asReadOnlyBuffer();
+        frames++;
+        return true;
+    }
+
+    private ByteBuffer checkFrame() {
+        if (frame == null) {
+            throw new IllegalStateException("No complete frame");
+        }
+        return frame;
+    }
+}
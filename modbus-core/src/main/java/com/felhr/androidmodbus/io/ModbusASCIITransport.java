@@ -0,0 +1,285 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.ModbusIOException;
+import com.felhr.androidmodbus.msg.ModbusMessage;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+import com.felhr.androidmodbus.net.AbstractModbusListener;
+import com.felhr.androidmodbus.util.ModbusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Class that implements the Modbus/ASCII transport
+ * flavor.
+ *
+ * @author Dieter Wimberger
+ * @author John Charlton
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+public class ModbusASCIITransport extends ModbusSerialTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusASCIITransport.class);
+
+    /**
+     * Frame delimiters
+     */
+    private static final byte FRAME_START = ':';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /**
+     * Longest possible frame - start, two characters per byte of message and LRC, CR LF
+     */
+    private static final int MAX_FRAME_LENGTH = 1 + 2 * (Modbus.MAX_MESSAGE_LENGTH + 1) + 2;
+
+    /**
+     * Lookup tables for the conversion between nibbles and upper case hex characters
+     */
+    private static final byte[] HEX_CHARS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < HEX_CHARS.length; i++) {
+            HEX_VALUES[HEX_CHARS[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_CHARS[i])] = (byte) i;
+        }
+    }
+
+    private final byte[] inBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH + 1];
+    private final BytesInputStream byteInputStream = new BytesInputStream(inBuffer);         //to read message from
+    private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);      //write frames
+    private final byte[] frameBuffer = new byte[MAX_FRAME_LENGTH];     //encoded outgoing frame
+    private final byte[] rawBuffer = new byte[MAX_FRAME_LENGTH];       //characters read from the port
+    private int rawPosition = 0;
+    private int rawLength = 0;
+
+    /**
+     * Constructs a new <tt>MobusASCIITransport</tt> instance.
+     */
+    public ModbusASCIITransport() {
+    }
+
+    @Override
+    protected void writeMessageOut(ModbusMessage msg) throws ModbusIOException {
+        try {
+            synchronized (byteOutputStream) {
+                //write message to byte out
+                byteOutputStream.reset();
+                msg.setHeadless();
+                msg.writeTo(byteOutputStream);
+                byte[] buf = byteOutputStream.getBuffer();
+                int len = byteOutputStream.size();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Writing: {}", ModbusUtil.toHex(buf, 0, len));
+                }
+
+                // Anything still buffered from the port belongs to an earlier exchange
+                synchronized (inBuffer) {
+                    rawPosition = 0;
+                    rawLength = 0;
+                }
+
+                //write the whole frame in one go
+                int frameLength = encodeFrame(buf, len, frameBuffer);
+                writeBytes(frameBuffer, frameLength);
+
+                // clears out the echoed message
+                // for RS485
+                if (echo) {
+                    // read back the echoed message
+                    readEcho(frameLength);
+                }
+            }
+        }
+        catch (IOException ex) {
+            throw new ModbusIOException("I/O failed to write");
+        }
+    }
+
+    @Override
+    public ModbusRequest readRequestIn(AbstractModbusListener listener) throws ModbusIOException {
+        try {
+            synchronized (inBuffer) {
+                int len;
+                do {
+                    len = readFrame();
+                } while (len < 2);
+
+                byteInputStream.reset(inBuffer, len);
+                byteInputStream.readUnsignedByte();
+                int functionCode = byteInputStream.readUnsignedByte();
+                //create request
+                ModbusRequest request = ModbusRequest.createModbusRequest(functionCode);
+                request.setHeadless();
+                //read message
+                byteInputStream.reset(inBuffer, len);
+                request.readFrom(byteInputStream);
+                return request;
+            }
+        }
+        catch (Exception ex) {
+            logger.debug(ex.getMessage());
+            throw new ModbusIOException("I/O exception - failed to read");
+        }
+    }
+
+    @Override
+    protected ModbusResponse readResponseIn() throws ModbusIOException {
+        try {
+            synchronized (inBuffer) {
+                int len;
+                do {
+                    len = readFrame();
+                } while (len < 2);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Received: {}", ModbusUtil.toHex(inBuffer, 0, len));
+                }
+
+                byteInputStream.reset(inBuffer, len);
+                byteInputStream.readUnsignedByte();
+                // JDC: To check slave unit identifier in a response we need to know
+                // the slave id in the request.  This is not tracked since slaves
+                // only respond when a master request is made and there is only one
+                // master.  We are the only master, so we can assume that this
+                // response message is from the slave responding to the last request.
+                int functionCode = byteInputStream.readUnsignedByte();
+                //create response
+                ModbusResponse response = ModbusResponse.createModbusResponse(functionCode);
+                response.setHeadless();
+                //read message
+                byteInputStream.reset(inBuffer, len);
+                response.readFrom(byteInputStream);
+                return response;
+            }
+        }
+        catch (Exception ex) {
+            logger.debug(ex.getMessage());
+            throw new ModbusIOException("I/O exception - failed to read");
+        }
+    }
+
+    /**
+     * Encodes a message as a complete ASCII frame - start character, hex
+     * characters of the message and its LRC, CR LF
+     *
+     * @param data   Message to encode
+     * @param length Length of the message
+     * @param frame  Buffer to put the frame into
+     * @return Length of the frame
+     */
+    private static int encodeFrame(byte[] data, int length, byte[] frame) {
+        int pos = 0;
+        int lrc = 0;
+        frame[pos++] = FRAME_START;
+        for (int i = 0; i < length; i++) {
+            int value = data[i] & 0xFF;
+            lrc += value;
+            frame[pos++] = HEX_CHARS[value >>> 4];
+            frame[pos++] = HEX_CHARS[value & 0x0F];
+        }
+        lrc = (-lrc) & 0xFF;
+        frame[pos++] = HEX_CHARS[lrc >>> 4];
+        frame[pos++] = HEX_CHARS[lrc & 0x0F];
+        frame[pos++] = CR;
+        frame[pos++] = LF;
+        return pos;
+    }
+
+    /**
+     * Reads the next frame from the port and decodes it into the input buffer,
+     * checking the LRC on the way
+     *
+     * @return Length of the message excluding the LRC or -1 if the frame is corrupt
+     *
+     * @throws IOException If the port times out or cannot be read
+     */
+    private int readFrame() throws IOException {
+        //1. Skip to FRAME_START
+        int in;
+        do {
+            in = readChar();
+        } while (in != FRAME_START);
+
+        //2. Decode to the frame end
+        int len = 0;
+        int lrc = 0;
+        boolean valid = true;
+        while (true) {
+            int high = readChar();
+            if (high == CR || high == LF) {
+                break;
+            }
+            if (high == FRAME_START) {
+                // A new frame started before the previous one ended
+                len = 0;
+                lrc = 0;
+                valid = true;
+                continue;
+            }
+            int low = readChar();
+            if (low == CR || low == LF) {
+                valid = false;
+                break;
+            }
+            int value = (HEX_VALUES[high] << 4) | HEX_VALUES[low];
+            if (HEX_VALUES[high] < 0 || HEX_VALUES[low] < 0 || len == inBuffer.length) {
+                valid = false;
+            }
+            else {
+                inBuffer[len++] = (byte) value;
+                lrc += value;
+            }
+        }
+
+        //3. A correct frame sums to zero including its LRC
+        if (!valid || len == 0 || (lrc & 0xFF) != 0) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Discarding corrupt frame: {}", ModbusUtil.toHex(inBuffer, 0, len));
+            }
+            return -1;
+        }
+        return len - 1;
+    }
+
+    /**
+     * Returns the next character from the port, reading everything that is
+     * available in one go whenever the local buffer runs dry
+     *
+     * @return Next character
+     *
+     * @throws IOException If the port times out or cannot be read
+     */
+    private int readChar() throws IOException {
+        if (rawPosition == rawLength) {
+            int count = Math.min(Math.max(availableBytes(), 1), rawBuffer.length);
+            rawPosition = 0;
+            rawLength = 0;
+            readBytes(rawBuffer, count);
+            rawLength = count;
+        }
+        return rawBuffer[rawPosition++] & 0xFF;
+    }
+
+}
@@ -0,0 +1,517 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.msg.ModbusMessage;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+import com.felhr.androidmodbus.net.AbstractSerialConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Passive monitor of the Modbus RTU traffic on a serial bus.
+ *
+ * The monitor never writes to the port. It decodes every frame on the bus,
+ * pairs each request with the response of the unit it was sent to and keeps
+ * statistics per unit: requests, responses, exception responses, timeouts,
+ * CRC errors, poll rate and response times. Listeners receive every
+ * transaction decoded into the message classes.
+ * <p>
+ * Response times run from the arrival of the last byte of the request to the
+ * arrival of the last byte of the response, so they include the time to
+ * transmit the response. When several frames are read at once, the arrival
+ * of the end of each is counted back from the time of the read by the bytes
+ * that followed it at the baud rate of the port. Response times are as
+ * accurate as the latency of the port allows. Timeouts are noticed when
+ * the next request appears or when the read timeout of the port expires.
+ * <pre>
+ * ModbusRTUMonitor monitor = new ModbusRTUMonitor(port, 1000);
+ * monitor.start();
+ * ...
+ * ModbusRTUMonitor.UnitStatistics stats = monitor.getStatistics(1);
+ * </pre>
+ */
+public class ModbusRTUMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusRTUMonitor.class);
+
+    private static final int REQUEST = 0;
+    private static final int TRANSACTION = 1;
+    private static final int UNEXPECTED_RESPONSE = 2;
+    private static final int TIMEOUT = 3;
+
+    private final AbstractSerialConnection port;
+    private final long responseTimeout;
+    private final RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+    private final Map<Integer, UnitStatistics> statistics = new HashMap<Integer, UnitStatistics>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final byte[] frame = new byte[Modbus.MAX_MESSAGE_LENGTH];
+    private final BytesInputStream frameInput = new BytesInputStream(frame);
+    private volatile boolean running;
+    private Thread thread;
+    private int pendingUnit = -1;
+    private int pendingFunction;
+    private long pendingTime;
+    private ModbusRequest pendingRequest;
+
+    /**
+     * Receives the traffic seen by a monitor. Called on the thread of the
+     * monitor, which does not read the port while a listener runs. An
+     * exception thrown by a listener is logged and otherwise ignored.
+     */
+    public abstract static class Listener {
+
+        /**
+         * Called for a request and the response to it
+         *
+         * @param request      Request
+         * @param response     Response, an exception response if the unit refused the request
+         * @param responseTime Microseconds from request to response
+         */
+        public void transaction(ModbusRequest request, ModbusResponse response, long responseTime) {
+        }
+
+        /**
+         * Called for a request, including broadcasts, as soon as it was read
+         *
+         * @param request Request
+         */
+        public void request(ModbusRequest request) {
+        }
+
+        /**
+         * Called for a request that was not answered in time
+         *
+         * @param request Request
+         */
+        public void timeout(ModbusRequest request) {
+        }
+
+        /**
+         * Called for a response that does not answer the last request
+         *
+         * @param response Response
+         */
+        public void unexpectedResponse(ModbusResponse response) {
+        }
+    }
+
+    /**
+     * Traffic statistics of one unit
+     */
+    public static class UnitStatistics {
+        private final int unitId;
+        private long requests;
+        private long responses;
+        private long exceptions;
+        private long timeouts;
+        private long crcErrors;
+        private long firstRequest;
+        private long lastRequest;
+        private long totalResponseTime;
+        private long minResponseTime = Long.MAX_VALUE;
+        private long maxResponseTime;
+
+        UnitStatistics(int unitId) {
+            this.unitId = unitId;
+        }
+
+        synchronized void request(long now) {
+            if (requests++ == 0) {
+                firstRequest = now;
+            }
+            lastRequest = now;
+        }
+
+        synchronized void response(long responseTime, boolean exception) {
+            responses++;
+            if (exception) {
+                exceptions++;
+            }
+            totalResponseTime += responseTime;
+            minResponseTime = Math.min(minResponseTime, responseTime);
+            maxResponseTime = Math.max(maxResponseTime, responseTime);
+        }
+
+        synchronized void timeout() {
+            timeouts++;
+        }
+
+        synchronized void crcError() {
+            crcErrors++;
+        }
+
+        /**
+         * Returns the unit id
+         *
+         * @return Unit id
+         */
+        public int getUnitID() {
+            return unitId;
+        }
+
+        /**
+         * Returns the number of requests sent to the unit
+         *
+         * @return Number of requests
+         */
+        public synchronized long getRequestCount() {
+            return requests;
+        }
+
+        /**
+         * Returns the number of responses from the unit, exception responses included
+         *
+         * @return Number of responses
+         */
+        public synchronized long getResponseCount() {
+            return responses;
+        }
+
+        /**
+         * Returns the number of exception responses from the unit
+         *
+         * @return Number of exception responses
+         */
+        public synchronized long getExceptionCount() {
+            return exceptions;
+        }
+
+        /**
+         * Returns the number of requests the unit did not answer in time
+         *
+         * @return Number of timeouts
+         */
+        public synchronized long getTimeoutCount() {
+            return timeouts;
+        }
+
+        /**
+         * Returns the number of damaged frames seen while a response of the
+         * unit was expected
+         *
+         * @return Number of CRC errors
+         */
+        public synchronized long getCRCErrorCount() {
+            return crcErrors;
+        }
+
+        /**
+         * Returns the average number of requests per second sent to the unit
+         *
+         * @return Requests per second, 0 until two requests were seen
+         */
+        public synchronized double getPollRate() {
+            if (requests < 2 || lastRequest == firstRequest) {
+                return 0;
+            }
+            return (requests - 1) * 1000000000.0 / (lastRequest - firstRequest);
+        }
+
+        /**
+         * Returns the average response time
+         *
+         * @return Microseconds, 0 if no response was seen
+         */
+        public synchronized long getAverageResponseTime() {
+            return responses == 0 ? 0 : totalResponseTime / responses;
+        }
+
+        /**
+         * Returns the shortest response time
+         *
+         * @return Microseconds, 0 if no response was seen
+         */
+        public synchronized long getMinResponseTime() {
+            return responses == 0 ? 0 : minResponseTime;
+        }
+
+        /**
+         * Returns the longest response time
+         *
+         * @return Microseconds
+         */
+        public synchronized long getMaxResponseTime() {
+            return maxResponseTime;
+        }
+    }
+
+    /**
+     * Creates a monitor
+     *
+     * @param port            Port attached to the bus, configured for its baud rate
+     * @param responseTimeout Milliseconds a unit has to answer a request
+     */
+    public ModbusRTUMonitor(AbstractSerialConnection port, long responseTimeout) {
+        this.port = port;
+        this.responseTimeout = responseTimeout;
+        decoder.setBothDirections(true);
+    }
+
+    /**
+     * Opens the port if needed and starts monitoring
+     *
+     * @throws IOException If the port cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!port.isOpen()) {
+            port.open();
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                monitor();
+            }
+        }, "Modbus RTU Monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops monitoring, the port is left open
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Adds a listener
+     *
+     * @param listener Listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener
+     *
+     * @param listener Listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the statistics of a unit
+     *
+     * @param unitId Unit id
+     * @return Statistics or null if no request to the unit was seen
+     */
+    public UnitStatistics getStatistics(int unitId) {
+        synchronized (statistics) {
+            return statistics.get(unitId);
+        }
+    }
+
+    /**
+     * Returns the statistics of all units seen
+     *
+     * @return Statistics by unit id
+     */
+    public Map<Integer, UnitStatistics> getStatistics() {
+        synchronized (statistics) {
+            return new HashMap<Integer, UnitStatistics>(statistics);
+        }
+    }
+
+    /**
+     * Returns the decoder of the monitor, holding the frame, CRC error and
+     * resynchronisation counts of the whole bus
+     *
+     * @return Decoder
+     */
+    public RTUFrameDecoder getDecoder() {
+        return decoder;
+    }
+
+    private void monitor() {
+        byte[] buffer = new byte[Modbus.MAX_MESSAGE_LENGTH * 2];
+        long charTime = getCharTime();
+        long lastRead = System.nanoTime();
+        while (running) {
+            int count = Math.min(Math.max(port.bytesAvailable(), 1), buffer.length);
+            int read = port.readBytes(buffer, count);
+            long now = System.nanoTime();
+            long crcErrors = decoder.getCRCErrorCount();
+            if (read > 0) {
+                lastRead = now;
+                decoder.feed(buffer, 0, read);
+                while (decoder.next()) {
+                    // Only the bytes of this read can have arrived after the frame
+                    frame(now - Math.min(decoder.getPendingBytes(), read) * charTime);
+                }
+            }
+            else {
+                // The line is idle, whatever is left cannot grow into a frame
+                while (decoder.flush()) {
+                    frame(lastRead - decoder.getPendingBytes() * charTime);
+                }
+                if (read < 0) {
+                    logger.debug("Monitored port returned {}, stopping", read);
+                    running = false;
+                }
+            }
+            if (decoder.getCRCErrorCount() > crcErrors && pendingUnit >= 0) {
+                getOrCreateStatistics(pendingUnit).crcError();
+            }
+            if (pendingUnit >= 0 && now - pendingTime > responseTimeout * 1000000L) {
+                timeout();
+            }
+        }
+    }
+
+    /**
+     * Returns the time to transmit one character at the settings of the port
+     *
+     * @return Nanoseconds
+     */
+    private long getCharTime() {
+        int bits = 1 + port.getNumDataBits() + port.getNumStopBits() + (port.getParity() == AbstractSerialConnection.NO_PARITY ? 0 : 1);
+        return bits * 1000000000L / Math.max(port.getBaudRate(), 1);
+    }
+
+    /**
+     * Accounts a frame decoded
+     *
+     * @param now Time the last byte of the frame arrived
+     */
+    private void frame(long now) {
+        int unit = decoder.getUnitID();
+        int function = decoder.getFunctionCode();
+        boolean decode = !listeners.isEmpty();
+        if (decoder.isRequest()) {
+            if (pendingUnit >= 0) {
+                timeout();
+            }
+            ModbusRequest request = decode ? decodeRequest() : null;
+            getOrCreateStatistics(unit).request(now);
+            // Broadcasts to unit 0 are not answered
+            if (unit != 0) {
+                pendingUnit = unit;
+                pendingFunction = function;
+                pendingTime = now;
+                pendingRequest = request;
+                decoder.setExpectRequests(false);
+            }
+            if (request != null) {
+                notifyListeners(REQUEST, request, null, 0);
+            }
+        }
+        else {
+            ModbusResponse response = decode ? decodeResponse() : null;
+            if (unit == pendingUnit && (function & 0x7F) == pendingFunction) {
+                long responseTime = (now - pendingTime) / 1000;
+                getOrCreateStatistics(unit).response(responseTime, (function & 0x80) != 0);
+                if (response != null && pendingRequest != null) {
+                    notifyListeners(TRANSACTION, pendingRequest, response, responseTime);
+                }
+            }
+            else if (response != null) {
+                notifyListeners(UNEXPECTED_RESPONSE, null, response, 0);
+            }
+            clearPending();
+        }
+    }
+
+    private void timeout() {
+        getOrCreateStatistics(pendingUnit).timeout();
+        if (pendingRequest != null) {
+            notifyListeners(TIMEOUT, pendingRequest, null, 0);
+        }
+        clearPending();
+    }
+
+    private void clearPending() {
+        pendingUnit = -1;
+        pendingRequest = null;
+        decoder.setExpectRequests(true);
+    }
+
+    private ModbusRequest decodeRequest() {
+        ModbusRequest request = ModbusRequest.createModbusRequest(decoder.getFunctionCode());
+        request.setHeadless();
+        return readFrame(request) ? request : null;
+    }
+
+    private ModbusResponse decodeResponse() {
+        ModbusResponse response = ModbusResponse.createModbusResponse(decoder.getFunctionCode());
+        response.setHeadless();
+        return readFrame(response) ? response : null;
+    }
+
+    private boolean readFrame(ModbusMessage message) {
+        int length = decoder.getFrameLength() - 2;
+        System.arraycopy(decoder.getBuffer(), decoder.getFrameOffset(), frame, 0, length);
+        frameInput.reset(frame, length);
+        try {
+            message.readFrom(frameInput);
+            return true;
+        }
+        catch (IOException ex) {
+            logger.debug("Cannot decode monitored frame - {}", ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Calls every listener, a listener that throws is logged and does not
+     * keep the others from being called or stop the monitor
+     */
+    private void notifyListeners(int event, ModbusRequest request, ModbusResponse response, long responseTime) {
+        for (Listener listener : listeners) {
+            try {
+                switch (event) {
+                    case REQUEST:
+                        listener.request(request);
+                        break;
+                    case TRANSACTION:
+                        listener.transaction(request, response, responseTime);
+                        break;
+                    case UNEXPECTED_RESPONSE:
+                        listener.unexpectedResponse(response);
+                        break;
+                    default:
+                        listener.timeout(request);
+                }
+            }
+            catch (RuntimeException ex) {
+                logger.warn("Monitor listener {} failed", listener, ex);
+            }
+        }
+    }
+
+    private UnitStatistics getOrCreateStatistics(int unitId) {
+        synchronized (statistics) {
+            UnitStatistics unit = statistics.get(unitId);
+            if (unit == null) {
+                unit = new UnitStatistics(unitId);
+                statistics.put(unitId, unit);
+            }
+            return unit;
+        }
+    }
+}
@@ -15,8 +15,6 @@
  */
 package com.felhr.androidmodbus.io;
 
-import android.util.Log;
-
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.ModbusIOException;
 import com.felhr.androidmodbus.msg.ModbusMessage;
@@ -47,6 +45,29 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
     private final BytesOutputStream byteInputOutputStream = new BytesOutputStream(inBuffer); // to buffer message to
     private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH); // write frames
     private byte[] lastRequest = null;
+    private final byte[] readBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH];
+    private final RTUFrameDecoder requestDecoder = new RTUFrameDecoder(true);
+    private final RTUFrameDecoder responseDecoder = new RTUFrameDecoder(false);
+
+    /**
+     * Returns the decoder of responses, holding the counts of frames
+     * recovered after noise on the line
+     *
+     * @return Response decoder
+     */
+    public RTUFrameDecoder getResponseDecoder() {
+        return responseDecoder;
+    }
+
+    /**
+     * Returns the decoder used to look for requests after a damaged one,
+     * holding the counts of frames recovered
+     *
+     * @return Request decoder
+     */
+    public RTUFrameDecoder getRequestDecoder() {
+        return requestDecoder;
+    }
 
     /**
      * Read the data for a request of a given fixed size
@@ -134,110 +155,6 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
         }
     }
 
-    /**
-     * getResponse - Read a <tt>ModbusResponse</tt> from a slave.
-     *
-     * @param function The function code of the request
-     * @param out      The output buffer to put the result
-     * @throws IOException If data cannot be read from the port
-     */
-    private void getResponse(int function, BytesOutputStream out) throws IOException {
-        byte inpBuf[] = new byte[256];
-        try {
-            if ((function & 0x80) == 0) {
-                switch (function) {
-                    case Modbus.READ_COILS:
-                    case Modbus.READ_INPUT_DISCRETES:
-                    case Modbus.READ_MULTIPLE_REGISTERS:
-                    case Modbus.READ_INPUT_REGISTERS:
-                    case Modbus.READ_COMM_EVENT_LOG:
-                    case Modbus.REPORT_SLAVE_ID:
-                    case Modbus.READ_FILE_RECORD:
-                    case Modbus.WRITE_FILE_RECORD:
-                    case Modbus.READ_WRITE_MULTIPLE:
-                        // Read the data payload byte count. There will be two
-                        // additional CRC bytes afterwards.
-                        int cnt = readByte();
-                        out.write(cnt);
-                        readRequestData(cnt, out);
-                        break;
-
-                    case Modbus.WRITE_COIL:
-                    case Modbus.WRITE_SINGLE_REGISTER:
-                    case Modbus.READ_COMM_EVENT_COUNTER:
-                    case Modbus.WRITE_MULTIPLE_COILS:
-                    case Modbus.WRITE_MULTIPLE_REGISTERS:
-                    case Modbus.READ_SERIAL_DIAGNOSTICS:
-                        // read status: only the CRC remains after the two data
-                        // words.
-                        readRequestData(4, out);
-                        break;
-
-                    case Modbus.READ_EXCEPTION_STATUS:
-                        // read status: only the CRC remains after exception status
-                        // byte.
-                        readRequestData(1, out);
-                        break;
-
-                    case Modbus.MASK_WRITE_REGISTER:
-                        // eight bytes in addition to the address and function codes
-                        readRequestData(6, out);
-                        break;
-
-                    case Modbus.READ_FIFO_QUEUE:
-                        int b1, b2;
-                        b1 = (byte) (readByte() & 0xFF);
-                        out.write(b1);
-                        b2 = (byte) (readByte() & 0xFF);
-                        out.write(b2);
-                        int byteCount = ModbusUtil.makeWord(b1, b2);
-                        readRequestData(byteCount, out);
-                        break;
-
-                    case Modbus.READ_MEI:
-                        // read the subcode. We only support 0x0e.
-                        int sc = readByte();
-                        if (sc != 0x0e) {
-                            throw new IOException("Invalid subfunction code");
-                        }
-                        out.write(sc);
-                        // next few bytes are just copied.
-                        int id, fieldCount;
-                        readBytes(inpBuf, 5);
-                        out.write(inpBuf, 0, 5);
-                        fieldCount = (int) inpBuf[4];
-                        for (int i = 0; i < fieldCount; i++) {
-                            id = readByte();
-                            out.write(id);
-                            int len = readByte();
-                            out.write(len);
-                            readBytes(inpBuf, len);
-                            out.write(inpBuf, 0, len);
-                        }
-                        if (fieldCount == 0) {
-                            int err = readByte();
-                            out.write(err);
-                        }
-                        // now get the 2 CRC bytes
-                        readRequestData(0, out);
-                        break;
-
-                    default:
-                        throw new IOException(String.format("getResponse unrecognised function code [%s]", function));
-
-                }
-            }
-            else {
-                // read the exception code, plus two CRC bytes.
-                readRequestData(1, out);
-
-            }
-        }
-        catch (IOException e) {
-            throw new IOException(String.format("getResponse serial port exception - %s", e.getMessage()));
-        }
-    }
-
     /**
      * Writes the Modbus message to the comms port
      *
@@ -251,6 +168,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                 // first clear any input from the receive buffer to prepare
                 // for the reply since RTU doesn't have message delimiters
                 clearInput();
+                responseDecoder.reset();
                 // write message to byte out
                 byteOutputStream.reset();
                 msg.setHeadless();
@@ -285,6 +203,14 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
         try {
             while (request == null) {
                 synchronized (byteInputStream) {
+                    if (requestDecoder.getPendingBytes() > 0) {
+                        // Bytes that followed a recovered request
+                        request = readDecodedRequest(listener);
+                        if (request != null) {
+                            return request;
+                        }
+                    }
+
                     int uid = readByte();
 
                     byteInputOutputStream.reset();
@@ -323,10 +249,15 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                                 logger.debug("CRC should be {}, {}", Integer.toHexString(crc[0]), Integer.toHexString(crc[1]));
                             }
 
-                            // Drain the input in case the frame was misread and more
-                            // was to follow.
-                            clearInput();
-                            throw new IOException("CRC Error in received frame: " + dlength + " bytes: " + ModbusUtil.toHex(byteInputStream.getBuffer(), 0, dlength));
+                            String error = "CRC Error in received frame: " + dlength + " bytes: " + ModbusUtil.toHex(byteInputStream.getBuffer(), 0, dlength);
+
+                            // The frame was misread or damaged, look for a valid
+                            // request in the rest of it and the bytes that followed
+                            request = recoverRequest(listener, dlength + 2);
+                            if (request == null) {
+                                throw new IOException(error);
+                            }
+                            return request;
                         }
 
                         // read request
@@ -398,6 +329,71 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
         }
     }
 
+    /**
+     * Looks for a valid request after a frame failed the CRC check, in the
+     * frame without its first byte and the bytes received since
+     *
+     * @param listener Listener the request is for
+     * @param length   Length of the damaged frame in the input buffer
+     * @return Request for one of the units of the listener or null if none was found
+     * @throws IOException If the port cannot be read
+     */
+    private ModbusRequest recoverRequest(AbstractModbusListener listener, int length) throws IOException {
+        requestDecoder.feed(inBuffer, 1, length - 1);
+        return readDecodedRequest(listener);
+    }
+
+    /**
+     * Reads through the request decoder until a request for one of the units
+     * of the listener is found, the line is quiet for an inter-frame gap or
+     * the timeout expires. Bytes received after the request stay in the
+     * decoder and are read first by the next call to <tt>readRequestIn</tt>.
+     *
+     * @param listener Listener the request is for
+     * @return Request or null if none was found
+     * @throws IOException If the port cannot be read
+     */
+    private ModbusRequest readDecodedRequest(AbstractModbusListener listener) throws IOException {
+        long deadline = System.nanoTime() + timeout * 1000000L;
+        while (true) {
+            while (requestDecoder.next()) {
+                if (listener.getProcessImage(requestDecoder.getUnitID()) != null) {
+                    return createDecodedRequest();
+                }
+            }
+            if (System.nanoTime() - deadline > 0) {
+                break;
+            }
+            if (availableBytes() < 1 && !spinUntilBytesAvailable(getCharIntervalMicro(Modbus.INTER_MESSAGE_GAP))) {
+                break;
+            }
+            int count = Math.min(availableBytes(), readBuffer.length);
+            readBytes(readBuffer, count);
+            requestDecoder.feed(readBuffer, 0, count);
+        }
+
+        // Nothing more is coming, bytes that can only start a frame are dropped
+        while (requestDecoder.flush()) {
+            if (listener.getProcessImage(requestDecoder.getUnitID()) != null) {
+                return createDecodedRequest();
+            }
+        }
+        return null;
+    }
+
+    private ModbusRequest createDecodedRequest() throws IOException {
+        int dlength = requestDecoder.getFrameLength() - 2;
+        System.arraycopy(requestDecoder.getBuffer(), requestDecoder.getFrameOffset(), inBuffer, 0, dlength);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Recovered request: {}", ModbusUtil.toHex(inBuffer, 0, dlength));
+        }
+        ModbusRequest request = ModbusRequest.createModbusRequest(requestDecoder.getFunctionCode());
+        request.setHeadless();
+        byteInputStream.reset(inBuffer, dlength);
+        request.readFrom(byteInputStream);
+        return request;
+    }
+
     /**
      * readResponse - Read the bytes for the response from the slave.
      *
@@ -406,60 +402,40 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      * @throws com.ghgande.j2mod.modbus.ModbusIOException If the response cannot be read from the socket/port
      */
     protected ModbusResponse readResponseIn() throws ModbusIOException {
-        boolean done;
-        ModbusResponse response;
-        int dlength;
-
         try {
-            do {
-                // 1. read to function code, create request and read function
-                // specific bytes
-                synchronized (byteInputStream) {
-                    int uid = readByte();
-
-                    if (uid != -1) {
-                        int fc = readByte();
-                        byteInputOutputStream.reset();
-                        byteInputOutputStream.writeByte(uid);
-                        byteInputOutputStream.writeByte(fc);
-
-                        // create response to acquire length of message
-                        response = ModbusResponse.createModbusResponse(fc);
-                        response.setHeadless();
-
-                        /*
-                         * With Modbus RTU, there is no end frame. Either we
-                         * assume the message is complete as is or we must do
-                         * function specific processing to know the correct
-                         * length. To avoid moving frame timing to the serial
-                         * input functions, we set the timeout and to message
-                         * specific parsing to read a response.
-                         */
-                        getResponse(fc, byteInputOutputStream);
-                        dlength = byteInputOutputStream.size() - 2; // less the crc
-                        if (logger.isDebugEnabled()) {
-                            logger.debug("Response: {}", ModbusUtil.toHex(byteInputOutputStream.getBuffer(), 0, dlength + 2));
-                        }
-                        byteInputStream.reset(inBuffer, dlength);
-
-                        // check CRC
-                        int[] crc = ModbusUtil.calculateCRC(inBuffer, 0, dlength); // does not include CRC
-                        if (ModbusUtil.unsignedByteToInt(inBuffer[dlength]) != crc[0] || ModbusUtil.unsignedByteToInt(inBuffer[dlength + 1]) != crc[1]) {
-                            logger.debug("CRC should be {}, {}", crc[0], crc[1]);
-                            throw new IOException("CRC Error in received frame: " + dlength + " bytes: " + ModbusUtil.toHex(byteInputStream.getBuffer(), 0, dlength));
-                        }
+            synchronized (byteInputStream) {
+                // Read until a complete frame with a valid CRC is found,
+                // skipping over noise and damaged frames before it
+                long deadline = System.nanoTime() + timeout * 1000000L;
+                boolean found = responseDecoder.next();
+                while (!found) {
+                    if (responseDecoder.getPendingBytes() > 0 && availableBytes() < 1
+                            && !spinUntilBytesAvailable(getCharIntervalMicro(Modbus.INTER_MESSAGE_GAP))) {
+                        // The line is quiet, bytes that can only start a frame are dropped
+                        found = responseDecoder.flush();
+                        continue;
                     }
-                    else {
-                        throw new IOException("Error reading response");
+                    if (System.nanoTime() - deadline > 0) {
+                        throw new IOException("No valid response before the timeout");
                     }
-
-                    // read response
-                    byteInputStream.reset(inBuffer, dlength);
-                    response.readFrom(byteInputStream);
-                    done = true;
+                    int count = Math.min(Math.max(availableBytes(), 1), readBuffer.length);
+                    readBytes(readBuffer, count);
+                    responseDecoder.feed(readBuffer, 0, count);
+                    found = responseDecoder.next();
                 }
-            } while (!done);
-            return response;
+                int dlength = responseDecoder.getFrameLength() - 2; // less the crc
+                System.arraycopy(responseDecoder.getBuffer(), responseDecoder.getFrameOffset(), inBuffer, 0, dlength);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Response: {}", ModbusUtil.toHex(inBuffer, 0, dlength));
+                }
+
+                // read response
+                ModbusResponse response = ModbusResponse.createModbusResponse(responseDecoder.getFunctionCode());
+                response.setHeadless();
+                byteInputStream.reset(inBuffer, dlength);
+                response.readFrom(byteInputStream);
+                return response;
+            }
         }
         catch (IOException ex) {
             // FIXME: This printout is wrong when reading response from other slave
@@ -131,24 +131,32 @@ public class ModbusSerialTransaction extends ModbusTransaction {
         int tries = 0;
         boolean finished = false;
         do {
+            boolean written = false;
             try {
                 // Wait between adjacent requests
                 ((ModbusSerialTransport) transport).waitBetweenFrames(transDelayMS, lastTransactionTimestamp);
 
                 synchronized (MUTEX) {
                     //write request message
+                    long startTime = System.nanoTime();
                     transport.writeRequest(request);
+                    written = true;
                     //read response message
                     response = transport.readResponse();
+                    recordResponse(startTime);
                     finished = true;
                 }
             }
             catch (ModbusIOException e) {
+                if (written) {
+                    recordTimeout();
+                }
                 if (++tries >= retries) {
                     throw e;
                 }
                 ModbusUtil.sleep(getRandomSleepTime(tries));
                 logger.debug("Execute try {} error: {}", tries, e.getMessage());
+                recordRetry();
             }
         } while (!finished);
 
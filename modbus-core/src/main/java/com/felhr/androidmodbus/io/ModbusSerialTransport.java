@@ -15,8 +15,6 @@
  */
 package com.felhr.androidmodbus.io;
 
-import android.util.Log;
-
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.ModbusIOException;
 import com.felhr.androidmodbus.msg.ModbusMessage;
@@ -46,15 +44,6 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusSerialTransport.class);
 
-    /**
-     * Defines a virtual number for the FRAME START token (COLON).
-     */
-    static final int FRAME_START = 1000;
-    /**
-     * Defines a virtual number for the FRAME_END token (CR LF).
-     */
-    static final int FRAME_END = 2000;
-
     /**
      * The number of nanoseconds there is in a millisecond
      */
@@ -134,7 +123,6 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
         catch (Exception e) {
             logger.debug("nothing to do");
         }
-        Log.i("Modbus", "Modbus Notify");
         notifyListenersAfterWrite(msg);
     }
 
@@ -447,112 +435,6 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
         }
     }
 
-    /**
-     * Reads an ascii byte from the input stream
-     * It handles the special start and end frame markers
-     *
-     * @return Byte value of the next ASCII couplet
-     *
-     * @throws IOException If a problem with the port
-     */
-    int readAsciiByte() throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer = new byte[1];
-            int cnt = commPort.readBytes(buffer, 1);
-            if (cnt != 1) {
-                throw new IOException("Cannot read from serial port");
-            }
-            else if (buffer[0] == ':') {
-                return ModbusASCIITransport.FRAME_START;
-            }
-            else if (buffer[0] == '\r' || buffer[0] == '\n') {
-                return ModbusASCIITransport.FRAME_END;
-            }
-            else {
-                logger.debug("Read From buffer: " + buffer[0] + " (" + String.format("%02X", buffer[0]) + ")");
-                byte firstValue = buffer[0];
-                cnt = commPort.readBytes(buffer, 1);
-                if (cnt != 1) {
-                    throw new IOException("Cannot read from serial port");
-                }
-                else {
-                    logger.debug("Read From buffer: " + buffer[0] + " (" + String.format("%02X", buffer[0]) + ")");
-                    int combinedValue = (Character.digit(firstValue, 16) << 4) + Character.digit(buffer[0], 16);
-                    logger.debug("Returning combined value of: " + String.format("%02X", combinedValue));
-                    return combinedValue;
-                }
-            }
-        }
-        else {
-            throw new IOException("Comm port is not valid or not open");
-        }
-    }
-
-    /**
-     * Writes out a byte value as an ascii character
-     * If the value is the special start/end characters, then
-     * allowance is made for these
-     *
-     * @param value Value to write
-     * @return Number of bytes written
-     *
-     * @throws IOException If a problem with the port
-     */
-    final int writeAsciiByte(int value) throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer;
-
-            if (value == ModbusASCIITransport.FRAME_START) {
-                buffer = new byte[]{58};
-                logger.debug("Wrote FRAME_START");
-            }
-            else if (value == ModbusASCIITransport.FRAME_END) {
-                buffer = new byte[]{13, 10};
-                logger.debug("Wrote FRAME_END");
-            }
-            else {
-                buffer = ModbusUtil.toHex(value);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Wrote byte {}={}", value, ModbusUtil.toHex(value));
-                }
-            }
-            if (buffer != null) {
-                return commPort.writeBytes(buffer, buffer.length);
-            }
-            else {
-                throw new IOException("Message to send is empty");
-            }
-        }
-        else {
-            throw new IOException("Comm port is not valid or not open");
-        }
-    }
-
-    /**
-     * Writes an array of bytes out as a stream of ascii characters
-     *
-     * @param buffer       Buffer of bytes to write
-     * @param bytesToWrite Number of characters to write
-     * @return Number of bytes written
-     *
-     * @throws IOException If a problem with the port
-     */
-    int writeAsciiBytes(byte[] buffer, long bytesToWrite) throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            int cnt = 0;
-            for (int i = 0; i < bytesToWrite; i++) {
-                if (writeAsciiByte(buffer[i]) != 2) {
-                    return cnt;
-                }
-                cnt++;
-            }
-            return cnt;
-        }
-        else {
-            throw new IOException("Comm port is not valid or not open");
-        }
-    }
-
     /**
      * clearInput - Clear the input if characters are found in the input stream.
      *
@@ -683,7 +565,8 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
         while (availableBytes() < 1) {
             long delta = System.nanoTime() - start;
             if (delta > waitTimeMicroSec * 1000) {
-                return false;
+                // The thread may have been descheduled after the last poll
+                return availableBytes() > 0;
             }
         }
         return true;
@@ -138,11 +138,14 @@ public class ModbusTCPTransaction extends ModbusTransaction {
             // Make sure the timeout is set
             transport.setTimeout(connection.getTimeout());
 
+            boolean written = false;
             try {
 
                 // Write the message to the endpoint
                 logger.debug("Writing request: {} (try: {}) request transaction ID = {} to {}:{}", request.getHexMessage(), retryCounter, request.getTransactionID(), connection.getAddress().toString(), connection.getPort());
+                long startTime = System.nanoTime();
                 transport.writeRequest(request);
+                written = true;
 
                 // Read the response
                 response = transport.readResponse();
@@ -151,6 +154,7 @@ public class ModbusTCPTransaction extends ModbusTransaction {
 
                 // The slave may have returned an exception -- check for that.
                 if (response instanceof ExceptionResponse) {
+                    recordResponse(startTime);
                     throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
                 }
 
@@ -172,9 +176,17 @@ public class ModbusTCPTransaction extends ModbusTransaction {
                         logger.debug("Failed to get a valid response, transaction IDs do not match (try: {}) - retrying after {} milliseconds", retryCounter, sleepTime);
                     }
                     ModbusUtil.sleep(sleepTime);
+                    recordRetry();
+                }
+                else {
+                    // Only the response that is accepted counts as answered
+                    recordResponse(startTime);
                 }
             }
             catch (ModbusIOException ex) {
+                if (written) {
+                    recordTimeout();
+                }
 
                 // Up the retry counter and check if we are exhausted
                 retryCounter++;
@@ -185,6 +197,7 @@ public class ModbusTCPTransaction extends ModbusTransaction {
                     long sleepTime = getRandomSleepTime(retryCounter);
                     logger.debug("Failed transaction Request: {} (try: {}) - retrying after {} milliseconds", request.getHexMessage(), retryCounter, sleepTime);
                     ModbusUtil.sleep(sleepTime);
+                    recordRetry();
                 }
 
                 // If this has happened, then we should close and re-open the connection before re-trying
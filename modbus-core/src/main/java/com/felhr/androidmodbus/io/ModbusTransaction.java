@@ -18,6 +18,8 @@ package com.felhr.androidmodbus.io;
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.ModbusException;
 import com.felhr.androidmodbus.ModbusIOException;
+import com.felhr.androidmodbus.metrics.TransactionMetrics;
+import com.felhr.androidmodbus.msg.ExceptionResponse;
 import com.felhr.androidmodbus.msg.ModbusRequest;
 import com.felhr.androidmodbus.msg.ModbusResponse;
 
@@ -39,6 +41,7 @@ public abstract class ModbusTransaction {
     protected AbstractModbusTransport transport;
     protected ModbusRequest request;
     protected ModbusResponse response;
+    protected TransactionMetrics metrics;
     boolean validityCheck = Modbus.DEFAULT_VALIDITYCHECK;
     int retries = Modbus.DEFAULT_RETRIES;
     private Random random = new Random(System.nanoTime());
@@ -126,6 +129,26 @@ public abstract class ModbusTransaction {
         validityCheck = b;
     }
 
+    /**
+     * Returns the metrics this transaction records into
+     *
+     * @return Metrics or null if not recording
+     */
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics this transaction records latencies, retries, timeouts,
+     * exception responses and bytes on the wire into.
+     * Recording is disabled when set to null, which is the default.
+     *
+     * @param metrics Metrics to record into or null
+     */
+    public void setMetrics(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * getTransactionID -- get the next transaction ID to use.
      * @return next transaction ID to use
@@ -155,6 +178,37 @@ public abstract class ModbusTransaction {
         return (Modbus.RETRY_SLEEP_TIME / 2) + (long) (random.nextDouble() * Modbus.RETRY_SLEEP_TIME * count);
     }
 
+    /**
+     * Records the response that has just been read for the current request
+     *
+     * @param startNanos <tt>System.nanoTime()</tt> taken before the request was written
+     */
+    void recordResponse(long startNanos) {
+        if (metrics != null && request != null && response != null) {
+            int exceptionCode = response instanceof ExceptionResponse ? ((ExceptionResponse) response).getExceptionCode() : 0;
+            metrics.recordResponse(request.getUnitID(), request.getFunctionCode(), System.nanoTime() - startNanos,
+                    request.getOutputLength(), response.getOutputLength(), exceptionCode);
+        }
+    }
+
+    /**
+     * Records that the current request was written but no response could be read
+     */
+    void recordTimeout() {
+        if (metrics != null && request != null) {
+            metrics.recordTimeout(request.getUnitID(), request.getFunctionCode(), request.getOutputLength());
+        }
+    }
+
+    /**
+     * Records that the current request is about to be sent again
+     */
+    void recordRetry() {
+        if (metrics != null && request != null) {
+            metrics.recordRetry(request.getUnitID(), request.getFunctionCode());
+        }
+    }
+
     /**
      * Checks the validity of the transaction, by
      * checking if the values of the response correspond
@@ -120,24 +120,32 @@ public class ModbusUDPTransaction extends ModbusTransaction {
         //I/O Exception problems.
         int retryCount = 0;
         while (retryCount <= retries) {
+            boolean written = false;
             try {
                 //3. write request, and read response,
                 //   while holding the lock on the IO object
                 synchronized (MUTEX) {
                     //write request message
+                    long startTime = System.nanoTime();
                     transport.writeRequest(request);
+                    written = true;
                     //read response message
                     response = transport.readResponse();
+                    recordResponse(startTime);
                     break;
                 }
             }
             catch (ModbusIOException ex) {
+                if (written) {
+                    recordTimeout();
+                }
                 retryCount++;
                 if (retryCount > retries) {
                     logger.error("Cannot send UDP message", ex);
                 }
                 else {
                     ModbusUtil.sleep(getRandomSleepTime(retryCount));
+                    recordRetry();
                 }
             }
         }
@@ -0,0 +1,460 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.util.ModbusUtil;
+
+/**
+ * Incremental decoder of Modbus RTU frames that recovers from line noise.
+ *
+ * Bytes are fed as they arrive. The length of a frame is predicted from its
+ * function code and length fields, and a frame is returned once it is
+ * complete and its CRC matches. If the CRC does not match or the bytes
+ * cannot start a frame, the decoder moves one byte forward and tries again,
+ * so a valid frame following noise or a damaged frame is still found.
+ * <pre>
+ * decoder.feed(bytes, 0, count);
+ * while (decoder.next()) {
+ *     handle(decoder.getBuffer(), decoder.getFrameOffset(), decoder.getFrameLength());
+ * }
+ * </pre>
+ * A frame is valid until the next call to {@link #feed(byte[], int, int)}.
+ * <p>
+ * A decoder listening to both directions, as on a bus being monitored,
+ * tries the expected direction first and the other one if that fails, see
+ * {@link #setBothDirections(boolean)}.
+ */
+public class RTUFrameDecoder {
+
+    private static final int NEED_MORE = -1;
+    private static final int INVALID = -2;
+    private static final int MAX_FRAME = Modbus.MAX_MESSAGE_LENGTH;
+
+    private boolean requests;
+    private boolean bothDirections;
+    private boolean request;
+    private final byte[] buffer = new byte[MAX_FRAME * 4];
+    private int start;
+    private int end;
+    private int frameOffset = -1;
+    private int frameLength;
+    private boolean resyncing;
+    private long frames;
+    private long crcErrors;
+    private long resyncs;
+    private long discarded;
+
+    /**
+     * Creates a decoder
+     *
+     * @param requests True to decode requests sent by a master, false for responses
+     */
+    public RTUFrameDecoder(boolean requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Sets the direction expected next
+     *
+     * @param requests True if a request is expected, false for a response
+     */
+    public void setExpectRequests(boolean requests) {
+        this.requests = requests;
+    }
+
+    /**
+     * Sets whether frames of the other direction are accepted too
+     *
+     * @param bothDirections True to accept requests and responses
+     */
+    public void setBothDirections(boolean bothDirections) {
+        this.bothDirections = bothDirections;
+    }
+
+    /**
+     * Tests if the frame was decoded as a request
+     *
+     * @return True for a request, false for a response
+     */
+    public boolean isRequest() {
+        checkFrame();
+        return request;
+    }
+
+    /**
+     * Adds received bytes
+     *
+     * @param data Bytes
+     * @param off  Offset of the first byte
+     * @param len  Number of bytes
+     */
+    public void feed(byte[] data, int off, int len) {
+        frameOffset = -1;
+        while (len > 0) {
+            if (end == buffer.length) {
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                else {
+                    // Nothing in a full buffer forms a frame, drop the oldest bytes
+                    skip(MAX_FRAME);
+                    continue;
+                }
+            }
+            int n = Math.min(len, buffer.length - end);
+            System.arraycopy(data, off, buffer, end, n);
+            end += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Looks for the next complete frame among the bytes received
+     *
+     * @return True if a frame was found, false if more bytes are needed
+     */
+    public boolean next() {
+        return scan(false);
+    }
+
+    /**
+     * Looks for the next complete frame when no more bytes are expected,
+     * bytes that can only be the start of an incomplete frame are discarded
+     *
+     * @return True if a frame was found
+     */
+    public boolean flush() {
+        return scan(true);
+    }
+
+    /**
+     * Discards all bytes received
+     */
+    public void reset() {
+        discarded += end - start;
+        start = 0;
+        end = 0;
+        frameOffset = -1;
+        resyncing = false;
+    }
+
+    /**
+     * Returns the buffer holding the frame
+     *
+     * @return Buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the offset of the frame in the buffer
+     *
+     * @return Offset of the unit id
+     */
+    public int getFrameOffset() {
+        checkFrame();
+        return frameOffset;
+    }
+
+    /**
+     * Returns the length of the frame, CRC included
+     *
+     * @return Length in bytes
+     */
+    public int getFrameLength() {
+        checkFrame();
+        return frameLength;
+    }
+
+    /**
+     * Returns the unit id of the frame
+     *
+     * @return Unit id
+     */
+    public int getUnitID() {
+        checkFrame();
+        return buffer[frameOffset] & 0xFF;
+    }
+
+    /**
+     * Returns the function code of the frame
+     *
+     * @return Function code, with the exception bit if set
+     */
+    public int getFunctionCode() {
+        checkFrame();
+        return buffer[frameOffset + 1] & 0xFF;
+    }
+
+    /**
+     * Returns the number of bytes received but not decoded yet
+     *
+     * @return Number of bytes
+     */
+    public int getPendingBytes() {
+        return end - start;
+    }
+
+    /**
+     * Returns the number of frames decoded
+     *
+     * @return Number of frames
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of times a frame failed the CRC check
+     *
+     * @return Number of CRC errors
+     */
+    public long getCRCErrorCount() {
+        return crcErrors;
+    }
+
+    /**
+     * Returns the number of frames found after discarding bytes
+     *
+     * @return Number of recovered frames
+     */
+    public long getResyncCount() {
+        return resyncs;
+    }
+
+    /**
+     * Returns the number of bytes discarded while looking for frames
+     *
+     * @return Number of bytes
+     */
+    public long getDiscardedByteCount() {
+        return discarded;
+    }
+
+    private boolean scan(boolean idle) {
+        frameOffset = -1;
+        while (end - start > 0) {
+            int waiting = 0;
+            boolean crcError = false;
+            for (int i = 0; i < (bothDirections ? 2 : 1); i++) {
+                boolean direction = requests == (i == 0);
+                int length = end - start < 2 ? NEED_MORE : predictLength(direction);
+                if (length == INVALID) {
+                    continue;
+                }
+                if (length == NEED_MORE || end - start < length) {
+                    waiting++;
+                    continue;
+                }
+                int[] crc = ModbusUtil.calculateCRC(buffer, start, start + length - 2); // takes the end index
+                if ((buffer[start + length - 2] & 0xFF) == crc[0] && (buffer[start + length - 1] & 0xFF) == crc[1]) {
+                    frameOffset = start;
+                    frameLength = length;
+                    request = direction;
+                    start += length;
+                    frames++;
+                    if (resyncing) {
+                        resyncs++;
+                        resyncing = false;
+                    }
+                    return true;
+                }
+                crcError = true;
+            }
+            if (waiting > 0 && !idle) {
+                return false;
+            }
+            if (crcError && !resyncing) {
+                crcErrors++;
+            }
+            skip(1);
+        }
+        return false;
+    }
+
+    private void skip(int n) {
+        start += n;
+        discarded += n;
+        resyncing = true;
+        if (start == end) {
+            start = 0;
+            end = 0;
+        }
+    }
+
+    /**
+     * Predicts the length of the frame starting at the first byte received
+     *
+     * @param requests True to read the bytes as a request, false as a response
+     * @return Length including the CRC, {@link #NEED_MORE} or {@link #INVALID}
+     */
+    private int predictLength(boolean requests) {
+        int unit = buffer[start] & 0xFF;
+        int function = buffer[start + 1] & 0xFF;
+        if (unit > 247 || (unit == 0 && !requests)) {
+            return INVALID;
+        }
+        if ((function & 0x80) != 0) {
+            return requests || !isKnown(function & 0x7F) ? INVALID : 5;
+        }
+        int length = requests ? requestLength(function) : responseLength(function);
+        return length > MAX_FRAME ? INVALID : length;
+    }
+
+    private int requestLength(int function) {
+        switch (function) {
+            case Modbus.READ_EXCEPTION_STATUS:
+            case Modbus.READ_COMM_EVENT_COUNTER:
+            case Modbus.READ_COMM_EVENT_LOG:
+            case Modbus.REPORT_SLAVE_ID:
+                return 4;
+            case Modbus.READ_FIFO_QUEUE:
+                return 6;
+            case Modbus.READ_MEI:
+                return 7;
+            case Modbus.READ_COILS:
+            case Modbus.READ_INPUT_DISCRETES:
+            case Modbus.READ_MULTIPLE_REGISTERS:
+            case Modbus.READ_INPUT_REGISTERS:
+            case Modbus.WRITE_COIL:
+            case Modbus.WRITE_SINGLE_REGISTER:
+            case Modbus.READ_SERIAL_DIAGNOSTICS:
+                return 8;
+            case Modbus.MASK_WRITE_REGISTER:
+                return 10;
+            case Modbus.READ_FILE_RECORD:
+            case Modbus.WRITE_FILE_RECORD:
+                return countedLength(2, 1);
+            case Modbus.WRITE_MULTIPLE_COILS:
+            case Modbus.WRITE_MULTIPLE_REGISTERS:
+                return countedLength(6, 1);
+            case Modbus.READ_WRITE_MULTIPLE:
+                return countedLength(10, 1);
+            default:
+                return INVALID;
+        }
+    }
+
+    private int responseLength(int function) {
+        switch (function) {
+            case Modbus.READ_MULTIPLE_REGISTERS:
+            case Modbus.READ_INPUT_REGISTERS:
+            case Modbus.READ_WRITE_MULTIPLE:
+                if (end - start > 2 && (buffer[start + 2] & 1) != 0) {
+                    return INVALID;
+                }
+                return countedLength(2, 1);
+            case Modbus.READ_COILS:
+            case Modbus.READ_INPUT_DISCRETES:
+            case Modbus.READ_COMM_EVENT_LOG:
+            case Modbus.REPORT_SLAVE_ID:
+            case Modbus.READ_FILE_RECORD:
+            case Modbus.WRITE_FILE_RECORD:
+                return countedLength(2, 1);
+            case Modbus.WRITE_COIL:
+            case Modbus.WRITE_SINGLE_REGISTER:
+            case Modbus.READ_COMM_EVENT_COUNTER:
+            case Modbus.WRITE_MULTIPLE_COILS:
+            case Modbus.WRITE_MULTIPLE_REGISTERS:
+            case Modbus.READ_SERIAL_DIAGNOSTICS:
+                return 8;
+            case Modbus.READ_EXCEPTION_STATUS:
+                return 5;
+            case Modbus.MASK_WRITE_REGISTER:
+                return 10;
+            case Modbus.READ_FIFO_QUEUE:
+                return countedLength(2, 2);
+            case Modbus.READ_MEI:
+                return meiLength();
+            default:
+                return INVALID;
+        }
+    }
+
+    /**
+     * Length of a frame whose data ends with a byte count
+     *
+     * @param index Index of the count within the frame
+     * @param size  Size of the count, 1 or 2 bytes
+     * @return Length including the CRC or {@link #NEED_MORE}
+     */
+    private int countedLength(int index, int size) {
+        if (end - start < index + size) {
+            return NEED_MORE;
+        }
+        int count = buffer[start + index] & 0xFF;
+        if (size == 2) {
+            count = (count << 8) | (buffer[start + index + 1] & 0xFF);
+        }
+        return index + size + count + 2;
+    }
+
+    /**
+     * Length of a read device identification response
+     *
+     * @return Length including the CRC, {@link #NEED_MORE} or {@link #INVALID}
+     */
+    private int meiLength() {
+        int available = end - start;
+        if (available < 3) {
+            return NEED_MORE;
+        }
+        if ((buffer[start + 2] & 0xFF) != 0x0e) {
+            return INVALID;
+        }
+        if (available < 8) {
+            return NEED_MORE;
+        }
+        int fields = buffer[start + 7] & 0xFF;
+        int index = 8;
+        if (fields == 0) {
+            index++;
+        }
+        for (int i = 0; i < fields; i++) {
+            if (available < index + 2) {
+                return NEED_MORE;
+            }
+            index += 2 + (buffer[start + index + 1] & 0xFF);
+            if (index + 2 > MAX_FRAME) {
+                return INVALID;
+            }
+        }
+        return index + 2;
+    }
+
+    private static boolean isKnown(int function) {
+        switch (function) {
+            case Modbus.READ_COILS:
+            case Modbus.READ_INPUT_DISCRETES:
+            case Modbus.READ_MULTIPLE_REGISTERS:
+            case Modbus.READ_INPUT_REGISTERS:
+            case Modbus.WRITE_COIL:
+            case Modbus.WRITE_SINGLE_REGISTER:
+            case Modbus.READ_EXCEPTION_STATUS:
+            case Modbus.READ_SERIAL_DIAGNOSTICS:
+            case Modbus.READ_COMM_EVENT_COUNTER:
+            case Modbus.READ_COMM_EVENT_LOG:
+            case Modbus.WRITE_MULTIPLE_COILS:
+            case Modbus.WRITE_MULTIPLE_REGISTERS:
+            case Modbus.REPORT_SLAVE_ID:
+            case Modbus.READ_FILE_RECORD:
+            case Modbus.WRITE_FILE_RECORD:
+            case Modbus.MASK_WRITE_REGISTER:
+            case Modbus.READ_WRITE_MULTIPLE:
+            case Modbus.READ_FIFO_QUEUE:
+            case Modbus.READ_MEI:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void checkFrame() {
+        if (frameOffset < 0) {
+            throw new IllegalStateException("No complete frame");
+        }
+    }
+}
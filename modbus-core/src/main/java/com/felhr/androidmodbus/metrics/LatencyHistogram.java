@@ -0,0 +1,222 @@
+package com.felhr.androidmodbus.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-linear latency histogram in the style of HdrHistogram.
+ *
+ * Values are recorded in microseconds. Every power of two range is split into
+ * {@link #SUB_BUCKET_HALF} linear sub buckets, which bounds the relative error
+ * of any reported value to roughly 3%. All buckets are allocated up front so
+ * recording a value is a handful of atomic increments and never allocates.
+ * Values above {@link #MAX_TRACKABLE_MICROS} are clamped into the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+    private static final int MAX_MAGNITUDE = 36;
+
+    /**
+     * Largest value (in microseconds) that is tracked without clamping, roughly 38 hours
+     */
+    public static final long MAX_TRACKABLE_MICROS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong minMicros = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency measured with <tt>System.nanoTime()</tt>
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param micros Latency in microseconds
+     */
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        else if (micros > MAX_TRACKABLE_MICROS) {
+            micros = MAX_TRACKABLE_MICROS;
+        }
+        counts.incrementAndGet(bucketIndex(micros));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+
+        long current = minMicros.get();
+        while (micros < current && !minMicros.compareAndSet(current, micros)) {
+            current = minMicros.get();
+        }
+        current = maxMicros.get();
+        while (micros > current && !maxMicros.compareAndSet(current, micros)) {
+            current = maxMicros.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values
+     *
+     * @return Count of values
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalMicros.set(0);
+        minMicros.set(Long.MAX_VALUE);
+        maxMicros.set(0);
+    }
+
+    /**
+     * Takes a point in time copy of the histogram.
+     * Values recorded concurrently with the copy may or may not be included.
+     *
+     * @return Immutable snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        long min = minMicros.get();
+        return new Snapshot(copy, count, totalMicros.get(), count == 0 ? 0 : min, maxMicros.get());
+    }
+
+    /**
+     * Maps a value onto its bucket
+     *
+     * @param micros Value in microseconds
+     * @return Bucket index
+     */
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (micros >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * Returns the highest value that falls into the given bucket
+     *
+     * @param index Bucket index
+     * @return Highest value in microseconds
+     */
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF + 1;
+        long subBucket = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long total, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values in this snapshot
+         *
+         * @return Count of values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the lowest recorded value
+         *
+         * @return Microseconds
+         */
+        public long getMin() {
+            return min;
+        }
+
+        /**
+         * Returns the highest recorded value
+         *
+         * @return Microseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the mean of all recorded values
+         *
+         * @return Microseconds
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * Returns the value below which the given percentage of values fall
+         *
+         * @param percentile Percentile in the range 0 to 100
+         * @return Microseconds, never higher than the recorded maximum
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            double bounded = Math.min(Math.max(percentile, 0.0), 100.0);
+            long target = Math.max(1, (long) Math.ceil(bounded / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(highestValueInBucket(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d min=%dus mean=%.1fus p50=%dus p99=%dus max=%dus", count, min, getMean(), getValueAtPercentile(50), getValueAtPercentile(99), max);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.felhr.androidmodbus.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Slave side metrics for a single listener.
+ *
+ * Requests are counted for the listener as a whole and, for TCP listeners,
+ * per client address so that busy masters can be told apart. Attach an
+ * instance with
+ * {@link com.felhr.androidmodbus.net.AbstractModbusListener#setMetrics(ListenerMetrics)}.
+ */
+public class ListenerMetrics {
+
+    private final String name;
+    private final long startTime = System.currentTimeMillis();
+    private final Counters total = new Counters();
+    private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicLong totalConnections = new AtomicLong();
+
+    /**
+     * Creates the metrics for a listener
+     *
+     * @param name Name of the listener e.g. port number or serial port name
+     */
+    public ListenerMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the listener these metrics belong to
+     *
+     * @return Listener name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a new client connection
+     *
+     * @param address Address of the client
+     * @return Client the requests of the connection are recorded against
+     */
+    public Client connectionOpened(String address) {
+        Client client = clients.get(address);
+        if (client == null) {
+            Client created = new Client(address);
+            client = clients.putIfAbsent(address, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        client.activeConnections.incrementAndGet();
+        client.totalConnections.incrementAndGet();
+        activeConnections.incrementAndGet();
+        totalConnections.incrementAndGet();
+        return client;
+    }
+
+    /**
+     * Records that a client connection has been closed
+     *
+     * @param client Client returned when the connection was opened
+     */
+    public void connectionClosed(Client client) {
+        if (client != null) {
+            client.activeConnections.decrementAndGet();
+            activeConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Records a handled request
+     *
+     * @param client          Client the request came from or null if not known
+     * @param functionCode    Function code of the request
+     * @param processingNanos Time taken to create the response
+     * @param writeNanos      Time taken to write the response
+     * @param bytesIn         Size of the request on the wire
+     * @param bytesOut        Size of the response on the wire, 0 if nothing was sent
+     * @param exceptionCode   Exception code of the response or 0 if it is not an exception
+     */
+    public void recordRequest(Client client, int functionCode, long processingNanos, long writeNanos, int bytesIn, int bytesOut, int exceptionCode) {
+        total.record(functionCode, processingNanos, writeNanos, bytesIn, bytesOut, exceptionCode);
+        if (client != null) {
+            client.counters.record(functionCode, processingNanos, writeNanos, bytesIn, bytesOut, exceptionCode);
+        }
+    }
+
+    /**
+     * Returns a point in time copy of the listener totals and of every client seen so far
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        Map<String, ClientStats> clientStats = new TreeMap<String, ClientStats>();
+        for (Client client : clients.values()) {
+            clientStats.put(client.address, new ClientStats(client));
+        }
+        return new Snapshot(this, clientStats);
+    }
+
+    /**
+     * Per client state handed out by {@link #connectionOpened(String)}
+     */
+    public static class Client {
+        private final String address;
+        private final Counters counters = new Counters();
+        private final AtomicInteger activeConnections = new AtomicInteger();
+        private final AtomicLong totalConnections = new AtomicLong();
+
+        private Client(String address) {
+            this.address = address;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+    }
+
+    /**
+     * Mutable counters shared by the listener totals and the clients
+     */
+    private static class Counters {
+        final AtomicLongArray requests = new AtomicLongArray(128);
+        final AtomicLongArray exceptions = new AtomicLongArray(256);
+        final LatencyHistogram processing = new LatencyHistogram();
+        final LatencyHistogram writing = new LatencyHistogram();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+
+        void record(int functionCode, long processingNanos, long writeNanos, int in, int out, int exceptionCode) {
+            requests.incrementAndGet(functionCode & 0x7F);
+            if (exceptionCode != 0) {
+                exceptions.incrementAndGet(exceptionCode & 0xFF);
+            }
+            processing.recordNanos(processingNanos);
+            writing.recordNanos(writeNanos);
+            bytesIn.addAndGet(in);
+            bytesOut.addAndGet(out);
+        }
+    }
+
+    /**
+     * Immutable copy of a set of counters
+     */
+    public static class Stats {
+
+        private final long[] requests;
+        private final long[] exceptions;
+        private final long requestCount;
+        private final long exceptionCount;
+        private final LatencyHistogram.Snapshot processing;
+        private final LatencyHistogram.Snapshot writing;
+        private final long bytesIn;
+        private final long bytesOut;
+
+        private Stats(Counters counters) {
+            requests = new long[counters.requests.length()];
+            long count = 0;
+            for (int i = 0; i < requests.length; i++) {
+                requests[i] = counters.requests.get(i);
+                count += requests[i];
+            }
+            requestCount = count;
+            exceptions = new long[counters.exceptions.length()];
+            count = 0;
+            for (int i = 0; i < exceptions.length; i++) {
+                exceptions[i] = counters.exceptions.get(i);
+                count += exceptions[i];
+            }
+            exceptionCount = count;
+            processing = counters.processing.snapshot();
+            writing = counters.writing.snapshot();
+            bytesIn = counters.bytesIn.get();
+            bytesOut = counters.bytesOut.get();
+        }
+
+        /**
+         * Returns the number of requests handled
+         *
+         * @return Number of requests
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * Returns the number of requests handled for a function code
+         *
+         * @param functionCode Function code
+         * @return Number of requests
+         */
+        public long getRequestCount(int functionCode) {
+            return requests[functionCode & 0x7F];
+        }
+
+        /**
+         * Returns the number of exception responses sent
+         *
+         * @return Number of exception responses
+         */
+        public long getExceptionCount() {
+            return exceptionCount;
+        }
+
+        /**
+         * Returns the number of exception responses sent with the given code
+         *
+         * @param exceptionCode Exception code e.g. {@link com.felhr.androidmodbus.Modbus#ILLEGAL_ADDRESS_EXCEPTION}
+         * @return Number of exception responses
+         */
+        public long getExceptionCount(int exceptionCode) {
+            return exceptions[exceptionCode & 0xFF];
+        }
+
+        /**
+         * Returns the time taken to turn requests into responses
+         *
+         * @return Histogram snapshot
+         */
+        public LatencyHistogram.Snapshot getProcessingTime() {
+            return processing;
+        }
+
+        /**
+         * Returns the time taken to write responses to the transport
+         *
+         * @return Histogram snapshot
+         */
+        public LatencyHistogram.Snapshot getWriteTime() {
+            return writing;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            buf.append("requests=").append(requestCount);
+            for (int i = 0; i < requests.length; i++) {
+                if (requests[i] > 0) {
+                    buf.append(" fc").append(i).append('=').append(requests[i]);
+                }
+            }
+            buf.append(" exceptions=").append(exceptionCount);
+            for (int i = 0; i < exceptions.length; i++) {
+                if (exceptions[i] > 0) {
+                    buf.append(" ex").append(i).append('=').append(exceptions[i]);
+                }
+            }
+            buf.append(" in=").append(bytesIn).append(" out=").append(bytesOut);
+            buf.append(" processing[").append(processing).append(']');
+            buf.append(" write[").append(writing).append(']');
+            return buf.toString();
+        }
+    }
+
+    /**
+     * Immutable copy of the counters of a client
+     */
+    public static class ClientStats extends Stats {
+
+        private final String address;
+        private final int activeConnections;
+        private final long totalConnections;
+
+        private ClientStats(Client client) {
+            super(client.counters);
+            address = client.address;
+            activeConnections = client.activeConnections.get();
+            totalConnections = client.totalConnections.get();
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public int getActiveConnections() {
+            return activeConnections;
+        }
+
+        public long getTotalConnections() {
+            return totalConnections;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s active=%d connections=%d %s", address, activeConnections, totalConnections, super.toString());
+        }
+    }
+
+    /**
+     * Immutable copy of the whole listener metrics
+     */
+    public static class Snapshot extends Stats {
+
+        private final String name;
+        private final long timestamp = System.currentTimeMillis();
+        private final long startTime;
+        private final int activeConnections;
+        private final long totalConnections;
+        private final Map<String, ClientStats> clients;
+
+        private Snapshot(ListenerMetrics metrics, Map<String, ClientStats> clients) {
+            super(metrics.total);
+            name = metrics.name;
+            startTime = metrics.startTime;
+            activeConnections = metrics.activeConnections.get();
+            totalConnections = metrics.totalConnections.get();
+            this.clients = Collections.unmodifiableMap(clients);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns when this snapshot was taken
+         *
+         * @return Milliseconds since the epoch
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Returns the average request rate since the metrics were created
+         *
+         * @return Requests per second
+         */
+        public double getRequestRate() {
+            long elapsed = timestamp - startTime;
+            return elapsed <= 0 ? 0 : getRequestCount() * 1000.0 / elapsed;
+        }
+
+        /**
+         * Returns the request rate between an earlier snapshot and this one
+         *
+         * @param previous Earlier snapshot of the same metrics
+         * @return Requests per second
+         */
+        public double getRequestRate(Snapshot previous) {
+            long elapsed = timestamp - previous.timestamp;
+            return elapsed <= 0 ? 0 : (getRequestCount() - previous.getRequestCount()) * 1000.0 / elapsed;
+        }
+
+        public int getActiveConnections() {
+            return activeConnections;
+        }
+
+        public long getTotalConnections() {
+            return totalConnections;
+        }
+
+        /**
+         * Returns the statistics of every client, keyed and ordered by address
+         *
+         * @return Client statistics
+         */
+        public Map<String, ClientStats> getClients() {
+            return clients;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s active=%d connections=%d %s", name, activeConnections, totalConnections, super.toString());
+        }
+    }
+}
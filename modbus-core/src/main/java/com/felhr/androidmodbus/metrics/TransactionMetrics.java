@@ -0,0 +1,217 @@
+package com.felhr.androidmodbus.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Master side metrics for a single connection.
+ *
+ * Latencies and counters are kept per (unit ID, function code) pair. The slot
+ * for a pair is created the first time it is used, after that recording is
+ * lock and allocation free. An instance is attached to a transaction with
+ * {@link com.felhr.androidmodbus.io.ModbusTransaction#setMetrics(TransactionMetrics)}
+ * or to a master facade with
+ * {@link com.felhr.androidmodbus.facade.AbstractModbusMaster#setMetrics(TransactionMetrics)}.
+ */
+public class TransactionMetrics {
+
+    private static final int UNIT_IDS = 256;
+    private static final int FUNCTION_CODES = 128;
+
+    private final String name;
+    private final AtomicReferenceArray<FunctionMetrics> functions = new AtomicReferenceArray<FunctionMetrics>(UNIT_IDS * FUNCTION_CODES);
+
+    /**
+     * Creates the metrics for a connection
+     *
+     * @param name Name of the connection e.g. host:port or serial port name
+     */
+    public TransactionMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the connection these metrics belong to
+     *
+     * @return Connection name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a response received for a request, including exception responses
+     *
+     * @param unitId        Unit ID of the request
+     * @param functionCode  Function code of the request
+     * @param latencyNanos  Time from writing the request to reading the response
+     * @param bytesSent     Size of the request on the wire
+     * @param bytesReceived Size of the response on the wire
+     * @param exceptionCode Exception code of the response or 0 if it is not an exception
+     */
+    public void recordResponse(int unitId, int functionCode, long latencyNanos, int bytesSent, int bytesReceived, int exceptionCode) {
+        FunctionMetrics metrics = getFunctionMetrics(unitId, functionCode);
+        metrics.latency.recordNanos(latencyNanos);
+        metrics.bytesSent.addAndGet(bytesSent);
+        metrics.bytesReceived.addAndGet(bytesReceived);
+        if (exceptionCode != 0) {
+            metrics.exceptions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a request that was written but for which no usable response arrived
+     *
+     * @param unitId       Unit ID of the request
+     * @param functionCode Function code of the request
+     * @param bytesSent    Size of the request on the wire
+     */
+    public void recordTimeout(int unitId, int functionCode, int bytesSent) {
+        FunctionMetrics metrics = getFunctionMetrics(unitId, functionCode);
+        metrics.timeouts.incrementAndGet();
+        metrics.bytesSent.addAndGet(bytesSent);
+    }
+
+    /**
+     * Records that a request is being sent again
+     *
+     * @param unitId       Unit ID of the request
+     * @param functionCode Function code of the request
+     */
+    public void recordRetry(int unitId, int functionCode) {
+        getFunctionMetrics(unitId, functionCode).retries.incrementAndGet();
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < functions.length(); i++) {
+            functions.set(i, null);
+        }
+    }
+
+    /**
+     * Returns a point in time copy of every (unit ID, function code) pair
+     * that has been used, ordered by unit ID and then function code
+     *
+     * @return List of statistics
+     */
+    public List<Stats> snapshot() {
+        List<Stats> list = new ArrayList<Stats>();
+        for (int i = 0; i < functions.length(); i++) {
+            FunctionMetrics metrics = functions.get(i);
+            if (metrics != null) {
+                list.add(new Stats(name, i / FUNCTION_CODES, i % FUNCTION_CODES, metrics));
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the slot for the pair, creating it if necessary
+     *
+     * @param unitId       Unit ID
+     * @param functionCode Function code, the exception bit is ignored
+     * @return Metrics slot
+     */
+    private FunctionMetrics getFunctionMetrics(int unitId, int functionCode) {
+        int index = (unitId & 0xFF) * FUNCTION_CODES + (functionCode & 0x7F);
+        FunctionMetrics metrics = functions.get(index);
+        if (metrics == null) {
+            functions.compareAndSet(index, null, new FunctionMetrics());
+            metrics = functions.get(index);
+        }
+        return metrics;
+    }
+
+    /**
+     * Counters for a single (unit ID, function code) pair
+     */
+    private static class FunctionMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong exceptions = new AtomicLong();
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+    }
+
+    /**
+     * Immutable statistics of a single (connection, unit ID, function code) key
+     */
+    public static class Stats {
+
+        private final String connection;
+        private final int unitId;
+        private final int functionCode;
+        private final LatencyHistogram.Snapshot latency;
+        private final long retries;
+        private final long timeouts;
+        private final long exceptions;
+        private final long bytesSent;
+        private final long bytesReceived;
+
+        private Stats(String connection, int unitId, int functionCode, FunctionMetrics metrics) {
+            this.connection = connection;
+            this.unitId = unitId;
+            this.functionCode = functionCode;
+            this.latency = metrics.latency.snapshot();
+            this.retries = metrics.retries.get();
+            this.timeouts = metrics.timeouts.get();
+            this.exceptions = metrics.exceptions.get();
+            this.bytesSent = metrics.bytesSent.get();
+            this.bytesReceived = metrics.bytesReceived.get();
+        }
+
+        public String getConnection() {
+            return connection;
+        }
+
+        public int getUnitId() {
+            return unitId;
+        }
+
+        public int getFunctionCode() {
+            return functionCode;
+        }
+
+        /**
+         * Returns the request to response latency of all answered requests
+         *
+         * @return Latency histogram snapshot
+         */
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getExceptions() {
+            return exceptions;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s unit=%d fc=%d %s retries=%d timeouts=%d exceptions=%d sent=%d received=%d",
+                    connection, unitId, functionCode, latency, retries, timeouts, exceptions, bytesSent, bytesReceived);
+        }
+    }
+}
@@ -19,7 +19,7 @@ import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
-import com.felhr.androidmodbus.procimg.Register;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -133,18 +133,19 @@ public class MaskWriteRegisterRequest extends ModbusRequest {
         // Get the process image.
         ProcessImage procimg = listener.getProcessImage(getUnitID());
         try {
-            Register register = procimg.getRegister(reference);
+            byte[] register = new byte[2];
+            procimg.readRegisters(reference, 1, register, 0);
 
             /*
              * Get the original value.  The AND mask will first be
              * applied to clear any bits, then the OR mask will be
              * applied to set them.
              */
-            int value = register.getValue();
+            int value = ModbusUtil.registerToUnsignedShort(register);
             value = (value & andMask) | (orMask & ~andMask);
 
             // Store the modified value back where it came from.
-            register.setValue(value);
+            procimg.writeRegisters(reference, 1, ModbusUtil.unsignedShortToRegister(value), 0);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -17,7 +17,6 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
-import com.felhr.androidmodbus.procimg.DigitalOut;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 
@@ -79,25 +78,21 @@ public class ReadCoilsRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        ModbusResponse response;
-        DigitalOut[] douts;
+        ReadCoilsResponse response;
+        byte[] coils = new byte[(getBitCount() + 7) / 8];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
-        // 2. get input discretes range
+        // 2. get coils range
         try {
-            douts = procimg.getDigitalOutRange(getReference(), getBitCount());
+            procimg.readCoils(getReference(), getBitCount(), coils, 0);
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        response = getResponse();
-
-        // Populate the discrete values from the process image.
-        for (int i = 0; i < douts.length; i++) {
-            ((ReadCoilsResponse)response).setCoilStatus(i, douts[i].isSet());
-        }
+        response = (ReadCoilsResponse)getResponse();
+        response.getCoils().setBytes(coils);
 
         return response;
     }
@@ -160,7 +160,7 @@ public class ReadCoilsResponse extends ModbusResponse {
         byte result[] = new byte[len];
 
         result[0] = (byte)coils.byteSize();
-        System.arraycopy(coils.getBytes(), 0, result, 1, coils.byteSize());
+        coils.getBytes(result, 1);
 
         return result;
     }
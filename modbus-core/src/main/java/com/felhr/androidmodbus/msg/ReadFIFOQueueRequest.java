@@ -17,10 +17,9 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
+import com.felhr.androidmodbus.procimg.FIFO;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
-import com.felhr.androidmodbus.procimg.InputRegister;
 import com.felhr.androidmodbus.procimg.ProcessImage;
-import com.felhr.androidmodbus.procimg.Register;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -74,26 +73,35 @@ public class ReadFIFOQueueRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         ReadFIFOQueueResponse response;
-        InputRegister[] registers;
+        byte[] data = new byte[FIFO.MAX_COUNT * 2];
+        int count;
 
         // Get the process image.
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
         try {
-            // Get the FIFO queue location and read the count of available
-            // registers.
-            Register queue = procimg.getRegister(reference);
-            int count = queue.getValue();
-            if (count < 0 || count > 31) {
-                return createExceptionResponse(Modbus.ILLEGAL_VALUE_EXCEPTION);
+            FIFO fifo = procimg.getFIFOByAddress(reference);
+            if (fifo != null) {
+                // Take a snapshot of the queue straight into the response
+                count = fifo.readRegisters(data, 0);
+            }
+            else {
+                // Get the FIFO queue location and read the count of available
+                // registers.
+                byte[] queue = new byte[2];
+                procimg.readRegisters(reference, 1, queue, 0);
+                count = ((queue[0] & 0xFF) << 8) | (queue[1] & 0xFF);
+                if (count > FIFO.MAX_COUNT) {
+                    return createExceptionResponse(Modbus.ILLEGAL_VALUE_EXCEPTION);
+                }
+                procimg.readRegisters(reference + 1, count, data, 0);
             }
-            registers = procimg.getRegisterRange(reference + 1, count);
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
         response = (ReadFIFOQueueResponse)getResponse();
-        response.setRegisters(registers);
+        response.setRegisterData(count, data);
 
         return response;
     }
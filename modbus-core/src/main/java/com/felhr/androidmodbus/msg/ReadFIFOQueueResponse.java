@@ -17,12 +17,11 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.procimg.InputRegister;
-import com.felhr.androidmodbus.procimg.SimpleInputRegister;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
 
 /**
  * Class implementing a <tt>ReadFIFOQueueResponse</tt>.
@@ -35,7 +34,7 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
 
     // Message fields.
     private int count;
-    private InputRegister registers[];
+    private byte data[];
 
     /**
      * Constructs a new <tt>ReadFIFOQueueResponse</tt> instance.
@@ -46,9 +45,9 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
         setFunctionCode(Modbus.READ_FIFO_QUEUE);
 
         count = 0;
-        registers = new InputRegister[0];
+        data = new byte[0];
 
-        setDataLength(7);
+        setDataLength(4);
     }
 
     /**
@@ -89,21 +88,38 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
      */
     public synchronized void setRegisters(InputRegister[] regs) {
         if (regs == null) {
-            registers = null;
-            count = 0;
+            setRegisterData(0, new byte[0]);
             return;
         }
-
-        registers = Arrays.copyOf(regs, regs.length);
         if (regs.length > 31) {
             throw new IllegalArgumentException();
         }
 
-        count = regs.length;
+        setRegisterData(regs.length, ModbusUtil.registersToBytes(regs));
+    }
+
+    /**
+     * setRegisterData -- set the queued values from big endian words as
+     * filled in by {@link com.felhr.androidmodbus.procimg.FIFO#readRegisters(byte[], int)}.
+     * The array is used as is, not copied.
+     *
+     * @param count Number of queued values
+     * @param data  Queued values, two bytes per value
+     */
+    public synchronized void setRegisterData(int count, byte[] data) {
+        if (count < 0 || count > 31 || data.length < count * 2) {
+            throw new IllegalArgumentException();
+        }
+        this.count = count;
+        this.data = data;
+        setDataLength(count * 2 + 4);
     }
 
-    public int getRegister(int index) {
-        return registers[index].getValue();
+    public synchronized int getRegister(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index + " >= " + count);
+        }
+        return ((data[index * 2] & 0xFF) << 8) | (data[index * 2 + 1] & 0xFF);
     }
 
     /**
@@ -119,7 +135,7 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
      * such as for Modbus/TCP, it will have been read already.
      * @throws java.io.IOException If the data cannot be read
      */
-    public void readData(DataInput din) throws IOException {
+    public synchronized void readData(DataInput din) throws IOException {
 
         /*
          * Read and discard the byte count.  There's no way to indicate
@@ -131,18 +147,16 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
         // The first register is the number of registers which
         // follow.  Save that as count, not as a register.
         count = din.readUnsignedShort();
-        registers = new InputRegister[count];
-
-        for (int i = 0; i < count; i++) {
-            registers[i] = new SimpleInputRegister(din.readShort());
-        }
+        data = new byte[count * 2];
+        din.readFully(data);
+        setDataLength(count * 2 + 4);
     }
 
     /**
      * getMessage -- format the message into a byte array.
      * @return Byte array of message
      */
-    public byte[] getMessage() {
+    public synchronized byte[] getMessage() {
         byte result[] = new byte[count * 2 + 4];
 
         int len = count * 2 + 2;
@@ -151,11 +165,7 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
         result[2] = (byte)(count >> 8);
         result[3] = (byte)(count & 0xFF);
 
-        for (int i = 0; i < count; i++) {
-            byte value[] = registers[i].toBytes();
-            result[i * 2 + 4] = value[0];
-            result[i * 2 + 5] = value[1];
-        }
+        System.arraycopy(data, 0, result, 4, count * 2);
         return result;
     }
 }
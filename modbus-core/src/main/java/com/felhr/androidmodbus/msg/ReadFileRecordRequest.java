@@ -125,33 +125,9 @@ public class ReadFileRecordRequest extends ModbusRequest {
         try {
             for (int i = 0; i < getRequestCount(); i++) {
                 RecordRequest recordRequest = getRecord(i);
-                if (recordRequest.getFileNumber() < 0 || recordRequest.getFileNumber() >= procimg.getFileCount()) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                File file = procimg.getFileByNumber(recordRequest.getFileNumber());
-
-                if (recordRequest.getRecordNumber() < 0 || recordRequest.getRecordNumber() >= file.getRecordCount()) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                Record record = file.getRecord(recordRequest.getRecordNumber());
-                int registers = recordRequest.getWordCount();
-                if (record == null && registers != 0) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                short data[] = new short[registers];
-                for (int j = 0; j < registers; j++) {
-                    Register register = record.getRegister(j);
-                    if (register == null) {
-                        return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                    }
-
-                    data[j] = register.toShort();
-                }
-                RecordResponse recordResponse = new RecordResponse(data);
-                response.addResponse(recordResponse);
+                byte data[] = new byte[recordRequest.getWordCount() * 2];
+                procimg.readFileRecord(recordRequest.getFileNumber(), recordRequest.getRecordNumber(), recordRequest.getWordCount(), data, 0);
+                response.addResponse(new RecordResponse(data));
             }
         }
         catch (IllegalAddressException e) {
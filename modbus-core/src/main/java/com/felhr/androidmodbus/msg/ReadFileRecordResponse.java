@@ -100,6 +100,8 @@ public class ReadFileRecordResponse extends ModbusResponse {
             System.arraycopy(old, 0, records, 0, old.length);
         }
         records[records.length - 1] = response;
+
+        setDataLength(getByteCount());
     }
 
     public void writeData(DataOutput dout) throws IOException {
@@ -169,6 +171,17 @@ public class ReadFileRecordResponse extends ModbusResponse {
             }
         }
 
+        /**
+         * Creates a record response from big endian register values.
+         * The array is used as is, not copied.
+         *
+         * @param data Register values, two bytes per register
+         */
+        public RecordResponse(byte data[]) {
+            wordCount = data.length / 2;
+            this.data = data;
+        }
+
         public int getWordCount() {
             return wordCount;
         }
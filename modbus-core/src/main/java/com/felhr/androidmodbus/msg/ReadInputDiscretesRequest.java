@@ -17,7 +17,6 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
-import com.felhr.androidmodbus.procimg.DigitalIn;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 
@@ -82,23 +81,19 @@ public class ReadInputDiscretesRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         ReadInputDiscretesResponse response;
-        DigitalIn[] dins;
+        byte[] discretes = new byte[(getBitCount() + 7) / 8];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
         // 2. get input discretes range
         try {
-            dins = procimg.getDigitalInRange(getReference(), getBitCount());
+            procimg.readDiscreteInputs(getReference(), getBitCount(), discretes, 0);
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
         response = (ReadInputDiscretesResponse)getResponse();
-
-        // Populate the discrete values from the process image.
-        for (int i = 0; i < dins.length; i++) {
-            response.setDiscreteStatus(i, dins[i].isSet());
-        }
+        response.getDiscretes().setBytes(discretes);
 
         return response;
     }
@@ -156,7 +156,7 @@ public class ReadInputDiscretesResponse extends ModbusResponse {
 
         result = new byte[len];
         result[0] = (byte)discretes.byteSize();
-        System.arraycopy(discretes.getBytes(), 0, result, 1, discretes.byteSize());
+        discretes.getBytes(result, 1);
 
         return result;
     }
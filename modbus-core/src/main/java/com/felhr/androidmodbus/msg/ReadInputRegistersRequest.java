@@ -18,7 +18,6 @@ package com.felhr.androidmodbus.msg;
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
-import com.felhr.androidmodbus.procimg.InputRegister;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 
 import java.io.DataInput;
@@ -79,19 +78,19 @@ public class ReadInputRegistersRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         ReadInputRegistersResponse response;
-        InputRegister[] inpregs;
+        byte[] inpregs = new byte[getWordCount() * 2];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
         // 2. get input registers range
         try {
-            inpregs = procimg.getInputRegisterRange(getReference(), getWordCount());
+            procimg.readInputRegisters(getReference(), getWordCount(), inpregs, 0);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
         response = getResponse();
-        response.setRegisters(inpregs);
+        response.setRegisterData(inpregs);
 
         return response;
     }
@@ -19,7 +19,6 @@ import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
-import com.felhr.androidmodbus.procimg.Register;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -78,19 +77,19 @@ public class ReadMultipleRegistersRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         ReadMultipleRegistersResponse response;
-        Register[] regs;
+        byte[] regs = new byte[getWordCount() * 2];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get input registers range
+        // 2. get registers range
         try {
-            regs = procimg.getRegisterRange(getReference(), getWordCount());
+            procimg.readRegisters(getReference(), getWordCount(), regs, 0);
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
         response = (ReadMultipleRegistersResponse)getResponse();
-        response.setRegisters(regs);
+        response.setRegisterData(regs);
 
         return response;
     }
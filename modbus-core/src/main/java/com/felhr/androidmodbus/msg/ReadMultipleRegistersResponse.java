@@ -0,0 +1,306 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.msg;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.procimg.Register;
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.ModbusUtil;
+import com.felhr.androidmodbus.util.PointMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Class implementing a <tt>ReadMultipleRegistersResponse</tt>. The
+ * implementation directly correlates with the class 0 function <i>read multiple
+ * registers (FC 3)</i>. It encapsulates the corresponding response message.
+ *
+ * @author Dieter Wimberger
+ * @author Julie (jfh@ghgande.com)
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+public class ReadMultipleRegistersResponse extends ModbusResponse {
+
+    // instance attributes
+    private int byteCount;
+    private byte[] data;
+    private Register[] registers;
+
+    /**
+     * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance.
+     */
+    public ReadMultipleRegistersResponse() {
+        super();
+        setFunctionCode(Modbus.READ_MULTIPLE_REGISTERS);
+    }
+
+    /**
+     * Constructs a new <tt>ReadInputRegistersResponse</tt> instance.
+     *
+     * @param registers the Register[] holding response registers.
+     */
+    public ReadMultipleRegistersResponse(Register[] registers) {
+        super();
+
+        setFunctionCode(Modbus.READ_MULTIPLE_REGISTERS);
+        setRegisters(registers);
+    }
+
+    /**
+     * Returns the number of bytes that have been read.
+     *
+     * @return the number of bytes that have been read as <tt>int</tt>.
+     */
+    public int getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of words that have been read. The returned value
+     * should be half of the the byte count of this
+     * <tt>ReadMultipleRegistersResponse</tt>.
+     *
+     * @return the number of words that have been read as <tt>int</tt>.
+     */
+    public int getWordCount() {
+        return byteCount / 2;
+    }
+
+    /**
+     * Returns the <tt>Register</tt> at the given position (relative to the
+     * reference used in the request).
+     *
+     * @param index the relative index of the <tt>Register</tt>.
+     *
+     * @return the register as <tt>Register</tt>.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public Register getRegister(int index) {
+        if (data == null) {
+            throw new IndexOutOfBoundsException("No registers defined!");
+        }
+
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Negative index: " + index);
+        }
+
+        if (index >= getWordCount()) {
+            throw new IndexOutOfBoundsException(index + " > " + getWordCount());
+        }
+
+        return registers()[index];
+    }
+
+    /**
+     * Returns the value of the register at the given position (relative to the
+     * reference used in the request) interpreted as unsigned short.
+     *
+     * @param index the relative index of the register for which the value should
+     *              be retrieved.
+     *
+     * @return the value as <tt>int</tt>.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public int getRegisterValue(int index) throws IndexOutOfBoundsException {
+        checkIndex(index, 1);
+        return ((data[index * 2] & 0xff) << 8) | (data[index * 2 + 1] & 0xff);
+    }
+
+    /**
+     * Returns the value of the register at the given position (relative to the
+     * reference used in the request) interpreted as signed short.
+     *
+     * @param index the relative index of the register.
+     *
+     * @return the value as <tt>short</tt>.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public short getShort(int index) throws IndexOutOfBoundsException {
+        checkIndex(index, 1);
+        return (short)((data[index * 2] << 8) | (data[index * 2 + 1] & 0xff));
+    }
+
+    /**
+     * Returns the two registers starting at the given position as a 32 bit
+     * integer, the first register holding the high word.
+     *
+     * @param index the relative index of the first register.
+     *
+     * @return the value as <tt>int</tt>.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public int getInt(int index) throws IndexOutOfBoundsException {
+        checkIndex(index, 2);
+        int off = index * 2;
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16) | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * Returns the two registers starting at the given position as a 32 bit
+     * IEEE 754 float, the first register holding the high word.
+     *
+     * @param index the relative index of the first register.
+     *
+     * @return the value as <tt>float</tt>.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public float getFloat(int index) throws IndexOutOfBoundsException {
+        return Float.intBitsToFloat(getInt(index));
+    }
+
+    /**
+     * Copies the register values into an array without creating register
+     * instances.
+     *
+     * @param dest the array to fill, at least {@link #getWordCount()} long.
+     *
+     * @return the number of values copied.
+     */
+    public int copyTo(short[] dest) {
+        int count = getWordCount();
+        if (dest.length < count) {
+            throw new IndexOutOfBoundsException(dest.length + " < " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            dest[i] = (short)((data[i * 2] << 8) | (data[i * 2 + 1] & 0xff));
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the points of a map from the register values in one pass.
+     *
+     * @param points the map of points, offsets relative to the first register read.
+     * @param values the array receiving one scaled value per point.
+     *
+     * @throws IndexOutOfBoundsException if the points do not fit the response.
+     */
+    public void decode(PointMap points, double[] values) {
+        points.decode(data == null ? new byte[0] : data, 0, values);
+    }
+
+    /**
+     * Returns a read only view of the register values.
+     * The view shares the data of this response.
+     *
+     * @return a <tt>ShortBuffer</tt> holding one value per register.
+     */
+    public ShortBuffer asShortBuffer() {
+        return ByteBuffer.wrap(data == null ? new byte[0] : data, 0, getWordCount() * 2).slice().asReadOnlyBuffer().asShortBuffer();
+    }
+
+    /**
+     * Returns the reference to the array of registers read.
+     *
+     * @return a <tt>Register[]</tt> instance.
+     */
+    public synchronized Register[] getRegisters() {
+        Register[] regs = registers();
+        Register[] dest = new Register[regs.length];
+        System.arraycopy(regs, 0, dest, 0, dest.length);
+        return dest;
+    }
+
+    /**
+     * Sets the entire block of registers for this response
+     * @param registers Array of registers to use
+     */
+    public synchronized void setRegisters(Register[] registers) {
+        setRegisterData(registers == null ? null : ModbusUtil.registersToBytes(registers));
+    }
+
+    /**
+     * Sets the entire block of registers for this response from big endian
+     * words as filled in by {@link com.felhr.androidmodbus.procimg.ProcessImage#readRegisters(int, int, byte[], int)}.
+     * The array is used as is, not copied.
+     *
+     * @param data Register values, two bytes per register
+     */
+    public synchronized void setRegisterData(byte[] data) {
+        this.data = data;
+        registers = null;
+        byteCount = data == null ? 0 : data.length;
+        setDataLength(byteCount + 1);
+    }
+
+    public void writeData(DataOutput dout) throws IOException {
+        dout.writeByte(byteCount);
+        if (byteCount > 0) {
+            dout.write(data, 0, byteCount);
+        }
+    }
+
+    public void readData(DataInput din) throws IOException {
+        byteCount = din.readUnsignedByte();
+
+        data = new byte[byteCount];
+        din.readFully(data);
+        registers = null;
+
+        setDataLength(byteCount + 1);
+    }
+
+    public byte[] getMessage() {
+        byte result[] = new byte[byteCount + 1];
+
+        result[0] = (byte)byteCount;
+        if (byteCount > 0) {
+            System.arraycopy(data, 0, result, 1, byteCount);
+        }
+        return result;
+    }
+
+    /**
+     * Checks that a run of registers lies within the response
+     *
+     * @param index First register
+     * @param count Number of registers
+     */
+    private void checkIndex(int index, int count) {
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Negative index: " + index);
+        }
+        if (data == null || index + count > getWordCount()) {
+            throw new IndexOutOfBoundsException(index + count - 1 + " >= " + getWordCount());
+        }
+    }
+
+    /**
+     * Returns the registers, creating them from the raw data on first use
+     *
+     * @return Registers
+     */
+    private synchronized Register[] registers() {
+        if (registers == null) {
+            Register[] regs = new Register[data == null ? 0 : data.length / 2];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleRegister(data[k * 2], data[k * 2 + 1]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+}
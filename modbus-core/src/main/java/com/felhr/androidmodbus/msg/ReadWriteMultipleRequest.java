@@ -19,6 +19,7 @@ import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.io.NonWordDataHandler;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
 import com.felhr.androidmodbus.procimg.*;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -102,33 +103,24 @@ public class ReadWriteMultipleRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         ReadWriteMultipleResponse response;
-        InputRegister[] readRegs;
-        Register[] writeRegs;
+        byte[] readRegs = new byte[getReadWordCount() * 2];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
-        // 2. get input registers range
+        // 2. write and read the registers
         try {
             // First the write
-            writeRegs = procimg.getRegisterRange(getWriteReference(), getWriteWordCount());
-            for (int i = 0; i < writeRegs.length; i++) {
-                writeRegs[i].setValue(getRegister(i).getValue());
-            }
+            procimg.writeRegisters(getWriteReference(), getWriteWordCount(), ModbusUtil.registersToBytes(registers), 0);
 
             // And then the read
-            readRegs = procimg.getRegisterRange(getReadReference(), getReadWordCount());
-            InputRegister[] dummy = new InputRegister[readRegs.length];
-            for (int i = 0; i < readRegs.length; i++) {
-                dummy[i] = new SimpleInputRegister(readRegs[i].getValue());
-            }
-            readRegs = dummy;
+            procimg.readRegisters(getReadReference(), getReadWordCount(), readRegs, 0);
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
         response = (ReadWriteMultipleResponse)getResponse();
-        response.setRegisters(readRegs);
+        response.setRegisterData(readRegs);
 
         return response;
     }
@@ -17,13 +17,12 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.procimg.InputRegister;
-import com.felhr.androidmodbus.procimg.Register;
 import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
 
 /**
  * Class implementing a <tt>ReadWriteMultipleResponse</tt>.
@@ -35,6 +34,7 @@ import java.util.Arrays;
 public class ReadWriteMultipleResponse extends ModbusResponse {
 
     private int byteCount;
+    private byte[] data;
     private InputRegister[] registers;
 
     /**
@@ -46,10 +46,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         super();
 
         setFunctionCode(Modbus.READ_WRITE_MULTIPLE);
-        setDataLength(registers.length * 2 + 1);
-
-        this.registers = Arrays.copyOf(registers, registers.length);
-        byteCount = registers.length * 2;
+        setRegisters(registers);
     }
 
     /**
@@ -61,10 +58,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         super();
 
         setFunctionCode(Modbus.READ_WRITE_MULTIPLE);
-        setDataLength(count * 2 + 1);
-
-        registers = new InputRegister[count];
-        byteCount = count * 2;
+        setRegisterData(new byte[count * 2]);
     }
 
     /**
@@ -107,7 +101,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public InputRegister getRegister(int index) {
-        if (registers == null) {
+        if (data == null) {
             throw new IndexOutOfBoundsException("No registers defined!");
         }
 
@@ -119,7 +113,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
             throw new IndexOutOfBoundsException(index + " > " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -143,8 +137,9 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
      * @return a <tt>InputRegister[]</tt> instance.
      */
     public synchronized InputRegister[] getRegisters() {
-        InputRegister[] dest = new InputRegister[registers.length];
-        System.arraycopy(registers, 0, dest, 0, dest.length);
+        InputRegister[] regs = registers();
+        InputRegister[] dest = new InputRegister[regs.length];
+        System.arraycopy(regs, 0, dest, 0, dest.length);
         return dest;
     }
 
@@ -152,47 +147,64 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
      * Sets the entire block of registers for this response
      * @param registers Array of registers
      */
-    public void setRegisters(InputRegister[] registers) {
-        byteCount = registers.length * 2;
-        setDataLength(byteCount + 1);
+    public synchronized void setRegisters(InputRegister[] registers) {
+        setRegisterData(ModbusUtil.registersToBytes(registers));
+    }
 
-        this.registers = Arrays.copyOf(registers, registers.length);
+    /**
+     * Sets the entire block of registers for this response from big endian
+     * words as filled in by {@link com.felhr.androidmodbus.procimg.ProcessImage#readRegisters(int, int, byte[], int)}.
+     * The array is used as is, not copied.
+     *
+     * @param data Register values, two bytes per register
+     */
+    public synchronized void setRegisterData(byte[] data) {
+        this.data = data;
+        registers = null;
+        byteCount = data == null ? 0 : data.length;
+        setDataLength(byteCount + 1);
     }
 
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
-
-        for (int k = 0; k < getWordCount(); k++) {
-            dout.write(registers[k].toBytes());
+        if (byteCount > 0) {
+            dout.write(data, 0, byteCount);
         }
     }
 
     public void readData(DataInput din) throws IOException {
         byteCount = din.readUnsignedByte();
 
-        registers = new Register[getWordCount()];
-
-        for (int k = 0; k < getWordCount(); k++) {
-            registers[k] = new SimpleRegister(din.readByte(), din.readByte());
-        }
+        data = new byte[byteCount];
+        din.readFully(data);
+        registers = null;
 
         setDataLength(byteCount + 1);
     }
 
     public byte[] getMessage() {
-        byte result[];
-
-        result = new byte[getWordCount() * 2 + 1];
-
-        int offset = 0;
-        result[offset++] = (byte)byteCount;
+        byte result[] = new byte[byteCount + 1];
 
-        for (InputRegister register : registers) {
-            byte[] data = register.toBytes();
-
-            result[offset++] = data[0];
-            result[offset++] = data[1];
+        result[0] = (byte)byteCount;
+        if (byteCount > 0) {
+            System.arraycopy(data, 0, result, 1, byteCount);
         }
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the registers, creating them from the raw data on first use
+     *
+     * @return Registers
+     */
+    private synchronized InputRegister[] registers() {
+        if (registers == null) {
+            InputRegister[] regs = new InputRegister[data == null ? 0 : data.length / 2];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleRegister(data[k * 2], data[k * 2 + 1]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+}
@@ -17,7 +17,6 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
-import com.felhr.androidmodbus.procimg.DigitalOut;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 
@@ -75,15 +74,12 @@ public class WriteCoilRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         WriteCoilResponse response;
-        DigitalOut dout;
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get coil
+        // 2. set coil
         try {
-            dout = procimg.getDigitalOut(getReference());
-            // 3. set coil
-            dout.set(getCoil());
+            procimg.writeCoils(getReference(), 1, new byte[]{(byte)(getCoil() ? 1 : 0)}, 0);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
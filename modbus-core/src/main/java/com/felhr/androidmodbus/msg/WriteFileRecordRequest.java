@@ -127,34 +127,8 @@ public class WriteFileRecordRequest extends ModbusRequest {
         try {
             for (int i = 0; i < getRequestCount(); i++) {
                 RecordRequest recordRequest = getRecord(i);
-                if (recordRequest.getFileNumber() < 0 || recordRequest.getFileNumber() >= procimg.getFileCount()) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                File file = procimg.getFileByNumber(recordRequest.getFileNumber());
-
-                if (recordRequest.getRecordNumber() < 0 || recordRequest.getRecordNumber() >= file.getRecordCount()) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                Record record = file.getRecord(recordRequest.getRecordNumber());
-                int registers = recordRequest.getWordCount();
-                if (record == null && registers != 0) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                short data[] = new short[registers];
-                for (int j = 0; j < registers; j++) {
-                    Register register = record.getRegister(j);
-                    if (register == null) {
-                        return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                    }
-
-                    register.setValue(recordRequest.getRegister(j).getValue());
-                    data[j] = recordRequest.getRegister(j).toShort();
-                }
-                RecordResponse recordResponse = new RecordResponse(file.getFileNumber(), record == null ? 0 : record.getRecordNumber(), data);
-                response.addResponse(recordResponse);
+                procimg.writeFileRecord(recordRequest.getFileNumber(), recordRequest.getRecordNumber(), recordRequest.getWordCount(), recordRequest.data, 0);
+                response.addResponse(new RecordResponse(recordRequest.getFileNumber(), recordRequest.getRecordNumber(), recordRequest.data));
             }
         }
         catch (IllegalAddressException e) {
@@ -182,6 +182,21 @@ public class WriteFileRecordResponse extends ModbusResponse {
             }
         }
 
+        /**
+         * Creates a record response from big endian register values.
+         * The array is used as is, not copied.
+         *
+         * @param file   File number
+         * @param record Record number
+         * @param values Register values, two bytes per register
+         */
+        public RecordResponse(int file, int record, byte[] values) {
+            fileNumber = file;
+            recordNumber = record;
+            wordCount = values.length / 2;
+            data = values;
+        }
+
         public int getFileNumber() {
             return fileNumber;
         }
@@ -17,7 +17,6 @@ package com.felhr.androidmodbus.msg;
 
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
-import com.felhr.androidmodbus.procimg.DigitalOut;
 import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 import com.felhr.androidmodbus.util.BitVector;
@@ -106,17 +105,12 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         WriteMultipleCoilsResponse response;
-        DigitalOut douts[];
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get coil range
+        // 2. set coils
         try {
-            douts = procimg.getDigitalOutRange(reference, coils.size());
-            // 3. set coils
-            for (int i = 0; i < douts.length; i++) {
-                douts[i].set(coils.getBit(i));
-            }
+            procimg.writeCoils(reference, coils.size(), coils.getBytes(), 0);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -254,7 +248,7 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
 
         result[4] = (byte)coils.byteSize();
 
-        System.arraycopy(coils.getBytes(), 0, result, 5, coils.byteSize());
+        coils.getBytes(result, 5);
 
         return result;
     }
@@ -22,6 +22,7 @@ import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 import com.felhr.androidmodbus.procimg.Register;
 import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -42,6 +43,7 @@ import java.util.Arrays;
 public class WriteMultipleRegistersRequest extends ModbusRequest {
     private int reference;
     private Register[] registers;
+    private byte[] data;
     private NonWordDataHandler nonWordDataHandler = null;
 
     /**
@@ -97,16 +99,11 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         WriteMultipleRegistersResponse response;
 
         if (nonWordDataHandler == null) {
-            Register[] regs;
             // 1. get process image
             ProcessImage procimg = listener.getProcessImage(getUnitID());
-            // 2. get registers
+            // 2. set register values
             try {
-                regs = procimg.getRegisterRange(getReference(), getWordCount());
-                // 3. set Register values
-                for (int i = 0; i < regs.length; i++) {
-                    regs[i].setValue(this.getRegister(i).getValue());
-                }
+                procimg.writeRegisters(getReference(), getWordCount(), data != null ? data : ModbusUtil.registersToBytes(registers), 0);
             }
             catch (IllegalAddressException iaex) {
                 return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -161,6 +158,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      * @return the registers to be written as <tt>Register[]</tt>.
      */
     public synchronized Register[] getRegisters() {
+        Register[] registers = registers();
         Register[] dest = new Register[registers.length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
@@ -173,7 +171,8 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      *
      * @param registers the registers to be written as <tt>Register[]</tt>.
      */
-    public void setRegisters(Register[] registers) {
+    public synchronized void setRegisters(Register[] registers) {
+        data = null;
         if (registers == null) {
             this.registers = null;
             setDataLength(5);
@@ -183,6 +182,19 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         }
     }
 
+    /**
+     * setRegisterData - Sets the values to be written from big endian words,
+     * for example as encoded by {@link com.felhr.androidmodbus.util.PointMap#encode(double[], byte[], int)}.
+     * The array is used as is, not copied.
+     *
+     * @param data the register values, two bytes per register.
+     */
+    public synchronized void setRegisterData(byte[] data) {
+        registers = null;
+        this.data = data;
+        setDataLength(5 + (data == null ? 0 : data.length));
+    }
+
     /**
      * getRegister - Returns the <tt>Register</tt> at the given position.
      *
@@ -201,7 +213,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
             throw new IndexOutOfBoundsException(index + " > " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -214,7 +226,10 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      *
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
-    public int getRegisterValue(int index) throws IndexOutOfBoundsException {
+    public synchronized int getRegisterValue(int index) throws IndexOutOfBoundsException {
+        if (data != null && index >= 0 && index < getWordCount()) {
+            return ((data[index * 2] & 0xff) << 8) | (data[index * 2 + 1] & 0xff);
+        }
         return getRegister(index).toUnsignedShort();
     }
 
@@ -235,11 +250,11 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      * @return the number of words to be written as <tt>int</tt>.
      */
     public int getWordCount() {
-        if (registers == null) {
-            return 0;
+        if (registers != null) {
+            return registers.length;
         }
 
-        return registers.length;
+        return data == null ? 0 : data.length / 2;
     }
 
     /**
@@ -270,18 +285,15 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         reference = input.readUnsignedShort();
         int registerCount = input.readUnsignedShort();
         int byteCount = input.readUnsignedByte();
+        if (byteCount != registerCount * 2) {
+            throw new IOException(String.format("Byte count %d does not match %d registers", byteCount, registerCount));
+        }
 
         if (nonWordDataHandler == null) {
             byte buffer[] = new byte[byteCount];
             input.readFully(buffer, 0, byteCount);
 
-            int offset = 0;
-            registers = new Register[registerCount];
-
-            for (int register = 0; register < registerCount; register++) {
-                registers[register] = new SimpleRegister(buffer[offset], buffer[offset + 1]);
-                offset += 2;
-            }
+            setRegisterData(buffer);
         }
         else {
             nonWordDataHandler.readData(input, reference, registerCount);
@@ -289,14 +301,8 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
     }
 
     public byte[] getMessage() {
-        int len = 5;
-
-        if (registers != null) {
-            len += registers.length * 2;
-        }
-
-        byte result[] = new byte[len];
-        int registerCount = registers != null ? registers.length : 0;
+        int registerCount = getWordCount();
+        byte result[] = new byte[5 + registerCount * 2];
 
         result[0] = (byte)((reference >> 8) & 0xff);
         result[1] = (byte)(reference & 0xff);
@@ -306,7 +312,10 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
 
         int offset = 5;
 
-        if (nonWordDataHandler == null) {
+        if (nonWordDataHandler == null && data != null) {
+            System.arraycopy(data, 0, result, offset, registerCount * 2);
+        }
+        else if (nonWordDataHandler == null) {
             for (int i = 0; i < registerCount; i++) {
                 byte bytes[] = registers[i].toBytes();
                 result[offset++] = bytes[0];
@@ -327,4 +336,22 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         }
         return result;
     }
+
+    /**
+     * Returns the registers, creating them from the raw data on first use.
+     * From then on the registers hold the values to be written.
+     *
+     * @return Registers
+     */
+    private synchronized Register[] registers() {
+        if (registers == null && data != null) {
+            Register[] regs = new Register[data.length / 2];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleRegister(data[k * 2], data[k * 2 + 1]);
+            }
+            registers = regs;
+            data = null;
+        }
+        return registers;
+    }
 }
@@ -21,6 +21,7 @@ import com.felhr.androidmodbus.procimg.IllegalAddressException;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 import com.felhr.androidmodbus.procimg.Register;
 import com.felhr.androidmodbus.procimg.SimpleRegister;
+import com.felhr.androidmodbus.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -75,22 +76,20 @@ public class WriteSingleRegisterRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        Register reg;
+        byte[] value = register.toBytes();
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
-        // 2. get register
+        // 2. set register and read back the stored value
         try {
-            reg = procimg.getRegister(reference);
-
-            // 3. set Register
-            reg.setValue(register.toBytes());
+            procimg.writeRegisters(reference, 1, value, 0);
+            procimg.readRegisters(reference, 1, value, 0);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        return updateResponseWithHeader(new WriteSingleRegisterResponse(this.getReference(), reg.getValue()));
+        return updateResponseWithHeader(new WriteSingleRegisterResponse(this.getReference(), ModbusUtil.registerToUnsignedShort(value)));
     }
 
     /**
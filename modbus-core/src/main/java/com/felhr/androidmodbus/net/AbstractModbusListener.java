@@ -19,12 +19,13 @@ import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.ModbusIOException;
 import com.felhr.androidmodbus.io.AbstractModbusTransport;
 import com.felhr.androidmodbus.io.ModbusRTUTransport;
+import com.felhr.androidmodbus.io.ModbusSerialTransport;
+import com.felhr.androidmodbus.metrics.ListenerMetrics;
+import com.felhr.androidmodbus.msg.ExceptionResponse;
 import com.felhr.androidmodbus.msg.ModbusRequest;
 import com.felhr.androidmodbus.msg.ModbusResponse;
 import com.felhr.androidmodbus.msg.ModbusResponse.AuxiliaryMessageTypes;
 import com.felhr.androidmodbus.procimg.ProcessImage;
-import com.felhr.androidmodbus.slave.ModbusSlave;
-import com.felhr.androidmodbus.slave.ModbusSlaveFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,6 +46,14 @@ public abstract class AbstractModbusListener implements Runnable {
     protected String error;
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
     protected String threadName;
+    protected volatile ListenerMetrics metrics;
+
+    /**
+     * Process images indexed by unit ID. The array is never modified once
+     * published, changes replace it with an updated copy so that requests
+     * can route without taking a lock.
+     */
+    private volatile ProcessImage[] processImages = new ProcessImage[256];
 
     /**
      * Main execution loop for this Modbus interface listener - this is called by
@@ -151,6 +160,19 @@ public abstract class AbstractModbusListener implements Runnable {
      * @throws ModbusIOException If there is an issue with the transport or transmission
      */
     void handleRequest(AbstractModbusTransport transport, AbstractModbusListener listener) throws ModbusIOException {
+        handleRequest(transport, listener, null);
+    }
+
+    /**
+     * Reads the request, checks it is valid and that the unit ID is ok
+     * and sends back a response
+     *
+     * @param transport Transport to read request from
+     * @param listener  Listener that the request was received by
+     * @param client    Client the request is accounted to in the metrics, null if not known
+     * @throws ModbusIOException If there is an issue with the transport or transmission
+     */
+    void handleRequest(AbstractModbusTransport transport, AbstractModbusListener listener, ListenerMetrics.Client client) throws ModbusIOException {
 
         // Get the request from the transport. It will be processed
         // using an associated process image
@@ -163,6 +185,8 @@ public abstract class AbstractModbusListener implements Runnable {
             throw new ModbusIOException("Request for transport %s is invalid (null)", transport.getClass().getSimpleName());
         }
         ModbusResponse response;
+        ListenerMetrics metrics = this.metrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
 
         // Test if Process image exists for this Unit ID
         ProcessImage spi = getProcessImage(request.getUnitID());
@@ -171,7 +195,13 @@ public abstract class AbstractModbusListener implements Runnable {
             response.setAuxiliaryType(ModbusResponse.AuxiliaryMessageTypes.UNIT_ID_MISSMATCH);
         }
         else {
-            response = request.createResponse(this);
+            try {
+                response = request.createResponse(this);
+            }
+            catch (RuntimeException ex) {
+                logger.warn("Cannot serve request {} - {}", request.getHexMessage(), ex.getMessage());
+                response = request.createExceptionResponse(Modbus.SLAVE_DEVICE_FAILURE);
+            }
         }
 
         if (logger.isDebugEnabled()) {
@@ -186,21 +216,87 @@ public abstract class AbstractModbusListener implements Runnable {
         }
 
         // Write the response
+        long processedTime = metrics == null ? 0 : System.nanoTime();
         transport.writeResponse(response);
+
+        if (metrics != null) {
+            boolean sent = !(transport instanceof ModbusSerialTransport && response.getAuxiliaryType() == AuxiliaryMessageTypes.UNIT_ID_MISSMATCH);
+            int exceptionCode = response instanceof ExceptionResponse ? ((ExceptionResponse) response).getExceptionCode() : 0;
+            metrics.recordRequest(client, request.getFunctionCode(), processedTime - startTime, System.nanoTime() - processedTime,
+                    request.getOutputLength(), sent ? response.getOutputLength() : 0, exceptionCode);
+        }
     }
 
     /**
      * Returns the related process image for this listener and Unit Id
      *
      * @param unitId Unit ID
-     * @return Process image associated with this listener and Unit ID
+     * @return Process image associated with this listener and Unit ID, null if
+     * there is none or the Unit ID is outside the range 0 to 255
      */
     public ProcessImage getProcessImage(int unitId) {
-        ModbusSlave slave = ModbusSlaveFactory.getSlave(this);
-        if (slave != null) {
-            return slave.getProcessImage(unitId);
+        if (unitId < 0 || unitId > 255) {
+            return null;
         }
-        return null;
+        return processImages[unitId];
+    }
+
+    /**
+     * Adds a process image for the given Unit ID, replacing any existing one
+     *
+     * @param unitId       Unit ID in the range 0 to 255
+     * @param processImage Process image to add
+     * @return Process image previously associated with the Unit ID or null
+     */
+    public synchronized ProcessImage addProcessImage(int unitId, ProcessImage processImage) {
+        return updateProcessImage(unitId, processImage);
+    }
+
+    /**
+     * Removes the process image for the given Unit ID
+     *
+     * @param unitId Unit ID in the range 0 to 255
+     * @return Process image that was removed or null
+     */
+    public synchronized ProcessImage removeProcessImage(int unitId) {
+        return updateProcessImage(unitId, null);
+    }
+
+    /**
+     * Publishes a copy of the dispatch table with the entry for a Unit ID replaced
+     *
+     * @param unitId       Unit ID in the range 0 to 255
+     * @param processImage New entry, may be null
+     * @return Previous entry
+     */
+    private ProcessImage updateProcessImage(int unitId, ProcessImage processImage) {
+        if (unitId < 0 || unitId > 255) {
+            throw new IllegalArgumentException("Invalid unit ID: " + unitId);
+        }
+        ProcessImage[] images = processImages.clone();
+        ProcessImage previous = images[unitId];
+        images[unitId] = processImage;
+        processImages = images;
+        return previous;
+    }
+
+    /**
+     * Returns the metrics requests handled by this listener are recorded into
+     *
+     * @return Metrics or null if not recording
+     */
+    public ListenerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics requests handled by this listener are recorded into.
+     * Recording is disabled when set to null, which is the default.
+     *
+     * @param metrics Metrics to record into or null
+     */
+    public void setMetrics(ListenerMetrics metrics) {
+        this.metrics = metrics;
     }
 
     /**
@@ -1,7 +1,6 @@
 package com.felhr.androidmodbus.net;
 
 import com.felhr.androidmodbus.io.AbstractModbusTransport;
-import com.felhr.usbserial.UsbSerialInterface;
 
 import java.io.IOException;
 import java.util.Set;
@@ -15,28 +14,28 @@ import java.util.Set;
 public abstract class AbstractSerialConnection {
 
     /**
-     * Parity values
+     * Parity values, the same as those of <tt>UsbSerialInterface</tt>
      */
-    public static final int NO_PARITY = UsbSerialInterface.PARITY_NONE;
-    public static final int ODD_PARITY = UsbSerialInterface.PARITY_ODD;
-    public static final int EVEN_PARITY = UsbSerialInterface.PARITY_EVEN;
-    public static final int MARK_PARITY = UsbSerialInterface.PARITY_MARK;
-    public static final int SPACE_PARITY = UsbSerialInterface.PARITY_SPACE;
+    public static final int NO_PARITY = 0;
+    public static final int ODD_PARITY = 1;
+    public static final int EVEN_PARITY = 2;
+    public static final int MARK_PARITY = 3;
+    public static final int SPACE_PARITY = 4;
 
     /**
      * Stop bits values
      */
-    public static final int ONE_STOP_BIT = UsbSerialInterface.STOP_BITS_1;
-    public static final int ONE_POINT_FIVE_STOP_BITS = UsbSerialInterface.STOP_BITS_15;
-    public static final int TWO_STOP_BITS = UsbSerialInterface.STOP_BITS_2;
+    public static final int ONE_STOP_BIT = 1;
+    public static final int ONE_POINT_FIVE_STOP_BITS = 3;
+    public static final int TWO_STOP_BITS = 2;
 
     /**
      * Flow control values
      */
-    public static final int FLOW_CONTROL_DISABLED = UsbSerialInterface.FLOW_CONTROL_OFF;
-    public static final int FLOW_CONTROL_RTS_CTS_ENABLED = UsbSerialInterface.FLOW_CONTROL_RTS_CTS;
-    public static final int FLOW_CONTROL_DSR_DTR_ENABLED = UsbSerialInterface.FLOW_CONTROL_DSR_DTR;
-    public static final int FLOW_CONTROL_XONXOFF_ENABLED = UsbSerialInterface.FLOW_CONTROL_XON_XOFF;
+    public static final int FLOW_CONTROL_DISABLED = 0;
+    public static final int FLOW_CONTROL_RTS_CTS_ENABLED = 1;
+    public static final int FLOW_CONTROL_DSR_DTR_ENABLED = 2;
+    public static final int FLOW_CONTROL_XONXOFF_ENABLED = 3;
 
     /**
      * Open delay (msec)
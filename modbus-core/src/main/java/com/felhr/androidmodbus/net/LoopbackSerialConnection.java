@@ -0,0 +1,386 @@
+package com.felhr.androidmodbus.net;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.io.AbstractModbusTransport;
+import com.felhr.androidmodbus.io.ModbusASCIITransport;
+import com.felhr.androidmodbus.io.ModbusRTUTransport;
+import com.felhr.androidmodbus.io.ModbusSerialTransport;
+import com.felhr.androidmodbus.util.SerialParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Serial connection made of two in-process pipes, for running masters,
+ * slaves and monitors without a serial device.
+ *
+ * A connection is created together with its peer, whatever one end writes
+ * the other end reads:
+ * <pre>
+ * LoopbackSerialConnection master = new LoopbackSerialConnection(params);
+ * ModbusSerialListener listener = new ModbusSerialListener(master.getPeer());
+ * </pre>
+ * By default bytes arrive as soon as they are written. With wire timing
+ * enabled every byte takes the time a UART needs to send it with the baud
+ * rate, data bits, parity and stop bits of the parameters, and the line is
+ * busy until the last byte written is out. A latency delays every byte on
+ * top of that. Noise flips a random bit of a byte with a given probability,
+ * from a seeded generator so runs can be repeated. Echo returns everything
+ * an end writes to its own input as an RS485 adapter does, the transport is
+ * told to expect it when {@link SerialParameters#isEcho()} is set.
+ */
+public class LoopbackSerialConnection extends AbstractSerialConnection {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoopbackSerialConnection.class);
+
+    private static final long NS_IN_A_SECOND = 1000000000L;
+
+    private final SerialParameters parameters;
+    private final String name;
+    private final Pipe input;
+    private final Pipe output;
+    private final LoopbackSerialConnection peer;
+    private ModbusSerialTransport transport;
+    private volatile boolean open;
+    private int timeout = Modbus.DEFAULT_TIMEOUT;
+    private int baudRate;
+    private boolean wireTiming;
+    private long latency;
+    private double errorRate;
+    private Random random = new Random();
+    private long lineFree;
+
+    /**
+     * Bytes on their way from one end to the other
+     */
+    private static class Pipe {
+        private byte[] bytes = new byte[Modbus.MAX_MESSAGE_LENGTH * 4];
+        private long[] arrivals = new long[bytes.length];
+        private int head;
+        private int count;
+
+        synchronized void put(byte value, long arrival) {
+            if (count == bytes.length) {
+                byte[] newBytes = new byte[bytes.length * 2];
+                long[] newArrivals = new long[bytes.length * 2];
+                for (int i = 0; i < count; i++) {
+                    newBytes[i] = bytes[(head + i) % bytes.length];
+                    newArrivals[i] = arrivals[(head + i) % bytes.length];
+                }
+                bytes = newBytes;
+                arrivals = newArrivals;
+                head = 0;
+            }
+            int tail = (head + count) % bytes.length;
+            bytes[tail] = value;
+            // A byte never overtakes the one before it
+            arrivals[tail] = count > 0 ? Math.max(arrival, arrivals[(tail + bytes.length - 1) % bytes.length]) : arrival;
+            count++;
+            notifyAll();
+        }
+
+        synchronized int available(long now) {
+            int available = 0;
+            while (available < count && arrivals[(head + available) % bytes.length] <= now) {
+                available++;
+            }
+            return available;
+        }
+
+        synchronized int read(byte[] buffer, int length, long timeout, LoopbackSerialConnection connection) {
+            int read = 0;
+            long deadline = System.nanoTime() + timeout;
+            while (read < length && connection.open) {
+                long now = System.nanoTime();
+                if (count > 0 && arrivals[head] <= now) {
+                    buffer[read++] = bytes[head];
+                    head = (head + 1) % bytes.length;
+                    count--;
+                    // The timeout applies between bytes as on a real port
+                    deadline = now + timeout;
+                    continue;
+                }
+                if (now >= deadline) {
+                    break;
+                }
+                long wait = count > 0 ? Math.min(arrivals[head], deadline) - now : deadline - now;
+                try {
+                    wait(wait / 1000000L, (int)(wait % 1000000L));
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return read;
+        }
+
+        synchronized void clear() {
+            head = 0;
+            count = 0;
+        }
+
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Creates a connection and its peer
+     *
+     * @param parameters Parameters of both ends, the encoding selects the transport
+     */
+    public LoopbackSerialConnection(SerialParameters parameters) {
+        this.parameters = parameters;
+        name = parameters.getPortName() == null ? "loopback" : parameters.getPortName();
+        input = new Pipe();
+        output = new Pipe();
+        baudRate = parameters.getBaudRate();
+        peer = new LoopbackSerialConnection(this);
+    }
+
+    private LoopbackSerialConnection(LoopbackSerialConnection peer) {
+        parameters = peer.parameters;
+        name = peer.name + " (peer)";
+        input = peer.output;
+        output = peer.input;
+        baudRate = parameters.getBaudRate();
+        this.peer = peer;
+    }
+
+    /**
+     * Returns the other end of the connection
+     *
+     * @return Peer
+     */
+    public LoopbackSerialConnection getPeer() {
+        return peer;
+    }
+
+    /**
+     * Enables the emulation of the time bytes take on the wire
+     *
+     * @param wireTiming True to deliver bytes at the pace of the baud rate
+     */
+    public synchronized void setWireTiming(boolean wireTiming) {
+        this.wireTiming = wireTiming;
+    }
+
+    /**
+     * Tests if the wire time of bytes is emulated
+     *
+     * @return True if bytes are delivered at the pace of the baud rate
+     */
+    public synchronized boolean isWireTiming() {
+        return wireTiming;
+    }
+
+    /**
+     * Sets the delay of every byte written by this end
+     *
+     * @param latency Latency in microseconds
+     */
+    public synchronized void setLatency(long latency) {
+        this.latency = latency * 1000L;
+    }
+
+    /**
+     * Returns the delay of every byte written by this end
+     *
+     * @return Latency in microseconds
+     */
+    public synchronized long getLatency() {
+        return latency / 1000L;
+    }
+
+    /**
+     * Sets the noise on the bytes written by this end
+     *
+     * @param errorRate Probability of a byte having a bit flipped, from 0 to 1
+     * @param seed      Seed of the random generator picking the bytes and bits
+     */
+    public synchronized void setNoise(double errorRate, long seed) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+        this.errorRate = errorRate;
+        random = new Random(seed);
+    }
+
+    /**
+     * Returns the noise on the bytes written by this end
+     *
+     * @return Probability of a byte having a bit flipped
+     */
+    public synchronized double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Returns the time one character takes on the wire with the current
+     * parameters: a start bit, the data bits, the parity bit and the stop bits
+     *
+     * @return Nanoseconds per character
+     */
+    public synchronized long getCharacterTime() {
+        int dataBits = parameters.getDatabits() == 0 ? 8 : parameters.getDatabits();
+        int halfBits = 2 * (1 + dataBits + (parameters.getParity() == NO_PARITY ? 0 : 1));
+        switch (parameters.getStopbits()) {
+            case ONE_POINT_FIVE_STOP_BITS:
+                halfBits += 3;
+                break;
+            case TWO_STOP_BITS:
+                halfBits += 4;
+                break;
+            default:
+                halfBits += 2;
+        }
+        return halfBits * NS_IN_A_SECOND / (2L * baudRate);
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (open) {
+            return;
+        }
+        if (Modbus.SERIAL_ENCODING_ASCII.equals(parameters.getEncoding())) {
+            transport = new ModbusASCIITransport();
+        }
+        else if (Modbus.SERIAL_ENCODING_RTU.equals(parameters.getEncoding())) {
+            transport = new ModbusRTUTransport();
+        }
+        else {
+            transport = new ModbusRTUTransport();
+            logger.warn("Unknown transport encoding [{}] - reverting to RTU", parameters.getEncoding());
+        }
+        open = true;
+        input.clear();
+        transport.setEcho(parameters.isEcho());
+        transport.setTimeout(timeout);
+        transport.setCommPort(this);
+    }
+
+    @Override
+    public AbstractModbusTransport getModbusTransport() {
+        return transport;
+    }
+
+    @Override
+    public int readBytes(byte[] buffer, long bytesToRead) {
+        if (!open) {
+            return -1;
+        }
+        return input.read(buffer, (int)Math.min(bytesToRead, buffer.length), getTimeout() * 1000000L, this);
+    }
+
+    @Override
+    public int writeBytes(byte[] buffer, long bytesToWrite) {
+        if (!open) {
+            return -1;
+        }
+        int length = (int)Math.min(bytesToWrite, buffer.length);
+        synchronized (this) {
+            long now = System.nanoTime();
+            long characterTime = wireTiming ? getCharacterTime() : 0;
+            long sent = Math.max(now, lineFree);
+            for (int i = 0; i < length; i++) {
+                byte value = buffer[i];
+                if (errorRate > 0 && random.nextDouble() < errorRate) {
+                    value ^= 1 << random.nextInt(8);
+                }
+                sent += characterTime;
+                // Bytes written while the peer is closed are lost on the wire
+                if (peer.open) {
+                    output.put(value, sent + latency);
+                }
+                if (parameters.isEcho()) {
+                    input.put(value, sent + latency);
+                }
+            }
+            lineFree = sent;
+        }
+        return length;
+    }
+
+    @Override
+    public int bytesAvailable() {
+        return open ? input.available(System.nanoTime()) : 0;
+    }
+
+    @Override
+    public void setConnectionParameters() {
+        // The parameters are read when bytes are written
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        input.wakeUp();
+    }
+
+    @Override
+    public synchronized int getBaudRate() {
+        return baudRate;
+    }
+
+    @Override
+    public synchronized void setBaudRate(int newBaudRate) {
+        baudRate = newBaudRate;
+    }
+
+    @Override
+    public int getNumDataBits() {
+        return parameters.getDatabits();
+    }
+
+    @Override
+    public int getNumStopBits() {
+        return parameters.getStopbits();
+    }
+
+    @Override
+    public int getParity() {
+        return parameters.getParity();
+    }
+
+    @Override
+    public String getDescriptivePortName() {
+        return name;
+    }
+
+    @Override
+    public void setComPortTimeouts(int newTimeoutMode, int newReadTimeout, int newWriteTimeout) {
+        synchronized (this) {
+            timeout = newReadTimeout;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+        if (transport != null) {
+            transport.setTimeout(timeout);
+        }
+    }
+
+    @Override
+    public Set<String> getCommPorts() {
+        Set<String> returnValue = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        returnValue.add(name);
+        return returnValue;
+    }
+}
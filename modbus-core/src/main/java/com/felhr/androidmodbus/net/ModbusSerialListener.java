@@ -18,7 +18,6 @@ package com.felhr.androidmodbus.net;
 import com.felhr.androidmodbus.ModbusIOException;
 import com.felhr.androidmodbus.io.AbstractModbusTransport;
 import com.felhr.androidmodbus.io.ModbusSerialTransport;
-import com.felhr.androidmodbus.util.SerialParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,17 +37,9 @@ public class ModbusSerialListener extends AbstractModbusListener {
     private AbstractSerialConnection serialCon;
 
     /**
-     * Constructs a new <tt>ModbusSerialListener</tt> instance.
-     *
-     * @param params a <tt>SerialParameters</tt> instance.
-     */
-    public ModbusSerialListener(SerialParameters params) {
-        //TODO: Check it out!!!
-        serialCon = new SerialConnection(null, null, params);
-    }
-
-    /**
-     * Constructs a new <tt>ModbusSerialListener</tt> instance specifying the serial connection interface
+     * Constructs a new <tt>ModbusSerialListener</tt> instance specifying the serial connection interface.
+     * Replaces <tt>ModbusSerialListener(SerialParameters)</tt>, whose connection
+     * had no USB device and could not be opened.
      *
      * @param serialCon Serial connection to use
      */
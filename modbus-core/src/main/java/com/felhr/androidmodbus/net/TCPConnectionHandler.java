@@ -17,6 +17,7 @@ package com.felhr.androidmodbus.net;
 
 import com.felhr.androidmodbus.ModbusIOException;
 import com.felhr.androidmodbus.io.AbstractModbusTransport;
+import com.felhr.androidmodbus.metrics.ListenerMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,9 +55,14 @@ public class TCPConnectionHandler implements Runnable {
 
     @Override
     public void run() {
+        ListenerMetrics metrics = listener.getMetrics();
+        ListenerMetrics.Client client = null;
+        if (metrics != null) {
+            client = metrics.connectionOpened(connection.getRemoteAddress().getHostAddress());
+        }
         try {
             do {
-                listener.handleRequest(transport, listener);
+                listener.handleRequest(transport, listener, client);
             } while (!Thread.currentThread().isInterrupted());
         }
         catch (ModbusIOException ex) {
@@ -66,6 +72,9 @@ public class TCPConnectionHandler implements Runnable {
         }
         finally {
             connection.close();
+            if (metrics != null) {
+                metrics.connectionClosed(client);
+            }
         }
     }
 }
\ No newline at end of file
@@ -169,6 +169,16 @@ public class TCPSlaveConnection {
         return socket.getLocalAddress();
     }
 
+    /**
+     * Returns the <tt>InetAddress</tt> of the client at the other end of this
+     * <tt>TCPSlaveConnection</tt>.
+     *
+     * @return the client address as <tt>InetAddress</tt>.
+     */
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
     /**
      * Tests if this <tt>TCPSlaveConnection</tt> is connected.
      *
@@ -0,0 +1,287 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Range of input registers whose values are computed on demand and cached.
+ *
+ * Meant for registers backed by expensive sources such as sensors on a slow
+ * bus. The source is asked for all values of the range at once when a
+ * register is read and the cached values are older than the time to live.
+ * Concurrent reads that find the cache expired wait for a single computation
+ * instead of starting their own. With refresh ahead enabled, a read close to
+ * expiry returns the cached values and starts a refresh in the background,
+ * so steadily polled registers never wait for the source.
+ * <p>
+ * If the source fails the previous values are kept and the failure is
+ * remembered, the source is asked again once the time to live has passed.
+ * Until the source succeeded once there are no values to serve, reads then
+ * throw an <tt>IllegalStateException</tt> and a slave answers the request
+ * with a slave device failure.
+ * <pre>
+ * CachedRegisterRange range = new CachedRegisterRange(4, 1000, new CachedRegisterRange.Source() {
+ *     public void read(int[] values) throws Exception {
+ *         ...
+ *     }
+ * });
+ * range.addTo(image, 100);
+ * </pre>
+ */
+public class CachedRegisterRange {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachedRegisterRange.class);
+
+    /**
+     * Computes the values of a range
+     */
+    public interface Source {
+
+        /**
+         * Computes the current values
+         *
+         * @param values Array to fill, one unsigned 16 bit value per register
+         * @throws Exception If the values cannot be computed
+         */
+        void read(int[] values) throws Exception;
+    }
+
+    private final int[] values;
+    private final long ttl;
+    private final Source source;
+    private long refreshAhead;
+    private Executor executor;
+    private long updated;
+    private boolean valid;
+    private boolean computed;
+    private boolean computing;
+    private Exception lastError;
+    private long computations;
+
+    /**
+     * Creates a range, the source is not asked until a register is read
+     *
+     * @param count  Number of registers
+     * @param ttl    Milliseconds the values stay valid
+     * @param source Source of the values
+     */
+    public CachedRegisterRange(int count, long ttl, Source source) {
+        if (count <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("Count must be positive and time to live not negative");
+        }
+        this.values = new int[count];
+        this.ttl = ttl * 1000000L;
+        this.source = source;
+    }
+
+    /**
+     * Enables refreshing in the background before the values expire
+     *
+     * @param refreshAhead Milliseconds before expiry from which a read starts a refresh
+     * @param executor     Executor running the refresh, null to disable refresh ahead
+     */
+    public synchronized void setRefreshAhead(long refreshAhead, Executor executor) {
+        this.refreshAhead = refreshAhead * 1000000L;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the number of registers in the range
+     *
+     * @return Number of registers
+     */
+    public int getCount() {
+        return values.length;
+    }
+
+    /**
+     * Returns how many times the source was asked for values
+     *
+     * @return Number of computations
+     */
+    public synchronized long getComputationCount() {
+        return computations;
+    }
+
+    /**
+     * Returns the error of the last computation
+     *
+     * @return Error, null if the last computation succeeded
+     */
+    public synchronized Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Returns the value of a register, computing the range if needed
+     *
+     * @param index Register within the range
+     * @return Unsigned 16 bit value
+     * @throws IllegalStateException If the source never succeeded
+     */
+    public int getValue(int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IllegalAddressException();
+        }
+        if (claimComputation()) {
+            compute();
+        }
+        synchronized (this) {
+            checkComputed();
+            return values[index];
+        }
+    }
+
+    /**
+     * Returns the values of all registers, computing the range if needed
+     *
+     * @return Unsigned 16 bit values
+     * @throws IllegalStateException If the source never succeeded
+     */
+    public int[] getValues() {
+        if (claimComputation()) {
+            compute();
+        }
+        synchronized (this) {
+            checkComputed();
+            return values.clone();
+        }
+    }
+
+    /**
+     * Marks the values as expired, the next read asks the source again
+     */
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Returns a register of the range
+     *
+     * @param index Register within the range
+     * @return Input register reading through the cache
+     */
+    public InputRegister getRegister(final int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IllegalAddressException();
+        }
+        return new InputRegister() {
+            public int getValue() {
+                return CachedRegisterRange.this.getValue(index);
+            }
+
+            public int toUnsignedShort() {
+                return getValue();
+            }
+
+            public short toShort() {
+                return (short)getValue();
+            }
+
+            public byte[] toBytes() {
+                int value = getValue();
+                return new byte[]{(byte)(value >> 8), (byte)value};
+            }
+        };
+    }
+
+    /**
+     * Adds the registers of the range to an image as input registers
+     *
+     * @param image Image to add to
+     * @param ref   Address of the first register
+     */
+    public void addTo(ProcessImageImplementation image, int ref) {
+        for (int i = 0; i < values.length; i++) {
+            image.addInputRegister(ref + i, getRegister(i));
+        }
+    }
+
+    /**
+     * Checks if the values are fresh, waiting for a computation in progress
+     * and starting a refresh ahead if it is time to
+     *
+     * @return True if the caller has to compute the values
+     */
+    private synchronized boolean claimComputation() {
+        long awaited = -1;
+        while (true) {
+            long age = System.nanoTime() - updated;
+            if (valid && age < ttl) {
+                if (executor != null && !computing && age >= ttl - refreshAhead) {
+                    computing = true;
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                compute();
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException ex) {
+                        computing = false;
+                    }
+                }
+                return false;
+            }
+            if (awaited >= 0 && computations != awaited) {
+                // The computation waited for failed, do not ask the source again
+                return false;
+            }
+            if (!computing) {
+                computing = true;
+                return true;
+            }
+            awaited = computations;
+            try {
+                wait();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Asks the source for new values, only the thread that claimed the
+     * computation runs this
+     */
+    private void compute() {
+        int[] computed = new int[values.length];
+        Exception error = null;
+        try {
+            source.read(computed);
+        }
+        catch (Exception ex) {
+            error = ex;
+        }
+        synchronized (this) {
+            computations++;
+            if (error == null) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = computed[i] & 0xFFFF;
+                }
+                this.computed = true;
+            }
+            else {
+                logger.warn("Cannot compute cached registers - {}", error.getMessage());
+            }
+            lastError = error;
+            updated = System.nanoTime();
+            // Without previous values there is nothing to serve until the source succeeds
+            valid = this.computed;
+            computing = false;
+            notifyAll();
+        }
+    }
+
+    private void checkComputed() {
+        if (!computed) {
+            throw new IllegalStateException("Cached registers have no values yet", lastError);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.procimg;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @author Julie
+ *
+ *         FIFO -- an abstraction of a Modbus FIFO, as supported by the
+ *         READ FIFO command.
+ *
+ *         The FIFO is a fixed capacity ring buffer holding the most recent
+ *         values pushed into it, once full every push overwrites the oldest
+ *         value. Pushing never blocks or allocates, but values must be pushed
+ *         (and the FIFO reset) from one thread at a time. Any number of threads
+ *         may read while the producer pushes, a read returns a consistent run
+ *         of the most recent values without ever holding up the producer.
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+public class FIFO {
+
+    /**
+     * Largest number of values a READ FIFO QUEUE response can carry
+     */
+    public static final int MAX_COUNT = 31;
+
+    private final int address;
+    private final int capacity;
+    private final AtomicIntegerArray values;
+    private volatile long head;
+    private volatile long start;
+
+    public FIFO(int address) {
+        this(address, MAX_COUNT);
+    }
+
+    /**
+     * Creates a FIFO holding at most <tt>capacity</tt> values
+     *
+     * @param address  Address of the FIFO pointer register
+     * @param capacity Capacity from 1 to {@link #MAX_COUNT}
+     */
+    public FIFO(int address, int capacity) {
+        if (capacity < 1 || capacity > MAX_COUNT) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_COUNT);
+        }
+        this.address = address;
+        this.capacity = capacity;
+        // One spare slot so a push in progress never touches a readable value
+        values = new AtomicIntegerArray(capacity + 1);
+    }
+
+    public int getRegisterCount() {
+        long count = head - start;
+        return (int)Math.min(Math.max(count, 0), capacity);
+    }
+
+    public Register[] getRegisters() {
+        byte[] data = new byte[capacity * 2];
+        int count = readRegisters(data, 0);
+
+        Register result[] = new Register[count + 1];
+        result[0] = new SimpleRegister(count);
+        for (int i = 0; i < count; i++) {
+            result[i + 1] = new SimpleRegister(data[i * 2], data[i * 2 + 1]);
+        }
+
+        return result;
+    }
+
+    public void pushRegister(Register register) {
+        pushValue(register.getValue());
+    }
+
+    /**
+     * Adds a value, overwriting the oldest one if the FIFO is full
+     *
+     * @param value Register value, only the low 16 bits are kept
+     */
+    public void pushValue(int value) {
+        long seq = head;
+        values.lazySet((int)(seq % values.length()), value & 0xFFFF);
+        head = seq + 1;
+    }
+
+    public void resetRegisters() {
+        start = head;
+    }
+
+    /**
+     * Copies the current values, oldest first, as big endian words
+     *
+     * @param dst Destination, needs room for {@link #getCapacity()} words from <tt>off</tt>
+     * @param off Offset of the first byte in the destination
+     * @return Number of values copied
+     */
+    public int readRegisters(byte[] dst, int off) {
+        long last = head;
+        long first = Math.max(Math.max(start, last - capacity), 0);
+        int count = (int)(last - first);
+        for (int i = 0, pos = off; i < count; i++) {
+            int value = values.get((int)((first + i) % values.length()));
+            dst[pos++] = (byte)(value >> 8);
+            dst[pos++] = (byte)value;
+        }
+
+        // Drop any values the producer overwrote while they were being copied
+        int skip = (int)Math.min(Math.max(head - values.length() - first + 1, 0), count);
+        if (skip > 0) {
+            System.arraycopy(dst, off + skip * 2, dst, off, (count - skip) * 2);
+        }
+        return count - skip;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
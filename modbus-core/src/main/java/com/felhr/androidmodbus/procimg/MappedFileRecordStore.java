@@ -0,0 +1,215 @@
+package com.felhr.androidmodbus.procimg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * File record storage for the READ FILE RECORD and WRITE FILE RECORD commands
+ * kept in a memory mapped file.
+ *
+ * The store has a fixed geometry of files, records per file and registers per
+ * record, so the position of any record is computed rather than looked up and
+ * register values stay in the page cache instead of the heap. Register values
+ * are stored big endian, exactly as they travel on the wire, which lets a
+ * range be copied straight into or out of a message buffer. File numbers
+ * start at 1 as in the protocol, file 0 does not exist.
+ * <p>
+ * Attach a store to a process image with
+ * {@link SimpleProcessImage#setFileRecordStore(MappedFileRecordStore)}.
+ */
+public class MappedFileRecordStore implements Closeable {
+
+    private static final int MAGIC = 0x4D424652;
+    private static final int HEADER_SIZE = 16;
+
+    private final int fileCount;
+    private final int recordCount;
+    private final int recordLength;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Opens a store, creating the backing file if it does not exist yet.
+     * An existing file keeps its contents but must have the same geometry.
+     *
+     * @param path         Backing file
+     * @param fileCount    Number of files, file numbers run from 1 to fileCount as in the protocol
+     * @param recordCount  Number of records in each file
+     * @param recordLength Number of registers in each record
+     * @throws IOException If the file cannot be mapped or has a different geometry
+     */
+    public MappedFileRecordStore(java.io.File path, int fileCount, int recordCount, int recordLength) throws IOException {
+        if (fileCount <= 0 || recordCount <= 0 || recordLength <= 0) {
+            throw new IllegalArgumentException("Store geometry must be positive");
+        }
+        long size = HEADER_SIZE + (long)fileCount * recordCount * recordLength * 2;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Store of " + size + " bytes is too large to map");
+        }
+        this.fileCount = fileCount;
+        this.recordCount = recordCount;
+        this.recordLength = recordLength;
+
+        boolean exists = path.length() >= HEADER_SIZE;
+        raf = new RandomAccessFile(path, "rw");
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (exists) {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != fileCount || buffer.getInt(8) != recordCount || buffer.getInt(12) != recordLength) {
+                    throw new IOException(path + " is not a file record store of the requested geometry");
+                }
+            }
+            else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, fileCount);
+                buffer.putInt(8, recordCount);
+                buffer.putInt(12, recordLength);
+            }
+        }
+        catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens an existing store using the geometry recorded in it
+     *
+     * @param path Backing file
+     * @return Store
+     * @throws IOException If the file is not a file record store
+     */
+    public static MappedFileRecordStore open(java.io.File path) throws IOException {
+        RandomAccessFile header = new RandomAccessFile(path, "r");
+        try {
+            if (header.length() < HEADER_SIZE || header.readInt() != MAGIC) {
+                throw new IOException(path + " is not a file record store");
+            }
+            int files = header.readInt();
+            int records = header.readInt();
+            int length = header.readInt();
+            return new MappedFileRecordStore(path, files, records, length);
+        }
+        finally {
+            header.close();
+        }
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * Copies registers of a record as big endian words
+     *
+     * @param fileNumber   File number
+     * @param recordNumber Record number within the file
+     * @param count        Number of registers, starting with the first register of the record
+     * @param dst          Destination buffer
+     * @param off          Offset of the first byte in the destination
+     * @throws IllegalAddressException If the file, record or range do not exist
+     */
+    public synchronized void read(int fileNumber, int recordNumber, int count, byte[] dst, int off) throws IllegalAddressException {
+        buffer().position(offset(fileNumber, recordNumber, 0, count));
+        buffer.get(dst, off, count * 2);
+    }
+
+    /**
+     * Stores registers of a record from big endian words
+     *
+     * @param fileNumber   File number
+     * @param recordNumber Record number within the file
+     * @param count        Number of registers, starting with the first register of the record
+     * @param src          Source buffer
+     * @param off          Offset of the first byte in the source
+     * @throws IllegalAddressException If the file, record or range do not exist
+     */
+    public synchronized void write(int fileNumber, int recordNumber, int count, byte[] src, int off) throws IllegalAddressException {
+        buffer().position(offset(fileNumber, recordNumber, 0, count));
+        buffer.put(src, off, count * 2);
+    }
+
+    /**
+     * Returns a single register value
+     *
+     * @param fileNumber   File number
+     * @param recordNumber Record number within the file
+     * @param register     Register within the record
+     * @return Unsigned register value
+     * @throws IllegalAddressException If the register does not exist
+     */
+    public synchronized int getRegisterValue(int fileNumber, int recordNumber, int register) throws IllegalAddressException {
+        return buffer().getShort(offset(fileNumber, recordNumber, register, 1)) & 0xFFFF;
+    }
+
+    /**
+     * Sets a single register value
+     *
+     * @param fileNumber   File number
+     * @param recordNumber Record number within the file
+     * @param register     Register within the record
+     * @param value        Register value, only the low 16 bits are stored
+     * @throws IllegalAddressException If the register does not exist
+     */
+    public synchronized void setRegisterValue(int fileNumber, int recordNumber, int register, int value) throws IllegalAddressException {
+        buffer().putShort(offset(fileNumber, recordNumber, register, 1), (short)value);
+    }
+
+    /**
+     * Writes any changes that are still only in memory to the backing file
+     */
+    public synchronized void force() {
+        buffer().force();
+    }
+
+    /**
+     * Flushes and closes the store, it can't be used afterwards
+     *
+     * @throws IOException If the backing file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+            raf.close();
+            raf = null;
+        }
+    }
+
+    /**
+     * Returns the byte position of a register range
+     *
+     * @param fileNumber   File number, starting at 1
+     * @param recordNumber Record number
+     * @param register     First register within the record
+     * @param count        Number of registers
+     * @return Position in the mapped buffer
+     * @throws IllegalAddressException If the range is outside the store
+     */
+    private int offset(int fileNumber, int recordNumber, int register, int count) throws IllegalAddressException {
+        if (fileNumber < 1 || fileNumber > fileCount || recordNumber < 0 || recordNumber >= recordCount
+                || register < 0 || count < 0 || register + count > recordLength) {
+            throw new IllegalAddressException();
+        }
+        return HEADER_SIZE + ((((fileNumber - 1) * recordCount) + recordNumber) * recordLength + register) * 2;
+    }
+
+    private MappedByteBuffer buffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("File record store is closed");
+        }
+        return buffer;
+    }
+}
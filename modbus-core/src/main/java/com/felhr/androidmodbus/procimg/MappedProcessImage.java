@@ -0,0 +1,538 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Process image kept in a memory mapped file so that several processes can
+ * share it without any IPC round trips.
+ *
+ * Typically the acquisition process creates the image and writes values into
+ * it while the process running the slave opens the same file and serves it.
+ * Coils and discrete inputs are stored packed as in Modbus messages, registers
+ * as big endian words, so ranges are served with a single copy.
+ * <p>
+ * Readers never block. Writers are serialised with a file lock and bump a
+ * sequence counter in the header before and after every change, readers
+ * retry until they see the same even sequence on both sides of their copy.
+ * Java has no explicit memory fences before Java 9, so the ordering around
+ * the counter relies on a volatile write followed by a volatile read, which
+ * ART and HotSpot compile to a full barrier. Use a single instance per file
+ * in each process.
+ * <p>
+ * A writer that dies in the middle of a change leaves the sequence odd. The
+ * next writer notices it once it holds the file lock and makes the sequence
+ * even again, readers give up with an exception after waiting
+ * {@link #READ_TIMEOUT} milliseconds for a change to end.
+ * <p>
+ * Files and FIFOs are not supported.
+ */
+public class MappedProcessImage implements ProcessImage, Closeable {
+
+    /**
+     * Milliseconds a reader waits for a change to end before failing
+     */
+    public static final int READ_TIMEOUT = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedProcessImage.class);
+
+    private static final int MAGIC = 0x4D42534D;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SEQUENCE = 24;
+
+    private static volatile int fence;
+
+    private final Bank coils;
+    private final Bank discretes;
+    private final Bank inputRegisters;
+    private final Bank registers;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Opens an image, creating the backing file if it does not exist yet.
+     * An existing file keeps its contents but must have the same geometry.
+     *
+     * @param path           Backing file
+     * @param coils          Number of coils
+     * @param discretes      Number of discrete inputs
+     * @param inputRegisters Number of input registers
+     * @param registers      Number of holding registers
+     * @throws IOException If the file cannot be mapped or has a different geometry
+     */
+    public MappedProcessImage(java.io.File path, int coils, int discretes, int inputRegisters, int registers) throws IOException {
+        if (coils < 0 || discretes < 0 || inputRegisters < 0 || registers < 0
+                || coils > 65536 || discretes > 65536 || inputRegisters > 65536 || registers > 65536) {
+            throw new IllegalArgumentException("Bank sizes must be between 0 and 65536");
+        }
+        this.coils = new Bank(HEADER_SIZE, coils, true);
+        this.discretes = new Bank(this.coils.end(), discretes, true);
+        this.inputRegisters = new Bank(this.discretes.end(), inputRegisters, false);
+        this.registers = new Bank(this.inputRegisters.end(), registers, false);
+
+        boolean exists = path.length() >= HEADER_SIZE;
+        raf = new RandomAccessFile(path, "rw");
+        try {
+            channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.registers.end());
+            if (exists) {
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT || buffer.getInt(8) != coils
+                        || buffer.getInt(12) != discretes || buffer.getInt(16) != inputRegisters || buffer.getInt(20) != registers) {
+                    throw new IOException(path + " is not a process image of the requested geometry");
+                }
+            }
+            else {
+                buffer.putInt(8, coils);
+                buffer.putInt(12, discretes);
+                buffer.putInt(16, inputRegisters);
+                buffer.putInt(20, registers);
+                buffer.putInt(4, FORMAT);
+                buffer.putInt(0, MAGIC);
+            }
+        }
+        catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens an existing image using the geometry recorded in it
+     *
+     * @param path Backing file
+     * @return Image
+     * @throws IOException If the file is not a mapped process image
+     */
+    public static MappedProcessImage open(java.io.File path) throws IOException {
+        RandomAccessFile header = new RandomAccessFile(path, "r");
+        try {
+            if (header.length() < HEADER_SIZE || header.readInt() != MAGIC || header.readInt() != FORMAT) {
+                throw new IOException(path + " is not a mapped process image");
+            }
+            int coils = header.readInt();
+            int discretes = header.readInt();
+            int inputRegisters = header.readInt();
+            int registers = header.readInt();
+            return new MappedProcessImage(path, coils, discretes, inputRegisters, registers);
+        }
+        finally {
+            header.close();
+        }
+    }
+
+    /**
+     * Sets a range of discrete inputs from packed bits, for the process
+     * feeding the image
+     *
+     * @param ref   the start offset.
+     * @param count the amount of inputs to write.
+     * @param src   the buffer holding the packed states.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    public void writeDiscreteInputs(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        writeBits(discretes, ref, count, src, off);
+    }
+
+    /**
+     * Sets a range of input registers from big endian words, for the process
+     * feeding the image
+     *
+     * @param ref   the start offset.
+     * @param count the amount of registers to write.
+     * @param src   the buffer holding the values.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    public void writeInputRegisters(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        writeWords(inputRegisters, ref, count, src, off);
+    }
+
+    @Override
+    public void readCoils(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        readBits(coils, ref, count, dst, off);
+    }
+
+    @Override
+    public void writeCoils(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        writeBits(coils, ref, count, src, off);
+    }
+
+    @Override
+    public void readDiscreteInputs(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        readBits(discretes, ref, count, dst, off);
+    }
+
+    @Override
+    public void readInputRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        readWords(inputRegisters, ref, count, dst, off);
+    }
+
+    @Override
+    public void readRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        readWords(registers, ref, count, dst, off);
+    }
+
+    @Override
+    public void writeRegisters(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        writeWords(registers, ref, count, src, off);
+    }
+
+    public DigitalOut[] getDigitalOutRange(int offset, int count) throws IllegalAddressException {
+        coils.check(offset, count);
+        DigitalOut[] douts = new DigitalOut[count];
+        for (int i = 0; i < count; i++) {
+            douts[i] = new MappedDigital(coils, offset + i);
+        }
+        return douts;
+    }
+
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        coils.check(ref, 1);
+        return new MappedDigital(coils, ref);
+    }
+
+    public int getDigitalOutCount() {
+        return coils.count;
+    }
+
+    public DigitalIn[] getDigitalInRange(int offset, int count) throws IllegalAddressException {
+        discretes.check(offset, count);
+        DigitalIn[] dins = new DigitalIn[count];
+        for (int i = 0; i < count; i++) {
+            dins[i] = new MappedDigital(discretes, offset + i);
+        }
+        return dins;
+    }
+
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        discretes.check(ref, 1);
+        return new MappedDigital(discretes, ref);
+    }
+
+    public int getDigitalInCount() {
+        return discretes.count;
+    }
+
+    public InputRegister[] getInputRegisterRange(int offset, int count) throws IllegalAddressException {
+        inputRegisters.check(offset, count);
+        InputRegister[] iregs = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            iregs[i] = new MappedRegister(inputRegisters, offset + i);
+        }
+        return iregs;
+    }
+
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        inputRegisters.check(ref, 1);
+        return new MappedRegister(inputRegisters, ref);
+    }
+
+    public int getInputRegisterCount() {
+        return inputRegisters.count;
+    }
+
+    public Register[] getRegisterRange(int offset, int count) throws IllegalAddressException {
+        registers.check(offset, count);
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = new MappedRegister(registers, offset + i);
+        }
+        return regs;
+    }
+
+    public Register getRegister(int ref) throws IllegalAddressException {
+        registers.check(ref, 1);
+        return new MappedRegister(registers, ref);
+    }
+
+    public int getRegisterCount() {
+        return registers.count;
+    }
+
+    public File getFile(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public File getFileByNumber(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public int getFileCount() {
+        return 0;
+    }
+
+    public FIFO getFIFO(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public FIFO getFIFOByAddress(int ref) throws IllegalAddressException {
+        return null;
+    }
+
+    public int getFIFOCount() {
+        return 0;
+    }
+
+    /**
+     * Flushes and closes the image, it can't be written afterwards
+     *
+     * @throws IOException If the backing file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (raf != null) {
+            buffer.force();
+            raf.close();
+            raf = null;
+        }
+    }
+
+    private void readWords(Bank bank, int ref, int count, byte[] dst, int off) {
+        bank.check(ref, count);
+        ByteBuffer view = buffer.duplicate();
+        int seq;
+        do {
+            seq = beginRead();
+            view.position(bank.offset + ref * 2);
+            view.get(dst, off, count * 2);
+        } while (!endRead(seq));
+    }
+
+    private void writeWords(Bank bank, int ref, int count, byte[] src, int off) {
+        bank.check(ref, count);
+        synchronized (this) {
+            FileLock lock = beginWrite();
+            try {
+                ByteBuffer view = buffer.duplicate();
+                view.position(bank.offset + ref * 2);
+                view.put(src, off, count * 2);
+            }
+            finally {
+                endWrite(lock);
+            }
+        }
+    }
+
+    private void readBits(Bank bank, int ref, int count, byte[] dst, int off) {
+        bank.check(ref, count);
+        int bytes = (count + 7) / 8;
+        int base = bank.offset + (ref >> 3);
+        int shift = ref & 7;
+        int last = bank.offset + (bank.count + 7) / 8 - 1;
+        int seq;
+        do {
+            seq = beginRead();
+            for (int i = 0; i < bytes; i++) {
+                int value = (buffer.get(base + i) & 0xFF) >>> shift;
+                if (shift != 0 && base + i + 1 <= last) {
+                    value |= buffer.get(base + i + 1) << (8 - shift);
+                }
+                dst[off + i] = (byte)value;
+            }
+        } while (!endRead(seq));
+        if ((count & 7) != 0) {
+            dst[off + bytes - 1] &= (1 << (count & 7)) - 1;
+        }
+    }
+
+    private void writeBits(Bank bank, int ref, int count, byte[] src, int off) {
+        bank.check(ref, count);
+        synchronized (this) {
+            FileLock lock = beginWrite();
+            try {
+                for (int i = 0; i < count; i++) {
+                    int bit = ref + i;
+                    int index = bank.offset + (bit >> 3);
+                    int mask = 1 << (bit & 7);
+                    int value = buffer.get(index);
+                    if ((src[off + (i >> 3)] & (1 << (i & 7))) != 0) {
+                        value |= mask;
+                    }
+                    else {
+                        value &= ~mask;
+                    }
+                    buffer.put(index, (byte)value);
+                }
+            }
+            finally {
+                endWrite(lock);
+            }
+        }
+    }
+
+    private int beginRead() {
+        int seq = buffer.getInt(SEQUENCE);
+        if ((seq & 1) != 0) {
+            long deadline = System.nanoTime() + READ_TIMEOUT * 1000000L;
+            do {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Process image has been changing for too long, its writer may have died");
+                }
+                Thread.yield();
+                seq = buffer.getInt(SEQUENCE);
+            } while ((seq & 1) != 0);
+        }
+        fence();
+        return seq;
+    }
+
+    private boolean endRead(int seq) {
+        fence();
+        return buffer.getInt(SEQUENCE) == seq;
+    }
+
+    /**
+     * Keeps the accesses to the mapped buffer on either side of the call in
+     * program order. The volatile write stops earlier accesses from moving
+     * after it and the volatile read stops later ones from moving before it.
+     */
+    private static int fence() {
+        fence = 0;
+        return fence;
+    }
+
+    /**
+     * Takes the cross process write lock and marks the image as being changed.
+     * Called with this instance locked.
+     *
+     * @return File lock to release in {@link #endWrite(FileLock)}
+     */
+    private FileLock beginWrite() {
+        if (raf == null) {
+            throw new IllegalStateException("Process image is closed");
+        }
+        FileLock lock;
+        try {
+            lock = channel.lock(SEQUENCE, 4, false);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Cannot lock process image", ex);
+        }
+        int seq = buffer.getInt(SEQUENCE);
+        if ((seq & 1) != 0) {
+            // No writer can be active while we hold the lock, the last one
+            // died in the middle of a change
+            logger.warn("Process image was left in the middle of a change, its values may be inconsistent");
+            seq++;
+        }
+        buffer.putInt(SEQUENCE, seq + 1);
+        fence();
+        return lock;
+    }
+
+    private void endWrite(FileLock lock) {
+        fence();
+        buffer.putInt(SEQUENCE, buffer.getInt(SEQUENCE) + 1);
+        try {
+            lock.release();
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Cannot unlock process image", ex);
+        }
+    }
+
+    /**
+     * Location and size of a bank of values in the mapped file
+     */
+    private static class Bank {
+        final int offset;
+        final int count;
+        final boolean bits;
+
+        Bank(int offset, int count, boolean bits) {
+            this.offset = offset;
+            this.count = count;
+            this.bits = bits;
+        }
+
+        int end() {
+            return offset + (bits ? (count + 7) / 8 : count * 2);
+        }
+
+        void check(int ref, int n) {
+            if (ref < 0 || n < 0 || ref + n > count) {
+                throw new IllegalAddressException();
+            }
+        }
+    }
+
+    /**
+     * Coil or discrete input backed by the mapped file
+     */
+    private class MappedDigital implements DigitalOut {
+        private final Bank bank;
+        private final int ref;
+
+        MappedDigital(Bank bank, int ref) {
+            this.bank = bank;
+            this.ref = ref;
+        }
+
+        public boolean isSet() {
+            byte[] value = new byte[1];
+            readBits(bank, ref, 1, value, 0);
+            return value[0] != 0;
+        }
+
+        public void set(boolean b) {
+            writeBits(bank, ref, 1, new byte[]{(byte)(b ? 1 : 0)}, 0);
+        }
+    }
+
+    /**
+     * Register or input register backed by the mapped file
+     */
+    private class MappedRegister implements Register {
+        private final Bank bank;
+        private final int ref;
+
+        MappedRegister(Bank bank, int ref) {
+            this.bank = bank;
+            this.ref = ref;
+        }
+
+        public int getValue() {
+            return toUnsignedShort();
+        }
+
+        public int toUnsignedShort() {
+            byte[] value = toBytes();
+            return ((value[0] & 0xFF) << 8) | (value[1] & 0xFF);
+        }
+
+        public short toShort() {
+            return (short)toUnsignedShort();
+        }
+
+        public byte[] toBytes() {
+            byte[] value = new byte[2];
+            readWords(bank, ref, 1, value, 0);
+            return value;
+        }
+
+        public void setValue(int v) {
+            setValue(new byte[]{(byte)(v >> 8), (byte)v});
+        }
+
+        public void setValue(short s) {
+            setValue((int)s);
+        }
+
+        public void setValue(byte[] bytes) {
+            writeWords(bank, ref, 1, bytes, 0);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.procimg;
+
+import java.util.Arrays;
+
+/**
+ * Interface defining a process image in an object oriented manner.
+ * <p>
+ * The process image is understood as a shared memory area used form
+ * communication between slave and master or device side.
+ * <p>
+ * The bulk methods ({@link #readCoils(int, int, byte[], int)},
+ * {@link #readRegisters(int, int, byte[], int)} etc.) move whole ranges in
+ * Modbus wire format and are what the request handlers use. Their default
+ * implementations go through the range getters, images backed by plain
+ * arrays or buffers can override them to serve a range with a single copy.
+ *
+ * @author Dieter Wimberger
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+public interface ProcessImage {
+
+    /**
+     * Returns a range of <tt>DigitalOut</tt> instances.
+     *
+     * @param offset the start offset.
+     * @param count  the amount of <tt>DigitalOut</tt> from the offset.
+     *
+     * @return an array of <tt>DigitalOut</tt> instances.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    DigitalOut[] getDigitalOutRange(int offset, int count) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>DigitalOut</tt> instance at the given reference.
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>DigitalOut</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    DigitalOut getDigitalOut(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>DigitalOut</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * @return the number of digital outs as <tt>int</tt>.
+     */
+    int getDigitalOutCount();
+
+    /**
+     * Returns a range of <tt>DigitalIn</tt> instances.
+     *
+     * @param offset the start offset.
+     * @param count  the amount of <tt>DigitalIn</tt> from the offset.
+     *
+     * @return an array of <tt>DigitalIn</tt> instances.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    DigitalIn[] getDigitalInRange(int offset, int count) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>DigitalIn</tt> instance at the given reference.
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>DigitalIn</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    DigitalIn getDigitalIn(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>DigitalIn</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * @return the number of digital ins as <tt>int</tt>.
+     */
+    int getDigitalInCount();
+
+    /**
+     * Returns a range of <tt>InputRegister</tt> instances.
+     *
+     * @param offset the start offset.
+     * @param count  the amount of <tt>InputRegister</tt> from the offset.
+     *
+     * @return an array of <tt>InputRegister</tt> instances.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    InputRegister[] getInputRegisterRange(int offset, int count) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>InputRegister</tt> instance at the given reference.
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>InputRegister</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    InputRegister getInputRegister(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>InputRegister</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * <p>
+     * This is not the same as the value of the highest addressable register.
+     *
+     * @return the number of input registers as <tt>int</tt>.
+     */
+    int getInputRegisterCount();
+
+    /**
+     * Returns a range of <tt>Register</tt> instances.
+     *
+     * @param offset the start offset.
+     * @param count  the amount of <tt>Register</tt> from the offset.
+     *
+     * @return an array of <tt>Register</tt> instances.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    Register[] getRegisterRange(int offset, int count) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>Register</tt> instance at the given reference.
+     * <p>
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>Register</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    Register getRegister(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>Register</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * <p>
+     * This is not the same as the value of the highest addressable register.
+     *
+     * @return the number of registers as <tt>int</tt>.
+     */
+    int getRegisterCount();
+
+    /**
+     * Returns the <tt>File</tt> instance at the given reference.
+     * <p>
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>File</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    File getFile(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>File</tt> instance having the specified file number.
+     *
+     * @param ref The file number for the File object to be returned.
+     *
+     * @return the <tt>File</tt> instance having the given number.
+     *
+     * @throws IllegalAddressException if a File with the given number does not exist.
+     */
+    File getFileByNumber(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>File</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * <p>
+     * This is not the same as the value of the highest addressable register.
+     *
+     * @return the number of registers as <tt>int</tt>.
+     */
+    int getFileCount();
+
+    /**
+     * Returns the <tt>FIFO</tt> instance in the list of all FIFO objects
+     * in this ProcessImage.
+     *
+     * @param ref the reference.
+     *
+     * @return the <tt>File</tt> instance at the given address.
+     *
+     * @throws IllegalAddressException if the reference is invalid.
+     */
+    FIFO getFIFO(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the <tt>FIFO</tt> instance having the specified base address.
+     *
+     * @param ref The address for the FIFO object to be returned.
+     *
+     * @return the <tt>FIFO</tt> instance having the given base address
+     *
+     * @throws IllegalAddressException if a File with the given number does not exist.
+     */
+    FIFO getFIFOByAddress(int ref) throws IllegalAddressException;
+
+    /**
+     * Returns the number of <tt>File</tt> instances in this
+     * <tt>ProcessImage</tt>.
+     *
+     * <p>
+     * This is not the same as the value of the highest addressable register.
+     *
+     * @return the number of registers as <tt>int</tt>.
+     */
+    int getFIFOCount();
+
+    /**
+     * Reads a range of <tt>DigitalOut</tt> states packed into bytes, the first
+     * coil in the LSB of the first byte as in a read coils response.
+     * Unused bits of the last byte are cleared.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of coils to read.
+     * @param dst   the buffer to pack the states into, needs <tt>(count + 7) / 8</tt> bytes from <tt>off</tt>.
+     * @param off   the offset of the first byte in <tt>dst</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void readCoils(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        DigitalOut[] douts = getDigitalOutRange(ref, count);
+        Arrays.fill(dst, off, off + (count + 7) / 8, (byte)0);
+        for (int i = 0; i < count; i++) {
+            if (douts[i].isSet()) {
+                dst[off + (i >> 3)] |= 1 << (i & 7);
+            }
+        }
+    }
+
+    /**
+     * Sets a range of <tt>DigitalOut</tt> instances from states packed into
+     * bytes, the first coil in the LSB of the first byte as in a write multiple
+     * coils request.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of coils to write.
+     * @param src   the buffer holding the packed states.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void writeCoils(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        DigitalOut[] douts = getDigitalOutRange(ref, count);
+        for (int i = 0; i < count; i++) {
+            douts[i].set((src[off + (i >> 3)] & (1 << (i & 7))) != 0);
+        }
+    }
+
+    /**
+     * Reads a range of <tt>DigitalIn</tt> states packed into bytes, the first
+     * input in the LSB of the first byte as in a read input discretes response.
+     * Unused bits of the last byte are cleared.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of inputs to read.
+     * @param dst   the buffer to pack the states into, needs <tt>(count + 7) / 8</tt> bytes from <tt>off</tt>.
+     * @param off   the offset of the first byte in <tt>dst</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void readDiscreteInputs(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        DigitalIn[] dins = getDigitalInRange(ref, count);
+        Arrays.fill(dst, off, off + (count + 7) / 8, (byte)0);
+        for (int i = 0; i < count; i++) {
+            if (dins[i].isSet()) {
+                dst[off + (i >> 3)] |= 1 << (i & 7);
+            }
+        }
+    }
+
+    /**
+     * Reads a range of <tt>InputRegister</tt> values as big endian words.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of registers to read.
+     * @param dst   the buffer to write the values to, needs <tt>count * 2</tt> bytes from <tt>off</tt>.
+     * @param off   the offset of the first byte in <tt>dst</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void readInputRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        InputRegister[] iregs = getInputRegisterRange(ref, count);
+        for (int i = 0; i < count; i++) {
+            int value = iregs[i].getValue();
+            dst[off++] = (byte)(value >> 8);
+            dst[off++] = (byte)value;
+        }
+    }
+
+    /**
+     * Reads a range of <tt>Register</tt> values as big endian words.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of registers to read.
+     * @param dst   the buffer to write the values to, needs <tt>count * 2</tt> bytes from <tt>off</tt>.
+     * @param off   the offset of the first byte in <tt>dst</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void readRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        Register[] regs = getRegisterRange(ref, count);
+        for (int i = 0; i < count; i++) {
+            int value = regs[i].getValue();
+            dst[off++] = (byte)(value >> 8);
+            dst[off++] = (byte)value;
+        }
+    }
+
+    /**
+     * Sets a range of <tt>Register</tt> instances from big endian words.
+     * The whole range is validated before any register is changed.
+     *
+     * @param ref   the start offset.
+     * @param count the amount of registers to write.
+     * @param src   the buffer holding the values.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    default void writeRegisters(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        Register[] regs = getRegisterRange(ref, count);
+        for (int i = 0; i < count; i++) {
+            regs[i].setValue(((src[off] & 0xff) << 8) | (src[off + 1] & 0xff));
+            off += 2;
+        }
+    }
+
+    /**
+     * Reads registers of a file record as big endian words, starting with the
+     * first register of the record.
+     *
+     * @param fileNumber   the number of the <tt>File</tt>.
+     * @param recordNumber the number of the <tt>Record</tt> within the file.
+     * @param count        the amount of registers to read.
+     * @param dst          the buffer to write the values to, needs <tt>count * 2</tt> bytes from <tt>off</tt>.
+     * @param off          the offset of the first byte in <tt>dst</tt>.
+     *
+     * @throws IllegalAddressException if the file, the record or any of the registers do not exist.
+     */
+    default void readFileRecord(int fileNumber, int recordNumber, int count, byte[] dst, int off) throws IllegalAddressException {
+        Record record = getFileByNumber(fileNumber).getRecord(recordNumber);
+        if (count == 0) {
+            return;
+        }
+        if (record == null) {
+            throw new IllegalAddressException();
+        }
+        for (int i = 0; i < count; i++) {
+            Register register = record.getRegister(i);
+            if (register == null) {
+                throw new IllegalAddressException();
+            }
+            int value = register.getValue();
+            dst[off++] = (byte)(value >> 8);
+            dst[off++] = (byte)value;
+        }
+    }
+
+    /**
+     * Sets registers of a file record from big endian words, starting with the
+     * first register of the record. The whole range is validated before any
+     * register is changed.
+     *
+     * @param fileNumber   the number of the <tt>File</tt>.
+     * @param recordNumber the number of the <tt>Record</tt> within the file.
+     * @param count        the amount of registers to write.
+     * @param src          the buffer holding the values.
+     * @param off          the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the file, the record or any of the registers do not exist.
+     */
+    default void writeFileRecord(int fileNumber, int recordNumber, int count, byte[] src, int off) throws IllegalAddressException {
+        Record record = getFileByNumber(fileNumber).getRecord(recordNumber);
+        if (count == 0) {
+            return;
+        }
+        if (record == null) {
+            throw new IllegalAddressException();
+        }
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = record.getRegister(i);
+            if (regs[i] == null) {
+                throw new IllegalAddressException();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            regs[i].setValue(((src[off] & 0xff) << 8) | (src[off + 1] & 0xff));
+            off += 2;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Periodically saves a process image to a file so it can be restored after a
+ * restart.
+ *
+ * Checkpoints run on a background thread that only reads the image, request
+ * handling is never held up. A checkpoint whose values are the same as the
+ * last one written is skipped to save flash wear.
+ * <pre>
+ * ProcessImageCheckpointer checkpointer = new ProcessImageCheckpointer(image, file);
+ * checkpointer.restore();
+ * checkpointer.start(10000);
+ * ...
+ * checkpointer.close();
+ * </pre>
+ */
+public class ProcessImageCheckpointer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessImageCheckpointer.class);
+
+    private final ProcessImage image;
+    private final java.io.File path;
+    private ProcessImageSnapshot lastWritten;
+    private Thread thread;
+    private boolean running;
+
+    /**
+     * Creates a checkpointer, nothing is read or written until asked to
+     *
+     * @param image Image to save
+     * @param path  Snapshot file
+     */
+    public ProcessImageCheckpointer(ProcessImage image, java.io.File path) {
+        this.image = image;
+        this.path = path;
+    }
+
+    /**
+     * Restores the image from the snapshot file if there is one
+     *
+     * @return True if the image was restored, false if there was no snapshot
+     * @throws IOException If the snapshot exists but cannot be read
+     */
+    public synchronized boolean restore() throws IOException {
+        if (!path.exists()) {
+            return false;
+        }
+        if (!(image instanceof ProcessImageImplementation)) {
+            throw new IllegalStateException("Image cannot be modified");
+        }
+        ProcessImageSnapshot snapshot = ProcessImageSnapshot.readFrom(path);
+        snapshot.restore((ProcessImageImplementation)image);
+        lastWritten = snapshot;
+        logger.debug("Restored process image from {} taken at {}", path, snapshot.getTimestamp());
+        return true;
+    }
+
+    /**
+     * Captures the image and writes it to the snapshot file unless nothing
+     * changed since the last checkpoint
+     *
+     * @return True if a snapshot was written
+     * @throws IOException If the snapshot cannot be written
+     */
+    public boolean checkpoint() throws IOException {
+        ProcessImageSnapshot snapshot = ProcessImageSnapshot.capture(image);
+        synchronized (this) {
+            if (snapshot.hasSameValues(lastWritten)) {
+                return false;
+            }
+            snapshot.writeTo(path);
+            lastWritten = snapshot;
+        }
+        return true;
+    }
+
+    /**
+     * Starts taking checkpoints in the background
+     *
+     * @param interval Milliseconds between checkpoints
+     */
+    public synchronized void start(final long interval) {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (waitInterval(interval)) {
+                    try {
+                        checkpoint();
+                    }
+                    catch (IOException ex) {
+                        logger.error("Cannot write process image checkpoint to {} - {}", path, ex.getMessage());
+                    }
+                    catch (RuntimeException ex) {
+                        logger.error("Cannot capture process image checkpoint - {}", ex.getMessage());
+                    }
+                }
+            }
+        }, "Modbus Checkpoint " + path.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops taking checkpoints and writes a final one
+     *
+     * @throws IOException If the final checkpoint cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            running = false;
+            thread = null;
+            notifyAll();
+        }
+        if (stopped != null) {
+            try {
+                stopped.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    /**
+     * Waits for the next checkpoint
+     *
+     * @param interval Milliseconds to wait
+     * @return False if the checkpointer was closed in the meantime
+     */
+    private synchronized boolean waitInterval(long interval) {
+        long end = System.currentTimeMillis() + interval;
+        long remaining = interval;
+        while (running && remaining > 0) {
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException ex) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+            remaining = end - System.currentTimeMillis();
+        }
+        return running;
+    }
+}
@@ -0,0 +1,347 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Standby side of process image replication.
+ *
+ * A follower connects to a {@link ProcessImageReplicator} and applies the
+ * changes it receives to a local image, so a standby slave serving that image
+ * can take over with current values. Existing elements keep their identity
+ * and get the new value, missing ones are added as simple elements. Batches
+ * that are not newer than the last one applied are ignored. The follower
+ * reconnects by itself when the primary goes away and comes back.
+ * <pre>
+ * ProcessImageFollower follower = new ProcessImageFollower(image, new InetSocketAddress("127.0.0.1", 5020));
+ * follower.start();
+ * ...
+ * follower.close();
+ * </pre>
+ */
+public class ProcessImageFollower implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessImageFollower.class);
+
+    private static final int RECONNECT_DELAY = 1000;
+
+    private final ProcessImageImplementation image;
+    private final InetSocketAddress primary;
+    private volatile long version;
+    private volatile long lastUpdate;
+    private volatile boolean connected;
+    private Socket socket;
+    private Thread thread;
+    private boolean running;
+
+    /**
+     * Creates a follower, nothing happens until it is started
+     *
+     * @param image   Image to keep in sync, it must not be locked
+     * @param primary Address of the replicator
+     */
+    public ProcessImageFollower(ProcessImageImplementation image, InetSocketAddress primary) {
+        this.image = image;
+        this.primary = primary;
+    }
+
+    /**
+     * Returns the version of the last batch applied
+     *
+     * @return Version, 0 if nothing was received yet
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns when the last batch was applied
+     *
+     * @return Milliseconds since the epoch, 0 if nothing was received yet
+     */
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    /**
+     * Tests if the follower is connected to the primary and received the
+     * complete image, a standby should only take over with a synced image
+     *
+     * @return True if connected and synced
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Starts following the primary in the background
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (isRunning()) {
+                    try {
+                        follow();
+                    }
+                    catch (IOException ex) {
+                        if (isRunning()) {
+                            logger.debug("Lost primary {} - {}", primary, ex.getMessage());
+                        }
+                    }
+                    catch (RuntimeException ex) {
+                        logger.error("Cannot apply replicated changes - {}", ex.getMessage());
+                    }
+                    finally {
+                        connected = false;
+                        closeSocket();
+                    }
+                    waitReconnect();
+                }
+            }
+        }, "Modbus Follower " + primary);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops following the primary, the image keeps its values
+     */
+    @Override
+    public void close() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = thread;
+            running = false;
+            thread = null;
+            notifyAll();
+        }
+        closeSocket();
+        if (stopped != null) {
+            try {
+                stopped.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized boolean isRunning() {
+        return running;
+    }
+
+    private synchronized void waitReconnect() {
+        if (running) {
+            try {
+                wait(RECONNECT_DELAY);
+            }
+            catch (InterruptedException ex) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void closeSocket() {
+        Socket s;
+        synchronized (this) {
+            s = socket;
+            socket = null;
+        }
+        if (s != null) {
+            try {
+                s.close();
+            }
+            catch (IOException ex) {
+                logger.debug("Cannot close connection to {} - {}", primary, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Connects to the primary and applies frames until the connection fails
+     *
+     * @throws IOException If the connection fails
+     */
+    private void follow() throws IOException {
+        Socket s = new Socket();
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            socket = s;
+        }
+        s.connect(primary);
+        s.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(s.getInputStream())));
+        if (in.readInt() != ProcessImageReplicator.MAGIC) {
+            throw new IOException(primary + " is not a process image replicator");
+        }
+        logger.debug("Following primary {}", primary);
+        while (true) {
+            int length = in.readInt();
+            if (length < 9 || length > ProcessImageReplicator.MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid replication frame length " + length);
+            }
+            byte[] frame = new byte[length];
+            in.readFully(frame);
+            apply(new DataInputStream(new ByteArrayInputStream(frame)));
+        }
+    }
+
+    /**
+     * Applies a frame unless it is older than what the image already holds
+     *
+     * @param in Frame
+     * @throws IOException If the frame is malformed
+     */
+    private void apply(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        long frameVersion = in.readLong();
+        if (type == ProcessImageReplicator.DELTA && frameVersion <= version) {
+            return;
+        }
+        if (type != ProcessImageReplicator.FULL && type != ProcessImageReplicator.DELTA) {
+            throw new IOException("Unknown replication frame " + type);
+        }
+        applyCoils(in);
+        applyDiscretes(in);
+        applyInputRegisters(in);
+        applyRegisters(in);
+        version = frameVersion;
+        lastUpdate = System.currentTimeMillis();
+        if (type == ProcessImageReplicator.FULL) {
+            connected = true;
+        }
+    }
+
+    private void applyCoils(DataInputStream in) throws IOException {
+        readVarint(in);
+        int runs = readVarint(in);
+        int ref = 0;
+        for (int r = 0; r < runs; r++) {
+            ref += readVarint(in);
+            int length = readVarint(in);
+            byte[] packed = new byte[(length + 7) / 8];
+            in.readFully(packed);
+            for (int i = 0; i < length; i++, ref++) {
+                boolean b = (packed[i >> 3] & (1 << (i & 7))) != 0;
+                try {
+                    image.getDigitalOut(ref).set(b);
+                }
+                catch (IllegalAddressException ex) {
+                    image.addDigitalOut(ref, new SimpleDigitalOut(b));
+                }
+            }
+        }
+    }
+
+    private void applyDiscretes(DataInputStream in) throws IOException {
+        readVarint(in);
+        int runs = readVarint(in);
+        int ref = 0;
+        for (int r = 0; r < runs; r++) {
+            ref += readVarint(in);
+            int length = readVarint(in);
+            byte[] packed = new byte[(length + 7) / 8];
+            in.readFully(packed);
+            for (int i = 0; i < length; i++, ref++) {
+                boolean b = (packed[i >> 3] & (1 << (i & 7))) != 0;
+                DigitalIn din;
+                try {
+                    din = image.getDigitalIn(ref);
+                }
+                catch (IllegalAddressException ex) {
+                    din = null;
+                }
+                if (din instanceof SimpleDigitalIn) {
+                    ((SimpleDigitalIn)din).set(b);
+                }
+                else if (din instanceof DigitalOut) {
+                    ((DigitalOut)din).set(b);
+                }
+                else {
+                    image.addDigitalIn(ref, new SimpleDigitalIn(b));
+                }
+            }
+        }
+    }
+
+    private void applyInputRegisters(DataInputStream in) throws IOException {
+        readVarint(in);
+        int runs = readVarint(in);
+        int ref = 0;
+        for (int r = 0; r < runs; r++) {
+            ref += readVarint(in);
+            int length = readVarint(in);
+            for (int i = 0; i < length; i++, ref++) {
+                int value = in.readUnsignedShort();
+                InputRegister register;
+                try {
+                    register = image.getInputRegister(ref);
+                }
+                catch (IllegalAddressException ex) {
+                    register = null;
+                }
+                if (register instanceof Register) {
+                    ((Register)register).setValue(value);
+                }
+                else {
+                    image.addInputRegister(ref, new SimpleInputRegister(value));
+                }
+            }
+        }
+    }
+
+    private void applyRegisters(DataInputStream in) throws IOException {
+        readVarint(in);
+        int runs = readVarint(in);
+        int ref = 0;
+        for (int r = 0; r < runs; r++) {
+            ref += readVarint(in);
+            int length = readVarint(in);
+            for (int i = 0; i < length; i++, ref++) {
+                int value = in.readUnsignedShort();
+                try {
+                    image.getRegister(ref).setValue(value);
+                }
+                catch (IllegalAddressException ex) {
+                    image.addRegister(ref, new SimpleRegister(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an unsigned variable length integer written by the replicator
+     *
+     * @param in Stream
+     * @return Value
+     * @throws IOException If the stream fails or the value is malformed
+     */
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed replication frame");
+    }
+}
@@ -0,0 +1,559 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Primary side of process image replication.
+ *
+ * The replicator polls the coils, discrete inputs, input registers and
+ * registers of an image at a fixed interval and sends what changed since the
+ * previous poll to every connected {@link ProcessImageFollower}. The field
+ * process keeps writing a single image, the cost of replication is one bulk
+ * read per table and interval on the replicator thread.
+ * <p>
+ * Each batch of changes carries a version number that grows by one per batch.
+ * Changes are sent as runs of consecutive addresses with absolute values, so
+ * applying a batch twice is harmless. A follower that connects first gets the
+ * complete image and then every later batch, one that falls behind is
+ * disconnected and starts again with the complete image when it reconnects.
+ * The stream to each follower is deflate compressed. Files and FIFOs are not
+ * replicated.
+ * <pre>
+ * ProcessImageReplicator replicator = new ProcessImageReplicator(image, InetAddress.getLoopbackAddress(), 5020);
+ * replicator.start(10);
+ * ...
+ * replicator.close();
+ * </pre>
+ */
+public class ProcessImageReplicator implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessImageReplicator.class);
+
+    static final int MAGIC = 0x4D425250;
+    static final int FULL = 'F';
+    static final int DELTA = 'D';
+
+    /**
+     * Largest frame: a full image of four tables of 65536 elements, each
+     * element in a run of its own of at most six bytes, after the type,
+     * the version and two counts per table
+     */
+    static final int MAX_FRAME_LENGTH = 9 + 4 * (10 + 65536 * 6);
+
+    private static final int QUEUE_SIZE = 64;
+
+    private final ProcessImage image;
+    private final ServerSocket serverSocket;
+    private final List<Follower> followers = new ArrayList<Follower>();
+    private final List<Follower> pending = new ArrayList<Follower>();
+    private final Bank[] banks = new Bank[4];
+    private long version;
+    private Thread pollThread;
+    private Thread acceptThread;
+    private boolean running;
+
+    /**
+     * Creates a replicator and binds its socket, nothing is sent until it is started
+     *
+     * @param image   Image to replicate
+     * @param address Address to listen on, usually the loopback address
+     * @param port    Port to listen on
+     * @throws IOException If the socket cannot be bound
+     */
+    public ProcessImageReplicator(ProcessImage image, InetAddress address, int port) throws IOException {
+        this.image = image;
+        serverSocket = new ServerSocket(port, 8, address);
+    }
+
+    /**
+     * Returns the port followers connect to
+     *
+     * @return Local port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the version of the last batch of changes
+     *
+     * @return Version, 0 before the first poll
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of followers currently connected
+     *
+     * @return Number of followers
+     */
+    public synchronized int getFollowerCount() {
+        return followers.size() + pending.size();
+    }
+
+    /**
+     * Starts accepting followers and polling the image
+     *
+     * @param interval Milliseconds between polls
+     */
+    public synchronized void start(final long interval) {
+        if (running) {
+            return;
+        }
+        running = true;
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptFollowers();
+            }
+        }, "Modbus Replicator Accept " + getPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        pollThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (waitInterval(interval)) {
+                    try {
+                        poll();
+                    }
+                    catch (RuntimeException ex) {
+                        logger.error("Cannot replicate process image - {}", ex.getMessage());
+                    }
+                }
+            }
+        }, "Modbus Replicator " + getPort());
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    /**
+     * Reads the image and sends any changes to the followers. Called by the
+     * replicator thread, it may also be called directly to push a change
+     * without waiting for the next poll.
+     *
+     * @return True if something changed
+     */
+    public boolean poll() {
+        Bank[] current = new Bank[]{
+                Bank.capture(image, Bank.COILS), Bank.capture(image, Bank.DISCRETES),
+                Bank.capture(image, Bank.INPUT_REGISTERS), Bank.capture(image, Bank.REGISTERS)};
+        synchronized (this) {
+            boolean changed = false;
+            byte[] delta = null;
+            if (banks[0] == null) {
+                changed = true;
+            }
+            else {
+                for (int i = 0; i < banks.length; i++) {
+                    changed |= !current[i].hasSameValues(banks[i]);
+                }
+                if (changed) {
+                    delta = encode(DELTA, version + 1, current, banks);
+                }
+            }
+            if (changed) {
+                version++;
+                System.arraycopy(current, 0, banks, 0, banks.length);
+            }
+            if (delta != null) {
+                for (int i = followers.size() - 1; i >= 0; i--) {
+                    Follower follower = followers.get(i);
+                    if (!follower.send(delta)) {
+                        if (!follower.closed) {
+                            logger.warn("Follower {} fell behind, disconnecting", follower);
+                        }
+                        followers.remove(i).close();
+                    }
+                }
+            }
+            if (!pending.isEmpty()) {
+                byte[] full = encode(FULL, version, banks, null);
+                for (Follower follower : pending) {
+                    follower.send(full);
+                    followers.add(follower);
+                }
+                pending.clear();
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Stops replicating and disconnects all followers
+     *
+     * @throws IOException If the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        Thread stopped;
+        synchronized (this) {
+            stopped = pollThread;
+            running = false;
+            pollThread = null;
+            notifyAll();
+        }
+        serverSocket.close();
+        if (stopped != null) {
+            try {
+                stopped.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Follower follower : followers) {
+                follower.close();
+            }
+            for (Follower follower : pending) {
+                follower.close();
+            }
+            followers.clear();
+            pending.clear();
+        }
+    }
+
+    private void acceptFollowers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Follower follower = new Follower(socket);
+                synchronized (this) {
+                    if (!running) {
+                        follower.close();
+                        return;
+                    }
+                    pending.add(follower);
+                }
+                logger.debug("Follower {} connected", follower);
+            }
+            catch (IOException ex) {
+                if (!serverSocket.isClosed()) {
+                    logger.error("Cannot accept follower - {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the next poll
+     *
+     * @param interval Milliseconds to wait
+     * @return False if the replicator was closed in the meantime
+     */
+    private synchronized boolean waitInterval(long interval) {
+        long end = System.currentTimeMillis() + interval;
+        long remaining = interval;
+        while (running && remaining > 0) {
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException ex) {
+                running = false;
+                Thread.currentThread().interrupt();
+            }
+            remaining = end - System.currentTimeMillis();
+        }
+        return running;
+    }
+
+    /**
+     * Encodes a frame with the elements that differ from a previous state
+     *
+     * @param type     {@link #FULL} or {@link #DELTA}
+     * @param version  Version of the frame
+     * @param current  Current state
+     * @param previous Previous state, null to send every element
+     * @return Frame
+     */
+    private static byte[] encode(int type, long version, Bank[] current, Bank[] previous) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(type);
+            out.writeLong(version);
+            for (int i = 0; i < current.length; i++) {
+                current[i].writeChanges(out, previous == null ? null : previous[i]);
+            }
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes an unsigned variable length integer, seven bits per byte
+     *
+     * @param out   Stream
+     * @param value Value, not negative
+     * @throws IOException If the stream fails
+     */
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Values of one table with a bitmap of the elements that exist
+     */
+    private static class Bank {
+        static final int COILS = 0;
+        static final int DISCRETES = 1;
+        static final int INPUT_REGISTERS = 2;
+        static final int REGISTERS = 3;
+
+        final boolean bits;
+        final int count;
+        final boolean[] present;
+        final byte[] values;
+
+        Bank(int count, boolean bits) {
+            this.count = count;
+            this.bits = bits;
+            present = new boolean[count];
+            Arrays.fill(present, true);
+            values = new byte[bits ? (count + 7) / 8 : count * 2];
+        }
+
+        static Bank capture(ProcessImage image, int kind) {
+            switch (kind) {
+                case COILS: {
+                    Bank bank = new Bank(image.getDigitalOutCount(), true);
+                    try {
+                        image.readCoils(0, bank.count, bank.values, 0);
+                    }
+                    catch (IllegalAddressException ex) {
+                        Arrays.fill(bank.values, (byte)0);
+                        for (int i = 0; i < bank.count; i++) {
+                            try {
+                                bank.setBit(i, image.getDigitalOut(i).isSet());
+                            }
+                            catch (IllegalAddressException hole) {
+                                bank.present[i] = false;
+                            }
+                        }
+                    }
+                    return bank;
+                }
+                case DISCRETES: {
+                    Bank bank = new Bank(image.getDigitalInCount(), true);
+                    try {
+                        image.readDiscreteInputs(0, bank.count, bank.values, 0);
+                    }
+                    catch (IllegalAddressException ex) {
+                        Arrays.fill(bank.values, (byte)0);
+                        for (int i = 0; i < bank.count; i++) {
+                            try {
+                                bank.setBit(i, image.getDigitalIn(i).isSet());
+                            }
+                            catch (IllegalAddressException hole) {
+                                bank.present[i] = false;
+                            }
+                        }
+                    }
+                    return bank;
+                }
+                case INPUT_REGISTERS: {
+                    Bank bank = new Bank(image.getInputRegisterCount(), false);
+                    try {
+                        image.readInputRegisters(0, bank.count, bank.values, 0);
+                    }
+                    catch (IllegalAddressException ex) {
+                        for (int i = 0; i < bank.count; i++) {
+                            try {
+                                bank.setWord(i, image.getInputRegister(i).getValue());
+                            }
+                            catch (IllegalAddressException hole) {
+                                bank.present[i] = false;
+                            }
+                        }
+                    }
+                    return bank;
+                }
+                default: {
+                    Bank bank = new Bank(image.getRegisterCount(), false);
+                    try {
+                        image.readRegisters(0, bank.count, bank.values, 0);
+                    }
+                    catch (IllegalAddressException ex) {
+                        for (int i = 0; i < bank.count; i++) {
+                            try {
+                                bank.setWord(i, image.getRegister(i).getValue());
+                            }
+                            catch (IllegalAddressException hole) {
+                                bank.present[i] = false;
+                            }
+                        }
+                    }
+                    return bank;
+                }
+            }
+        }
+
+        boolean hasSameValues(Bank other) {
+            return other != null && count == other.count && Arrays.equals(present, other.present) && Arrays.equals(values, other.values);
+        }
+
+        boolean isChanged(int i, Bank previous) {
+            if (!present[i]) {
+                return false;
+            }
+            if (previous == null || i >= previous.count || !previous.present[i]) {
+                return true;
+            }
+            return bits ? getBit(i) != previous.getBit(i)
+                    : values[i * 2] != previous.values[i * 2] || values[i * 2 + 1] != previous.values[i * 2 + 1];
+        }
+
+        /**
+         * Writes the table size followed by runs of changed elements, each run
+         * as the gap since the previous run, its length and its values
+         *
+         * @param out      Stream
+         * @param previous Previous state, null to write every element
+         * @throws IOException If the stream fails
+         */
+        void writeChanges(DataOutputStream out, Bank previous) throws IOException {
+            writeVarint(out, count);
+            int runs = 0;
+            for (int i = 0; i < count; i++) {
+                if (isChanged(i, previous) && (i == 0 || !isChanged(i - 1, previous))) {
+                    runs++;
+                }
+            }
+            writeVarint(out, runs);
+            int end = 0;
+            int i = 0;
+            while (i < count) {
+                if (!isChanged(i, previous)) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < count && isChanged(i, previous)) {
+                    i++;
+                }
+                writeVarint(out, start - end);
+                writeVarint(out, i - start);
+                if (bits) {
+                    int packed = 0;
+                    for (int b = start; b < i; b++) {
+                        if (getBit(b)) {
+                            packed |= 1 << ((b - start) & 7);
+                        }
+                        if (((b - start) & 7) == 7 || b == i - 1) {
+                            out.writeByte(packed);
+                            packed = 0;
+                        }
+                    }
+                }
+                else {
+                    out.write(values, start * 2, (i - start) * 2);
+                }
+                end = i;
+            }
+        }
+
+        boolean getBit(int i) {
+            return (values[i >> 3] & (1 << (i & 7))) != 0;
+        }
+
+        void setBit(int i, boolean b) {
+            if (b) {
+                values[i >> 3] |= 1 << (i & 7);
+            }
+        }
+
+        void setWord(int i, int value) {
+            values[i * 2] = (byte)(value >> 8);
+            values[i * 2 + 1] = (byte)value;
+        }
+    }
+
+    /**
+     * A connected follower with its own sending thread, so a slow follower
+     * never holds up the others
+     */
+    private static class Follower implements Runnable {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+        private volatile boolean closed;
+
+        Follower(Socket socket) {
+            this.socket = socket;
+            Thread thread = new Thread(this, "Modbus Replicator " + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean send(byte[] frame) {
+            return !closed && queue.offer(frame);
+        }
+
+        void close() {
+            closed = true;
+            try {
+                socket.close();
+            }
+            catch (IOException ex) {
+                logger.debug("Cannot close follower {} - {}", this, ex.getMessage());
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(
+                        socket.getOutputStream(), new Deflater(Deflater.BEST_SPEED), 4096, true));
+                out.writeInt(MAGIC);
+                while (!closed) {
+                    byte[] frame = queue.poll(1, TimeUnit.SECONDS);
+                    if (frame != null) {
+                        out.writeInt(frame.length);
+                        out.write(frame);
+                        out.flush();
+                    }
+                }
+            }
+            catch (IOException ex) {
+                if (!closed) {
+                    logger.debug("Follower {} disconnected - {}", this, ex.getMessage());
+                }
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+    }
+}
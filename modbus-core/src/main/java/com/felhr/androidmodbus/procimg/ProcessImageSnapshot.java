@@ -0,0 +1,678 @@
+package com.felhr.androidmodbus.procimg;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Point in time copy of a whole process image in a compact binary form.
+ *
+ * A snapshot holds the coils, discrete inputs, input registers, registers,
+ * files and FIFOs of an image. Values are captured element by element while
+ * the image keeps serving requests, so a snapshot taken during a burst of
+ * writes is consistent per element rather than across the whole image.
+ * <p>
+ * The binary form is big endian and ends with a CRC32, it is written to a
+ * temporary file which then replaces the target so a crash never leaves a
+ * half written snapshot behind.
+ */
+public class ProcessImageSnapshot {
+
+    private static final int MAGIC = 0x4D425049;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final byte[] data;
+    private final long timestamp;
+
+    private ProcessImageSnapshot(byte[] data, long timestamp) {
+        this.data = data;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Captures the current state of a process image
+     *
+     * @param image Image to capture
+     * @return Snapshot
+     */
+    public static ProcessImageSnapshot capture(ProcessImage image) {
+        long timestamp = System.currentTimeMillis();
+        Table coils = captureCoils(image);
+        Table discretes = captureDiscretes(image);
+        Table inputRegisters = captureInputRegisters(image);
+        Table registers = captureRegisters(image);
+        FileEntry[] files = captureFiles(image);
+        FifoEntry[] fifos = captureFifos(image);
+
+        int size = HEADER_SIZE + coils.size() + discretes.size() + inputRegisters.size() + registers.size() + 8 + 4;
+        for (FileEntry file : files) {
+            size += file.size();
+        }
+        for (FifoEntry fifo : fifos) {
+            size += fifo.size();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short)VERSION);
+        buffer.putShort((short)0);
+        buffer.putLong(timestamp);
+        coils.write(buffer);
+        discretes.write(buffer);
+        inputRegisters.write(buffer);
+        registers.write(buffer);
+        buffer.putInt(files.length);
+        for (FileEntry file : files) {
+            file.write(buffer);
+        }
+        buffer.putInt(fifos.length);
+        for (FifoEntry fifo : fifos) {
+            fifo.write(buffer);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int)crc.getValue());
+        return new ProcessImageSnapshot(buffer.array(), timestamp);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeTo(java.io.File)}
+     *
+     * @param path Snapshot file
+     * @return Snapshot
+     * @throws IOException If the file cannot be read or is not a valid snapshot
+     */
+    public static ProcessImageSnapshot readFrom(java.io.File path) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large for a process image snapshot");
+            }
+            byte[] data = new byte[(int)channel.size()];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(path + " is truncated");
+                }
+            }
+            return parse(data);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates a snapshot from its binary form
+     *
+     * @param data Binary form as returned by {@link #toBytes()}
+     * @return Snapshot
+     * @throws IOException If the data is not a valid snapshot
+     */
+    public static ProcessImageSnapshot fromBytes(byte[] data) throws IOException {
+        return parse(data.clone());
+    }
+
+    /**
+     * Validates the binary form and wraps it without copying
+     *
+     * @param data Binary form
+     * @return Snapshot
+     * @throws IOException If the data is not a valid snapshot
+     */
+    private static ProcessImageSnapshot parse(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE + 4) {
+            throw new IOException("Process image snapshot is truncated");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a process image snapshot");
+        }
+        if (buffer.getShort() != VERSION) {
+            throw new IOException("Unsupported process image snapshot version");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int)crc.getValue() != buffer.getInt(data.length - 4)) {
+            throw new IOException("Process image snapshot is corrupt");
+        }
+        return new ProcessImageSnapshot(data, buffer.getLong(8));
+    }
+
+    /**
+     * Returns when the snapshot was captured
+     *
+     * @return Milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the binary form of the snapshot
+     *
+     * @return Copy of the binary form
+     */
+    public byte[] toBytes() {
+        return data.clone();
+    }
+
+    /**
+     * Tests if two snapshots hold the same values, ignoring when they were taken
+     *
+     * @param other Snapshot to compare with
+     * @return True if restoring either gives the same image
+     */
+    public boolean hasSameValues(ProcessImageSnapshot other) {
+        if (other == null || other.data.length != data.length) {
+            return false;
+        }
+        // Skip the timestamp and the CRC that covers it
+        return rangeEquals(data, other.data, 0, 8) && rangeEquals(data, other.data, HEADER_SIZE, data.length - 4);
+    }
+
+    /**
+     * Writes the snapshot to a file, replacing it atomically
+     *
+     * @param path Snapshot file
+     * @throws IOException If the file cannot be written
+     */
+    public void writeTo(java.io.File path) throws IOException {
+        java.io.File temp = new java.io.File(path.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            channel.truncate(0);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        finally {
+            raf.close();
+        }
+        if (!temp.renameTo(path)) {
+            throw new IOException("Cannot replace " + path);
+        }
+    }
+
+    /**
+     * Restores the snapshot into a process image.
+     *
+     * Elements that exist in the image keep their identity and get the
+     * snapshot value, so observers of observable registers and coils are
+     * notified. Missing elements are added as simple ones, elements the
+     * snapshot knows nothing about are left alone.
+     *
+     * @param image Image to restore into, it must not be locked
+     */
+    public void restore(ProcessImageImplementation image) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, HEADER_SIZE, data.length - HEADER_SIZE - 4);
+        try {
+            restoreCoils(image, Table.read(buffer, true));
+            restoreDiscretes(image, Table.read(buffer, true));
+            restoreInputRegisters(image, Table.read(buffer, false));
+            restoreRegisters(image, Table.read(buffer, false));
+            int files = buffer.getInt();
+            for (int i = 0; i < files; i++) {
+                restoreFile(image, FileEntry.read(buffer));
+            }
+            int fifos = buffer.getInt();
+            for (int i = 0; i < fifos; i++) {
+                restoreFifo(image, FifoEntry.read(buffer));
+            }
+        }
+        catch (BufferUnderflowException ex) {
+            throw new IllegalStateException("Process image snapshot is truncated", ex);
+        }
+    }
+
+    private static Table captureCoils(ProcessImage image) {
+        Table table = new Table(image.getDigitalOutCount(), true);
+        try {
+            image.readCoils(0, table.count, table.values, 0);
+        }
+        catch (IllegalAddressException ex) {
+            Arrays.fill(table.values, (byte)0);
+            for (int i = 0; i < table.count; i++) {
+                try {
+                    table.setBit(i, image.getDigitalOut(i).isSet());
+                }
+                catch (IllegalAddressException hole) {
+                    table.clearPresent(i);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static Table captureDiscretes(ProcessImage image) {
+        Table table = new Table(image.getDigitalInCount(), true);
+        try {
+            image.readDiscreteInputs(0, table.count, table.values, 0);
+        }
+        catch (IllegalAddressException ex) {
+            Arrays.fill(table.values, (byte)0);
+            for (int i = 0; i < table.count; i++) {
+                try {
+                    table.setBit(i, image.getDigitalIn(i).isSet());
+                }
+                catch (IllegalAddressException hole) {
+                    table.clearPresent(i);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static Table captureInputRegisters(ProcessImage image) {
+        Table table = new Table(image.getInputRegisterCount(), false);
+        try {
+            image.readInputRegisters(0, table.count, table.values, 0);
+        }
+        catch (IllegalAddressException ex) {
+            for (int i = 0; i < table.count; i++) {
+                try {
+                    table.setWord(i, image.getInputRegister(i).getValue());
+                }
+                catch (IllegalAddressException hole) {
+                    table.clearPresent(i);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static Table captureRegisters(ProcessImage image) {
+        Table table = new Table(image.getRegisterCount(), false);
+        try {
+            image.readRegisters(0, table.count, table.values, 0);
+        }
+        catch (IllegalAddressException ex) {
+            for (int i = 0; i < table.count; i++) {
+                try {
+                    table.setWord(i, image.getRegister(i).getValue());
+                }
+                catch (IllegalAddressException hole) {
+                    table.clearPresent(i);
+                }
+            }
+        }
+        return table;
+    }
+
+    private static FileEntry[] captureFiles(ProcessImage image) {
+        FileEntry[] entries = new FileEntry[image.getFileCount()];
+        for (int i = 0; i < entries.length; i++) {
+            File file;
+            try {
+                file = image.getFile(i);
+            }
+            catch (IllegalAddressException hole) {
+                file = null;
+            }
+            entries[i] = new FileEntry(file);
+            entries[i].index = i;
+        }
+        return entries;
+    }
+
+    private static FifoEntry[] captureFifos(ProcessImage image) {
+        FifoEntry[] entries = new FifoEntry[image.getFIFOCount()];
+        for (int i = 0; i < entries.length; i++) {
+            FIFO fifo;
+            try {
+                fifo = image.getFIFO(i);
+            }
+            catch (IllegalAddressException hole) {
+                fifo = null;
+            }
+            entries[i] = new FifoEntry(fifo);
+            entries[i].index = i;
+        }
+        return entries;
+    }
+
+    private static void restoreCoils(ProcessImageImplementation image, Table table) {
+        for (int i = 0; i < table.count; i++) {
+            if (table.isPresent(i)) {
+                try {
+                    image.getDigitalOut(i).set(table.getBit(i));
+                }
+                catch (IllegalAddressException ex) {
+                    image.addDigitalOut(i, new SimpleDigitalOut(table.getBit(i)));
+                }
+            }
+        }
+    }
+
+    private static void restoreDiscretes(ProcessImageImplementation image, Table table) {
+        for (int i = 0; i < table.count; i++) {
+            if (table.isPresent(i)) {
+                DigitalIn din;
+                try {
+                    din = image.getDigitalIn(i);
+                }
+                catch (IllegalAddressException ex) {
+                    din = null;
+                }
+                if (din instanceof SimpleDigitalIn) {
+                    ((SimpleDigitalIn)din).set(table.getBit(i));
+                }
+                else if (din instanceof DigitalOut) {
+                    ((DigitalOut)din).set(table.getBit(i));
+                }
+                else {
+                    image.addDigitalIn(i, new SimpleDigitalIn(table.getBit(i)));
+                }
+            }
+        }
+    }
+
+    private static void restoreInputRegisters(ProcessImageImplementation image, Table table) {
+        for (int i = 0; i < table.count; i++) {
+            if (table.isPresent(i)) {
+                InputRegister register;
+                try {
+                    register = image.getInputRegister(i);
+                }
+                catch (IllegalAddressException ex) {
+                    register = null;
+                }
+                if (register instanceof Register) {
+                    ((Register)register).setValue(table.getWord(i));
+                }
+                else {
+                    image.addInputRegister(i, new SimpleInputRegister(table.getWord(i)));
+                }
+            }
+        }
+    }
+
+    private static void restoreRegisters(ProcessImageImplementation image, Table table) {
+        for (int i = 0; i < table.count; i++) {
+            if (table.isPresent(i)) {
+                try {
+                    image.getRegister(i).setValue(table.getWord(i));
+                }
+                catch (IllegalAddressException ex) {
+                    image.addRegister(i, new SimpleRegister(table.getWord(i)));
+                }
+            }
+        }
+    }
+
+    private static void restoreFile(ProcessImageImplementation image, FileEntry entry) {
+        if (entry.records == null) {
+            return;
+        }
+        File file;
+        try {
+            file = image.getFile(entry.index);
+        }
+        catch (IllegalAddressException ex) {
+            file = null;
+        }
+        if (file == null || file.getFileNumber() != entry.fileNumber || file.getRecordCount() != entry.records.length) {
+            file = new File(entry.fileNumber, entry.records.length);
+            image.addFile(entry.index, file);
+        }
+        for (int r = 0; r < entry.records.length; r++) {
+            Table values = entry.records[r];
+            if (values == null) {
+                continue;
+            }
+            Record record = file.getRecord(r);
+            if (record == null || record.getRecordNumber() != entry.recordNumbers[r] || record.getRegisterCount() != values.count) {
+                record = new Record(entry.recordNumbers[r], values.count);
+                file.setRecord(r, record);
+            }
+            for (int i = 0; i < values.count; i++) {
+                if (values.isPresent(i)) {
+                    Register register = record.getRegister(i);
+                    if (register == null) {
+                        record.setRegister(i, new SimpleRegister(values.getWord(i)));
+                    }
+                    else {
+                        register.setValue(values.getWord(i));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void restoreFifo(ProcessImageImplementation image, FifoEntry entry) {
+        if (entry.capacity == 0) {
+            return;
+        }
+        FIFO fifo;
+        try {
+            fifo = image.getFIFO(entry.index);
+        }
+        catch (IllegalAddressException ex) {
+            fifo = null;
+        }
+        if (fifo == null || fifo.getAddress() != entry.address || fifo.getCapacity() != entry.capacity) {
+            fifo = new FIFO(entry.address, entry.capacity);
+            image.addFIFO(entry.index, fifo);
+        }
+        fifo.resetRegisters();
+        for (int i = 0; i < entry.count; i++) {
+            fifo.pushValue(((entry.values[i * 2] & 0xFF) << 8) | (entry.values[i * 2 + 1] & 0xFF));
+        }
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A table of bits or words with a bitmap of the elements that exist
+     */
+    private static class Table {
+        final int count;
+        final boolean bits;
+        final byte[] present;
+        final byte[] values;
+
+        Table(int count, boolean bits) {
+            this.count = count;
+            this.bits = bits;
+            present = new byte[(count + 7) / 8];
+            Arrays.fill(present, (byte)0xFF);
+            values = new byte[bits ? (count + 7) / 8 : count * 2];
+        }
+
+        static Table read(ByteBuffer buffer, boolean bits) {
+            Table table = new Table(buffer.getInt(), bits);
+            buffer.get(table.present);
+            buffer.get(table.values);
+            return table;
+        }
+
+        int size() {
+            return 4 + present.length + values.length;
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putInt(count);
+            buffer.put(present);
+            buffer.put(values);
+        }
+
+        boolean isPresent(int i) {
+            return (present[i >> 3] & (1 << (i & 7))) != 0;
+        }
+
+        void clearPresent(int i) {
+            present[i >> 3] &= ~(1 << (i & 7));
+        }
+
+        boolean getBit(int i) {
+            return (values[i >> 3] & (1 << (i & 7))) != 0;
+        }
+
+        void setBit(int i, boolean b) {
+            if (b) {
+                values[i >> 3] |= 1 << (i & 7);
+            }
+        }
+
+        int getWord(int i) {
+            return ((values[i * 2] & 0xFF) << 8) | (values[i * 2 + 1] & 0xFF);
+        }
+
+        void setWord(int i, int value) {
+            values[i * 2] = (byte)(value >> 8);
+            values[i * 2 + 1] = (byte)value;
+        }
+    }
+
+    /**
+     * A file slot, records is null for an empty slot
+     */
+    private static class FileEntry {
+        int index;
+        int fileNumber;
+        int[] recordNumbers;
+        Table[] records;
+
+        FileEntry() {
+        }
+
+        FileEntry(File file) {
+            if (file == null) {
+                return;
+            }
+            fileNumber = file.getFileNumber();
+            recordNumbers = new int[file.getRecordCount()];
+            records = new Table[file.getRecordCount()];
+            for (int r = 0; r < records.length; r++) {
+                Record record = file.getRecord(r);
+                if (record != null) {
+                    recordNumbers[r] = record.getRecordNumber();
+                    records[r] = new Table(record.getRegisterCount(), false);
+                    for (int i = 0; i < records[r].count; i++) {
+                        Register register = record.getRegister(i);
+                        if (register == null) {
+                            records[r].clearPresent(i);
+                        }
+                        else {
+                            records[r].setWord(i, register.getValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        static FileEntry read(ByteBuffer buffer) {
+            FileEntry entry = new FileEntry();
+            entry.index = buffer.getInt();
+            int recordCount = buffer.getInt();
+            if (recordCount < 0) {
+                return entry;
+            }
+            entry.fileNumber = buffer.getInt();
+            entry.recordNumbers = new int[recordCount];
+            entry.records = new Table[recordCount];
+            for (int r = 0; r < recordCount; r++) {
+                if (buffer.get() != 0) {
+                    entry.recordNumbers[r] = buffer.getInt();
+                    entry.records[r] = Table.read(buffer, false);
+                }
+            }
+            return entry;
+        }
+
+        int size() {
+            int size = 8;
+            if (records != null) {
+                size += 4;
+                for (Table record : records) {
+                    size += 1 + (record == null ? 0 : 4 + record.size());
+                }
+            }
+            return size;
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putInt(index);
+            if (records == null) {
+                buffer.putInt(-1);
+                return;
+            }
+            buffer.putInt(records.length);
+            buffer.putInt(fileNumber);
+            for (int r = 0; r < records.length; r++) {
+                if (records[r] == null) {
+                    buffer.put((byte)0);
+                }
+                else {
+                    buffer.put((byte)1);
+                    buffer.putInt(recordNumbers[r]);
+                    records[r].write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * A FIFO slot, capacity is 0 for an empty slot
+     */
+    private static class FifoEntry {
+        int index;
+        int address;
+        int capacity;
+        int count;
+        byte[] values;
+
+        FifoEntry() {
+        }
+
+        FifoEntry(FIFO fifo) {
+            if (fifo == null) {
+                values = new byte[0];
+                return;
+            }
+            address = fifo.getAddress();
+            capacity = fifo.getCapacity();
+            values = new byte[capacity * 2];
+            count = fifo.readRegisters(values, 0);
+        }
+
+        static FifoEntry read(ByteBuffer buffer) {
+            FifoEntry entry = new FifoEntry();
+            entry.index = buffer.getInt();
+            entry.address = buffer.getInt();
+            entry.capacity = buffer.get() & 0xFF;
+            entry.count = buffer.get() & 0xFF;
+            entry.values = new byte[entry.count * 2];
+            buffer.get(entry.values);
+            return entry;
+        }
+
+        int size() {
+            return 10 + count * 2;
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putInt(index);
+            buffer.putInt(address);
+            buffer.put((byte)capacity);
+            buffer.put((byte)count);
+            buffer.put(values, 0, count * 2);
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.felhr.androidmodbus.procimg;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Vector;
 
 /**
@@ -26,6 +28,11 @@ import java.util.Vector;
  * objects. Holes may be created by adding a object with a reference after the
  * last object reference of that type.
  *
+ * <p>
+ * File records are served from the <tt>File</tt> objects of the image unless
+ * a {@link MappedFileRecordStore} is attached, which then handles all file
+ * record requests.
+ *
  * @author Dieter Wimberger
  * @author Julie Added support for files of records.
  * @author Steve O'Hara (4NG)
@@ -41,6 +48,9 @@ public class SimpleProcessImage implements ProcessImageImplementation {
     protected final Vector<File> files = new Vector<File>();
     protected final Vector<FIFO> fifos = new Vector<FIFO>();
     protected boolean locked = false;
+    protected MappedFileRecordStore fileRecordStore;
+    private volatile Map<Integer, File> filesByNumber = new HashMap<Integer, File>();
+    private volatile Map<Integer, FIFO> fifosByAddress = new HashMap<Integer, FIFO>();
     protected int unitID = 0;
 
     /**
@@ -239,21 +249,58 @@ public class SimpleProcessImage implements ProcessImageImplementation {
             throw new IllegalAddressException();
         }
 
-        synchronized (files) {
-            for (File file : files) {
-                if (file.getFileNumber() == ref) {
-                    return file;
-                }
-            }
+        File file = filesByNumber.get(ref);
+        if (file == null) {
+            throw new IllegalAddressException();
         }
-
-        throw new IllegalAddressException();
+        return file;
     }
 
     public int getFileCount() {
         return files.size();
     }
 
+    /**
+     * Returns the store serving file record requests
+     *
+     * @return Store or null if the <tt>File</tt> objects of this image are used
+     */
+    public synchronized MappedFileRecordStore getFileRecordStore() {
+        return fileRecordStore;
+    }
+
+    /**
+     * Attaches a memory mapped store that serves all file record requests
+     * in place of the <tt>File</tt> objects of this image
+     *
+     * @param store Store or null to go back to the <tt>File</tt> objects
+     */
+    public synchronized void setFileRecordStore(MappedFileRecordStore store) {
+        fileRecordStore = store;
+    }
+
+    @Override
+    public void readFileRecord(int fileNumber, int recordNumber, int count, byte[] dst, int off) {
+        MappedFileRecordStore store = getFileRecordStore();
+        if (store != null) {
+            store.read(fileNumber, recordNumber, count, dst, off);
+        }
+        else {
+            ProcessImageImplementation.super.readFileRecord(fileNumber, recordNumber, count, dst, off);
+        }
+    }
+
+    @Override
+    public void writeFileRecord(int fileNumber, int recordNumber, int count, byte[] src, int off) {
+        MappedFileRecordStore store = getFileRecordStore();
+        if (store != null) {
+            store.write(fileNumber, recordNumber, count, src, off);
+        }
+        else {
+            ProcessImageImplementation.super.writeFileRecord(fileNumber, recordNumber, count, src, off);
+        }
+    }
+
     public FIFO getFIFO(int fifoNumber) {
         try {
             FIFO result = fifos.elementAt(fifoNumber);
@@ -269,13 +316,7 @@ public class SimpleProcessImage implements ProcessImageImplementation {
     }
 
     public FIFO getFIFOByAddress(int ref) {
-        for (FIFO fifo : fifos) {
-            if (fifo.getAddress() == ref) {
-                return fifo;
-            }
-        }
-
-        return null;
+        return fifosByAddress.get(ref);
     }
 
     public int getFIFOCount() {
@@ -462,22 +503,28 @@ public class SimpleProcessImage implements ProcessImageImplementation {
 
     public void setFile(int fileNumber, File file) {
         if (!isLocked()) {
-            try {
-                if (files.get(fileNumber) == null) {
+            synchronized (files) {
+                try {
+                    if (files.get(fileNumber) == null) {
+                        throw new IllegalAddressException();
+                    }
+
+                    files.setElementAt(file, fileNumber);
+                    indexFiles();
+                }
+                catch (IndexOutOfBoundsException ex) {
                     throw new IllegalAddressException();
                 }
-
-                files.setElementAt(file, fileNumber);
-            }
-            catch (IndexOutOfBoundsException ex) {
-                throw new IllegalAddressException();
             }
         }
     }
 
     public void addFile(File newFile) {
         if (!isLocked()) {
-            files.add(newFile);
+            synchronized (files) {
+                files.add(newFile);
+                indexFiles();
+            }
         }
     }
 
@@ -488,40 +535,63 @@ public class SimpleProcessImage implements ProcessImageImplementation {
 
         if (!isLocked()) {
             synchronized (files) {
-                if (ref < files.size()) {
-                    files.setElementAt(newFile, ref);
-                    return;
+                if (ref >= files.size()) {
+                    files.setSize(ref + 1);
                 }
-                files.setSize(ref + 1);
                 files.setElementAt(newFile, ref);
+                indexFiles();
             }
         }
     }
 
     public void removeFile(File oldFile) {
         if (!isLocked()) {
-            files.removeElement(oldFile);
+            synchronized (files) {
+                files.removeElement(oldFile);
+                indexFiles();
+            }
         }
     }
 
+    /**
+     * Rebuilds the file number index after the files have changed.
+     * Called with the files locked.
+     */
+    private void indexFiles() {
+        Map<Integer, File> index = new HashMap<Integer, File>();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            File file = files.get(i);
+            if (file != null) {
+                index.put(file.getFileNumber(), file);
+            }
+        }
+        filesByNumber = index;
+    }
+
     public void setFIFO(int fifoNumber, FIFO fifo) {
         if (!isLocked()) {
-            try {
-                if (fifos.get(fifoNumber) == null) {
+            synchronized (fifos) {
+                try {
+                    if (fifos.get(fifoNumber) == null) {
+                        throw new IllegalAddressException();
+                    }
+
+                    fifos.setElementAt(fifo, fifoNumber);
+                    indexFIFOs();
+                }
+                catch (IndexOutOfBoundsException ex) {
                     throw new IllegalAddressException();
                 }
-
-                fifos.setElementAt(fifo, fifoNumber);
-            }
-            catch (IndexOutOfBoundsException ex) {
-                throw new IllegalAddressException();
             }
         }
     }
 
     public void addFIFO(FIFO fifo) {
         if (!isLocked()) {
-            fifos.add(fifo);
+            synchronized (fifos) {
+                fifos.add(fifo);
+                indexFIFOs();
+            }
         }
     }
 
@@ -532,20 +602,37 @@ public class SimpleProcessImage implements ProcessImageImplementation {
 
         if (!isLocked()) {
             synchronized (fifos) {
-                if (ref < fifos.size()) {
-                    fifos.setElementAt(newFIFO, ref);
-                    return;
+                if (ref >= fifos.size()) {
+                    fifos.setSize(ref + 1);
                 }
-                fifos.setSize(ref + 1);
                 fifos.setElementAt(newFIFO, ref);
+                indexFIFOs();
             }
         }
     }
 
     public void removeFIFO(FIFO oldFIFO) {
         if (!isLocked()) {
-            fifos.removeElement(oldFIFO);
+            synchronized (fifos) {
+                fifos.removeElement(oldFIFO);
+                indexFIFOs();
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the FIFO address index after the FIFOs have changed.
+     * Called with the FIFOs locked.
+     */
+    private void indexFIFOs() {
+        Map<Integer, FIFO> index = new HashMap<Integer, FIFO>();
+        for (int i = fifos.size() - 1; i >= 0; i--) {
+            FIFO fifo = fifos.get(i);
+            if (fifo != null) {
+                index.put(fifo.getAddress(), fifo);
+            }
         }
+        fifosByAddress = index;
     }
 
 }
@@ -0,0 +1,493 @@
+package com.felhr.androidmodbus.procimg;
+
+import java.util.Arrays;
+
+/**
+ * Process image for address maps with large gaps.
+ *
+ * Each table is a sorted list of blocks of consecutive addresses, values are
+ * kept in primitive arrays so an unused address costs nothing and a used one
+ * two bytes or a bit. A block is found with a binary search and a range inside
+ * a block is copied in one go. Adjacent blocks are merged when added. Reading
+ * or writing an address outside every block raises an
+ * {@link IllegalAddressException}, which the slave answers with an illegal
+ * data address exception.
+ * <pre>
+ * SparseProcessImage image = new SparseProcessImage();
+ * image.addRegisters(0, 100);
+ * image.addRegisters(1000, 20);
+ * image.addRegisters(9999, 1);
+ * </pre>
+ * The counts returned by the image are one past the highest address in use.
+ * Files and FIFOs are not supported.
+ */
+public class SparseProcessImage implements ProcessImage {
+
+    private final Space coils = new Space(true);
+    private final Space discretes = new Space(true);
+    private final Space inputRegisters = new Space(false);
+    private final Space registers = new Space(false);
+
+    /**
+     * Adds a block of coils, all cleared
+     *
+     * @param ref   First address
+     * @param count Number of coils
+     * @throws IllegalArgumentException If the block overlaps another one or is out of range
+     */
+    public void addCoils(int ref, int count) {
+        coils.add(ref, count);
+    }
+
+    /**
+     * Adds a block of discrete inputs, all cleared
+     *
+     * @param ref   First address
+     * @param count Number of inputs
+     * @throws IllegalArgumentException If the block overlaps another one or is out of range
+     */
+    public void addDiscreteInputs(int ref, int count) {
+        discretes.add(ref, count);
+    }
+
+    /**
+     * Adds a block of input registers, all zero
+     *
+     * @param ref   First address
+     * @param count Number of registers
+     * @throws IllegalArgumentException If the block overlaps another one or is out of range
+     */
+    public void addInputRegisters(int ref, int count) {
+        inputRegisters.add(ref, count);
+    }
+
+    /**
+     * Adds a block of registers, all zero
+     *
+     * @param ref   First address
+     * @param count Number of registers
+     * @throws IllegalArgumentException If the block overlaps another one or is out of range
+     */
+    public void addRegisters(int ref, int count) {
+        registers.add(ref, count);
+    }
+
+    /**
+     * Sets a range of discrete inputs from packed bits, for the process
+     * feeding the image
+     *
+     * @param ref   the start offset.
+     * @param count the amount of inputs to write.
+     * @param src   the buffer holding the packed states.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    public void writeDiscreteInputs(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        discretes.writeBits(ref, count, src, off);
+    }
+
+    /**
+     * Sets a range of input registers from big endian words, for the process
+     * feeding the image
+     *
+     * @param ref   the start offset.
+     * @param count the amount of registers to write.
+     * @param src   the buffer holding the values.
+     * @param off   the offset of the first byte in <tt>src</tt>.
+     *
+     * @throws IllegalAddressException if the range from ref to ref+count is non existant.
+     */
+    public void writeInputRegisters(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        inputRegisters.writeWords(ref, count, src, off);
+    }
+
+    @Override
+    public void readCoils(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        coils.readBits(ref, count, dst, off);
+    }
+
+    @Override
+    public void writeCoils(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        coils.writeBits(ref, count, src, off);
+    }
+
+    @Override
+    public void readDiscreteInputs(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        discretes.readBits(ref, count, dst, off);
+    }
+
+    @Override
+    public void readInputRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        inputRegisters.readWords(ref, count, dst, off);
+    }
+
+    @Override
+    public void readRegisters(int ref, int count, byte[] dst, int off) throws IllegalAddressException {
+        registers.readWords(ref, count, dst, off);
+    }
+
+    @Override
+    public void writeRegisters(int ref, int count, byte[] src, int off) throws IllegalAddressException {
+        registers.writeWords(ref, count, src, off);
+    }
+
+    public DigitalOut[] getDigitalOutRange(int offset, int count) throws IllegalAddressException {
+        coils.check(offset, count);
+        DigitalOut[] douts = new DigitalOut[count];
+        for (int i = 0; i < count; i++) {
+            douts[i] = new SparseDigital(coils, offset + i);
+        }
+        return douts;
+    }
+
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        coils.check(ref, 1);
+        return new SparseDigital(coils, ref);
+    }
+
+    public int getDigitalOutCount() {
+        return coils.count();
+    }
+
+    public DigitalIn[] getDigitalInRange(int offset, int count) throws IllegalAddressException {
+        discretes.check(offset, count);
+        DigitalIn[] dins = new DigitalIn[count];
+        for (int i = 0; i < count; i++) {
+            dins[i] = new SparseDigital(discretes, offset + i);
+        }
+        return dins;
+    }
+
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        discretes.check(ref, 1);
+        return new SparseDigital(discretes, ref);
+    }
+
+    public int getDigitalInCount() {
+        return discretes.count();
+    }
+
+    public InputRegister[] getInputRegisterRange(int offset, int count) throws IllegalAddressException {
+        inputRegisters.check(offset, count);
+        InputRegister[] iregs = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            iregs[i] = new SparseRegister(inputRegisters, offset + i);
+        }
+        return iregs;
+    }
+
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        inputRegisters.check(ref, 1);
+        return new SparseRegister(inputRegisters, ref);
+    }
+
+    public int getInputRegisterCount() {
+        return inputRegisters.count();
+    }
+
+    public Register[] getRegisterRange(int offset, int count) throws IllegalAddressException {
+        registers.check(offset, count);
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = new SparseRegister(registers, offset + i);
+        }
+        return regs;
+    }
+
+    public Register getRegister(int ref) throws IllegalAddressException {
+        registers.check(ref, 1);
+        return new SparseRegister(registers, ref);
+    }
+
+    public int getRegisterCount() {
+        return registers.count();
+    }
+
+    public File getFile(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public File getFileByNumber(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public int getFileCount() {
+        return 0;
+    }
+
+    public FIFO getFIFO(int ref) throws IllegalAddressException {
+        throw new IllegalAddressException();
+    }
+
+    public FIFO getFIFOByAddress(int ref) throws IllegalAddressException {
+        return null;
+    }
+
+    public int getFIFOCount() {
+        return 0;
+    }
+
+    /**
+     * A run of consecutive addresses, bits are kept in <tt>long</tt> words
+     * and registers in <tt>short</tt>s
+     */
+    private static class Block {
+        final int start;
+        final int count;
+        final long[] bits;
+        final short[] words;
+
+        Block(int start, int count, boolean bits) {
+            this.start = start;
+            this.count = count;
+            this.bits = bits ? new long[(count + 63) >>> 6] : null;
+            this.words = bits ? null : new short[count];
+        }
+
+        int end() {
+            return start + count;
+        }
+
+        boolean getBit(int ref) {
+            int i = ref - start;
+            return (bits[i >>> 6] & (1L << i)) != 0;
+        }
+
+        void setBit(int ref, boolean b) {
+            int i = ref - start;
+            if (b) {
+                bits[i >>> 6] |= 1L << i;
+            }
+            else {
+                bits[i >>> 6] &= ~(1L << i);
+            }
+        }
+    }
+
+    /**
+     * One table of the image, blocks are sorted by address and never overlap.
+     * All access goes through the table lock so blocks can be merged safely.
+     */
+    private static class Space {
+        private final boolean bits;
+        private Block[] blocks = new Block[0];
+
+        Space(boolean bits) {
+            this.bits = bits;
+        }
+
+        synchronized int count() {
+            return blocks.length == 0 ? 0 : blocks[blocks.length - 1].end();
+        }
+
+        synchronized void add(int ref, int count) {
+            if (ref < 0 || count <= 0 || ref + count > 65536) {
+                throw new IllegalArgumentException("Block " + ref + "+" + count + " is outside the address space");
+            }
+            int index = indexOf(ref);
+            Block before = index >= 0 ? blocks[index] : null;
+            Block after = index + 1 < blocks.length ? blocks[index + 1] : null;
+            if ((before != null && before.end() > ref) || (after != null && after.start < ref + count)) {
+                throw new IllegalArgumentException("Block " + ref + "+" + count + " overlaps an existing block");
+            }
+            boolean mergeBefore = before != null && before.end() == ref;
+            boolean mergeAfter = after != null && after.start == ref + count;
+            int start = mergeBefore ? before.start : ref;
+            int end = mergeAfter ? after.end() : ref + count;
+            Block block = new Block(start, end - start, bits);
+            if (mergeBefore) {
+                copy(before, block);
+            }
+            if (mergeAfter) {
+                copy(after, block);
+            }
+
+            int first = mergeBefore ? index : index + 1;
+            int removed = (mergeBefore ? 1 : 0) + (mergeAfter ? 1 : 0);
+            Block[] updated = new Block[blocks.length - removed + 1];
+            System.arraycopy(blocks, 0, updated, 0, first);
+            updated[first] = block;
+            System.arraycopy(blocks, first + removed, updated, first + 1, blocks.length - first - removed);
+            blocks = updated;
+        }
+
+        /**
+         * Returns the index of the last block starting at or before an address
+         *
+         * @param ref Address
+         * @return Index, -1 if every block starts after the address
+         */
+        private int indexOf(int ref) {
+            int low = 0;
+            int high = blocks.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (blocks[mid].start <= ref) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        /**
+         * Returns the block holding an address
+         *
+         * @param ref Address
+         * @return Block
+         * @throws IllegalAddressException If no block holds the address
+         */
+        private Block find(int ref) {
+            int index = indexOf(ref);
+            if (index < 0 || blocks[index].end() <= ref) {
+                throw new IllegalAddressException();
+            }
+            return blocks[index];
+        }
+
+        synchronized void check(int ref, int count) {
+            if (ref < 0 || count < 0) {
+                throw new IllegalAddressException();
+            }
+            int end = ref + count;
+            while (ref < end) {
+                ref = find(ref).end();
+            }
+        }
+
+        synchronized void readWords(int ref, int count, byte[] dst, int off) {
+            check(ref, count);
+            int end = ref + count;
+            while (ref < end) {
+                Block block = find(ref);
+                int n = Math.min(end, block.end()) - ref;
+                for (int i = ref - block.start, last = i + n; i < last; i++) {
+                    short value = block.words[i];
+                    dst[off++] = (byte)(value >> 8);
+                    dst[off++] = (byte)value;
+                }
+                ref += n;
+            }
+        }
+
+        synchronized void writeWords(int ref, int count, byte[] src, int off) {
+            check(ref, count);
+            int end = ref + count;
+            while (ref < end) {
+                Block block = find(ref);
+                int n = Math.min(end, block.end()) - ref;
+                for (int i = ref - block.start, last = i + n; i < last; i++) {
+                    block.words[i] = (short)(((src[off] & 0xFF) << 8) | (src[off + 1] & 0xFF));
+                    off += 2;
+                }
+                ref += n;
+            }
+        }
+
+        synchronized void readBits(int ref, int count, byte[] dst, int off) {
+            check(ref, count);
+            Arrays.fill(dst, off, off + (count + 7) / 8, (byte)0);
+            Block block = null;
+            for (int i = 0; i < count; i++) {
+                if (block == null || ref + i >= block.end()) {
+                    block = find(ref + i);
+                }
+                if (block.getBit(ref + i)) {
+                    dst[off + (i >> 3)] |= 1 << (i & 7);
+                }
+            }
+        }
+
+        synchronized void writeBits(int ref, int count, byte[] src, int off) {
+            check(ref, count);
+            Block block = null;
+            for (int i = 0; i < count; i++) {
+                if (block == null || ref + i >= block.end()) {
+                    block = find(ref + i);
+                }
+                block.setBit(ref + i, (src[off + (i >> 3)] & (1 << (i & 7))) != 0);
+            }
+        }
+
+        private static void copy(Block from, Block to) {
+            for (int ref = from.start; ref < from.end(); ref++) {
+                if (to.bits != null) {
+                    to.setBit(ref, from.getBit(ref));
+                }
+                else {
+                    to.words[ref - to.start] = from.words[ref - from.start];
+                }
+            }
+        }
+    }
+
+    /**
+     * Coil or discrete input view on a table
+     */
+    private static class SparseDigital implements DigitalOut {
+        private final Space space;
+        private final int ref;
+
+        SparseDigital(Space space, int ref) {
+            this.space = space;
+            this.ref = ref;
+        }
+
+        public boolean isSet() {
+            byte[] value = new byte[1];
+            space.readBits(ref, 1, value, 0);
+            return value[0] != 0;
+        }
+
+        public void set(boolean b) {
+            space.writeBits(ref, 1, new byte[]{(byte)(b ? 1 : 0)}, 0);
+        }
+    }
+
+    /**
+     * Register or input register view on a table
+     */
+    private static class SparseRegister implements Register {
+        private final Space space;
+        private final int ref;
+
+        SparseRegister(Space space, int ref) {
+            this.space = space;
+            this.ref = ref;
+        }
+
+        public int getValue() {
+            return toUnsignedShort();
+        }
+
+        public int toUnsignedShort() {
+            byte[] value = toBytes();
+            return ((value[0] & 0xFF) << 8) | (value[1] & 0xFF);
+        }
+
+        public short toShort() {
+            return (short)toUnsignedShort();
+        }
+
+        public byte[] toBytes() {
+            byte[] value = new byte[2];
+            space.readWords(ref, 1, value, 0);
+            return value;
+        }
+
+        public void setValue(int v) {
+            setValue(new byte[]{(byte)(v >> 8), (byte)v});
+        }
+
+        public void setValue(short s) {
+            setValue((int)s);
+        }
+
+        public void setValue(byte[] bytes) {
+            space.writeWords(ref, 1, bytes, 0);
+        }
+    }
+}
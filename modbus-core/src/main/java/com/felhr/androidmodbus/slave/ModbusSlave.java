@@ -16,19 +16,18 @@
 package com.felhr.androidmodbus.slave;
 
 import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.metrics.ListenerMetrics;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
+import com.felhr.androidmodbus.net.AbstractSerialConnection;
 import com.felhr.androidmodbus.net.ModbusSerialListener;
 import com.felhr.androidmodbus.net.ModbusTCPListener;
 import com.felhr.androidmodbus.net.ModbusUDPListener;
 import com.felhr.androidmodbus.procimg.ProcessImage;
 import com.felhr.androidmodbus.util.ModbusUtil;
-import com.felhr.androidmodbus.util.SerialParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Class that implements a wrapper around a Slave Listener
@@ -42,13 +41,11 @@ public class ModbusSlave {
 
     private ModbusSlaveType type;
     private int port;
-    private SerialParameters serialParams;
+    private AbstractSerialConnection serialConnection;
     private AbstractModbusListener listener;
     private boolean isRunning;
     private Thread listenerThread;
 
-    private Map<Integer, ProcessImage> processImages = new HashMap<Integer, ProcessImage>();
-
     /**
      * Creates a TCP modbus slave
      *
@@ -100,11 +97,11 @@ public class ModbusSlave {
     /**
      * Creates a serial modbus slave
      *
-     * @param serialParams Serial parameters for serial type slaves
+     * @param serialConnection Serial connection for serial type slaves
      * @throws ModbusException If a problem occurs e.g. port already in use
      */
-    protected ModbusSlave(SerialParameters serialParams) throws ModbusException {
-        this(ModbusSlaveType.SERIAL, null, 0, 0, serialParams, false);
+    protected ModbusSlave(AbstractSerialConnection serialConnection) throws ModbusException {
+        this(ModbusSlaveType.SERIAL, null, 0, 0, serialConnection, false);
     }
 
     /**
@@ -114,14 +111,14 @@ public class ModbusSlave {
      * @param address       IP address to listen on
      * @param port          Port to listen on if IP type
      * @param poolSize      Pool size for TCP slaves
-     * @param serialParams  Serial parameters for serial type slaves
-     * @param useRtuOverTcp True if the RTU protocol should be used over TCP
+     * @param serialConnection Serial connection for serial type slaves
+     * @param useRtuOverTcp    True if the RTU protocol should be used over TCP
      * @throws ModbusException If a problem occurs e.g. port already in use
      */
-    private ModbusSlave(ModbusSlaveType type, InetAddress address, int port, int poolSize, SerialParameters serialParams, boolean useRtuOverTcp) throws ModbusException {
+    private ModbusSlave(ModbusSlaveType type, InetAddress address, int port, int poolSize, AbstractSerialConnection serialConnection, boolean useRtuOverTcp) throws ModbusException {
         this.type = type == null ? ModbusSlaveType.TCP : type;
         this.port = port;
-        this.serialParams = serialParams;
+        this.serialConnection = serialConnection;
 
         // Create the listener
 
@@ -133,7 +130,7 @@ public class ModbusSlave {
             listener = new ModbusTCPListener(poolSize, useRtuOverTcp);
         }
         else {
-            listener = new ModbusSerialListener(serialParams);
+            listener = new ModbusSerialListener(serialConnection);
         }
 
         listener.setListening(true);
@@ -167,7 +164,7 @@ public class ModbusSlave {
      * @return Process image
      */
     public ProcessImage getProcessImage(int unitId) {
-        return processImages.get(unitId);
+        return listener.getProcessImage(unitId);
     }
 
     /**
@@ -177,27 +174,29 @@ public class ModbusSlave {
      * @return Process image
      */
     public ProcessImage removeProcessImage(int unitId) {
-        return processImages.remove(unitId);
+        return listener.removeProcessImage(unitId);
     }
 
     /**
      * Adds a process image for the given Unit ID
      *
-     * @param unitId Unit ID to associate with this image
+     * @param unitId Unit ID to associate with this image, in the range 0 to 255
      * @param processImage Process image to add
      * @return Process image
      */
     public ProcessImage addProcessImage(int unitId, ProcessImage processImage) {
-        return processImages.put(unitId, processImage);
+        return listener.addProcessImage(unitId, processImage);
     }
 
     /**
-     * Returns the serial parameters of this slave if it is a Serial type
+     * Returns the serial connection of this slave if it is a Serial type.
+     * Replaces <tt>getSerialParams()</tt>, the parameters are those the
+     * connection was created with.
      *
-     * @return Serial parameters
+     * @return Serial connection
      */
-    public SerialParameters getSerialParams() {
-        return serialParams;
+    public AbstractSerialConnection getSerialConnection() {
+        return serialConnection;
     }
 
     /**
@@ -271,6 +270,26 @@ public class ModbusSlave {
         isRunning = false;
     }
 
+    /**
+     * Returns the metrics requests to this slave are recorded into
+     *
+     * @return Metrics or null if not recording
+     */
+    public ListenerMetrics getMetrics() {
+        return listener == null ? null : listener.getMetrics();
+    }
+
+    /**
+     * Sets the metrics requests to this slave are recorded into, null to stop recording
+     *
+     * @param metrics Metrics to record into or null
+     */
+    public void setMetrics(ListenerMetrics metrics) {
+        if (listener != null) {
+            listener.setMetrics(metrics);
+        }
+    }
+
     /**
      * Gets the name of the thread used by the listener
      * @return Name of thread or null if not assigned
@@ -17,8 +17,8 @@ package com.felhr.androidmodbus.slave;
 
 import com.felhr.androidmodbus.ModbusException;
 import com.felhr.androidmodbus.net.AbstractModbusListener;
+import com.felhr.androidmodbus.net.AbstractSerialConnection;
 import com.felhr.androidmodbus.util.ModbusUtil;
-import com.felhr.androidmodbus.util.SerialParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,28 +124,32 @@ public class ModbusSlaveFactory {
     }
 
     /**
-     * Creates a serial modbus slave or returns the one already allocated to this port
+     * Creates a serial modbus slave or returns the one already allocated to this port.
+     * Replaces <tt>createSerialSlave(SerialParameters)</tt>, callers pass
+     * <tt>new SerialConnection(device, usbDeviceConnection, params)</tt> instead.
      *
-     * @param serialParams Serial parameters for serial type slaves
+     * @param serialConnection Serial connection to listen on, <tt>SerialConnection</tt>
+     *                         for a USB serial device
      * @return new or existing Serial modbus slave associated with the port
      *
      * @throws ModbusException If a problem occurs e.g. port already in use
      */
-    public static synchronized ModbusSlave createSerialSlave(SerialParameters serialParams) throws ModbusException {
+    public static synchronized ModbusSlave createSerialSlave(AbstractSerialConnection serialConnection) throws ModbusException {
         ModbusSlave slave = null;
-        if (serialParams == null) {
-            throw new ModbusException("Serial parameters are null");
+        if (serialConnection == null) {
+            throw new ModbusException("Serial connection is null");
         }
-        else if (ModbusUtil.isBlank(serialParams.getPortName())) {
+        String portName = serialConnection.getDescriptivePortName();
+        if (ModbusUtil.isBlank(portName)) {
             throw new ModbusException("Serial port name is empty");
         }
 
         // If we have a slave already assigned to this port
-        if (slaves.containsKey(serialParams.getPortName())) {
-            slave = slaves.get(serialParams.getPortName());
+        if (slaves.containsKey(portName)) {
+            slave = slaves.get(portName);
 
-            // Check if any of the parameters have changed
-            if (!serialParams.toString().equals(slave.getSerialParams().toString())) {
+            // Check if the connection has changed
+            if (slave.getSerialConnection() != serialConnection) {
                 close(slave);
                 slave = null;
             }
@@ -153,8 +157,8 @@ public class ModbusSlaveFactory {
 
         // If we don;t have a slave, create one
         if (slave == null) {
-            slave = new ModbusSlave(serialParams);
-            slaves.put(serialParams.getPortName(), slave);
+            slave = new ModbusSlave(serialConnection);
+            slaves.put(portName, slave);
             return slave;
         }
         return slave;
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.felhr.androidmodbus.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class that implements a collection for
+ * bits, storing them packed into 64 bit words.
+ * Per default the access operations will index from
+ * the LSB (rightmost) bit.
+ * <p>
+ * Bit <tt>i</tt> is bit <tt>i % 8</tt> of byte <tt>i / 8</tt> in the Modbus
+ * byte layout, so packing to and from requests and responses copies whole
+ * words. The bulk operations always use this order, regardless of the access
+ * order set with {@link #toggleAccess(boolean)}.
+ *
+ * @author Dieter Wimberger
+ * @author Steve O'Hara (4NG)
+ * @version 2.0 (March 2016)
+ */
+public class BitVector {
+
+    private static final Logger logger = LoggerFactory.getLogger(BitVector.class);
+    //instance attributes
+    private int size;
+    private final int byteCount;
+    private final long[] words;
+    private boolean MSBAccess = false;
+
+    /**
+     * Constructs a new <tt>BitVector</tt> instance
+     * with a given size.
+     * <p>
+     *
+     * @param size the number of bits the <tt>BitVector</tt>
+     *             should be able to hold.
+     */
+    public BitVector(int size) {
+        //store bits
+        this.size = size;
+
+        //calculate size in bytes and words
+        byteCount = (size + 7) / 8;
+        words = new long[(byteCount + 7) / 8];
+    }
+
+    /**
+     * Factory method for creating a <tt>BitVector</tt> instance
+     * wrapping the given byte data.
+     *
+     * @param data a byte[] containing packed bits.
+     * @param size Size to set the bit vector to
+     *
+     * @return the newly created <tt>BitVector</tt> instance.
+     */
+    public static BitVector createBitVector(byte[] data, int size) {
+        BitVector bv = new BitVector(data.length * 8);
+        bv.setBytes(data);
+        bv.size = size;
+        return bv;
+    }
+
+    /**
+     * Factory method for creating a <tt>BitVector</tt> instance
+     * wrapping the given byte data.
+     *
+     * @param data a byte[] containing packed bits.
+     *
+     * @return the newly created <tt>BitVector</tt> instance.
+     */
+    public static BitVector createBitVector(byte[] data) {
+        BitVector bv = new BitVector(data.length * 8);
+        bv.setBytes(data);
+        return bv;
+    }
+
+    public static void main(String[] args) {
+        BitVector test = new BitVector(24);
+        logger.debug(test.isLSBAccess() + "");
+        test.setBit(7, true);
+        logger.debug(test.getBit(7) + "");
+        test.toggleAccess(true);
+        logger.debug(test.getBit(7) + "");
+
+        test.toggleAccess(true);
+        test.setBit(6, true);
+        test.setBit(3, true);
+        test.setBit(2, true);
+
+        test.setBit(0, true);
+        test.setBit(8, true);
+        test.setBit(10, true);
+
+        logger.debug(test.toString());
+        test.toggleAccess(true);
+        logger.debug(test.toString());
+        test.toggleAccess(true);
+        logger.debug(test.toString());
+
+        logger.debug(ModbusUtil.toHex(test.getBytes()));
+    }
+
+    /**
+     * Toggles the flag deciding whether the LSB
+     * or the MSB of the byte corresponds to the
+     * first bit (index=0).
+     *
+     * @param b true if LSB=0 up to MSB=7, false otherwise.
+     */
+    public void toggleAccess(boolean b) {
+        MSBAccess = !MSBAccess;
+    }
+
+    /**
+     * Tests if this <tt>BitVector</tt> has
+     * the LSB (rightmost) as the first bit
+     * (i.e. at index 0).
+     *
+     * @return true if LSB=0 up to MSB=7, false otherwise.
+     */
+    public boolean isLSBAccess() {
+        return !MSBAccess;
+    }
+
+    /**
+     * Tests if this <tt>BitVector</tt> has
+     * the MSB (leftmost) as the first bit
+     * (i.e. at index 0).
+     *
+     * @return true if LSB=0 up to MSB=7, false otherwise.
+     */
+    public boolean isMSBAccess() {
+        return MSBAccess;
+    }
+
+    /**
+     * Returns a copy of the bits of this <tt>BitVector</tt>
+     * packed into bytes.
+     * <p>
+     *
+     * @return the <tt>byte[]</tt> holding the bits.
+     */
+    public final byte[] getBytes() {
+        byte[] dest = new byte[byteCount];
+        getBytes(dest, 0);
+        return dest;
+    }
+
+    /**
+     * Packs the bits of this <tt>BitVector</tt> into
+     * the Modbus byte layout.
+     *
+     * @param dest the array to write to.
+     * @param off  the offset of the first byte in <tt>dest</tt>.
+     *
+     * @return the number of bytes written, {@link #byteSize()}.
+     */
+    public int getBytes(byte[] dest, int off) {
+        if (off < 0 || off + byteCount > dest.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int k = 0;
+        for (; k + 8 <= byteCount; k += 8) {
+            long word = words[k >> 3];
+            for (int b = 0; b < 8; b++) {
+                dest[off + k + b] = (byte)(word >>> (b << 3));
+            }
+        }
+        for (; k < byteCount; k++) {
+            dest[off + k] = (byte)(words[k >> 3] >>> ((k & 7) << 3));
+        }
+        return byteCount;
+    }
+
+    /**
+     * Sets the <tt>byte[]</tt> which stores
+     * the bits of this <tt>BitVector</tt>.
+     * <p>
+     *
+     * @param data a <tt>byte[]</tt>.
+     */
+    public void setBytes(byte[] data) {
+        setBytes(data, 0, data.length);
+    }
+
+    /**
+     * Sets the <tt>byte[]</tt> which stores
+     * the bits of this <tt>BitVector</tt>.
+     * <p>
+     *
+     * @param data a <tt>byte[]</tt>.
+     * @param size Size to set the bit vector to
+     */
+    public void setBytes(byte[] data, int size) {
+        setBytes(data, 0, data.length);
+        this.size = size;
+    }
+
+    /**
+     * Unpacks bits in the Modbus byte layout into the
+     * first bytes of this <tt>BitVector</tt>.
+     *
+     * @param src    the array to read from.
+     * @param off    the offset of the first byte in <tt>src</tt>.
+     * @param length the number of bytes to read.
+     */
+    public void setBytes(byte[] src, int off, int length) {
+        if (length > byteCount || off < 0 || off + length > src.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        int k = 0;
+        for (; k + 8 <= length; k += 8) {
+            long word = 0;
+            for (int b = 7; b >= 0; b--) {
+                word = (word << 8) | (src[off + k + b] & 0xffL);
+            }
+            words[k >> 3] = word;
+        }
+        for (; k < length; k++) {
+            int shift = (k & 7) << 3;
+            words[k >> 3] = (words[k >> 3] & ~(0xffL << shift)) | ((src[off + k] & 0xffL) << shift);
+        }
+    }
+
+    /**
+     * Returns the state of the bit at the given index of this
+     * <tt>BitVector</tt>.
+     * <p>
+     *
+     * @param index the index of the bit to be returned.
+     *
+     * @return true if the bit at the specified index is set,
+     * false otherwise.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public boolean getBit(int index) throws IndexOutOfBoundsException {
+        index = translateIndex(index);
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the state of the bit at the given index of
+     * this <tt>BitVector</tt>.
+     * <p>
+     *
+     * @param index the index of the bit to be set.
+     * @param b     true if the bit should be set, false if it should be reset.
+     *
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public void setBit(int index, boolean b) throws IndexOutOfBoundsException {
+        index = translateIndex(index);
+        if (b) {
+            words[index >>> 6] |= 1L << index;
+        }
+        else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Sets or clears a range of bits.
+     *
+     * @param from  the index of the first bit.
+     * @param to    the index after the last bit.
+     * @param value true to set the bits, false to clear them.
+     *
+     * @throws IndexOutOfBoundsException if the range is out of bounds.
+     */
+    public void setRange(int from, int to, boolean value) {
+        checkRange(from, to - from, size);
+        long fill = value ? -1L : 0L;
+        for (int pos = from; pos < to; pos += 64) {
+            writeBits(pos, Math.min(64, to - pos), fill);
+        }
+    }
+
+    /**
+     * Copies a range of bits from another <tt>BitVector</tt>,
+     * or from this one if the ranges overlap.
+     *
+     * @param src     the vector to copy from.
+     * @param srcPos  the index of the first bit to copy.
+     * @param destPos the index the first bit is copied to.
+     * @param count   the number of bits to copy.
+     *
+     * @throws IndexOutOfBoundsException if a range is out of bounds.
+     */
+    public void copyFrom(BitVector src, int srcPos, int destPos, int count) {
+        checkRange(srcPos, count, src.size);
+        checkRange(destPos, count, size);
+        if (src == this && srcPos < destPos) {
+            for (int done = count; done > 0; ) {
+                int n = Math.min(64, done);
+                done -= n;
+                writeBits(destPos + done, n, src.readBits(srcPos + done, n));
+            }
+        }
+        else {
+            for (int done = 0; done < count; ) {
+                int n = Math.min(64, count - done);
+                writeBits(destPos + done, n, src.readBits(srcPos + done, n));
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bits set.
+     *
+     * @return the number of bits set among the first {@link #size()} bits.
+     */
+    public int cardinality() {
+        int count = 0;
+        int full = size >>> 6;
+        for (int i = 0; i < full; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        if ((size & 63) != 0) {
+            count += Long.bitCount(words[full] & ((1L << size) - 1));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the bits that differ between this <tt>BitVector</tt>
+     * and another one of the same size.
+     *
+     * @param other the vector to compare with.
+     *
+     * @return a vector with the bits set that differ.
+     *
+     * @throws IllegalArgumentException if the sizes differ.
+     */
+    public BitVector diff(BitVector other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("Size " + other.size + " differs from " + size);
+        }
+        BitVector diff = new BitVector(size);
+        for (int i = 0; i < diff.words.length; i++) {
+            diff.words[i] = words[i] ^ other.words[i];
+        }
+        if ((size & 63) != 0) {
+            diff.words[diff.words.length - 1] &= (1L << size) - 1;
+        }
+        return diff;
+    }
+
+    /**
+     * Returns the index of the next bit set, so the set bits
+     * can be visited with
+     * <pre>
+     * for (int i = bv.nextSetBit(0); i >= 0; i = bv.nextSetBit(i + 1)) {
+     *     ...
+     * }
+     * </pre>
+     * Combined with {@link #diff(BitVector)} this visits the changed bits.
+     *
+     * @param from the index to start searching at.
+     *
+     * @return the index of the next bit set, -1 if there is none.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("Negative index: " + from);
+        }
+        if (from >= size) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                return index < size ? index : -1;
+            }
+            if (++w >= words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * Returns the number of bits in this <tt>BitVector</tt>
+     * as <tt>int</tt>.
+     * <p>
+     *
+     * @return the number of bits in this <tt>BitVector</tt>.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forces the number of bits in this <tt>BitVector</tt>.
+     *
+     * @param size Size to set the bit vector to
+     *
+     * @throws IllegalArgumentException if the size exceeds
+     *                                  the byte[] store size multiplied by 8.
+     */
+    public void forceSize(int size) {
+        if (size > byteCount * 8) {
+            throw new IllegalArgumentException("Size exceeds byte[] store");
+        }
+        else {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Returns the number of bytes used to store the
+     * collection of bits as <tt>int</tt>.
+     * <p>
+     *
+     * @return the number of bits in this <tt>BitVector</tt>.
+     */
+    public int byteSize() {
+        return byteCount;
+    }
+
+    /**
+     * Returns a <tt>String</tt> representing the
+     * contents of the bit collection in a way that
+     * can be printed to a screen or log.
+     * <p>
+     * Note that this representation will <em>ALLWAYS</em>
+     * show the MSB to the left and the LSB to the right
+     * in each byte.
+     *
+     * @return a <tt>String</tt> representing this <tt>BitVector</tt>.
+     */
+    public String toString() {
+        StringBuilder sbuf = new StringBuilder();
+        byte[] data = getBytes();
+        for (int i = 0; i < data.length; i++) {
+
+            int numberOfBitsToPrint = Byte.SIZE;
+            int remainingBits = size - (i * Byte.SIZE);
+            if (remainingBits < Byte.SIZE) {
+                numberOfBitsToPrint = remainingBits;
+            }
+
+            sbuf.append(String.format("%" + numberOfBitsToPrint + "s", Integer.toBinaryString(data[i] & 0xFF)).replace(' ', '0'));
+            sbuf.append(" ");
+        }
+        return sbuf.toString();
+    }
+
+    /**
+     * Reads up to 64 bits starting at any index
+     *
+     * @param pos Index of the first bit
+     * @param n   Number of bits, 1 to 64
+     * @return Bits, the first one in the LSB
+     */
+    private long readBits(int pos, int n) {
+        int w = pos >>> 6;
+        int shift = pos & 63;
+        long bits = words[w] >>> shift;
+        if (shift + n > 64) {
+            bits |= words[w + 1] << (64 - shift);
+        }
+        return n == 64 ? bits : bits & ((1L << n) - 1);
+    }
+
+    /**
+     * Writes up to 64 bits starting at any index
+     *
+     * @param pos  Index of the first bit
+     * @param n    Number of bits, 1 to 64
+     * @param bits Bits, the first one in the LSB
+     */
+    private void writeBits(int pos, int n, long bits) {
+        int w = pos >>> 6;
+        int shift = pos & 63;
+        long mask = n == 64 ? -1L : (1L << n) - 1;
+        bits &= mask;
+        words[w] = (words[w] & ~(mask << shift)) | (bits << shift);
+        if (shift + n > 64) {
+            long high = (1L << (shift + n - 64)) - 1;
+            words[w + 1] = (words[w + 1] & ~high) | (bits >>> (64 - shift));
+        }
+    }
+
+    private static void checkRange(int from, int count, int size) {
+        if (from < 0 || count < 0 || from + count > size) {
+            throw new IndexOutOfBoundsException(from + " + " + count + " > " + size);
+        }
+    }
+
+    /**
+     * Checks the index and maps it to the bit in the store
+     *
+     * @param idx Index as seen by the caller
+     * @return Index of the bit in the store
+     */
+    private int translateIndex(int idx) {
+        if (idx < 0 || idx >= byteCount * 8) {
+            throw new IndexOutOfBoundsException();
+        }
+        //MSB first reverses the bits within each byte
+        return MSBAccess ? idx ^ 7 : idx;
+    }
+}
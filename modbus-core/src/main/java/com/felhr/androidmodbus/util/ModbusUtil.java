@@ -18,6 +18,7 @@ package com.felhr.androidmodbus.util;
 import com.felhr.androidmodbus.Modbus;
 import com.felhr.androidmodbus.io.BytesOutputStream;
 import com.felhr.androidmodbus.msg.ModbusMessage;
+import com.felhr.androidmodbus.procimg.InputRegister;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -292,6 +293,24 @@ public class ModbusUtil {
         return register;
     }
 
+    /**
+     * Packs the values of the given registers into big endian words as they
+     * appear on the wire.
+     *
+     * @param registers Registers to pack
+     *
+     * @return a byte[] holding two bytes per register.
+     */
+    public static byte[] registersToBytes(InputRegister[] registers) {
+        byte[] bytes = new byte[registers.length * 2];
+        for (int i = 0; i < registers.length; i++) {
+            int value = registers[i].getValue();
+            bytes[i * 2] = (byte)(0xff & (value >> 8));
+            bytes[i * 2 + 1] = (byte)(0xff & value);
+        }
+        return bytes;
+    }
+
     /**
      * Converts a byte[4] binary int value to a primitive int.<br>
      * The value returned is:
@@ -0,0 +1,311 @@
+package com.felhr.androidmodbus.util;
+
+import java.util.Arrays;
+
+/**
+ * Map of typed points within a block of registers.
+ *
+ * Each point has an offset in registers from the start of the block, a type,
+ * a byte and word order and a scale. A polled block is decoded in one pass
+ * straight from the register payload into a primitive array holding one
+ * value per point, and values are encoded the same way into the payload of
+ * a write multiple registers request.
+ * <pre>
+ * PointMap map = new PointMap();
+ * int temperature = map.add(0, PointMap.INT16, PointMap.BIG_ENDIAN, 0.1);
+ * int energy = map.add(2, PointMap.FLOAT32, PointMap.WORD_SWAP, 1);
+ * double[] values = new double[map.getPointCount()];
+ * response.decode(map, values);
+ * </pre>
+ */
+public class PointMap {
+
+    public static final int INT16 = 0;
+    public static final int UINT16 = 1;
+    public static final int INT32 = 2;
+    public static final int UINT32 = 3;
+    public static final int FLOAT32 = 4;
+    public static final int INT64 = 5;
+    public static final int FLOAT64 = 6;
+    public static final int STRING = 7;
+
+    /**
+     * Most significant word first, high byte first in each word (ABCD)
+     */
+    public static final int BIG_ENDIAN = 0;
+
+    /**
+     * Least significant word first, high byte first in each word (CDAB)
+     */
+    public static final int WORD_SWAP = 1;
+
+    /**
+     * Most significant word first, low byte first in each word (BADC)
+     */
+    public static final int BYTE_SWAP = 2;
+
+    /**
+     * Least significant word first, low byte first in each word (DCBA)
+     */
+    public static final int LITTLE_ENDIAN = 3;
+
+    private static final int[] WORDS = {1, 1, 2, 2, 2, 4, 4, 0};
+
+    private int count;
+    private int registerCount;
+    private int[] offsets = new int[8];
+    private int[] types = new int[8];
+    private int[] orders = new int[8];
+    private int[] words = new int[8];
+    private double[] scales = new double[8];
+
+    /**
+     * Adds a numeric point
+     *
+     * @param offset Offset of the first register of the point within the block
+     * @param type   One of {@link #INT16}, {@link #UINT16}, {@link #INT32}, {@link #UINT32},
+     *               {@link #FLOAT32}, {@link #INT64} or {@link #FLOAT64}
+     * @param order  One of {@link #BIG_ENDIAN}, {@link #WORD_SWAP}, {@link #BYTE_SWAP} or {@link #LITTLE_ENDIAN}
+     * @param scale  Factor the raw value is multiplied with when decoded
+     * @return Index of the point
+     */
+    public int add(int offset, int type, int order, double scale) {
+        if (type < INT16 || type > FLOAT64) {
+            throw new IllegalArgumentException("Unknown point type " + type);
+        }
+        if (scale == 0) {
+            throw new IllegalArgumentException("Scale must not be 0");
+        }
+        return add(offset, type, order, WORDS[type], scale);
+    }
+
+    /**
+     * Adds a string point of 8 bit characters, two per register
+     *
+     * @param offset    Offset of the first register of the point within the block
+     * @param registers Number of registers
+     * @param order     {@link #BIG_ENDIAN} for the first character in the high byte,
+     *                  {@link #BYTE_SWAP} for the first character in the low byte
+     * @return Index of the point
+     */
+    public int addString(int offset, int registers, int order) {
+        if (registers <= 0) {
+            throw new IllegalArgumentException("String must span at least one register");
+        }
+        return add(offset, STRING, order & BYTE_SWAP, registers, 1);
+    }
+
+    private int add(int offset, int type, int order, int size, double scale) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset " + offset);
+        }
+        if (order < BIG_ENDIAN || order > LITTLE_ENDIAN) {
+            throw new IllegalArgumentException("Unknown order " + order);
+        }
+        if (count == offsets.length) {
+            int capacity = count * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            types = Arrays.copyOf(types, capacity);
+            orders = Arrays.copyOf(orders, capacity);
+            words = Arrays.copyOf(words, capacity);
+            scales = Arrays.copyOf(scales, capacity);
+        }
+        offsets[count] = offset;
+        types[count] = type;
+        orders[count] = order;
+        words[count] = size;
+        scales[count] = scale;
+        registerCount = Math.max(registerCount, offset + size);
+        return count++;
+    }
+
+    /**
+     * Returns the number of points
+     *
+     * @return Number of points
+     */
+    public int getPointCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of registers a block must have to hold all points
+     *
+     * @return Number of registers
+     */
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    /**
+     * Decodes all points of a block, scaled. String points are set to NaN.
+     *
+     * @param data   Register payload, two bytes per register, high byte first
+     * @param off    Offset of the block within the payload in bytes
+     * @param values Array receiving one value per point
+     */
+    public void decode(byte[] data, int off, double[] values) {
+        checkBlock(data.length - off, values.length);
+        for (int i = 0; i < count; i++) {
+            long raw = read(data, off, i);
+            double value;
+            switch (types[i]) {
+                case FLOAT32:
+                    value = Float.intBitsToFloat((int)raw);
+                    break;
+                case FLOAT64:
+                    value = Double.longBitsToDouble(raw);
+                    break;
+                case STRING:
+                    values[i] = Double.NaN;
+                    continue;
+                default:
+                    value = raw;
+            }
+            values[i] = value * scales[i];
+        }
+    }
+
+    /**
+     * Decodes all points of a block without scaling. Integer points are
+     * returned as their value, float points as their bit pattern and string
+     * points as 0.
+     *
+     * @param data   Register payload, two bytes per register, high byte first
+     * @param off    Offset of the block within the payload in bytes
+     * @param values Array receiving one value per point
+     */
+    public void decodeRaw(byte[] data, int off, long[] values) {
+        checkBlock(data.length - off, values.length);
+        for (int i = 0; i < count; i++) {
+            values[i] = types[i] == STRING ? 0 : read(data, off, i);
+        }
+    }
+
+    /**
+     * Decodes a string point, trailing NUL characters are dropped
+     *
+     * @param data  Register payload, two bytes per register, high byte first
+     * @param off   Offset of the block within the payload in bytes
+     * @param point Index of the point
+     * @return String
+     */
+    public String decodeString(byte[] data, int off, int point) {
+        checkString(point);
+        checkBlock(data.length - off, count);
+        int length = words[point] * 2;
+        char[] chars = new char[length];
+        int base = off + offsets[point] * 2;
+        int swap = (orders[point] & BYTE_SWAP) == 0 ? 0 : 1;
+        int end = 0;
+        for (int k = 0; k < length; k++) {
+            chars[k] = (char)(data[base + (k ^ swap)] & 0xff);
+            if (chars[k] != 0) {
+                end = k + 1;
+            }
+        }
+        return new String(chars, 0, end);
+    }
+
+    /**
+     * Encodes all numeric points of a block. Values are divided by the scale
+     * of their point and rounded for integer points. String points are left
+     * untouched.
+     *
+     * @param values One value per point
+     * @param data   Register payload to write to, two bytes per register, high byte first
+     * @param off    Offset of the block within the payload in bytes
+     */
+    public void encode(double[] values, byte[] data, int off) {
+        checkBlock(data.length - off, values.length);
+        for (int i = 0; i < count; i++) {
+            double value = values[i] / scales[i];
+            long raw;
+            switch (types[i]) {
+                case FLOAT32:
+                    raw = Float.floatToIntBits((float)value);
+                    break;
+                case FLOAT64:
+                    raw = Double.doubleToLongBits(value);
+                    break;
+                case STRING:
+                    continue;
+                default:
+                    raw = Math.round(value);
+            }
+            write(data, off, i, raw);
+        }
+    }
+
+    /**
+     * Encodes a string point, padded with NUL characters and truncated to the
+     * length of the point. Characters beyond 8 bits are written as '?'.
+     *
+     * @param point Index of the point
+     * @param value String
+     * @param data  Register payload to write to, two bytes per register, high byte first
+     * @param off   Offset of the block within the payload in bytes
+     */
+    public void encodeString(int point, String value, byte[] data, int off) {
+        checkString(point);
+        checkBlock(data.length - off, count);
+        int length = words[point] * 2;
+        int base = off + offsets[point] * 2;
+        int swap = (orders[point] & BYTE_SWAP) == 0 ? 0 : 1;
+        for (int k = 0; k < length; k++) {
+            char c = k < value.length() ? value.charAt(k) : 0;
+            data[base + (k ^ swap)] = (byte)(c > 0xff ? '?' : c);
+        }
+    }
+
+    /**
+     * Reads the raw value of a point, sign extended for signed types
+     */
+    private long read(byte[] data, int off, int point) {
+        int size = words[point];
+        int base = off + offsets[point] * 2;
+        boolean wordSwap = (orders[point] & WORD_SWAP) != 0;
+        int byteSwap = (orders[point] & BYTE_SWAP) == 0 ? 0 : 1;
+        long raw = 0;
+        for (int w = 0; w < size; w++) {
+            int index = base + (wordSwap ? size - 1 - w : w) * 2;
+            raw = (raw << 16) | ((data[index + byteSwap] & 0xffL) << 8) | (data[index + (byteSwap ^ 1)] & 0xffL);
+        }
+        switch (types[point]) {
+            case INT16:
+                return (short)raw;
+            case INT32:
+                return (int)raw;
+            default:
+                return raw;
+        }
+    }
+
+    private void write(byte[] data, int off, int point, long raw) {
+        int size = words[point];
+        int base = off + offsets[point] * 2;
+        boolean wordSwap = (orders[point] & WORD_SWAP) != 0;
+        int byteSwap = (orders[point] & BYTE_SWAP) == 0 ? 0 : 1;
+        for (int w = size - 1; w >= 0; w--) {
+            int index = base + (wordSwap ? size - 1 - w : w) * 2;
+            data[index + byteSwap] = (byte)(raw >> 8);
+            data[index + (byteSwap ^ 1)] = (byte)raw;
+            raw >>= 16;
+        }
+    }
+
+    private void checkBlock(int bytes, int values) {
+        if (bytes < registerCount * 2) {
+            throw new IndexOutOfBoundsException("Block holds " + bytes / 2 + " registers, points need " + registerCount);
+        }
+        if (values < count) {
+            throw new IndexOutOfBoundsException("Array holds " + values + " values, map has " + count + " points");
+        }
+    }
+
+    private void checkString(int point) {
+        if (point < 0 || point >= count || types[point] != STRING) {
+            throw new IllegalArgumentException("Point " + point + " is not a string");
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.procimg.InputRegister;
+import com.felhr.androidmodbus.procimg.Register;
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AbstractModbusMasterTest {
+
+    private final ProcessImageMaster master = new ProcessImageMaster();
+
+    @Before
+    public void setUp() {
+        master.connect();
+    }
+
+    @Test
+    public void disconnectWaitsForTheRequestInProgress() throws Exception {
+        master.image.getRegister(3).setValue(33);
+        master.hold();
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(master.readMultipleRegisters(1, 3, 1));
+                }
+                catch (Exception ex) {
+                    result.set(ex);
+                }
+            }
+        });
+        reader.start();
+        master.awaitExecuting();
+
+        Thread disconnect = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                master.disconnect();
+            }
+        });
+        disconnect.start();
+        disconnect.join(100);
+        assertTrue("Disconnected during a request", disconnect.isAlive());
+
+        master.proceed();
+        reader.join(2000);
+        disconnect.join(2000);
+        assertFalse(disconnect.isAlive());
+        assertTrue(String.valueOf(result.get()), result.get() instanceof InputRegister[]);
+        assertEquals(33, ((InputRegister[])result.get())[0].getValue());
+    }
+
+    @Test
+    public void identicalReadsShareOneRequest() throws Exception {
+        master.image.getRegister(3).setValue(33);
+        master.hold();
+        AtomicReference<Object> first = start(readRegister(3));
+        master.awaitExecuting();
+        AtomicReference<Object> second = start(readRegister(3));
+        Thread.sleep(50);
+
+        master.proceed();
+        assertEquals(33, awaitValue(first));
+        assertEquals(33, awaitValue(second));
+        assertEquals(1, master.functionCodes.size());
+    }
+
+    @Test
+    public void readAfterWriteDoesNotJoinAnEarlierRead() throws Exception {
+        master.image.getRegister(3).setValue(33);
+        master.hold();
+        AtomicReference<Object> first = start(readRegister(3));
+        master.awaitExecuting();
+        AtomicReference<Object> joined = start(readRegister(3));
+        AtomicReference<Object> write = start(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return master.writeSingleRegister(1, 3, new SimpleRegister(44));
+            }
+        });
+        Thread.sleep(50);
+
+        // The write is on the wire once the read has released the master,
+        // a read from now on must not be answered with the earlier values
+        master.proceedAndHold();
+        master.awaitExecuting();
+        AtomicReference<Object> later = start(readRegister(3));
+        Thread.sleep(50);
+        master.proceed();
+
+        assertEquals(33, awaitValue(first));
+        assertEquals(33, awaitValue(joined));
+        assertEquals(44, awaitValue(later));
+        assertEquals(44, awaitResult(write));
+        assertEquals(3, master.functionCodes.size());
+    }
+
+    @Test(expected = ModbusException.class)
+    public void requestAfterDisconnect() throws Exception {
+        master.disconnect();
+        master.readMultipleRegisters(1, 0, 1);
+    }
+
+    private Callable<Object> readRegister(final int ref) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return master.readMultipleRegisters(1, ref, 1);
+            }
+        };
+    }
+
+    private static AtomicReference<Object> start(final Callable<Object> call) {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Object value;
+                try {
+                    value = call.call();
+                }
+                catch (Exception ex) {
+                    value = ex;
+                }
+                synchronized (result) {
+                    result.set(value);
+                    result.notifyAll();
+                }
+            }
+        }).start();
+        return result;
+    }
+
+    private static Object awaitResult(AtomicReference<Object> result) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        synchronized (result) {
+            while (result.get() == null && System.currentTimeMillis() < deadline) {
+                result.wait(100);
+            }
+        }
+        assertFalse(String.valueOf(result.get()), result.get() == null || result.get() instanceof Exception);
+        return result.get();
+    }
+
+    private static int awaitValue(AtomicReference<Object> result) throws InterruptedException {
+        return ((Register[])awaitResult(result))[0].getValue();
+    }
+}
@@ -0,0 +1,142 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+import com.felhr.androidmodbus.ModbusSlaveException;
+import com.felhr.androidmodbus.io.AbstractModbusTransport;
+import com.felhr.androidmodbus.io.ModbusTransaction;
+import com.felhr.androidmodbus.msg.ExceptionResponse;
+import com.felhr.androidmodbus.net.ModbusSerialListener;
+import com.felhr.androidmodbus.procimg.SimpleDigitalOut;
+import com.felhr.androidmodbus.procimg.SimpleProcessImage;
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Master whose requests are answered by a process image in the same
+ * process. A request can be held on the wire with {@link #hold()}.
+ */
+class ProcessImageMaster extends AbstractModbusMaster {
+
+    final SimpleProcessImage image = new SimpleProcessImage();
+    final List<Integer> functionCodes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final ModbusSerialListener listener = new ModbusSerialListener(null);
+    private final String endpoint;
+    private volatile CountDownLatch gate;
+    private volatile CountDownLatch executing;
+    private volatile RuntimeException failure;
+
+    ProcessImageMaster() {
+        this("image://1");
+    }
+
+    ProcessImageMaster(String endpoint) {
+        this.endpoint = endpoint;
+        for (int i = 0; i < 300; i++) {
+            image.addRegister(new SimpleRegister(0));
+            image.addDigitalOut(new SimpleDigitalOut(false));
+        }
+        listener.addProcessImage(1, image);
+    }
+
+    /**
+     * Holds the next requests on the wire until {@link #proceed()}
+     */
+    void hold() {
+        executing = new CountDownLatch(1);
+        gate = new CountDownLatch(1);
+    }
+
+    /**
+     * Waits until a held request is on the wire
+     */
+    void awaitExecuting() throws InterruptedException {
+        if (!executing.await(2, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No request on the wire");
+        }
+    }
+
+    void proceed() {
+        CountDownLatch gate = this.gate;
+        this.gate = null;
+        gate.countDown();
+    }
+
+    /**
+     * Lets the held request go and holds the ones after it
+     */
+    void proceedAndHold() {
+        CountDownLatch gate = this.gate;
+        hold();
+        gate.countDown();
+    }
+
+    /**
+     * Makes every request fail with an exception until set to null
+     */
+    void setFailure(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    @Override
+    public void connect() {
+        acquireTransaction();
+        try {
+            setTransaction(new Transaction());
+        }
+        finally {
+            releaseTransaction();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        acquireTransaction();
+        try {
+            setTransaction(null);
+        }
+        finally {
+            releaseTransaction();
+        }
+    }
+
+    @Override
+    protected String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public AbstractModbusTransport getTransport() {
+        return null;
+    }
+
+    private class Transaction extends ModbusTransaction {
+        @Override
+        public void execute() throws ModbusException {
+            functionCodes.add(request.getFunctionCode());
+            CountDownLatch gate = ProcessImageMaster.this.gate;
+            if (gate != null) {
+                executing.countDown();
+                try {
+                    gate.await();
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ModbusException("Interrupted");
+                }
+            }
+            RuntimeException failure = ProcessImageMaster.this.failure;
+            if (failure != null) {
+                throw failure;
+            }
+            response = request.createResponse(listener);
+            if (response instanceof ExceptionResponse) {
+                throw new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode());
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.procimg.SimpleRegister;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RegisterCacheTest {
+
+    private static final String ENDPOINT = "tcp://10.0.0.1:502";
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        RegisterCache cache = new RegisterCache(3, 60000);
+        cache.put(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 0, new int[]{1, 2});
+        cache.put(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 10, new int[]{3});
+        assertNotNull(cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 0, 1));
+        cache.put(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 20, new int[]{4});
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 1, 1));
+        assertArrayEquals(new int[]{1}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 0, 1));
+        assertArrayEquals(new int[]{3}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 10, 1));
+        assertArrayEquals(new int[]{4}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 20, 1));
+    }
+
+    @Test
+    public void rangeTtlOverridesTheDefault() throws Exception {
+        RegisterCache cache = new RegisterCache(100, 60000);
+        cache.setTtl(1, RegisterCache.INPUT_REGISTERS, 10, 2, 50);
+        cache.setTtl(1, RegisterCache.INPUT_REGISTERS, 12, 1, 0);
+        cache.put(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 9, new int[]{1, 2, 3, 4, 5});
+
+        // Never cached
+        assertNull(cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 12, 1));
+        assertArrayEquals(new int[]{1, 2, 3}, cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 9, 3));
+
+        Thread.sleep(100);
+        assertNull(cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 10, 1));
+        assertNull(cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 9, 3));
+        assertArrayEquals(new int[]{1}, cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 9, 1));
+        assertArrayEquals(new int[]{5}, cache.get(ENDPOINT, 1, RegisterCache.INPUT_REGISTERS, 13, 1));
+        // The other tables keep the default
+        cache.put(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 12, new int[]{6});
+        assertArrayEquals(new int[]{6}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 12, 1));
+    }
+
+    @Test
+    public void partlyOverlappingWriteInvalidatesTheRange() throws Exception {
+        RegisterCache cache = new RegisterCache(100, 60000);
+        ProcessImageMaster master = new ProcessImageMaster(ENDPOINT);
+        master.setCache(cache);
+        master.connect();
+        for (int i = 0; i < 5; i++) {
+            master.image.getRegister(10 + i).setValue(i);
+        }
+
+        master.readMultipleRegisters(1, 10, 5);
+        master.readMultipleRegisters(1, 10, 5);
+        assertEquals(1, master.functionCodes.size());
+
+        // Overlaps the end of the cached range, the write updates what it overlaps
+        master.writeMultipleRegisters(1, 13, new SimpleRegister[]{new SimpleRegister(30), new SimpleRegister(40), new SimpleRegister(50)});
+        assertArrayEquals(new int[]{0, 1, 2, 30, 40}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 10, 5));
+        assertArrayEquals(new int[]{50}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 15, 1));
+
+        // A range dropped in part has to be read again as a whole
+        cache.invalidate(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 12, 2);
+        assertArrayEquals(new int[]{0, 1}, cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 10, 2));
+        assertNull(cache.get(ENDPOINT, 1, RegisterCache.HOLDING_REGISTERS, 10, 5));
+        master.image.getRegister(12).setValue(20);
+        assertEquals(20, master.readMultipleRegisters(1, 10, 5)[2].getValue());
+        assertEquals(3, master.functionCodes.size());
+    }
+
+    @Test
+    public void endpointsAreKeptApart() throws Exception {
+        RegisterCache cache = new RegisterCache(100, 60000);
+        ProcessImageMaster tcp = new ProcessImageMaster("tcp://10.0.0.1:502");
+        ProcessImageMaster serial = new ProcessImageMaster("serial:///dev/ttyS0");
+        tcp.setCache(cache);
+        serial.setCache(cache);
+        tcp.connect();
+        serial.connect();
+        tcp.image.getRegister(0).setValue(1);
+        serial.image.getRegister(0).setValue(2);
+
+        assertEquals(1, tcp.readMultipleRegisters(1, 0, 1)[0].getValue());
+        assertEquals(2, serial.readMultipleRegisters(1, 0, 1)[0].getValue());
+        assertEquals(1, tcp.readMultipleRegisters(1, 0, 1)[0].getValue());
+        assertEquals(1, tcp.functionCodes.size());
+        assertEquals(1, serial.functionCodes.size());
+
+        // A write through one endpoint leaves the other cached
+        serial.writeSingleRegister(1, 0, new SimpleRegister(3));
+        assertEquals(1, tcp.readMultipleRegisters(1, 0, 1)[0].getValue());
+        assertEquals(1, tcp.functionCodes.size());
+
+        // Invalidating without an endpoint reaches every endpoint
+        cache.invalidate(null, 1, RegisterCache.HOLDING_REGISTERS, 0, 1);
+        assertEquals(0, cache.size());
+    }
+}
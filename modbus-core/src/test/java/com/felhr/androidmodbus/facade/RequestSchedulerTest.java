@@ -0,0 +1,174 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.ModbusException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestSchedulerTest {
+
+    private final RequestScheduler scheduler = new RequestScheduler(60 * 60 * 1000L);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    @Test
+    public void lowestLaneFirst() throws Exception {
+        scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(startWaiter("background", AbstractModbusMaster.PRIORITY_BACKGROUND));
+        threads.add(startWaiter("normal", AbstractModbusMaster.PRIORITY_NORMAL));
+        threads.add(startWaiter("command", AbstractModbusMaster.PRIORITY_COMMAND));
+        scheduler.release();
+        join(threads);
+        assertEquals("[command, normal, background]", order.toString());
+    }
+
+    @Test
+    public void equalRankInArrivalOrder() throws Exception {
+        scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 5; i++) {
+            threads.add(startWaiter("r" + i, AbstractModbusMaster.PRIORITY_NORMAL));
+        }
+        scheduler.release();
+        join(threads);
+        assertEquals("[r0, r1, r2, r3, r4]", order.toString());
+    }
+
+    @Test
+    public void agingMovesUpALane() throws Exception {
+        scheduler.setAgingInterval(50);
+        scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(startWaiter("background", AbstractModbusMaster.PRIORITY_BACKGROUND));
+        // Two intervals make the background request rank with commands, ahead of normal reads
+        Thread.sleep(120);
+        threads.add(startWaiter("normal", AbstractModbusMaster.PRIORITY_NORMAL));
+        threads.add(startWaiter("command", AbstractModbusMaster.PRIORITY_COMMAND));
+        scheduler.release();
+        join(threads);
+        assertEquals("[background, command, normal]", order.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void agingIntervalMustBePositive() {
+        scheduler.setAgingInterval(0);
+    }
+
+    @Test
+    public void interruptedWaiterLeavesTheQueue() throws Exception {
+        scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+        final boolean[] failed = new boolean[1];
+        Thread interrupted = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(AbstractModbusMaster.PRIORITY_COMMAND);
+                    order.add("interrupted");
+                    scheduler.release();
+                }
+                catch (ModbusException ex) {
+                    failed[0] = Thread.currentThread().isInterrupted();
+                }
+            }
+        });
+        interrupted.start();
+        awaitWaiting(1);
+        Thread normal = startWaiter("normal", AbstractModbusMaster.PRIORITY_NORMAL);
+        interrupted.interrupt();
+        interrupted.join(2000);
+        assertTrue(failed[0]);
+        assertEquals(1, scheduler.getWaitingCount());
+        scheduler.release();
+        normal.join(2000);
+        assertEquals("[normal]", order.toString());
+    }
+
+    @Test
+    public void interruptAfterGrantHandsOn() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            order.clear();
+            scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+            Thread first = startWaiter("first", AbstractModbusMaster.PRIORITY_COMMAND);
+            Thread second = startWaiter("second", AbstractModbusMaster.PRIORITY_NORMAL);
+            // Grant and interrupt together, the waiter either keeps the
+            // transaction or passes it on, it is never lost
+            synchronized (scheduler) {
+                scheduler.release();
+                first.interrupt();
+            }
+            first.join(2000);
+            second.join(2000);
+            assertFalse(first.isAlive());
+            assertFalse(second.isAlive());
+            assertEquals("second", order.get(order.size() - 1));
+            assertEquals(0, scheduler.getWaitingCount());
+        }
+    }
+
+    @Test
+    public void uninterruptibleKeepsTheInterrupt() throws Exception {
+        scheduler.acquire(AbstractModbusMaster.PRIORITY_NORMAL);
+        final boolean[] interrupted = new boolean[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.acquireUninterruptibly(AbstractModbusMaster.PRIORITY_COMMAND);
+                interrupted[0] = Thread.currentThread().isInterrupted();
+                order.add("acquired");
+                scheduler.release();
+            }
+        });
+        thread.start();
+        awaitWaiting(1);
+        thread.interrupt();
+        Thread.sleep(50);
+        assertTrue(order.isEmpty());
+        scheduler.release();
+        thread.join(2000);
+        assertEquals("[acquired]", order.toString());
+        assertTrue(interrupted[0]);
+    }
+
+    /**
+     * Starts a thread that records its name once it holds the scheduler,
+     * and waits until it queued
+     */
+    private Thread startWaiter(final String name, final int lane) throws InterruptedException {
+        int waiting = scheduler.getWaitingCount();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(lane);
+                }
+                catch (ModbusException ex) {
+                    return;
+                }
+                order.add(name);
+                scheduler.release();
+            }
+        });
+        thread.start();
+        awaitWaiting(waiting + 1);
+        return thread;
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (scheduler.getWaitingCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, scheduler.getWaitingCount());
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(2000);
+            assertFalse(thread.isAlive());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.felhr.androidmodbus.facade;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.ModbusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindQueueTest {
+
+    private final ProcessImageMaster master = new ProcessImageMaster();
+    private WriteBehindQueue queue;
+
+    @Before
+    public void setUp() {
+        master.connect();
+        // Nothing is sent before flush
+        queue = new WriteBehindQueue(master, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        queue.close();
+    }
+
+    @Test
+    public void consecutiveWritesAreMerged() throws Exception {
+        queue.writeRegister(1, 12, 3);
+        queue.writeRegister(1, 10, 1);
+        queue.writeRegister(1, 20, 9);
+        WriteBehindQueue.Completion last = queue.writeRegister(1, 11, 2);
+        queue.flush();
+
+        assertNull(last.await());
+        assertEquals(Arrays.asList(Modbus.WRITE_MULTIPLE_REGISTERS, Modbus.WRITE_SINGLE_REGISTER), master.functionCodes);
+        assertEquals(1, master.image.getRegister(10).getValue());
+        assertEquals(2, master.image.getRegister(11).getValue());
+        assertEquals(3, master.image.getRegister(12).getValue());
+        assertEquals(9, master.image.getRegister(20).getValue());
+    }
+
+    @Test
+    public void longRunIsSplit() throws Exception {
+        for (int i = 0; i < 124; i++) {
+            queue.writeRegister(1, i, i + 1);
+        }
+        queue.flush();
+
+        assertEquals(Arrays.asList(Modbus.WRITE_MULTIPLE_REGISTERS, Modbus.WRITE_SINGLE_REGISTER), master.functionCodes);
+        assertEquals(123, master.image.getRegister(122).getValue());
+        assertEquals(124, master.image.getRegister(123).getValue());
+    }
+
+    @Test
+    public void laterWriteReplacesQueuedValue() throws Exception {
+        WriteBehindQueue.Completion first = queue.writeRegister(1, 5, 1);
+        WriteBehindQueue.Completion second = queue.writeRegister(1, 5, 2);
+        queue.flush();
+
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertEquals(Arrays.asList(Modbus.WRITE_SINGLE_REGISTER), master.functionCodes);
+        assertEquals(2, master.image.getRegister(5).getValue());
+    }
+
+    @Test
+    public void readIsCombinedWithTheLastRun() throws Exception {
+        queue.writeRegister(1, 10, 1);
+        queue.writeRegister(1, 11, 2);
+        queue.writeRegister(1, 20, 9);
+        WriteBehindQueue.Completion read = queue.readRegisters(1, 10, 3);
+        queue.flush();
+
+        assertEquals(Arrays.asList(Modbus.WRITE_MULTIPLE_REGISTERS, Modbus.READ_WRITE_MULTIPLE), master.functionCodes);
+        assertArrayEquals(new int[]{1, 2, 0}, read.await());
+        assertEquals(9, master.image.getRegister(20).getValue());
+    }
+
+    @Test
+    public void readWithoutWritesIsSentOnItsOwn() throws Exception {
+        master.image.getRegister(7).setValue(77);
+        WriteBehindQueue.Completion read = queue.readRegisters(1, 7, 1);
+        queue.writeCoil(1, 3, true);
+        queue.flush();
+
+        assertEquals(Arrays.asList(Modbus.WRITE_COIL, Modbus.READ_MULTIPLE_REGISTERS), master.functionCodes);
+        assertArrayEquals(new int[]{77}, read.await());
+        assertTrue(master.image.getDigitalOut(3).isSet());
+    }
+
+    @Test
+    public void groupsAreSentInQueuedOrder() throws Exception {
+        queue.writeCoil(1, 3, true);
+        queue.writeRegister(1, 3, 1);
+        queue.flush();
+        queue.writeRegister(1, 4, 1);
+        queue.writeCoil(1, 4, true);
+        queue.flush();
+
+        assertEquals(Arrays.asList(Modbus.WRITE_COIL, Modbus.WRITE_SINGLE_REGISTER,
+                Modbus.WRITE_SINGLE_REGISTER, Modbus.WRITE_COIL), master.functionCodes);
+    }
+
+    @Test
+    public void failureCompletesEveryWaiter() throws Exception {
+        master.setFailure(new IllegalStateException("Broken transport"));
+        WriteBehindQueue.Completion[] completions = {
+                queue.writeRegister(1, 5, 1),
+                queue.writeRegister(1, 5, 2),
+                queue.writeRegister(1, 6, 3),
+                queue.readRegisters(1, 5, 2),
+                queue.writeCoil(1, 5, true),
+                queue.readRegisters(2, 0, 1)
+        };
+        queue.flush();
+
+        for (WriteBehindQueue.Completion completion : completions) {
+            assertTrue(completion.isDone());
+            try {
+                completion.await();
+                fail("Completed without the failure");
+            }
+            catch (ModbusException ex) {
+                // Expected
+            }
+        }
+
+        // The queue keeps sending after a failed batch
+        master.setFailure(null);
+        WriteBehindQueue.Completion write = queue.writeRegister(1, 5, 4);
+        queue.flush();
+        assertNull(write.await());
+        assertEquals(4, master.image.getRegister(5).getValue());
+    }
+}
@@ -0,0 +1,224 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.ModbusIOException;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ReadMultipleRegistersRequest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MBAPDecoderTest {
+
+    private final MBAPDecoder decoder = new MBAPDecoder();
+
+    @Test
+    public void headerSplitAtEveryByte() throws Exception {
+        byte[] frame = request(0x1234, 7, 100, 10);
+        for (int split = 1; split < frame.length; split++) {
+            assertFalse("split " + split, decoder.decode(ByteBuffer.wrap(frame, 0, split)));
+            assertTrue(decoder.hasPartialFrame());
+            ByteBuffer rest = ByteBuffer.wrap(frame, split, frame.length - split);
+            assertTrue("split " + split, decoder.decode(rest));
+            assertFalse(rest.hasRemaining());
+            assertFalse(decoder.hasPartialFrame());
+            checkRequest(0x1234, 7, 100, 10);
+        }
+        assertEquals(frame.length - 1, decoder.getFrameCount());
+    }
+
+    @Test
+    public void frameFedByteByByte() throws Exception {
+        byte[] frame = request(1, 2, 3, 4);
+        for (int i = 0; i < frame.length - 1; i++) {
+            assertFalse(decoder.decode(ByteBuffer.wrap(frame, i, 1)));
+        }
+        assertTrue(decoder.decode(ByteBuffer.wrap(frame, frame.length - 1, 1)));
+        checkRequest(1, 2, 3, 4);
+    }
+
+    @Test
+    public void coalescedFrames() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(concat(request(1, 1, 10, 1), request(2, 2, 20, 2), request(3, 3, 30, 3)));
+        for (int n = 1; n <= 3; n++) {
+            assertTrue(decoder.decode(buffer));
+            checkRequest(n, n, n * 10, n);
+        }
+        assertFalse(buffer.hasRemaining());
+        assertFalse(decoder.decode(buffer));
+        assertEquals(3, decoder.getFrameCount());
+    }
+
+    @Test
+    public void zeroCopyThenPartial() throws Exception {
+        byte[] first = request(1, 1, 10, 1);
+        byte[] second = request(2, 2, 20, 2);
+        byte[] bytes = concat(first, second);
+        int split = first.length + 4;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, split);
+        assertTrue(decoder.decode(buffer));
+        checkRequest(1, 1, 10, 1);
+        assertFalse(decoder.decode(buffer));
+        assertTrue(decoder.hasPartialFrame());
+
+        // the rest of the second frame completes the copied header
+        ByteBuffer next = ByteBuffer.wrap(bytes, split, bytes.length - split);
+        assertTrue(decoder.decode(next));
+        checkRequest(2, 2, 20, 2);
+        assertFalse(decoder.hasPartialFrame());
+
+        // and a complete frame after that goes the zero-copy path again
+        assertTrue(decoder.decode(ByteBuffer.wrap(request(3, 3, 30, 3))));
+        checkRequest(3, 3, 30, 3);
+    }
+
+    @Test
+    public void partialFrameIsCopied() throws Exception {
+        byte[] frame = request(5, 6, 7, 8);
+        byte[] chunk = frame.clone();
+        assertFalse(decoder.decode(ByteBuffer.wrap(chunk, 0, 8)));
+        java.util.Arrays.fill(chunk, (byte)0xFF);
+        assertTrue(decoder.decode(ByteBuffer.wrap(frame, 8, frame.length - 8)));
+        checkRequest(5, 6, 7, 8);
+    }
+
+    @Test
+    public void badProtocolId() throws Exception {
+        byte[] frame = request(1, 1, 0, 1);
+        frame[3] = 1;
+        try {
+            decoder.decode(ByteBuffer.wrap(frame));
+            fail("Protocol id accepted");
+        }
+        catch (ModbusIOException ex) {
+            assertFalse(decoder.hasPartialFrame());
+        }
+    }
+
+    @Test
+    public void badProtocolIdInPartialHeader() throws Exception {
+        byte[] frame = request(1, 1, 0, 1);
+        frame[2] = 1;
+        assertFalse(decoder.decode(ByteBuffer.wrap(frame, 0, 4)));
+        try {
+            decoder.decode(ByteBuffer.wrap(frame, 4, 2));
+            fail("Protocol id accepted");
+        }
+        catch (ModbusIOException ex) {
+            assertFalse(decoder.hasPartialFrame());
+        }
+    }
+
+    @Test
+    public void badLength() throws Exception {
+        for (int length : new int[]{0, 1, MBAPDecoder.MAX_LENGTH + 1, 0xFFFF}) {
+            byte[] frame = request(1, 1, 0, 1);
+            frame[4] = (byte)(length >> 8);
+            frame[5] = (byte)length;
+            try {
+                decoder.decode(ByteBuffer.wrap(frame));
+                fail("Length " + length + " accepted");
+            }
+            catch (ModbusIOException ex) {
+                assertFalse(decoder.hasPartialFrame());
+            }
+        }
+    }
+
+    @Test
+    public void badLengthFailsBeforeTheBody() throws Exception {
+        byte[] header = {0, 1, 0, 0, 0x01, 0x00};
+        assertFalse(decoder.decode(ByteBuffer.wrap(header, 0, 5)));
+        try {
+            decoder.decode(ByteBuffer.wrap(header, 5, 1));
+            fail("Length accepted");
+        }
+        catch (ModbusIOException ex) {
+            assertFalse(decoder.hasPartialFrame());
+        }
+    }
+
+    @Test
+    public void resetDropsPartialFrame() throws Exception {
+        byte[] stale = request(9, 9, 9, 9);
+        assertFalse(decoder.decode(ByteBuffer.wrap(stale, 0, 9)));
+        assertTrue(decoder.hasPartialFrame());
+        decoder.reset();
+        assertFalse(decoder.hasPartialFrame());
+        try {
+            decoder.getFrame();
+            fail("Frame after reset");
+        }
+        catch (IllegalStateException ex) {
+            // expected
+        }
+        assertTrue(decoder.decode(ByteBuffer.wrap(request(1, 2, 3, 4))));
+        checkRequest(1, 2, 3, 4);
+    }
+
+    @Test
+    public void resetAfterError() throws Exception {
+        byte[] bad = request(1, 1, 0, 1);
+        bad[2] = 0x7F;
+        try {
+            decoder.decode(ByteBuffer.wrap(bad, 0, 7));
+            fail("Protocol id accepted");
+        }
+        catch (ModbusIOException ex) {
+            // expected
+        }
+        decoder.reset();
+        assertTrue(decoder.decode(ByteBuffer.wrap(request(4, 3, 2, 1))));
+        checkRequest(4, 3, 2, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noFrameWhenIncomplete() throws Exception {
+        decoder.decode(ByteBuffer.wrap(request(1, 1, 1, 1), 0, 3));
+        decoder.getUnitID();
+    }
+
+    @Test
+    public void pduAndFrame() throws Exception {
+        byte[] frame = request(0xABCD, 0x11, 0x0102, 0x0003);
+        assertTrue(decoder.decode(ByteBuffer.wrap(frame)));
+        assertEquals(0xABCD, decoder.getTransactionID());
+        assertEquals(0x11, decoder.getUnitID());
+        assertEquals(3, decoder.getFunctionCode());
+        ByteBuffer whole = decoder.getFrame();
+        assertTrue(whole.isReadOnly());
+        assertEquals(frame.length, whole.remaining());
+        ByteBuffer pdu = decoder.getPDU();
+        assertEquals(5, pdu.remaining());
+        assertEquals(3, pdu.get(0));
+        assertEquals(0x03, pdu.get(4));
+    }
+
+    private void checkRequest(int transaction, int unit, int reference, int count) throws Exception {
+        assertEquals(transaction, decoder.getTransactionID());
+        assertEquals(unit, decoder.getUnitID());
+        ModbusRequest request = decoder.getRequest();
+        assertTrue(request instanceof ReadMultipleRegistersRequest);
+        assertEquals(transaction, request.getTransactionID());
+        assertEquals(unit, request.getUnitID());
+        assertEquals(reference, ((ReadMultipleRegistersRequest)request).getReference());
+        assertEquals(count, ((ReadMultipleRegistersRequest)request).getWordCount());
+    }
+
+    private static byte[] request(int transaction, int unit, int reference, int count) {
+        return new byte[]{
+                (byte)(transaction >> 8), (byte)transaction, 0, 0, 0, 6,
+                (byte)unit, 3, (byte)(reference >> 8), (byte)reference, (byte)(count >> 8), (byte)count
+        };
+    }
+
+    private static byte[] concat(byte[]... frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames.length * 12);
+        for (byte[] frame : frames) {
+            buffer.put(frame);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,141 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+import com.felhr.androidmodbus.net.LoopbackSerialConnection;
+import com.felhr.androidmodbus.util.SerialParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.felhr.androidmodbus.io.RTUFrameDecoderTest.frame;
+import static com.felhr.androidmodbus.io.RTUFrameDecoderTest.readRegisters;
+import static org.junit.Assert.*;
+
+public class ModbusRTUMonitorTest {
+
+    private LoopbackSerialConnection bus;
+    private ModbusRTUMonitor monitor;
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() throws Exception {
+        SerialParameters parameters = new SerialParameters();
+        parameters.setBaudRate(19200);
+        parameters.setEncoding(Modbus.SERIAL_ENCODING_RTU);
+        bus = new LoopbackSerialConnection(parameters);
+        bus.getPeer().setTimeout(50);
+        bus.open();
+        monitor = new ModbusRTUMonitor(bus.getPeer(), 200);
+    }
+
+    @After
+    public void tearDown() {
+        monitor.stop();
+        bus.close();
+        bus.getPeer().close();
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheOthers() throws Exception {
+        monitor.addListener(new ModbusRTUMonitor.Listener() {
+            @Override
+            public void request(ModbusRequest request) {
+                throw new IllegalStateException("request");
+            }
+
+            @Override
+            public void transaction(ModbusRequest request, ModbusResponse response, long responseTime) {
+                throw new IllegalStateException("transaction");
+            }
+        });
+        monitor.addListener(new ModbusRTUMonitor.Listener() {
+            @Override
+            public void request(ModbusRequest request) {
+                events.add("request " + request.getUnitID());
+            }
+
+            @Override
+            public void transaction(ModbusRequest request, ModbusResponse response, long responseTime) {
+                events.add("transaction " + response.getUnitID());
+            }
+        });
+        monitor.start();
+
+        for (int unit = 1; unit <= 2; unit++) {
+            send(readRegisters(unit, 0, 1));
+            send(frame(unit, Modbus.READ_MULTIPLE_REGISTERS, 2, 0, 7));
+        }
+        waitForEvents(4);
+
+        assertEquals("request 1", events.get(0));
+        assertEquals("transaction 1", events.get(1));
+        assertEquals("request 2", events.get(2));
+        assertEquals("transaction 2", events.get(3));
+        assertEquals(1, monitor.getStatistics(2).getResponseCount());
+    }
+
+    @Test
+    public void listenerAddedWhileMonitoring() throws Exception {
+        monitor.start();
+        send(readRegisters(1, 0, 1));
+        send(frame(1, Modbus.READ_MULTIPLE_REGISTERS, 2, 0, 7));
+        Thread.sleep(100);
+        assertEquals(1, monitor.getStatistics(1).getResponseCount());
+
+        ModbusRTUMonitor.Listener listener = new ModbusRTUMonitor.Listener() {
+            @Override
+            public void request(ModbusRequest request) {
+                events.add("request " + request.getUnitID());
+                monitor.removeListener(this);
+            }
+        };
+        monitor.addListener(listener);
+        send(readRegisters(3, 0, 1));
+        send(frame(3, Modbus.READ_MULTIPLE_REGISTERS, 2, 0, 7));
+        send(readRegisters(4, 0, 1));
+        waitForEvents(1);
+        Thread.sleep(100);
+        assertEquals(1, events.size());
+        assertEquals("request 3", events.get(0));
+    }
+
+    @Test
+    public void responseReadWithItsRequest() throws Exception {
+        bus.setWireTiming(true);
+        bus.getPeer().open();
+        byte[] request = readRegisters(1, 0, 1);
+        byte[] response = frame(1, Modbus.READ_MULTIPLE_REGISTERS, 2, 0, 7);
+        byte[] both = new byte[request.length + response.length];
+        System.arraycopy(request, 0, both, 0, request.length);
+        System.arraycopy(response, 0, both, request.length, response.length);
+        send(both);
+        // Both frames are read at once when the monitor starts
+        Thread.sleep(50);
+        monitor.start();
+        Thread.sleep(100);
+
+        // At least the 7 bytes of the response at 19200 baud, 10 bits each
+        ModbusRTUMonitor.UnitStatistics statistics = monitor.getStatistics(1);
+        assertEquals(1, statistics.getResponseCount());
+        assertTrue(String.valueOf(statistics.getMinResponseTime()), statistics.getMinResponseTime() >= 7 * 10 * 1000000L / 19200);
+        assertTrue(String.valueOf(statistics.getMaxResponseTime()), statistics.getMaxResponseTime() < 50000);
+    }
+
+    private void send(byte[] bytes) {
+        bus.writeBytes(bytes, bytes.length);
+    }
+
+    private void waitForEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, events.size());
+    }
+}
@@ -0,0 +1,129 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.ModbusIOException;
+import com.felhr.androidmodbus.msg.ModbusRequest;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+import com.felhr.androidmodbus.msg.ReadMultipleRegistersRequest;
+import com.felhr.androidmodbus.msg.WriteMultipleRegistersResponse;
+import com.felhr.androidmodbus.net.LoopbackSerialConnection;
+import com.felhr.androidmodbus.net.ModbusSerialListener;
+import com.felhr.androidmodbus.procimg.SimpleProcessImage;
+import com.felhr.androidmodbus.util.SerialParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static com.felhr.androidmodbus.io.RTUFrameDecoderTest.frame;
+import static com.felhr.androidmodbus.io.RTUFrameDecoderTest.readRegisters;
+import static org.junit.Assert.*;
+
+public class ModbusRTUTransportTest {
+
+    private LoopbackSerialConnection master;
+    private LoopbackSerialConnection slave;
+    private ModbusRTUTransport transport;
+    private ModbusSerialListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        SerialParameters parameters = new SerialParameters();
+        parameters.setBaudRate(9600);
+        parameters.setEncoding(Modbus.SERIAL_ENCODING_RTU);
+        master = new LoopbackSerialConnection(parameters);
+        slave = master.getPeer();
+        master.setWireTiming(true);
+        slave.setTimeout(500);
+        master.open();
+        slave.open();
+        transport = (ModbusRTUTransport)slave.getModbusTransport();
+        listener = new ModbusSerialListener(slave);
+        listener.addProcessImage(1, new SimpleProcessImage());
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+        slave.close();
+    }
+
+    @Test
+    public void requestsAfterDamagedRequest() throws Exception {
+        byte[] damaged = readRegisters(1, 10, 1);
+        damaged[damaged.length - 1] ^= 0x10;
+        // Written at once so no gap separates the frames on the wire
+        send(damaged, readRegisters(7, 20, 1), readRegisters(1, 30, 1), readRegisters(1, 40, 1));
+
+        // The frames after the damaged one are still on the wire when the CRC fails
+        checkRequest(transport.readRequestIn(listener), 30);
+        checkRequest(transport.readRequestIn(listener), 40);
+        assertEquals(0, transport.getRequestDecoder().getPendingBytes());
+    }
+
+    @Test
+    public void requestAfterLeftoverBytes() throws Exception {
+        byte[] damaged = readRegisters(1, 10, 1);
+        damaged[2] ^= 0x01;
+        byte[] next = readRegisters(1, 50, 1);
+        send(damaged, next, Arrays.copyOf(readRegisters(1, 60, 1), 5));
+        Thread.sleep(100);
+
+        checkRequest(transport.readRequestIn(listener), 50);
+        assertTrue(transport.getRequestDecoder().getPendingBytes() > 0);
+
+        // The truncated frame is dropped once the line is quiet
+        send(readRegisters(1, 70, 1));
+        Thread.sleep(100);
+        checkRequest(transport.readRequestIn(listener), 70);
+    }
+
+    @Test
+    public void responseAfterNoise() throws Exception {
+        ModbusRTUTransport masterTransport = (ModbusRTUTransport)master.getModbusTransport();
+        masterTransport.setTimeout(1000);
+        byte[] response = frame(1, Modbus.WRITE_MULTIPLE_REGISTERS, 0, 100, 0, 2);
+        byte[] bytes = new byte[response.length + 1];
+        bytes[0] = 0x07;
+        System.arraycopy(response, 0, bytes, 1, response.length);
+        slave.writeBytes(bytes, bytes.length);
+
+        long start = System.nanoTime();
+        ModbusResponse read = masterTransport.readResponseIn();
+        assertTrue("Response held until the timeout", System.nanoTime() - start < 500000000L);
+        assertTrue(read instanceof WriteMultipleRegistersResponse);
+        assertEquals(1, read.getUnitID());
+        assertEquals(100, ((WriteMultipleRegistersResponse)read).getReference());
+        assertEquals(2, ((WriteMultipleRegistersResponse)read).getWordCount());
+        assertEquals(1, masterTransport.getResponseDecoder().getDiscardedByteCount());
+    }
+
+    @Test(expected = ModbusIOException.class)
+    public void noiseWithoutResponse() throws Exception {
+        ModbusRTUTransport masterTransport = (ModbusRTUTransport)master.getModbusTransport();
+        master.setTimeout(200);
+        masterTransport.setTimeout(200);
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0, 1);
+        request.setUnitID(1);
+        masterTransport.writeMessageOut(request);
+        byte[] noise = {0x07, 0x10, 0x00};
+        slave.writeBytes(noise, noise.length);
+        masterTransport.readResponseIn();
+    }
+
+    private void send(byte[]... frames) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            bytes.write(frame, 0, frame.length);
+        }
+        master.writeBytes(bytes.toByteArray(), bytes.size());
+    }
+
+    private static void checkRequest(ModbusRequest request, int reference) {
+        assertNotNull(request);
+        assertEquals(1, request.getUnitID());
+        assertEquals(reference, ((ReadMultipleRegistersRequest)request).getReference());
+    }
+}
@@ -0,0 +1,277 @@
+package com.felhr.androidmodbus.io;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.net.LoopbackSerialConnection;
+import com.felhr.androidmodbus.util.ModbusUtil;
+import com.felhr.androidmodbus.util.SerialParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decodes frames that went through a loopback connection, with noise
+ * added to the bytes written
+ */
+public class RTUFrameDecoderTest {
+
+    private LoopbackSerialConnection line;
+    private LoopbackSerialConnection tap;
+
+    @Before
+    public void setUp() throws Exception {
+        SerialParameters parameters = new SerialParameters();
+        parameters.setBaudRate(19200);
+        parameters.setEncoding(Modbus.SERIAL_ENCODING_RTU);
+        line = new LoopbackSerialConnection(parameters);
+        tap = line.getPeer();
+        line.open();
+        tap.open();
+    }
+
+    @After
+    public void tearDown() {
+        line.close();
+        tap.close();
+    }
+
+    @Test
+    public void resyncAfterCorruptedByte() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        byte[] first = readRegisters(1, 100, 2);
+        byte[] second = readRegisters(1, 200, 2);
+        byte[] third = readRegisters(1, 300, 2);
+        send(first);
+        sendCorrupted(second, 3);
+        send(third);
+        receive(decoder);
+
+        assertNextFrame(decoder, first);
+        assertNextFrame(decoder, third);
+        assertFalse(decoder.next());
+        assertEquals(2, decoder.getFrameCount());
+        assertEquals(1, decoder.getCRCErrorCount());
+        assertEquals(1, decoder.getResyncCount());
+        assertEquals(second.length, decoder.getDiscardedByteCount());
+    }
+
+    @Test
+    public void resyncAfterNoise() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(false);
+        byte[] response = frame(1, Modbus.READ_MULTIPLE_REGISTERS, 4, 0, 1, 0, 2);
+        send(new byte[]{(byte)0xFF, (byte)0xF8, 0x00, 0x01});
+        send(response);
+        receive(decoder);
+
+        assertNextFrame(decoder, response);
+        assertEquals(4, decoder.getDiscardedByteCount());
+        assertEquals(1, decoder.getResyncCount());
+    }
+
+    @Test
+    public void validFrameRightAfterCRCFailure() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        byte[] damaged = readRegisters(2, 10, 1);
+        byte[] valid = readRegisters(2, 11, 1);
+        sendCorrupted(damaged, damaged.length - 1);
+        send(valid);
+        receive(decoder);
+
+        assertNextFrame(decoder, valid);
+        assertFalse(decoder.next());
+        assertEquals(1, decoder.getCRCErrorCount());
+        assertEquals(damaged.length, decoder.getDiscardedByteCount());
+    }
+
+    @Test
+    public void frameArrivingAfterCRCFailureInPieces() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        byte[] damaged = readRegisters(2, 10, 1);
+        byte[] valid = readRegisters(2, 11, 1);
+        sendCorrupted(damaged, 1);
+        send(Arrays.copyOf(valid, 3));
+        receive(decoder);
+        assertFalse(decoder.next());
+
+        send(Arrays.copyOfRange(valid, 3, valid.length));
+        receive(decoder);
+        assertNextFrame(decoder, valid);
+    }
+
+    @Test
+    public void bothDirections() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        decoder.setBothDirections(true);
+        byte[] request = readRegisters(1, 0, 2);
+        byte[] response = frame(1, Modbus.READ_MULTIPLE_REGISTERS, 4, 0x12, 0x34, 0x56, 0x78);
+        byte[] write = frame(1, Modbus.WRITE_SINGLE_REGISTER, 0, 5, 0, 9);
+        byte[] echo = write.clone();
+        send(request);
+        send(response);
+        send(write);
+        send(echo);
+        receive(decoder);
+
+        assertNextFrame(decoder, request);
+        assertTrue(decoder.isRequest());
+        decoder.setExpectRequests(false);
+        assertNextFrame(decoder, response);
+        assertFalse(decoder.isRequest());
+        decoder.setExpectRequests(true);
+        assertNextFrame(decoder, write);
+        assertTrue(decoder.isRequest());
+        decoder.setExpectRequests(false);
+        assertNextFrame(decoder, echo);
+        assertFalse(decoder.isRequest());
+        assertEquals(0, decoder.getCRCErrorCount());
+    }
+
+    @Test
+    public void bothDirectionsAfterCorruptedByte() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        decoder.setBothDirections(true);
+        byte[] request = readRegisters(1, 0, 2);
+        byte[] response = frame(1, Modbus.READ_MULTIPLE_REGISTERS, 4, 0x12, 0x34, 0x56, 0x78);
+        sendCorrupted(request, 4);
+        send(response);
+        receive(decoder);
+
+        // What is left of the request reads as the start of a long response,
+        // the frame after it is found once the line is idle
+        assertFalse(decoder.next());
+        assertTrue(decoder.flush());
+        assertEquals(response.length, decoder.getFrameLength());
+        assertFalse(decoder.isRequest());
+        assertEquals(1, decoder.getResyncCount());
+        assertEquals(0, decoder.getPendingBytes());
+    }
+
+    @Test
+    public void responsesOnlyInOneDirection() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        send(frame(1, Modbus.READ_MULTIPLE_REGISTERS, 4, 0x12, 0x34, 0x56, 0x78));
+        receive(decoder);
+        assertFalse(decoder.flush());
+        assertEquals(0, decoder.getFrameCount());
+    }
+
+    @Test
+    public void meiLengthPrediction() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(false);
+        byte[] response = frame(1, Modbus.READ_MEI, 0x0E, 0x01, 0x01, 0x00, 0x00, 3,
+                0x00, 3, 'A', 'B', 'C',
+                0x01, 2, 'X', 'Y',
+                0x02, 0);
+        checkLengthPrediction(decoder, response);
+    }
+
+    @Test
+    public void meiWithoutObjects() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(false);
+        checkLengthPrediction(decoder, frame(1, Modbus.READ_MEI, 0x0E, 0x01, 0x01, 0x00, 0x00, 0, 0));
+    }
+
+    @Test
+    public void fifoLengthPrediction() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(false);
+        byte[] response = frame(1, Modbus.READ_FIFO_QUEUE, 0, 8, 0, 3, 0, 1, 0, 2, 1, 3);
+        checkLengthPrediction(decoder, response);
+
+        decoder = new RTUFrameDecoder(true);
+        checkLengthPrediction(decoder, frame(1, Modbus.READ_FIFO_QUEUE, 0x04, 0xD2));
+    }
+
+    @Test
+    public void noisyLine() {
+        RTUFrameDecoder decoder = new RTUFrameDecoder(true);
+        int count = 200;
+        line.setNoise(0.02, 47);
+        for (int i = 0; i < count; i++) {
+            send(readRegisters(1, i, 1));
+        }
+        line.setNoise(0, 47);
+        send(readRegisters(1, count, 1));
+
+        // Fed in reads of a serial port, decoding what is complete after each
+        byte[] bytes = new byte[Modbus.MAX_MESSAGE_LENGTH];
+        int last = -1;
+        int decoded = 0;
+        while (tap.bytesAvailable() > 0) {
+            int read = tap.readBytes(bytes, Math.min(tap.bytesAvailable(), bytes.length));
+            decoder.feed(bytes, 0, read);
+            while (decoder.next()) {
+                byte[] frame = Arrays.copyOfRange(decoder.getBuffer(), decoder.getFrameOffset(), decoder.getFrameOffset() + decoder.getFrameLength());
+                int reference = ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+                assertTrue("Frame out of order", reference > last);
+                assertArrayEquals(readRegisters(1, reference, 1), frame);
+                last = reference;
+                decoded++;
+            }
+        }
+        assertEquals(count, last);
+        // About 85% of the frames get through 2% noise unharmed
+        assertTrue("Decoded " + decoded, decoded > count * 3 / 4 && decoded < count);
+        assertTrue(decoder.getCRCErrorCount() > 0);
+        assertTrue(decoder.getResyncCount() > 0);
+    }
+
+    private void checkLengthPrediction(RTUFrameDecoder decoder, byte[] frame) {
+        for (int i = 0; i < frame.length - 1; i++) {
+            send(new byte[]{frame[i]});
+            receive(decoder);
+            assertFalse("Frame complete after " + (i + 1) + " bytes", decoder.next());
+        }
+        send(new byte[]{frame[frame.length - 1]});
+        receive(decoder);
+        assertNextFrame(decoder, frame);
+        assertEquals(0, decoder.getPendingBytes());
+    }
+
+    private static void assertNextFrame(RTUFrameDecoder decoder, byte[] expected) {
+        assertTrue(decoder.next());
+        assertEquals(expected.length, decoder.getFrameLength());
+        assertArrayEquals(expected, Arrays.copyOfRange(decoder.getBuffer(), decoder.getFrameOffset(), decoder.getFrameOffset() + expected.length));
+    }
+
+    private void send(byte[] bytes) {
+        assertEquals(bytes.length, line.writeBytes(bytes, bytes.length));
+    }
+
+    /**
+     * Sends a frame with a bit of one byte flipped by the noise of the line
+     */
+    private void sendCorrupted(byte[] bytes, int index) {
+        send(Arrays.copyOf(bytes, index));
+        line.setNoise(1, index);
+        send(new byte[]{bytes[index]});
+        line.setNoise(0, index);
+        send(Arrays.copyOfRange(bytes, index + 1, bytes.length));
+    }
+
+    private void receive(RTUFrameDecoder decoder) {
+        byte[] bytes = new byte[tap.bytesAvailable()];
+        assertEquals(bytes.length, tap.readBytes(bytes, bytes.length));
+        decoder.feed(bytes, 0, bytes.length);
+    }
+
+    static byte[] readRegisters(int unit, int reference, int count) {
+        return frame(unit, Modbus.READ_MULTIPLE_REGISTERS, reference >> 8, reference, count >> 8, count);
+    }
+
+    /**
+     * Builds a frame and appends its CRC
+     */
+    static byte[] frame(int... values) {
+        byte[] frame = new byte[values.length + 2];
+        for (int i = 0; i < values.length; i++) {
+            frame[i] = (byte)values[i];
+        }
+        int[] crc = ModbusUtil.calculateCRC(frame, 0, values.length);
+        frame[values.length] = (byte)crc[0];
+        frame[values.length + 1] = (byte)crc[1];
+        return frame;
+    }
+}
@@ -0,0 +1,47 @@
+package com.felhr.androidmodbus.msg;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class WriteMultipleRegistersRequestTest {
+
+    @Test
+    public void readsRegisters() throws Exception {
+        WriteMultipleRegistersRequest request = read(0x00, 0x10, 0x00, 0x02, 0x04, 0x12, 0x34, 0xAB, 0xCD);
+        assertEquals(16, request.getReference());
+        assertEquals(2, request.getWordCount());
+        assertEquals(0x1234, request.getRegisterValue(0));
+        assertEquals(0xABCD, request.getRegisterValue(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void shortByteCount() throws Exception {
+        // Three registers announced, data for two
+        read(0x00, 0x10, 0x00, 0x03, 0x04, 0x12, 0x34, 0xAB, 0xCD);
+    }
+
+    @Test(expected = IOException.class)
+    public void oddByteCount() throws Exception {
+        read(0x00, 0x10, 0x00, 0x02, 0x03, 0x12, 0x34, 0xAB);
+    }
+
+    @Test(expected = IOException.class)
+    public void longByteCount() throws Exception {
+        read(0x00, 0x10, 0x00, 0x01, 0x04, 0x12, 0x34, 0xAB, 0xCD);
+    }
+
+    private static WriteMultipleRegistersRequest read(int... values) throws IOException {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte)values[i];
+        }
+        WriteMultipleRegistersRequest request = new WriteMultipleRegistersRequest();
+        request.readData(new DataInputStream(new ByteArrayInputStream(bytes)));
+        return request;
+    }
+}
@@ -0,0 +1,93 @@
+package com.felhr.androidmodbus.net;
+
+import com.felhr.androidmodbus.Modbus;
+import com.felhr.androidmodbus.io.AbstractModbusTransport;
+import com.felhr.androidmodbus.msg.ExceptionResponse;
+import com.felhr.androidmodbus.msg.ModbusResponse;
+import com.felhr.androidmodbus.msg.ReadInputRegistersRequest;
+import com.felhr.androidmodbus.msg.ReadInputRegistersResponse;
+import com.felhr.androidmodbus.procimg.CachedRegisterRange;
+import com.felhr.androidmodbus.procimg.SimpleProcessImage;
+import com.felhr.androidmodbus.util.SerialParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AbstractModbusListenerTest {
+
+    private LoopbackSerialConnection master;
+    private LoopbackSerialConnection slave;
+    private ModbusSerialListener listener;
+    private final SimpleProcessImage image = new SimpleProcessImage();
+
+    @Before
+    public void setUp() throws Exception {
+        SerialParameters parameters = new SerialParameters();
+        parameters.setEncoding(Modbus.SERIAL_ENCODING_RTU);
+        master = new LoopbackSerialConnection(parameters);
+        slave = master.getPeer();
+        master.setTimeout(500);
+        slave.setTimeout(500);
+        master.open();
+        slave.open();
+        listener = new ModbusSerialListener(slave);
+        listener.addProcessImage(1, image);
+    }
+
+    @After
+    public void tearDown() {
+        master.close();
+        slave.close();
+    }
+
+    @Test
+    public void cachedRegistersAreServed() throws Exception {
+        new CachedRegisterRange(2, 60000, new CachedRegisterRange.Source() {
+            @Override
+            public void read(int[] values) {
+                values[0] = 11;
+                values[1] = 12;
+            }
+        }).addTo(image, 0);
+
+        ModbusResponse response = exchange(new ReadInputRegistersRequest(0, 2));
+        assertTrue(response instanceof ReadInputRegistersResponse);
+        assertEquals(12, ((ReadInputRegistersResponse)response).getRegisterValue(1));
+    }
+
+    @Test
+    public void failingRegisterIsSlaveDeviceFailure() throws Exception {
+        new CachedRegisterRange(2, 60000, new CachedRegisterRange.Source() {
+            @Override
+            public void read(int[] values) throws Exception {
+                throw new Exception("Sensor offline");
+            }
+        }).addTo(image, 0);
+
+        ModbusResponse response = exchange(new ReadInputRegistersRequest(0, 2));
+        assertTrue(response instanceof ExceptionResponse);
+        assertEquals(Modbus.SLAVE_DEVICE_FAILURE, ((ExceptionResponse)response).getExceptionCode());
+    }
+
+    @Test
+    public void unitIdOutsideTheRangeHasNoImage() {
+        listener.addProcessImage(0, image);
+        listener.addProcessImage(255, image);
+
+        assertSame(image, listener.getProcessImage(0));
+        assertSame(image, listener.getProcessImage(255));
+        assertNull(listener.getProcessImage(256));
+        assertNull(listener.getProcessImage(257));
+        assertNull(listener.getProcessImage(-1));
+    }
+
+    private ModbusResponse exchange(ReadInputRegistersRequest request) throws Exception {
+        request.setUnitID(1);
+        AbstractModbusTransport transport = master.getModbusTransport();
+        transport.writeRequest(request);
+        listener.handleRequest(slave.getModbusTransport(), listener);
+        return transport.readResponse();
+    }
+}
@@ -0,0 +1,148 @@
+package com.felhr.androidmodbus.procimg;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachedRegisterRangeTest {
+
+    private static final Executor THREADS = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            new Thread(command).start();
+        }
+    };
+
+    @Test
+    public void valuesAreCachedForTheTimeToLive() throws Exception {
+        Counter counter = new Counter();
+        CachedRegisterRange range = new CachedRegisterRange(2, 100, counter);
+
+        assertArrayEquals(new int[]{1, 1}, range.getValues());
+        assertEquals(1, range.getValue(1));
+        assertEquals(1, range.getComputationCount());
+
+        Thread.sleep(150);
+        assertEquals(2, range.getValue(0));
+        range.invalidate();
+        assertEquals(3, range.getValue(0));
+    }
+
+    @Test
+    public void concurrentReadsShareOneComputation() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final CachedRegisterRange range = new CachedRegisterRange(1, 60000, new CachedRegisterRange.Source() {
+            @Override
+            public void read(int[] values) throws Exception {
+                calls.incrementAndGet();
+                gate.await();
+                values[0] = 7;
+            }
+        });
+        final AtomicInteger sum = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sum.addAndGet(range.getValue(0));
+                }
+            });
+            readers[i].start();
+        }
+        Thread.sleep(100);
+        gate.countDown();
+        for (Thread reader : readers) {
+            reader.join(2000);
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(28, sum.get());
+    }
+
+    @Test
+    public void requestsAreServedWhileRefreshing() throws Exception {
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        CachedRegisterRange range = new CachedRegisterRange(1, 300, new CachedRegisterRange.Source() {
+            @Override
+            public void read(int[] values) throws Exception {
+                values[0] = calls.incrementAndGet();
+                if (values[0] > 1) {
+                    refreshing.countDown();
+                    gate.await();
+                }
+            }
+        });
+        range.setRefreshAhead(250, THREADS);
+        SimpleProcessImage image = new SimpleProcessImage();
+        range.addTo(image, 0);
+
+        assertEquals(1, image.getInputRegister(0).getValue());
+        Thread.sleep(100);
+        // Close to expiry, the read starts a refresh and is served the cached value
+        assertEquals(1, image.getInputRegister(0).getValue());
+        assertTrue(refreshing.await(2, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, image.getInputRegister(0).getValue());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, range.getComputationCount());
+
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (range.getComputationCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, image.getInputRegister(0).getValue());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void failureKeepsThePreviousValues() throws Exception {
+        Counter counter = new Counter();
+        CachedRegisterRange range = new CachedRegisterRange(1, 60000, counter);
+        assertEquals(1, range.getValue(0));
+
+        counter.failure = new Exception("Sensor offline");
+        range.invalidate();
+        assertEquals(1, range.getValue(0));
+        assertSame(counter.failure, range.getLastError());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failureWithoutValues() {
+        Counter counter = new Counter();
+        counter.failure = new Exception("Sensor offline");
+        new CachedRegisterRange(1, 60000, counter).getValue(0);
+    }
+
+    @Test(expected = IllegalAddressException.class)
+    public void registerOutsideTheRange() {
+        new CachedRegisterRange(2, 60000, new Counter()).getValue(2);
+    }
+
+    private static class Counter implements CachedRegisterRange.Source {
+        private int count;
+        volatile Exception failure;
+
+        @Override
+        public void read(int[] values) throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            count++;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = count;
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.felhr.androidmodbus.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the word based storage against the packed byte layout of the
+ * protocol, bit i in bit i % 8 of byte i / 8
+ */
+public class BitVectorTest {
+
+    private static final int[] SIZES = {1, 7, 8, 63, 64, 65, 2000};
+
+    private final Random random = new Random(45);
+
+    @Test
+    public void bytesRoundTrip() {
+        for (int size : SIZES) {
+            byte[] data = randomBytes((size + 7) / 8);
+            BitVector bv = BitVector.createBitVector(data, size);
+            assertEquals(data.length, bv.byteSize());
+            assertArrayEquals("size " + size, data, bv.getBytes());
+            for (int i = 0; i < size; i++) {
+                assertEquals("size " + size + " bit " + i, bit(data, i), bv.getBit(i));
+            }
+
+            byte[] dest = new byte[data.length + 5];
+            assertEquals(data.length, bv.getBytes(dest, 3));
+            for (int k = 0; k < data.length; k++) {
+                assertEquals(data[k], dest[k + 3]);
+            }
+            assertEquals(0, dest[0]);
+            assertEquals(0, dest[dest.length - 1]);
+        }
+    }
+
+    @Test
+    public void setBitMatchesByteLayout() {
+        for (int size : SIZES) {
+            byte[] expected = new byte[(size + 7) / 8];
+            BitVector bv = new BitVector(size);
+            for (int n = 0; n < size * 2; n++) {
+                int i = random.nextInt(size);
+                boolean value = random.nextBoolean();
+                bv.setBit(i, value);
+                setBit(expected, i, value);
+            }
+            assertArrayEquals("size " + size, expected, bv.getBytes());
+        }
+    }
+
+    @Test
+    public void setBytesWithOffsetKeepsTheRest() {
+        for (int size : SIZES) {
+            int bytes = (size + 7) / 8;
+            byte[] expected = randomBytes(bytes);
+            BitVector bv = BitVector.createBitVector(expected.clone(), size);
+            int length = random.nextInt(bytes + 1);
+            byte[] src = randomBytes(length + 4);
+            bv.setBytes(src, 4, length);
+            System.arraycopy(src, 4, expected, 0, length);
+            assertArrayEquals("size " + size, expected, bv.getBytes());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void setBytesBeyondStorage() {
+        new BitVector(9).setBytes(new byte[3], 0, 3);
+    }
+
+    @Test
+    public void msbAccessMatchesTheOldTranslation() {
+        for (int size : new int[]{8, 64, 2000}) {
+            BitVector bv = new BitVector(size);
+            bv.toggleAccess(true);
+            assertTrue(bv.isMSBAccess());
+            byte[] expected = new byte[size / 8];
+            for (int n = 0; n < size; n++) {
+                int i = random.nextInt(size);
+                boolean value = random.nextBoolean();
+                bv.setBit(i, value);
+                setBit(expected, msbIndex(i), value);
+                assertEquals(value, bv.getBit(i));
+            }
+            assertArrayEquals("size " + size, expected, bv.getBytes());
+        }
+    }
+
+    @Test
+    public void setRangeAcrossWords() {
+        for (int n = 0; n < 500; n++) {
+            int size = 1 + random.nextInt(300);
+            boolean[] expected = new boolean[size];
+            BitVector bv = new BitVector(size);
+            fill(bv, expected);
+            int from = random.nextInt(size + 1);
+            int to = from + random.nextInt(size - from + 1);
+            boolean value = random.nextBoolean();
+            bv.setRange(from, to, value);
+            for (int i = from; i < to; i++) {
+                expected[i] = value;
+            }
+            assertBits(expected, bv);
+        }
+    }
+
+    @Test
+    public void copyFromOverlappingForward() {
+        checkOverlappingCopies(true);
+    }
+
+    @Test
+    public void copyFromOverlappingBackward() {
+        checkOverlappingCopies(false);
+    }
+
+    private void checkOverlappingCopies(boolean forward) {
+        for (int n = 0; n < 1000; n++) {
+            int size = 2 + random.nextInt(400);
+            boolean[] expected = new boolean[size];
+            BitVector bv = new BitVector(size);
+            fill(bv, expected);
+            int count = 1 + random.nextInt(size - 1);
+            int low = random.nextInt(size - count + 1);
+            int high = low + random.nextInt(size - count - low + 1);
+            int srcPos = forward ? low : high;
+            int destPos = forward ? high : low;
+            bv.copyFrom(bv, srcPos, destPos, count);
+            System.arraycopy(expected, srcPos, expected, destPos, count);
+            assertBits(expected, bv);
+        }
+    }
+
+    @Test
+    public void copyFromAnotherVector() {
+        for (int n = 0; n < 500; n++) {
+            int size = 1 + random.nextInt(300);
+            boolean[] source = new boolean[size];
+            boolean[] expected = new boolean[size];
+            BitVector src = new BitVector(size);
+            BitVector dest = new BitVector(size);
+            fill(src, source);
+            fill(dest, expected);
+            int count = random.nextInt(size + 1);
+            int srcPos = random.nextInt(size - count + 1);
+            int destPos = random.nextInt(size - count + 1);
+            dest.copyFrom(src, srcPos, destPos, count);
+            System.arraycopy(source, srcPos, expected, destPos, count);
+            assertBits(expected, dest);
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void copyFromOutOfRange() {
+        new BitVector(10).copyFrom(new BitVector(10), 5, 0, 6);
+    }
+
+    @Test
+    public void cardinalityIgnoresBitsBeyondSize() {
+        for (int size : SIZES) {
+            byte[] data = new byte[(size + 7) / 8];
+            java.util.Arrays.fill(data, (byte)0xFF);
+            BitVector bv = BitVector.createBitVector(data, size);
+            assertEquals("size " + size, size, bv.cardinality());
+            bv.setBit(size - 1, false);
+            assertEquals("size " + size, size - 1, bv.cardinality());
+        }
+    }
+
+    @Test
+    public void diffIsMaskedToSize() {
+        for (int size : SIZES) {
+            byte[] ones = new byte[(size + 7) / 8];
+            java.util.Arrays.fill(ones, (byte)0xFF);
+            BitVector a = BitVector.createBitVector(ones, size);
+            BitVector b = BitVector.createBitVector(ones, size);
+            BitVector diff = a.diff(b);
+            assertEquals(0, diff.cardinality());
+            assertEquals(-1, diff.nextSetBit(0));
+            assertArrayEquals(new byte[ones.length], diff.getBytes());
+
+            b.setBit(size / 2, false);
+            diff = a.diff(b);
+            assertEquals(1, diff.cardinality());
+            assertEquals(size / 2, diff.nextSetBit(0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diffOfDifferentSizes() {
+        new BitVector(8).diff(new BitVector(9));
+    }
+
+    @Test
+    public void nextSetBitVisitsEverySetBit() {
+        for (int size : SIZES) {
+            boolean[] expected = new boolean[size];
+            BitVector bv = new BitVector(size);
+            fill(bv, expected);
+            int i = bv.nextSetBit(0);
+            for (int k = 0; k < size; k++) {
+                if (expected[k]) {
+                    assertEquals("size " + size, k, i);
+                    i = bv.nextSetBit(i + 1);
+                }
+            }
+            assertEquals(-1, i);
+            assertEquals(-1, bv.nextSetBit(size));
+        }
+    }
+
+    @Test
+    public void nextSetBitStopsAtSize() {
+        byte[] data = {0, (byte)0x80};
+        assertEquals(-1, BitVector.createBitVector(data, 12).nextSetBit(0));
+        assertEquals(15, BitVector.createBitVector(data, 16).nextSetBit(3));
+    }
+
+    private void fill(BitVector bv, boolean[] bits) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = random.nextBoolean();
+            bv.setBit(i, bits[i]);
+        }
+    }
+
+    private static void assertBits(boolean[] expected, BitVector bv) {
+        byte[] bytes = bv.getBytes();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("bit " + i, expected[i], bit(bytes, i));
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static boolean bit(byte[] data, int index) {
+        return (data[index / 8] & (1 << (index % 8))) != 0;
+    }
+
+    private static void setBit(byte[] data, int index, boolean value) {
+        if (value) {
+            data[index / 8] |= 1 << (index % 8);
+        }
+        else {
+            data[index / 8] &= ~(1 << (index % 8));
+        }
+    }
+
+    /**
+     * Index translation of MSB access as the byte array implementation did it
+     */
+    private static int msbIndex(int index) {
+        int[] straight = {7, 5, 3, 1};
+        int[] odd = {-1, -3, -5, -7};
+        return index + ((index / 4) % 2 != 0 ? odd[index % 4] : straight[index % 4]);
+    }
+}
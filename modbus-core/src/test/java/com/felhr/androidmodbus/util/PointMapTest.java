@@ -0,0 +1,163 @@
+package com.felhr.androidmodbus.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PointMapTest {
+
+    private static final int[] ORDERS = {PointMap.BIG_ENDIAN, PointMap.WORD_SWAP, PointMap.BYTE_SWAP, PointMap.LITTLE_ENDIAN};
+
+    @Test
+    public void int32LayoutInEveryOrder() {
+        assertArrayEquals(bytes(0x11, 0x22, 0x33, 0x44), encodeRaw(PointMap.UINT32, PointMap.BIG_ENDIAN, 0x11223344L, 2));
+        assertArrayEquals(bytes(0x33, 0x44, 0x11, 0x22), encodeRaw(PointMap.UINT32, PointMap.WORD_SWAP, 0x11223344L, 2));
+        assertArrayEquals(bytes(0x22, 0x11, 0x44, 0x33), encodeRaw(PointMap.UINT32, PointMap.BYTE_SWAP, 0x11223344L, 2));
+        assertArrayEquals(bytes(0x44, 0x33, 0x22, 0x11), encodeRaw(PointMap.UINT32, PointMap.LITTLE_ENDIAN, 0x11223344L, 2));
+    }
+
+    @Test
+    public void int64LayoutInEveryOrder() {
+        // Values pass through a double, keep them within 53 bits
+        long value = 0x0012345678ABCDEFL;
+        assertArrayEquals(bytes(0x00, 0x12, 0x34, 0x56, 0x78, 0xAB, 0xCD, 0xEF), encodeRaw(PointMap.INT64, PointMap.BIG_ENDIAN, value, 4));
+        assertArrayEquals(bytes(0xCD, 0xEF, 0x78, 0xAB, 0x34, 0x56, 0x00, 0x12), encodeRaw(PointMap.INT64, PointMap.WORD_SWAP, value, 4));
+        assertArrayEquals(bytes(0x12, 0x00, 0x56, 0x34, 0xAB, 0x78, 0xEF, 0xCD), encodeRaw(PointMap.INT64, PointMap.BYTE_SWAP, value, 4));
+        assertArrayEquals(bytes(0xEF, 0xCD, 0xAB, 0x78, 0x56, 0x34, 0x12, 0x00), encodeRaw(PointMap.INT64, PointMap.LITTLE_ENDIAN, value, 4));
+    }
+
+    @Test
+    public void int16LayoutInEveryOrder() {
+        assertArrayEquals(bytes(0x12, 0x34), encodeRaw(PointMap.UINT16, PointMap.BIG_ENDIAN, 0x1234, 1));
+        assertArrayEquals(bytes(0x12, 0x34), encodeRaw(PointMap.UINT16, PointMap.WORD_SWAP, 0x1234, 1));
+        assertArrayEquals(bytes(0x34, 0x12), encodeRaw(PointMap.UINT16, PointMap.BYTE_SWAP, 0x1234, 1));
+        assertArrayEquals(bytes(0x34, 0x12), encodeRaw(PointMap.UINT16, PointMap.LITTLE_ENDIAN, 0x1234, 1));
+    }
+
+    @Test
+    public void roundTripEveryTypeAndOrder() {
+        int[] types = {PointMap.INT16, PointMap.UINT16, PointMap.INT32, PointMap.UINT32, PointMap.FLOAT32, PointMap.INT64, PointMap.FLOAT64};
+        double[][] samples = {
+                {0, 1, -1, 12345, -32768, 32767},
+                {0, 1, 40000, 65535},
+                {0, -1, 100000, -2147483648.0, 2147483647},
+                {0, 1, 3000000000.0, 4294967295.0},
+                {0, -1.5, 3.25, 1.0e10, -2.5e-3},
+                {0, -1, 1L << 40, -(1L << 52)},
+                {0, -1.5, Math.PI, 1.0e300, -4.9e-324}
+        };
+        for (int t = 0; t < types.length; t++) {
+            for (int order : ORDERS) {
+                for (double sample : samples[t]) {
+                    PointMap map = new PointMap();
+                    map.add(1, types[t], order, 1);
+                    byte[] data = new byte[20];
+                    map.encode(new double[]{sample}, data, 0);
+                    double[] decoded = new double[1];
+                    map.decode(data, 0, decoded);
+                    double expected = types[t] == PointMap.FLOAT32 ? (float)sample : sample;
+                    assertEquals("type " + types[t] + " order " + order, expected, decoded[0], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void signExtension() {
+        for (int order : ORDERS) {
+            assertEquals(-2, decodeRaw(PointMap.INT16, order, encodeRaw(PointMap.UINT16, order, 0xFFFE, 1)));
+            assertEquals(0xFFFE, decodeRaw(PointMap.UINT16, order, encodeRaw(PointMap.UINT16, order, 0xFFFE, 1)));
+            assertEquals(-2, decodeRaw(PointMap.INT32, order, encodeRaw(PointMap.UINT32, order, 0xFFFFFFFEL, 2)));
+            assertEquals(0xFFFFFFFEL, decodeRaw(PointMap.UINT32, order, encodeRaw(PointMap.UINT32, order, 0xFFFFFFFEL, 2)));
+        }
+    }
+
+    @Test
+    public void scaleAndOffsetsWithinTheBlock() {
+        PointMap map = new PointMap();
+        int temperature = map.add(0, PointMap.INT16, PointMap.BIG_ENDIAN, 0.1);
+        int energy = map.add(2, PointMap.FLOAT32, PointMap.WORD_SWAP, 1);
+        int counter = map.add(4, PointMap.UINT32, PointMap.LITTLE_ENDIAN, 10);
+        assertEquals(6, map.getRegisterCount());
+        byte[] data = new byte[3 + 12];
+        double[] values = new double[3];
+        values[temperature] = -12.3;
+        values[energy] = 1234.5;
+        values[counter] = 4560;
+        map.encode(values, data, 3);
+        assertEquals((byte)0xFF, data[3]);
+        assertEquals((byte)0x85, data[4]);
+        double[] decoded = new double[3];
+        map.decode(data, 3, decoded);
+        assertEquals(-12.3, decoded[temperature], 1e-9);
+        assertEquals(1234.5, decoded[energy], 0);
+        assertEquals(4560, decoded[counter], 0);
+    }
+
+    @Test
+    public void stringsInBothByteOrders() {
+        PointMap map = new PointMap();
+        int plain = map.addString(0, 3, PointMap.BIG_ENDIAN);
+        int swapped = map.addString(3, 3, PointMap.BYTE_SWAP);
+        byte[] data = new byte[12];
+        map.encodeString(plain, "ABCDE", data, 0);
+        map.encodeString(swapped, "ABCDE", data, 0);
+        assertArrayEquals(bytes('A', 'B', 'C', 'D', 'E', 0, 'B', 'A', 'D', 'C', 0, 'E'), data);
+        assertEquals("ABCDE", map.decodeString(data, 0, plain));
+        assertEquals("ABCDE", map.decodeString(data, 0, swapped));
+
+        double[] values = new double[2];
+        map.decode(data, 0, values);
+        assertTrue(Double.isNaN(values[plain]));
+    }
+
+    @Test
+    public void stringsAreTruncatedAndPadded() {
+        PointMap map = new PointMap();
+        int point = map.addString(0, 2, PointMap.BIG_ENDIAN);
+        byte[] data = bytes('x', 'x', 'x', 'x');
+        map.encodeString(point, "ABCDEF", data, 0);
+        assertEquals("ABCD", map.decodeString(data, 0, point));
+        map.encodeString(point, "A\u20ac", data, 0);
+        assertArrayEquals(bytes('A', '?', 0, 0), data);
+        assertEquals("A?", map.decodeString(data, 0, point));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shortBlockIsRejected() {
+        PointMap map = new PointMap();
+        map.add(1, PointMap.FLOAT32, PointMap.BIG_ENDIAN, 1);
+        map.decode(new byte[5], 0, new double[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void numericPointIsNotAString() {
+        PointMap map = new PointMap();
+        int point = map.add(0, PointMap.INT16, PointMap.BIG_ENDIAN, 1);
+        map.decodeString(new byte[2], 0, point);
+    }
+
+    private static byte[] encodeRaw(int type, int order, long raw, int registers) {
+        PointMap map = new PointMap();
+        map.add(0, type, order, 1);
+        byte[] data = new byte[registers * 2];
+        map.encode(new double[]{raw}, data, 0);
+        return data;
+    }
+
+    private static long decodeRaw(int type, int order, byte[] data) {
+        PointMap map = new PointMap();
+        map.add(0, type, order, 1);
+        long[] values = new long[1];
+        map.decodeRaw(data, 0, values);
+        return values[0];
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte)values[i];
+        }
+        return bytes;
+    }
+}